@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.benchmark;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected by the usual JMH command line, always with the
+ * gc profiler so that allocations per operation are reported along with the
+ * throughput.
+ */
+public final class BenchmarkMain {
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, IOException,
+            RunnerException {
+        final CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+        if (cmd.shouldList()) {
+            new Runner(cmd).list();
+            return;
+        }
+        new Runner(new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class).build()).run();
+    }
+}
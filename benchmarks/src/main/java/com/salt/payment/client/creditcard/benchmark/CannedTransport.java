@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.benchmark;
+
+import java.net.URL;
+
+import com.salt.payment.client.creditcard.api.HttpTransport;
+import com.salt.payment.client.creditcard.api.RequestEncoder;
+import com.salt.payment.client.creditcard.api.ResponseDecoder;
+import com.salt.payment.client.creditcard.api.ResponseFields;
+
+/**
+ * A transport that sends nothing: the request is copied out as a real
+ * transport would write it, and the same response bytes are decoded for
+ * every request. What is left to measure is the work of the service itself.
+ * <p>
+ * This class is not thread-safe: each benchmark thread needs its own.
+ */
+final class CannedTransport implements HttpTransport {
+    private final byte[] response;
+    private byte[] sink = new byte[1024];
+    private int lastRequestSize;
+
+    CannedTransport(String response) {
+        this.response = Payloads.bytes(response);
+    }
+
+    public ResponseFields post(URL url, RequestEncoder request, int connectTimeoutMs,
+            int readTimeoutMs) {
+        if (request.size() > this.sink.length) {
+            this.sink = new byte[request.size()];
+        }
+        request.copyTo(this.sink, 0);
+        this.lastRequestSize = request.size();
+        final ResponseDecoder decoder = new ResponseDecoder();
+        decoder.write(this.response, 0, this.response.length);
+        return decoder.finish();
+    }
+
+    /**
+     * @return the size of the last request sent
+     */
+    int getLastRequestSize() {
+        return this.lastRequestSize;
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.benchmark;
+
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+import com.salt.payment.client.creditcard.api.AdvancedRiskProfile;
+import com.salt.payment.client.creditcard.api.AvsRequest;
+import com.salt.payment.client.creditcard.api.CreditCard;
+import com.salt.payment.client.creditcard.api.Cvv2Request;
+import com.salt.payment.client.creditcard.api.PeriodicPurchaseInfo;
+import com.salt.payment.client.creditcard.api.VerificationRequest;
+
+/**
+ * The requests and gateway responses the benchmarks work on, shaped after
+ * what the gateway actually sends and receives.
+ */
+final class Payloads {
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** An approved purchase with AVS, CVV2 and fraud results. */
+    static final String APPROVED_PURCHASE = "APPROVED=true\n"
+            + "TRANSACTION_ID=10078653\n"
+            + "ORDER_ID=order-2013-000123456\n"
+            + "PROCESSED_DATE=131018\n"
+            + "PROCESSED_TIME=142233\n"
+            + "AUTHORIZED_AMOUNT=12599\n"
+            + "APPROVAL_CODE=T7K9QD\n"
+            + "TRACE_NUMBER=415\n"
+            + "REFERENCE_NUMBER=000129645832\n"
+            + "AVS_RESPONSE_AVAILABLE=true\n"
+            + "AVS_RESPONSE_CODE=Y\n"
+            + "STREET_MATCHED=true\n"
+            + "ZIP_MATCHED=true\n"
+            + "ZIP_TYPE=zip5\n"
+            + "CVV2_RESPONSE_AVAILABLE=true\n"
+            + "CVV2_RESPONSE_CODE=M\n"
+            + "CVV2_RESPONSE_MESSAGE=Match\n"
+            + "CARD_NUMBER=************4242\n"
+            + "STORAGE_TOKEN_EXPIRY=1512\n"
+            + "RESPONSE_HASH=5f2d1e0c8f3b4a6e9d7c1b2a3f4e5d6c\n"
+            + "CARD_BRAND=1\n"
+            + "FRAUD_SCORE=12\n"
+            + "FRAUD_DECISION=accept\n"
+            + "FRAUD_SESSION_ID=3c1f9a7e-52d4-4b8e-a0f1-9d2c7b6e4a31\n";
+
+    /** A recurring purchase, created and approved. */
+    static final String APPROVED_RECURRING = "APPROVED=true\n"
+            + "TRANSACTION_ID=10078654\n"
+            + "ORDER_ID=recurring-2013-000042\n"
+            + "PROCESSED_DATE=131018\n"
+            + "PROCESSED_TIME=142301\n"
+            + "AUTHORIZED_AMOUNT=4999\n"
+            + "APPROVAL_CODE=R2M8XA\n"
+            + "TRACE_NUMBER=416\n"
+            + "REFERENCE_NUMBER=000129645833\n"
+            + "AVS_RESPONSE_AVAILABLE=false\n"
+            + "CVV2_RESPONSE_AVAILABLE=false\n"
+            + "PERIODIC_TRANSACTION_ID=88213\n"
+            + "PERIODIC_TRANSACTION_STATE=1\n"
+            + "PERIODIC_NEXT_PAYMENT_DATE=2013-11-18\n"
+            + "PERIODIC_LAST_PAYMENT_ID=10078654\n"
+            + "CARD_NUMBER=************1881\n"
+            + "STORAGE_TOKEN_EXPIRY=1611\n"
+            + "CARD_BRAND=2\n";
+
+    /** A declined purchase. */
+    static final String DECLINED_PURCHASE = "APPROVED=false\n"
+            + "TRANSACTION_ID=10078655\n"
+            + "ORDER_ID=order-2013-000123457\n"
+            + "PROCESSED_DATE=131018\n"
+            + "PROCESSED_TIME=142355\n"
+            + "ERROR_CODE=51\n"
+            + "ERROR_MESSAGE=Insufficient funds\n"
+            + "DEBUG_MESSAGE=issuer declined the authorization\n"
+            + "AVS_RESPONSE_AVAILABLE=false\n"
+            + "CVV2_RESPONSE_AVAILABLE=false\n"
+            + "STORAGE_TOKEN_EXPIRY=1512\n";
+
+    /** A storage query returning the card and the customer profile. */
+    static final String STORAGE_QUERY = "APPROVED=true\n"
+            + "TRANSACTION_ID=10078656\n"
+            + "ORDER_ID=\n"
+            + "PROCESSED_DATE=131018\n"
+            + "PROCESSED_TIME=142412\n"
+            + "STORAGE_TOKEN_ID=st-7d0c3e52a9b14f08\n"
+            + "PAYMENT_PROFILE_AVAILABLE=true\n"
+            + "CREDIT_CARD_AVAILABLE=true\n"
+            + "CREDIT_CARD_NUMBER=************4242\n"
+            + "EXPIRY_DATE=1512\n"
+            + "CUSTOMER_PROFILE_AVAILABLE=true\n"
+            + "CUSTOMER_PROFILE_LEGAL_NAME=Northwind Traders Inc.\n"
+            + "CUSTOMER_PROFILE_TRADE_NAME=Northwind\n"
+            + "CUSTOMER_PROFILE_WEBSITE=www.northwind.example\n"
+            + "CUSTOMER_PROFILE_FIRST_NAME=Jordan\n"
+            + "CUSTOMER_PROFILE_LAST_NAME=Rivera\n"
+            + "CUSTOMER_PROFILE_PHONE_NUMBER=416-555-0134\n"
+            + "CUSTOMER_PROFILE_FAX_NUMBER=416-555-0135\n"
+            + "CUSTOMER_PROFILE_ADDRESS1=1200 Bay Street\n"
+            + "CUSTOMER_PROFILE_ADDRESS2=Suite 410\n"
+            + "CUSTOMER_PROFILE_CITY=Toronto\n"
+            + "CUSTOMER_PROFILE_PROVINCE=ON\n"
+            + "CUSTOMER_PROFILE_POSTAL=M5R2A5\n"
+            + "CUSTOMER_PROFILE_COUNTRY=CA\n";
+
+    /** An approved debit purchase. */
+    static final String APPROVED_DEBIT = "APPROVED=true\n"
+            + "TRANSACTION_ID=10078657\n"
+            + "ORDER_ID=debit-2013-000981\n"
+            + "PROCESSED_DATE=131018\n"
+            + "PROCESSED_TIME=142530\n"
+            + "AUTHORIZED_AMOUNT=2500\n"
+            + "APPROVAL_CODE=D4H1ZP\n"
+            + "TRACE_NUMBER=417\n"
+            + "REFERENCE_NUMBER=000129645834\n";
+
+    /** The ; separated data of a TransactionResponse. */
+    static final String TRANSACTION_RESPONSE = "cardType=VISA;txnId=10078653;txnAmount=125.99;"
+            + "txnType=purchase;txnDate=2013-10-18 14:22:33;respCode=0;isoCode=00;"
+            + "authCode=T7K9QD;message=APPROVED;isComplete=true;isTimeout=false";
+
+    private Payloads() {
+    }
+
+    static byte[] bytes(String response) {
+        return response.getBytes(UTF_8);
+    }
+
+    static CreditCard creditCard() {
+        return new CreditCard(4242424242424242L, (short) 1512, "123", "1200 Bay Street", "M5R2A5");
+    }
+
+    static VerificationRequest verification() {
+        return new VerificationRequest(AvsRequest.VERIFY_STREET_AND_ZIP, Cvv2Request.CVV2_PRESENT);
+    }
+
+    /** A verification with every field of the advanced risk profile set. */
+    static VerificationRequest riskVerification() {
+        final AdvancedRiskProfile profile =
+                new AdvancedRiskProfile.Builder("1200 Bay Street, Suite 410", "Toronto", "ON",
+                        "M5R2A5", "CA", "203.0.113.42").setEmailDomain("northwind.example")
+                        .setUsernameHash("9f86d081884c7d659a2feaa0c55ad015")
+                        .setPasswordHash("5e884898da28047151d0e56f8dc62927")
+                        .setEmailHash("a591a6d40bf420404a011733cfb7b190")
+                        .setPhone("416-555-0134").setCustomerName("Jordan Rivera")
+                        .setGender(AdvancedRiskProfile.Gender.F)
+                        .setDriverLicense("R4821-90347-15619")
+                        .setUniqueId("cust-000042").setAnid("anid-77c1")
+                        .setFraudSessionId("3c1f9a7e-52d4-4b8e-a0f1-9d2c7b6e4a31")
+                        .setShippingAddress("88 Queen Street West").setShippingCity("Toronto")
+                        .setShippingProvince("ON").setShippingPostal("M5H2N2")
+                        .setShippingCountry("CA")
+                        .setUserAgent("Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.36 "
+                                + "(KHTML, like Gecko) Chrome/30.0.1599.101 Safari/537.36")
+                        .setAcceptedLanguages("en-CA,en;q=0.8,fr-CA;q=0.6")
+                        .setProxiedIP("198.51.100.7").setBIN("424242")
+                        .setIssuerName("First National Bank").setIssuerPhone("1-800-555-0199")
+                        .setBillingPhone("416-555-0134").setShippingPhone("416-555-0188")
+                        .setShippingName("Jordan Rivera")
+                        .setshippingType(AdvancedRiskProfile.ShippingType.NEXT_DAY)
+                        .setTransactionSource(AdvancedRiskProfile.TransactionSource.WSC).build();
+        return new VerificationRequest(AvsRequest.VERIFY_STREET_AND_ZIP, Cvv2Request.CVV2_PRESENT,
+                profile);
+    }
+
+    static PeriodicPurchaseInfo periodicPurchase() {
+        final PeriodicPurchaseInfo info = new PeriodicPurchaseInfo();
+        info.setOrderId("recurring-2013-000042");
+        info.setCustomerId("cust-000042");
+        info.setPerPaymentAmount(4999L);
+        info.setSchedule(new PeriodicPurchaseInfo.Schedule(
+                PeriodicPurchaseInfo.ScheduleType.MONTH, (short) 1));
+        info.setState(PeriodicPurchaseInfo.State.NEW);
+        info.setStartDate(date(2013, Calendar.OCTOBER, 18));
+        info.setEndDate(date(2014, Calendar.OCTOBER, 18));
+        return info;
+    }
+
+    private static Date date(int year, int month, int day) {
+        return new GregorianCalendar(year, month, day).getTime();
+    }
+}
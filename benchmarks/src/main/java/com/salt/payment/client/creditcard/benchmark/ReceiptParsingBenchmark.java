@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.salt.payment.client.creditcard.api.CreditCardReceipt;
+import com.salt.payment.client.creditcard.api.DebitCardReceipt;
+import com.salt.payment.client.creditcard.api.ResponseDecoder;
+import com.salt.payment.client.creditcard.api.StorageReceipt;
+
+/**
+ * Measures building receipts from gateway responses, both from the response
+ * String, as callers of the receipt constructors do, and from the response
+ * bytes, as the service does with what the transport receives.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReceiptParsingBenchmark {
+    private final byte[] approvedPurchase = Payloads.bytes(Payloads.APPROVED_PURCHASE);
+    private final byte[] approvedRecurring = Payloads.bytes(Payloads.APPROVED_RECURRING);
+    private final byte[] storageQuery = Payloads.bytes(Payloads.STORAGE_QUERY);
+    private final byte[] approvedDebit = Payloads.bytes(Payloads.APPROVED_DEBIT);
+
+    @Benchmark
+    public CreditCardReceipt approvedPurchase() {
+        return new CreditCardReceipt(Payloads.APPROVED_PURCHASE);
+    }
+
+    @Benchmark
+    public CreditCardReceipt approvedRecurring() {
+        return new CreditCardReceipt(Payloads.APPROVED_RECURRING);
+    }
+
+    @Benchmark
+    public CreditCardReceipt declinedPurchase() {
+        return new CreditCardReceipt(Payloads.DECLINED_PURCHASE);
+    }
+
+    @Benchmark
+    public StorageReceipt storageQuery() {
+        return new StorageReceipt(Payloads.STORAGE_QUERY);
+    }
+
+    @Benchmark
+    public DebitCardReceipt approvedDebit() {
+        return new DebitCardReceipt(Payloads.APPROVED_DEBIT);
+    }
+
+    @Benchmark
+    public CreditCardReceipt approvedPurchaseBytes() {
+        return new CreditCardReceipt(decode(this.approvedPurchase).finish());
+    }
+
+    @Benchmark
+    public CreditCardReceipt approvedRecurringBytes() {
+        return new CreditCardReceipt(decode(this.approvedRecurring).finish());
+    }
+
+    @Benchmark
+    public StorageReceipt storageQueryBytes() {
+        return new StorageReceipt(decode(this.storageQuery).finish());
+    }
+
+    @Benchmark
+    public DebitCardReceipt approvedDebitBytes() {
+        return new DebitCardReceipt(decode(this.approvedDebit).finish());
+    }
+
+    private static ResponseDecoder decode(byte[] response) {
+        final ResponseDecoder decoder = new ResponseDecoder();
+        decoder.write(response, 0, response.length);
+        return decoder;
+    }
+}
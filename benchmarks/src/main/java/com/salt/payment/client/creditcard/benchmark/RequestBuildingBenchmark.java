@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.salt.payment.client.creditcard.api.CreditCard;
+import com.salt.payment.client.creditcard.api.HttpsCreditCardService;
+import com.salt.payment.client.creditcard.api.Merchant;
+import com.salt.payment.client.creditcard.api.PeriodicPurchaseInfo;
+import com.salt.payment.client.creditcard.api.VerificationRequest;
+
+/**
+ * Measures the client side of a call, from the arguments to the receipt:
+ * validating and encoding the request, then decoding a canned response into
+ * the receipt. No i/o is done, see {@link CannedTransport}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestBuildingBenchmark {
+    private static final String URL = "https://gateway.example.com/gateway/creditcard/processor.do";
+
+    private CannedTransport purchaseTransport;
+    private CannedTransport recurringTransport;
+    private HttpsCreditCardService purchaseService;
+    private HttpsCreditCardService recurringService;
+    private CreditCard creditCard;
+    private VerificationRequest verification;
+    private VerificationRequest riskVerification;
+    private PeriodicPurchaseInfo periodicPurchase;
+
+    @Setup
+    public void setUp() {
+        final Merchant merchant = new Merchant(10007, "Q8Xk3mV2pL9sR4tN7wY1", "store-0042");
+        this.purchaseTransport = new CannedTransport(Payloads.APPROVED_PURCHASE);
+        this.recurringTransport = new CannedTransport(Payloads.APPROVED_RECURRING);
+        this.purchaseService =
+                new HttpsCreditCardService(merchant, URL, true, this.purchaseTransport);
+        this.recurringService =
+                new HttpsCreditCardService(merchant, URL, true, this.recurringTransport);
+        this.creditCard = Payloads.creditCard();
+        this.verification = Payloads.verification();
+        this.riskVerification = Payloads.riskVerification();
+        this.periodicPurchase = Payloads.periodicPurchase();
+    }
+
+    @Benchmark
+    public void singlePurchase(Blackhole bh) {
+        bh.consume(this.purchaseService.singlePurchase("order-2013-000123456", this.creditCard,
+                12599L, this.verification));
+        bh.consume(this.purchaseTransport.getLastRequestSize());
+    }
+
+    @Benchmark
+    public void recurringPurchase(Blackhole bh) {
+        bh.consume(this.recurringService.recurringPurchase(this.periodicPurchase, this.creditCard,
+                null, this.verification));
+        bh.consume(this.recurringTransport.getLastRequestSize());
+    }
+
+    @Benchmark
+    public void verifyWithRiskProfile(Blackhole bh) {
+        bh.consume(this.purchaseService.verifyCreditCard(this.creditCard, this.riskVerification));
+        bh.consume(this.purchaseTransport.getLastRequestSize());
+    }
+}
@@ -9,17 +9,17 @@
  ******************************************************************************/
 package com.salt.payment.client.creditcard.api;
 
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-
-import javax.net.ssl.HttpsURLConnection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 
 import static com.salt.payment.client.creditcard.api.CreditCardService.*;
 
@@ -42,9 +42,27 @@ public abstract class AbstractCreditCardService {
     /** The format to use for sending dates (ISO 8601 format). */
     public static final String DATE_FORMAT = "yyyy-MM-dd";
 
+    /**
+     * Whether each subclass overrides beforeSendingRequest and
+     * afterReceivingResponse, which costs rendering every request or response
+     * as a String.
+     */
+    private static final ConcurrentMap<Class<?>, boolean[]> HOOK_OVERRIDES =
+            new ConcurrentHashMap<Class<?>, boolean[]>();
+
     /** Helper class used in receiving the server response */
     protected static final class SendResult {
+        /**
+         * The response, or null if none.
+         * 
+         * @deprecated read {@link #fields}: the response is only rendered as
+         *             a String for the results of
+         *             {@link AbstractCreditCardService#doSend(RequestEncoder)}
+         */
+        @Deprecated
         public String response;
+        /** The fields of the response, or null if none. */
+        public ResponseFields fields;
         public Integer errorCode;
         public String errorMessage;
         public String debugMessage;
@@ -52,18 +70,43 @@ public abstract class AbstractCreditCardService {
         public SendResult(String response, Integer errorCode, String errorMessage,
                 String debugMessage) {
             this.response = response;
+            this.fields = response != null ? ResponseFields.parse(response) : null;
             this.errorCode = errorCode;
             this.errorMessage = errorMessage;
             this.debugMessage = debugMessage;
         }
+
+        /**
+         * Creates the result of a response, without rendering it as a String.
+         * 
+         * @param fields
+         *            the fields of the response. Not null.
+         */
+        public SendResult(ResponseFields fields) {
+            if (fields == null) {
+                throw new IllegalArgumentException("fields is required");
+            }
+            this.fields = fields;
+        }
     }
 
     // --------------------------------------------------------------------------
     // Fields
     // --------------------------------------------------------------------------
     private final String url;
+    /** The parsed url, or null if malformed. */
+    private final URL gatewayUrl;
     private final boolean secured;
+    private final HttpTransport transport;
+    /** True if beforeSendingRequest is overridden: the request String is wanted. */
+    private final boolean hasRequestHook;
+    /** True if afterReceivingResponse is overridden: the response String is wanted. */
+    private final boolean hasResponseHook;
     protected ArrayList<CreditCardIndicator> indicatorList = new ArrayList<CreditCardIndicator>();
+    /** Receives the measurements of the calls, or null if they are not measured. */
+    private volatile MetricsRecorder metricsRecorder;
+    /** The interceptors of the requests, copied on write. */
+    private volatile GatewayInterceptor[] interceptors = new GatewayInterceptor[0];
 
     /**
      * Creates an instance with the creditcard gateway url. Secured by default.
@@ -72,8 +115,7 @@ public abstract class AbstractCreditCardService {
      *            the url to the creditcard gateway. Not null.
      */
     public AbstractCreditCardService(String url) {
-        this.url = url;
-        this.secured = true;
+        this(url, true);
     }
 
     /**
@@ -85,12 +127,65 @@ public abstract class AbstractCreditCardService {
      *            true if using https, otherwise http is used
      */
     public AbstractCreditCardService(String url, boolean secured) {
+        this(url, secured, PooledHttpTransport.getDefault());
+    }
+
+    /**
+     * Creates an instance with the creditcard gateway url and the transport
+     * used to reach it.
+     * 
+     * @param url
+     *            the url to the creditcard gateway. Not null.
+     * @param secured
+     *            true if using https, otherwise http is used
+     * @param transport
+     *            the transport that sends the requests, ie. a
+     *            {@link PooledHttpTransport} sized for this service. Not null.
+     */
+    public AbstractCreditCardService(String url, boolean secured, HttpTransport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("transport must not be null");
+        }
         this.url = url;
         this.secured = secured;
+        this.transport = transport;
+        URL parsed = null;
+        try {
+            parsed = new URL(url);
+        } catch (final MalformedURLException e) {
+            // reported by doSend
+        }
+        this.gatewayUrl = parsed;
+        boolean[] overrides = HOOK_OVERRIDES.get(this.getClass());
+        if (overrides == null) {
+            overrides =
+                    new boolean[] {overrides(this.getClass(), "beforeSendingRequest"),
+                            overrides(this.getClass(), "afterReceivingResponse")};
+            HOOK_OVERRIDES.put(this.getClass(), overrides);
+        }
+        this.hasRequestHook = overrides[0];
+        this.hasResponseHook = overrides[1];
+    }
+
+    /**
+     * @return true if <code>type</code> overrides the hook named
+     *         <code>name</code>
+     */
+    private static boolean overrides(Class<?> type, String name) {
+        for (Class<?> c = type; c != AbstractCreditCardService.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod(name, String.class);
+                return true;
+            } catch (final NoSuchMethodException e) {
+                // not in this class, look in the superclass
+            }
+        }
+        return false;
     }
 
     /**
-     * Called after receiving the response.
+     * Called after receiving the response. The response is only rendered as a
+     * String if this method is overridden.
      * 
      * @param response
      *            the received response
@@ -99,19 +194,19 @@ public abstract class AbstractCreditCardService {
 
     }
 
-    protected void appendAmount(StringBuilder req, Long amount) {
+    protected void appendAmount(RequestEncoder req, Long amount) {
         this.appendParam(req, "amount", amount);
     }
 
-    protected void appendApiToken(StringBuilder req, String apiToken) {
+    protected void appendApiToken(RequestEncoder req, String apiToken) {
         this.appendParam(req, "apiToken", apiToken);
     }
 
-    protected void appendApprovalCode(StringBuilder req, String approvalCode) {
+    protected void appendApprovalCode(RequestEncoder req, String approvalCode) {
         this.appendParam(req, "approvalCode", approvalCode);
     }
 
-    protected void appendCreditCard(StringBuilder req, CreditCard creditCard) {
+    protected void appendCreditCard(RequestEncoder req, CreditCard creditCard) {
         if (creditCard != null) {
             this.appendParam(req, "creditCardNumber", creditCard.getCreditCardNumber());
             this.appendParam(req, "expiryDate", creditCard.getExpiryDate());
@@ -124,36 +219,37 @@ public abstract class AbstractCreditCardService {
         }
     }
 
-    protected void appendDate(StringBuilder req, String name, Date date) {
+    protected void appendDate(RequestEncoder req, String name, Date date) {
         if (date != null) {
-            this.appendParam(req, name, new SimpleDateFormat(DATE_FORMAT).format(date));
+            req.dateParam(name, date);
         }
     }
 
-    protected void appendEndDate(StringBuilder req, Date endDate) {
+    protected void appendEndDate(RequestEncoder req, Date endDate) {
         this.appendDate(req, "endDate", endDate);
     }
 
-    protected void appendHeader(StringBuilder req, String requestCode) {
+    protected void appendHeader(RequestEncoder req, String requestCode) {
         if (requestCode == null) {
             throw new IllegalArgumentException("requestCode is required");
         }
         this.appendParam(req, "requestCode", requestCode);
+        req.setRequestCode(requestCode);
     }
 
-    protected void appendIndicator(StringBuilder req, CreditCardIndicator indicator) {
+    protected void appendIndicator(RequestEncoder req, CreditCardIndicator indicator) {
         this.appendParam(req, indicator.name(), "1");
     }
 
-    protected void appendLodging(StringBuilder req, LodgingRequest lodging) {
+    protected void appendLodging(RequestEncoder req, LodgingRequest lodging) {
         if (lodging != null) {
             if (lodging.getCheckinTime() != null) {
-                this.appendParam(req, LodgingRequest.Field.checkinTime.getValue(),
-                        new SimpleDateFormat(DATE_FORMAT).format(lodging.getCheckinTime()));
+                this.appendDate(req, LodgingRequest.Field.checkinTime.getValue(),
+                        lodging.getCheckinTime());
             }
             if (lodging.getCheckoutTime() != null) {
-                this.appendParam(req, LodgingRequest.Field.checkoutTime.getValue(),
-                        new SimpleDateFormat(DATE_FORMAT).format(lodging.getCheckoutTime()));
+                this.appendDate(req, LodgingRequest.Field.checkoutTime.getValue(),
+                        lodging.getCheckoutTime());
             }
             if (lodging.getDayOfStay() != null) {
                 this.appendParam(req, LodgingRequest.Field.dayOfStay.getValue(),
@@ -174,21 +270,22 @@ public abstract class AbstractCreditCardService {
         }
     }
 
-    protected void appendOperationType(StringBuilder req, String type) {
+    protected void appendOperationType(RequestEncoder req, String type) {
         if (type == null) {
             throw new IllegalArgumentException("type is required");
         }
         this.appendParam(req, "operationCode", type);
+        req.setOperationCode(type);
     }
 
-    protected void appendPeriodicPurchaseState(StringBuilder req, PeriodicPurchaseInfo.State state) {
+    protected void appendPeriodicPurchaseState(RequestEncoder req, PeriodicPurchaseInfo.State state) {
         if (state == null) {
             throw new IllegalArgumentException("state is required");
         }
         this.appendParam(req, "periodicPurchaseStateCode", state.toCode());
     }
 
-    protected void appendPeriodicPurchaseSchedule(StringBuilder req,
+    protected void appendPeriodicPurchaseSchedule(RequestEncoder req,
             PeriodicPurchaseInfo.Schedule schedule) {
         if (schedule == null) {
             throw new IllegalArgumentException("schedule is required");
@@ -198,7 +295,7 @@ public abstract class AbstractCreditCardService {
         this.appendParam(req, "periodicPurchaseIntervalLength", schedule.getIntervalLength());
     }
 
-    protected void appendPeriodicPurchaseInfo(StringBuilder req,
+    protected void appendPeriodicPurchaseInfo(RequestEncoder req,
             PeriodicPurchaseInfo periodicPurchaseInfo) {
         if (periodicPurchaseInfo.getPerPaymentAmount() != null) {
             this.appendAmount(req, periodicPurchaseInfo.getPerPaymentAmount());
@@ -233,7 +330,7 @@ public abstract class AbstractCreditCardService {
         }
     }
 
-    protected void appendPurchaseCard(StringBuilder req, PurchaseCardRequest purchaseCard) {
+    protected void appendPurchaseCard(RequestEncoder req, PurchaseCardRequest purchaseCard) {
         if (purchaseCard != null) {
             this.appendParam(req, "pcii_indicator", "true");
             this.appendParam(req, "pcii_customerCode", purchaseCard.getCustomerCode());
@@ -250,38 +347,30 @@ public abstract class AbstractCreditCardService {
         }
     }
 
-    protected void appendMerchantId(StringBuilder req, Integer merchantId) {
+    protected void appendMerchantId(RequestEncoder req, Integer merchantId) {
         this.appendParam(req, "merchantId", merchantId);
     }
 
-    protected void appendMerchantId(StringBuilder req, String merchantId) {
+    protected void appendMerchantId(RequestEncoder req, String merchantId) {
         this.appendParam(req, "merchantId", merchantId);
     }
 
-    protected void appendOrderId(StringBuilder req, String orderId) {
+    protected void appendOrderId(RequestEncoder req, String orderId) {
         this.appendParam(req, "orderId", orderId);
     }
 
-    protected void appendStorageFlag(StringBuilder req, boolean b) {
+    protected void appendStorageFlag(RequestEncoder req, boolean b) {
         this.appendParam(req, "addToStorage", b);
     }
 
-    protected void appendParam(StringBuilder str, String name, Object value) {
-        if (str == null) {
-            throw new IllegalArgumentException("str is required");
-        }
-        if (name == null) {
-            throw new IllegalArgumentException("name is required");
-        }
-        if (value != null) {
-            if (str.length() != 0) {
-                str.append("&");
-            }
-            str.append(name).append("=").append(value);
+    protected void appendParam(RequestEncoder req, String name, Object value) {
+        if (req == null) {
+            throw new IllegalArgumentException("req is required");
         }
+        req.param(name, value);
     }
 
-    protected void appendPaymentProfile(StringBuilder req, PaymentProfile paymentProfile) {
+    protected void appendPaymentProfile(RequestEncoder req, PaymentProfile paymentProfile) {
         if (paymentProfile == null) {
             return;
         } else {
@@ -318,7 +407,7 @@ public abstract class AbstractCreditCardService {
         }
     }
 
-    protected void appendAdvancedRisk(StringBuilder req, AdvancedRiskProfile advancedRiskProfile) {
+    protected void appendAdvancedRisk(RequestEncoder req, AdvancedRiskProfile advancedRiskProfile) {
         if (advancedRiskProfile == null) {
             return;
         } else {
@@ -361,29 +450,29 @@ public abstract class AbstractCreditCardService {
         }
     }
 
-    protected void appendStartDate(StringBuilder req, Date startDate) {
+    protected void appendStartDate(RequestEncoder req, Date startDate) {
         this.appendDate(req, "startDate", startDate);
     }
 
-    protected void appendStorageTokenId(StringBuilder req, String storageTokenId) {
+    protected void appendStorageTokenId(RequestEncoder req, String storageTokenId) {
         if (storageTokenId != null) {
             this.appendParam(req, "storageTokenId", storageTokenId);
         }
     }
 
-    protected void appendTotalNumberInstallments(StringBuilder req, Integer totalNumberInstallments) {
+    protected void appendTotalNumberInstallments(RequestEncoder req, Integer totalNumberInstallments) {
         this.appendParam(req, "totalNumberInstallments", totalNumberInstallments);
     }
 
-    protected void appendTransactionId(StringBuilder req, Long transactionId) {
+    protected void appendTransactionId(RequestEncoder req, Long transactionId) {
         this.appendParam(req, "transactionId", transactionId);
     }
 
-    protected void appendTransactionOrderId(StringBuilder req, String transactionOrderId) {
+    protected void appendTransactionOrderId(RequestEncoder req, String transactionOrderId) {
         this.appendParam(req, "transactionOrderId", transactionOrderId);
     }
 
-    protected void appendVerificationRequest(StringBuilder req, VerificationRequest vr) {
+    protected void appendVerificationRequest(RequestEncoder req, VerificationRequest vr) {
         if (vr != null) {
             this.appendParam(req, "avsRequestCode", vr.isAvsEnabled() ? vr.getAvsRequest().toCode()
                     : null);
@@ -395,8 +484,10 @@ public abstract class AbstractCreditCardService {
     }
 
     /**
-     * Called before sending the request.
-     * 
+     * Called before sending the request. The request is only rendered as a
+     * String if this method is overridden. To change, answer or repeat the
+     * requests, add a {@link GatewayInterceptor} instead.
+     *
      * @param request
      *            the request to send
      */
@@ -425,6 +516,13 @@ public abstract class AbstractCreditCardService {
         return this.secured ? "https" : "http";
     }
 
+    /**
+     * @return the transport that sends the requests
+     */
+    public HttpTransport getTransport() {
+        return this.transport;
+    }
+
     /**
      * @return the url of the creditcard gateway
      */
@@ -439,6 +537,66 @@ public abstract class AbstractCreditCardService {
         return this.secured;
     }
 
+    /**
+     * @return the recorder of the measurements of the calls, or null if they
+     *         are not measured
+     */
+    public MetricsRecorder getMetricsRecorder() {
+        return this.metricsRecorder;
+    }
+
+    /**
+     * Sets the recorder of the measurements of the calls made from now on,
+     * ie. a {@link GatewayMetrics}. Not measured by default.
+     * 
+     * @param metricsRecorder
+     *            the recorder, or null to stop measuring
+     */
+    public void setMetricsRecorder(MetricsRecorder metricsRecorder) {
+        this.metricsRecorder = metricsRecorder;
+    }
+
+    /**
+     * Adds an interceptor of the requests sent from now on, after those
+     * already added: it is called after them, closer to the gateway.
+     * 
+     * @param interceptor
+     *            the interceptor to add. Not null.
+     */
+    public synchronized void addInterceptor(GatewayInterceptor interceptor) {
+        if (interceptor == null) {
+            throw new IllegalArgumentException("interceptor must not be null");
+        }
+        final GatewayInterceptor[] added = Arrays.copyOf(this.interceptors,
+                this.interceptors.length + 1);
+        added[added.length - 1] = interceptor;
+        this.interceptors = added;
+    }
+
+    /**
+     * Removes an interceptor of the requests sent from now on.
+     * 
+     * @param interceptor
+     *            the interceptor to remove
+     * @return true if the interceptor was removed, false if not added
+     */
+    public synchronized boolean removeInterceptor(GatewayInterceptor interceptor) {
+        final List<GatewayInterceptor> list =
+                new ArrayList<GatewayInterceptor>(Arrays.asList(this.interceptors));
+        if (!list.remove(interceptor)) {
+            return false;
+        }
+        this.interceptors = list.toArray(new GatewayInterceptor[list.size()]);
+        return true;
+    }
+
+    /**
+     * @return the interceptors of the requests, in the order they are called
+     */
+    public List<GatewayInterceptor> getInterceptors() {
+        return Collections.unmodifiableList(Arrays.asList(this.interceptors));
+    }
+
     /**
      * Sends the <code>request</code> to the creditcard gateway and returns
      * receipt.
@@ -448,69 +606,165 @@ public abstract class AbstractCreditCardService {
      * @return the receipt of the request, containing details as to whether or
      *         not the request was approved
      */
-    protected CreditCardReceipt send(StringBuilder request) {
-        CreditCardReceipt receipt = null;
-        SendResult result = this.doSend(request);
-        if (result != null) { 
-            if (result.errorCode != null) {
-                receipt =
-                        new CreditCardReceipt(result.errorCode, result.errorMessage,
-                                result.debugMessage);
-            } else {
-                receipt = new CreditCardReceipt(result.response);
+    protected CreditCardReceipt send(RequestEncoder request) {
+        return (CreditCardReceipt) this.execute(request, GatewayRequest.ReceiptKind.CREDIT_CARD);
+    }
+
+    protected DebitCardReceipt sendDebit(RequestEncoder request) {
+        return (DebitCardReceipt) this.execute(request, GatewayRequest.ReceiptKind.DEBIT_CARD);
+    }
+
+    protected StorageReceipt sendStorageRequest(RequestEncoder request) {
+        return (StorageReceipt) this.execute(request, GatewayRequest.ReceiptKind.STORAGE);
+    }
+
+    /**
+     * Sends the <code>request</code> through the interceptors.
+     * 
+     * @return the receipt of the request, of the kind <code>kind</code>
+     */
+    private AbstractReceipt execute(RequestEncoder request, GatewayRequest.ReceiptKind kind) {
+        if (request == null) {
+            return kind.newErrorReceipt(REQ_INVALID_REQUEST, "a request string is required",
+                    null);
+        }
+        final GatewayRequest gatewayRequest =
+                new GatewayRequest(this.url, this.gatewayUrl, request, kind, this.startTimer());
+        final GatewayInterceptor[] chain = this.interceptors;
+        try {
+            if (chain.length == 0) {
+                return this.sendToGateway(gatewayRequest);
             }
+            return gatewayRequest.checkReceipt(new Chain(chain, 0, gatewayRequest)
+                    .proceed(gatewayRequest));
+        } catch (final RuntimeException e) {
+            // the same receipt with or without interceptors
+            return kind.newErrorReceipt(REQ_POST_ERROR, "error attempting to send POST request",
+                    e.toString());
         }
-        return receipt;
     }
 
-    protected DebitCardReceipt sendDebit(StringBuilder request) {
-        DebitCardReceipt receipt = null;
-        SendResult result = this.doSend(request);
-        if (result != null) {
-            if (result.errorCode != null) {
-                receipt =
-                        new DebitCardReceipt(result.errorCode, result.errorMessage,
-                                result.debugMessage);
-            } else {
-                receipt = new DebitCardReceipt(result.response);
+    /** The rest of the interceptors of a request, from an index. */
+    private final class Chain implements GatewayInterceptor.Chain {
+        private final GatewayInterceptor[] interceptors;
+        private final int index;
+        private final GatewayRequest request;
+
+        Chain(GatewayInterceptor[] interceptors, int index, GatewayRequest request) {
+            this.interceptors = interceptors;
+            this.index = index;
+            this.request = request;
+        }
+
+        @Override
+        public GatewayRequest request() {
+            return this.request;
+        }
+
+        @Override
+        public AbstractReceipt proceed(GatewayRequest request) {
+            if (request == null) {
+                throw new IllegalArgumentException("request must not be null");
             }
+            if (this.index == this.interceptors.length) {
+                return AbstractCreditCardService.this.sendToGateway(request);
+            }
+            final Chain next = new Chain(this.interceptors, this.index + 1, request);
+            return request.checkReceipt(this.interceptors[this.index].intercept(next));
         }
-        return receipt;
     }
 
-    protected StorageReceipt sendStorageRequest(StringBuilder request) {
-        StorageReceipt receipt = null;
-        SendResult result = this.doSend(request);
-        if (result != null) {
-            if (result.errorCode != null) {
-                receipt =
-                        new StorageReceipt(result.errorCode, result.errorMessage,
-                                result.debugMessage);
-            } else {
-                receipt = new StorageReceipt(result.response);
+    /**
+     * Sends the <code>request</code> to the gateway, at the end of the
+     * interceptors, measuring the call if a recorder is set.
+     */
+    private AbstractReceipt sendToGateway(GatewayRequest request) {
+        final MetricsRecorder recorder = this.metricsRecorder;
+        final CallTimings timings = recorder != null ? new CallTimings() : null;
+        final SendResult result =
+                this.doSend(request.getUrl(), request.getParsedUrl(), request.encoder(),
+                        timings, request.getTimer());
+        final AbstractReceipt receipt;
+        if (result.errorCode != null) {
+            receipt =
+                    request.getReceiptKind().newErrorReceipt(result.errorCode,
+                            result.errorMessage, result.debugMessage);
+        } else {
+            receipt = request.getReceiptKind().newReceipt(result.fields);
+        }
+        if (recorder != null) {
+            timings.ended();
+            try {
+                recorder.record(request.getRequestCode(), request.getOperationCode(), timings,
+                        receipt);
+            } catch (final RuntimeException e) {
+                // the measurements never fail a call
             }
         }
         return receipt;
     }
 
-    protected SendResult doSend(StringBuilder request) {
+    protected SendResult doSend(RequestEncoder request) {
+        return this.doSend(request, null);
+    }
+
+    /**
+     * Sends the <code>request</code> as {@link #doSend(RequestEncoder)} does,
+     * marking the phases of the call in <code>timings</code>.
+     * 
+     * @param timings
+     *            the timings of the call, or null if it is not timed
+     */
+    protected SendResult doSend(RequestEncoder request, CallTimings timings) {
+        final SendResult result =
+                this.doSend(this.url, this.gatewayUrl, request, timings, this.startTimer());
+        if (result.fields != null) {
+            // for the subclasses reading the String
+            result.response = result.fields.getResponse();
+        }
+        return result;
+    }
+
+    /**
+     * Starts the timer of a request: until the {@link Deadline} of the
+     * calling thread if there is one.
+     */
+    private Timer startTimer() {
+        final Deadline deadline = Deadline.current();
+        if (deadline != null) {
+            return Timer.until(deadline);
+        }
+        // expect: total txn time within CONNECTION_TIMEOUT_MS_BUFFER
+        return Timer.start(this.getConnectionTimeoutMsBuffer());
+    }
+
+    /**
+     * Sends the <code>request</code> to <code>url</code> before the
+     * <code>timer</code> times out.
+     * 
+     * @param ccUrl
+     *            the parsed url, or null if malformed
+     */
+    private SendResult doSend(String url, URL ccUrl, RequestEncoder request, CallTimings timings,
+            Timer timer) {
         if (request == null) {
             return new SendResult(null, REQ_INVALID_REQUEST, "a request string is required", null);
         }
-        // expect: total txn time within CONNECTION_TIMEOUT_MS_BUFFER
-        final Timer timer = Timer.start(this.getConnectionTimeoutMsBuffer());
         if (timer.isTimedOut()) {
             return new SendResult(null, REQ_CONNECTION_FAILED,
                     "timed out while connecting to the credit card gateway.", null);
         }
 
-        final URL ccUrl;
         // make sure the url is using a valid protocol
-        try {
-            ccUrl = new URL(this.url);
-        } catch (final MalformedURLException e) {
+        if (ccUrl == null) {
+            String debugMessage = null;
+            try {
+                new URL(url);
+            } catch (final MalformedURLException e) {
+                debugMessage = e.toString();
+            }
             return new SendResult(null, REQ_MALFORMED_URL, String.format(
-                    "the protocol of the specified url [%s] is invalid", this.url), e.toString());
+                    "the protocol of the specified url [%s] is invalid", url), debugMessage);
         }
         // make sure the url is using a supported protocol
         if (!ccUrl.getProtocol().equals(this.getSupportedProtocol())) {
@@ -519,58 +773,316 @@ public abstract class AbstractCreditCardService {
                     "the protocol [%s] is not supported", ccUrl.getProtocol()), null);
         }
 
-        URLConnection c = null;
-        try {
-            // open the connection
-            c = ccUrl.openConnection();
-            // allow at least DEFAULT_MIN_RESPONSE_READ_TIMEOUT_MS to connect
-            final int remainingTimeMsBeforeSend =
-                    (int) timer.getRemainingMs(this.getMinResponseReadTimeoutMs());
-            c.setConnectTimeout(remainingTimeMsBeforeSend);
-            c.setDoOutput(true);
-            if (this.secured) {
-                ((HttpsURLConnection) c).setRequestMethod("POST");
-            } else {
-                ((HttpURLConnection) c).setRequestMethod("POST");
-            }
-
+        if (this.hasRequestHook) {
             try {
-                final String reqStr = request.toString();
-                this.beforeSendingRequest(reqStr);
-                // send the request
-                Utils.copy(reqStr, new OutputStreamWriter(c.getOutputStream()));
+                this.beforeSendingRequest(request.toString());
             } catch (final Exception e) {
                 return new SendResult(null, REQ_POST_ERROR,
                         "error attempting to send POST request", e.toString());
             }
-
-            // get the response
+        }
+        final ResponseFields response;
+        final Deadline deadline = timer.getDeadline();
+        final Deadline.Scope scope = deadline != null ? deadline.enter() : null;
+        try {
+            final int connectTimeoutMs;
+            final int readTimeoutMs;
+            if (deadline != null) {
+                // only what is left of the caller's deadline, never 0 which
+                // would wait forever; the transport sees the deadline too
+                connectTimeoutMs = (int) Math.min(Math.max(timer.getRemainingMs(), 1),
+                        Integer.MAX_VALUE);
+                readTimeoutMs = connectTimeoutMs;
+            } else {
+                // allow at least DEFAULT_MIN_RESPONSE_READ_TIMEOUT_MS to connect
+                // and at least as much for the response
+                connectTimeoutMs = (int) timer.getRemainingMs(this.getMinResponseReadTimeoutMs());
+                readTimeoutMs = (int) timer.getRemainingMs(this.getMinResponseReadTimeoutMs());
+            }
+            response =
+                    this.transport.post(ccUrl, request, connectTimeoutMs, readTimeoutMs, timings);
+        } catch (final TransportException e) {
+            return new SendResult(null, e.getErrorCode(), e.getMessage(),
+                    e.getCause() != null ? e.getCause().toString() : null);
+        } finally {
+            if (scope != null) {
+                scope.close();
+            }
+        }
+        if (this.hasResponseHook) {
             try {
-                // allow at least DEFAULT_MIN_RESPONSE_READ_TIMEOUT_MS for
-                // response
-                final int remainingTimeMsAfterSend =
-                        (int) timer.getRemainingMs(this.getMinResponseReadTimeoutMs());
-                c.setReadTimeout(remainingTimeMsAfterSend);
-                final String respStr =
-                        Utils.copyToString(new InputStreamReader(c.getInputStream()));
-                this.afterReceivingResponse(respStr);
-                return new SendResult(respStr, null, null, null);
+                this.afterReceivingResponse(response.getResponse());
             } catch (final Exception e) {
-                e.printStackTrace();
                 return new SendResult(null, REQ_RESPONSE_ERROR,
                         "error receiving response after request was sent", e.toString());
             }
-        } catch (Exception e) {
-            return new SendResult(null, REQ_CONNECTION_FAILED,
-                    "error connecting to the credit card gateway.", e.toString());
-        } finally {
-            if (c != null) {
-                if (this.secured) {
-                    ((HttpsURLConnection) c).disconnect();
-                } else {
-                    ((HttpURLConnection) c).disconnect();
-                }
+        }
+        return new SendResult(response);
+    }
+
+    // --------------------------------------------------------------------------
+    // Deprecated StringBuilder requests
+    // --------------------------------------------------------------------------
+    // The requests used to be built in a StringBuilder. These methods append to
+    // one through the RequestEncoder methods, and send it as is; they are final
+    // so that an override, which would no longer be called, fails to compile or
+    // to load rather than being silently ignored.
+
+    /**
+     * Appends the parameters appended to an empty {@link RequestEncoder} by
+     * <code>append</code> to <code>req</code>.
+     */
+    final void appendTo(StringBuilder req, Consumer<RequestEncoder> append) {
+        if (req == null) {
+            throw new IllegalArgumentException("req is required");
+        }
+        final RequestEncoder encoder = new RequestEncoder();
+        append.accept(encoder);
+        if (encoder.size() != 0) {
+            req.append(req.length() != 0 ? "&" : "").append(encoder);
+        }
+    }
+
+    /** @deprecated override or call {@link #appendAmount(RequestEncoder, Long)} */
+    @Deprecated
+    protected final void appendAmount(StringBuilder req, Long amount) {
+        this.appendTo(req, e -> this.appendAmount(e, amount));
+    }
+
+    /** @deprecated override or call {@link #appendApiToken(RequestEncoder, String)} */
+    @Deprecated
+    protected final void appendApiToken(StringBuilder req, String apiToken) {
+        this.appendTo(req, e -> this.appendApiToken(e, apiToken));
+    }
+
+    /** @deprecated override or call {@link #appendApprovalCode(RequestEncoder, String)} */
+    @Deprecated
+    protected final void appendApprovalCode(StringBuilder req, String approvalCode) {
+        this.appendTo(req, e -> this.appendApprovalCode(e, approvalCode));
+    }
+
+    /** @deprecated override or call {@link #appendCreditCard(RequestEncoder, CreditCard)} */
+    @Deprecated
+    protected final void appendCreditCard(StringBuilder req, CreditCard creditCard) {
+        this.appendTo(req, e -> this.appendCreditCard(e, creditCard));
+    }
+
+    /** @deprecated override or call {@link #appendDate(RequestEncoder, String, Date)} */
+    @Deprecated
+    protected final void appendDate(StringBuilder req, String name, Date date) {
+        this.appendTo(req, e -> this.appendDate(e, name, date));
+    }
+
+    /** @deprecated override or call {@link #appendEndDate(RequestEncoder, Date)} */
+    @Deprecated
+    protected final void appendEndDate(StringBuilder req, Date endDate) {
+        this.appendTo(req, e -> this.appendEndDate(e, endDate));
+    }
+
+    /** @deprecated override or call {@link #appendHeader(RequestEncoder, String)} */
+    @Deprecated
+    protected final void appendHeader(StringBuilder req, String requestCode) {
+        this.appendTo(req, e -> this.appendHeader(e, requestCode));
+    }
+
+    /**
+     * @deprecated override or call
+     *             {@link #appendIndicator(RequestEncoder, CreditCardIndicator)}
+     */
+    @Deprecated
+    protected final void appendIndicator(StringBuilder req, CreditCardIndicator indicator) {
+        this.appendTo(req, e -> this.appendIndicator(e, indicator));
+    }
+
+    /** @deprecated override or call {@link #appendLodging(RequestEncoder, LodgingRequest)} */
+    @Deprecated
+    protected final void appendLodging(StringBuilder req, LodgingRequest lodging) {
+        this.appendTo(req, e -> this.appendLodging(e, lodging));
+    }
+
+    /** @deprecated override or call {@link #appendOperationType(RequestEncoder, String)} */
+    @Deprecated
+    protected final void appendOperationType(StringBuilder req, String type) {
+        this.appendTo(req, e -> this.appendOperationType(e, type));
+    }
+
+    /**
+     * @deprecated override or call
+     *             {@link #appendPeriodicPurchaseState(RequestEncoder, PeriodicPurchaseInfo.State)}
+     */
+    @Deprecated
+    protected final void appendPeriodicPurchaseState(StringBuilder req,
+            PeriodicPurchaseInfo.State state) {
+        this.appendTo(req, e -> this.appendPeriodicPurchaseState(e, state));
+    }
+
+    /**
+     * @deprecated override or call
+     *             {@link #appendPeriodicPurchaseSchedule(RequestEncoder,
+     *             PeriodicPurchaseInfo.Schedule)}
+     */
+    @Deprecated
+    protected final void appendPeriodicPurchaseSchedule(StringBuilder req,
+            PeriodicPurchaseInfo.Schedule schedule) {
+        this.appendTo(req, e -> this.appendPeriodicPurchaseSchedule(e, schedule));
+    }
+
+    /**
+     * @deprecated override or call
+     *             {@link #appendPeriodicPurchaseInfo(RequestEncoder, PeriodicPurchaseInfo)}
+     */
+    @Deprecated
+    protected final void appendPeriodicPurchaseInfo(StringBuilder req,
+            PeriodicPurchaseInfo periodicPurchaseInfo) {
+        this.appendTo(req, e -> this.appendPeriodicPurchaseInfo(e, periodicPurchaseInfo));
+    }
+
+    /**
+     * @deprecated override or call
+     *             {@link #appendPurchaseCard(RequestEncoder, PurchaseCardRequest)}
+     */
+    @Deprecated
+    protected final void appendPurchaseCard(StringBuilder req, PurchaseCardRequest purchaseCard) {
+        this.appendTo(req, e -> this.appendPurchaseCard(e, purchaseCard));
+    }
+
+    /** @deprecated override or call {@link #appendMerchantId(RequestEncoder, Integer)} */
+    @Deprecated
+    protected final void appendMerchantId(StringBuilder req, Integer merchantId) {
+        this.appendTo(req, e -> this.appendMerchantId(e, merchantId));
+    }
+
+    /** @deprecated override or call {@link #appendMerchantId(RequestEncoder, String)} */
+    @Deprecated
+    protected final void appendMerchantId(StringBuilder req, String merchantId) {
+        this.appendTo(req, e -> this.appendMerchantId(e, merchantId));
+    }
+
+    /** @deprecated override or call {@link #appendOrderId(RequestEncoder, String)} */
+    @Deprecated
+    protected final void appendOrderId(StringBuilder req, String orderId) {
+        this.appendTo(req, e -> this.appendOrderId(e, orderId));
+    }
+
+    /** @deprecated override or call {@link #appendStorageFlag(RequestEncoder, boolean)} */
+    @Deprecated
+    protected final void appendStorageFlag(StringBuilder req, boolean b) {
+        this.appendTo(req, e -> this.appendStorageFlag(e, b));
+    }
+
+    /** @deprecated override or call {@link #appendParam(RequestEncoder, String, Object)} */
+    @Deprecated
+    protected final void appendParam(StringBuilder req, String name, Object value) {
+        this.appendTo(req, e -> this.appendParam(e, name, value));
+    }
+
+    /**
+     * @deprecated override or call
+     *             {@link #appendPaymentProfile(RequestEncoder, PaymentProfile)}
+     */
+    @Deprecated
+    protected final void appendPaymentProfile(StringBuilder req, PaymentProfile paymentProfile) {
+        this.appendTo(req, e -> this.appendPaymentProfile(e, paymentProfile));
+    }
+
+    /**
+     * @deprecated override or call
+     *             {@link #appendAdvancedRisk(RequestEncoder, AdvancedRiskProfile)}
+     */
+    @Deprecated
+    protected final void appendAdvancedRisk(StringBuilder req,
+            AdvancedRiskProfile advancedRiskProfile) {
+        this.appendTo(req, e -> this.appendAdvancedRisk(e, advancedRiskProfile));
+    }
+
+    /** @deprecated override or call {@link #appendStartDate(RequestEncoder, Date)} */
+    @Deprecated
+    protected final void appendStartDate(StringBuilder req, Date startDate) {
+        this.appendTo(req, e -> this.appendStartDate(e, startDate));
+    }
+
+    /** @deprecated override or call {@link #appendStorageTokenId(RequestEncoder, String)} */
+    @Deprecated
+    protected final void appendStorageTokenId(StringBuilder req, String storageTokenId) {
+        this.appendTo(req, e -> this.appendStorageTokenId(e, storageTokenId));
+    }
+
+    /**
+     * @deprecated override or call
+     *             {@link #appendTotalNumberInstallments(RequestEncoder, Integer)}
+     */
+    @Deprecated
+    protected final void appendTotalNumberInstallments(StringBuilder req,
+            Integer totalNumberInstallments) {
+        this.appendTo(req, e -> this.appendTotalNumberInstallments(e, totalNumberInstallments));
+    }
+
+    /** @deprecated override or call {@link #appendTransactionId(RequestEncoder, Long)} */
+    @Deprecated
+    protected final void appendTransactionId(StringBuilder req, Long transactionId) {
+        this.appendTo(req, e -> this.appendTransactionId(e, transactionId));
+    }
+
+    /** @deprecated override or call {@link #appendTransactionOrderId(RequestEncoder, String)} */
+    @Deprecated
+    protected final void appendTransactionOrderId(StringBuilder req, String transactionOrderId) {
+        this.appendTo(req, e -> this.appendTransactionOrderId(e, transactionOrderId));
+    }
+
+    /**
+     * @deprecated override or call
+     *             {@link #appendVerificationRequest(RequestEncoder, VerificationRequest)}
+     */
+    @Deprecated
+    protected final void appendVerificationRequest(StringBuilder req, VerificationRequest vr) {
+        this.appendTo(req, e -> this.appendVerificationRequest(e, vr));
+    }
+
+    /**
+     * @return the request built in <code>request</code>, sent as is, or null
+     *         if none
+     */
+    private static RequestEncoder toEncoder(StringBuilder request) {
+        if (request == null) {
+            return null;
+        }
+        final String str = request.toString();
+        final RequestEncoder encoder =
+                new RequestEncoder().appendEncoded(str.getBytes(StandardCharsets.UTF_8));
+        for (final String param : str.split("&")) {
+            if (param.startsWith("requestCode=")) {
+                encoder.setRequestCode(param.substring(12));
+            } else if (param.startsWith("operationCode=")) {
+                encoder.setOperationCode(param.substring(14));
             }
         }
+        return encoder;
+    }
+
+    /** @deprecated call {@link #send(RequestEncoder)} */
+    @Deprecated
+    protected final CreditCardReceipt send(StringBuilder request) {
+        return this.send(toEncoder(request));
+    }
+
+    /** @deprecated call {@link #sendDebit(RequestEncoder)} */
+    @Deprecated
+    protected final DebitCardReceipt sendDebit(StringBuilder request) {
+        return this.sendDebit(toEncoder(request));
+    }
+
+    /** @deprecated call {@link #sendStorageRequest(RequestEncoder)} */
+    @Deprecated
+    protected final StorageReceipt sendStorageRequest(StringBuilder request) {
+        return this.sendStorageRequest(toEncoder(request));
+    }
+
+    /**
+     * @deprecated add a {@link GatewayInterceptor} to change or answer the
+     *             requests, or call {@link #doSend(RequestEncoder)}
+     */
+    @Deprecated
+    protected final SendResult doSend(StringBuilder request) {
+        return this.doSend(toEncoder(request));
     }
 }
@@ -9,14 +9,9 @@
  ******************************************************************************/
 package com.salt.payment.client.creditcard.api;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Properties;
 
 import static com.salt.payment.client.creditcard.api.CreditCardService.*;
 
@@ -26,7 +21,10 @@ import static com.salt.payment.client.creditcard.api.CreditCardService.*;
  * @since JSE5
  */
 public abstract class AbstractReceipt {
+    /** The response parameters, a map over {@link #fields}. */
     protected Map<String, String> params = null;
+    /** The parsed response, or null if no response was parsed. */
+    private ResponseFields fields = null;
     protected boolean approved = false;
     protected Long transactionId = null;
     protected String orderId = null;
@@ -34,6 +32,10 @@ public abstract class AbstractReceipt {
     protected String errorCode = null;
     protected String errorMessage = null;
     protected String debugMessage = null;
+    /**
+     * The response, decoded from {@link #fields} on demand: read it through
+     * {@link #getResponse()}.
+     */
     protected String response = null;
 
     private AbstractReceipt() {
@@ -64,10 +66,10 @@ public abstract class AbstractReceipt {
         str.append("\nERROR_MESSAGE=").append(this.errorMessage != null ? this.errorMessage : "");
         str.append("\nDEBUG_MESSAGE=").append(this.debugMessage != null ? this.debugMessage : "");
 
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
-        SimpleDateFormat timeFormat = new SimpleDateFormat("HHmmss");
-        str.append("\nPROCESSED_DATE=").append(dateFormat.format(this.processedDateTime));
-        str.append("\nPROCESSED_TIME=").append(timeFormat.format(this.processedDateTime));
+        str.append("\nPROCESSED_DATE=");
+        DateCodec.appendCompactDate(str, this.processedDateTime);
+        str.append("\nPROCESSED_TIME=");
+        DateCodec.appendTime(str, this.processedDateTime);
         this.response = str.toString();
     }
 
@@ -78,7 +80,17 @@ public abstract class AbstractReceipt {
      *            the response from the gateway to parse. Not null.
      */
     public AbstractReceipt(String response) {
-        if (response == null || response.length() <= 0) {
+        this(parseResponse(response));
+    }
+
+    /**
+     * Creates an instance from the parsed response from the gateway.
+     * 
+     * @param fields
+     *            the parsed response, or null if there was none
+     */
+    protected AbstractReceipt(ResponseFields fields) {
+        if (isNullResponse(fields)) {
             // null response, null receipt
             this.errorCode = (new Integer(REQ_RESPONSE_ERROR)).toString();
             this.errorMessage = "null or empty response received.";
@@ -86,39 +98,24 @@ public abstract class AbstractReceipt {
             this.processedDateTime = new Date();
             return;
         }
-        this.response = response;
-        final Properties p = new Properties();
-        try {
-            p.load(new ByteArrayInputStream(response.getBytes()));
-        } catch (final IOException e) {
-            // this should never occur because we're reading from a string
-            // some sort of formatting error, maybe?
-            this.errorCode = (new Integer(REQ_RESPONSE_ERROR)).toString();
-            this.errorMessage = "could not parse response.";
-            this.debugMessage = e.toString();
-            this.processedDateTime = new Date();
-            return;
-        }
-        this.params = new HashMap<String, String>();
-        for (final Entry<Object, Object> entry : p.entrySet()) {
-            this.params.put((String) entry.getKey(), (String) entry.getValue());
-        }
+        this.fields = fields;
+        this.params = fields.asMap();
         // parse the parameters
         try {
             this.approved = this.parseBoolean("APPROVED");
             this.transactionId = this.parseLong("TRANSACTION_ID");
-            this.orderId = this.params.get("ORDER_ID");
-            final String processedDate = this.params.get("PROCESSED_DATE");
-            final String processedTime = this.params.get("PROCESSED_TIME");
+            this.orderId = this.param("ORDER_ID");
+            final String processedDate = this.param("PROCESSED_DATE");
+            final String processedTime = this.param("PROCESSED_TIME");
             if (!Utils.isEmpty(processedDate) && !Utils.isEmpty(processedTime)) {
                 this.processedDateTime =
-                        new SimpleDateFormat("yyMMddHHmmss").parse(processedDate + processedTime);
+                        DateCodec.parseProcessedDateTime(processedDate, processedTime);
             } else {
                 this.processedDateTime = null;
             }
-            this.errorCode = this.params.get("ERROR_CODE");
-            this.errorMessage = this.params.get("ERROR_MESSAGE");
-            this.debugMessage = this.params.get("DEBUG_MESSAGE");
+            this.errorCode = this.param("ERROR_CODE");
+            this.errorMessage = this.param("ERROR_MESSAGE");
+            this.debugMessage = this.param("DEBUG_MESSAGE");
         } catch (final Exception e) {
             this.errorCode = (new Integer(REQ_RESPONSE_ERROR)).toString();
             this.errorMessage =
@@ -129,6 +126,22 @@ public abstract class AbstractReceipt {
         }
     }
 
+    /**
+     * @return the parsed <code>response</code>, or null if it is null or
+     *         empty
+     */
+    static ResponseFields parseResponse(String response) {
+        return response == null || response.length() <= 0 ? null : ResponseFields
+                .parse(response);
+    }
+
+    /**
+     * @return true if <code>fields</code> is no response at all
+     */
+    static boolean isNullResponse(ResponseFields fields) {
+        return fields == null || fields.isEmptyResponse();
+    }
+
     /**
      * @return a message for the merchant to debug programming errors
      */
@@ -166,6 +179,18 @@ public abstract class AbstractReceipt {
         return this.params;
     }
 
+    /**
+     * Returns the value of a response parameter, without building the
+     * parameter map.
+     * 
+     * @param paramName
+     *            the name of the parameter
+     * @return the value of the parameter, or null if the response has none
+     */
+    protected String param(String paramName) {
+        return this.fields.get(paramName);
+    }
+
     /**
      * @return the copy of the datetime of when the request was processed
      */
@@ -177,7 +202,14 @@ public abstract class AbstractReceipt {
      * @return the actual response from the creditcard gateway
      */
     public String getResponse() {
-        return this.response;
+        // a benign race: the fields decode the response once, and a String
+        // is safely published
+        String response = this.response;
+        if (response == null && this.fields != null) {
+            response = this.fields.getResponse();
+            this.response = response;
+        }
+        return response;
     }
 
     /**
@@ -199,29 +231,29 @@ public abstract class AbstractReceipt {
     }
 
     protected Boolean parseBoolean(String paramName) {
-        final String value = this.params.get(paramName);
+        final String value = this.param(paramName);
         return Utils.isEmpty(value) ? null : Boolean.valueOf(value);
     }
 
     protected Integer parseInteger(String paramName) {
-        final String value = this.params.get(paramName);
+        final String value = this.param(paramName);
         return Utils.isEmpty(value) ? null : Integer.valueOf(value);
     }
 
     protected Long parseLong(String paramName) {
-        final String value = this.params.get(paramName);
+        final String value = this.param(paramName);
         return Utils.isEmpty(value) ? null : Long.valueOf(value);
     }
 
     protected Short parseShort(String paramName) {
-        final String value = this.params.get(paramName);
+        final String value = this.param(paramName);
         return Utils.isEmpty(value) ? null : Short.valueOf(value);
     }
 
     @Override
     public String toString() {
         final StringBuilder str = new StringBuilder();
-        if (this.params != null) {
+        if (this.getParams() != null) {
             // will not be null only if a resp string was processed
             for (final Entry<String, String> entry : this.params.entrySet()) {
                 if (str.length() != 0) {
@@ -231,7 +263,7 @@ public abstract class AbstractReceipt {
             }
         } else {
             // otherwise, an error receipt
-            str.append(this.response);
+            str.append(this.getResponse());
         }
         return str.toString();
     }
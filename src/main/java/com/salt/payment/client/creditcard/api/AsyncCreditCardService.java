@@ -0,0 +1,317 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+
+import com.salt.payment.client.creditcard.api.PeriodicPurchaseInfo.Schedule;
+
+/**
+ * The asynchronous counterpart of {@link CreditCardService}. Every request
+ * returns immediately with a future that is completed with the receipt, which
+ * must be checked to see if the request was approved or if there was an error,
+ * exactly like the receipt returned by {@link CreditCardService}.
+ * 
+ * @since JSE8
+ */
+public interface AsyncCreditCardService {
+    /**
+     * Issues {@link CreditCardService#installmentPurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> installmentPurchase(String orderId,
+            CreditCard creditCard, long perInstallmentAmount, Date startDate,
+            int totalNumberInstallments, VerificationRequest verificationRequest);
+
+    /**
+     * Issues {@link CreditCardService#recurringPurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> recurringPurchase(String orderId,
+            CreditCard creditCard, long perPaymentAmount, Date startDate, Date endDate,
+            Schedule schedule, VerificationRequest verificationRequest);
+
+    /**
+     * Issues {@link CreditCardService#recurringPurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> recurringPurchase(String orderId,
+            String storageTokenId, long perPaymentAmount, Date startDate, Date endDate,
+            Schedule schedule, VerificationRequest verificationRequest);
+
+    /**
+     * Issues {@link CreditCardService#recurringPurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> recurringPurchase(
+            PeriodicPurchaseInfo periodicPurchaseInfo, CreditCard creditCard, String storageTokenId,
+            VerificationRequest verificationRequest);
+
+    /**
+     * Issues {@link CreditCardService#recurringPurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> recurringPurchase(
+            PeriodicPurchaseInfo periodicPurchaseInfo, CreditCard creditCard, String storageTokenId,
+            VerificationRequest verificationRequest, PurchaseCardRequest purchaseCard);
+
+    /**
+     * Issues {@link CreditCardService#executeRecurringPurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> executeRecurringPurchase(Long recurringPurchaseId,
+            String cvv2);
+
+    /**
+     * Issues {@link CreditCardService#holdRecurringPurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> holdRecurringPurchase(Long recurringPurchaseId);
+
+    /**
+     * Issues {@link CreditCardService#resumeRecurringPurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> resumeRecurringPurchase(Long recurringPurchaseId);
+
+    /**
+     * Issues {@link CreditCardService#cancelRecurringPurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> cancelRecurringPurchase(Long recurringPurchaseId);
+
+    /**
+     * Issues {@link CreditCardService#queryRecurringPurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> queryRecurringPurchase(Long recurringPurchaseId);
+
+    /**
+     * Issues {@link CreditCardService#updateRecurringPurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> updateRecurringPurchase(Long recurringPurchaseId,
+            CreditCard creditCard, Long perPaymentAmount, VerificationRequest verificationRequest);
+
+    /**
+     * Issues {@link CreditCardService#updateRecurringPurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> updateRecurringPurchase(Long recurringPurchaseId,
+            String storageTokenId, Long perPaymentAmount, VerificationRequest verificationRequest);
+
+    /**
+     * Issues {@link CreditCardService#updateRecurringPurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> updateRecurringPurchase(
+            PeriodicPurchaseInfo periodicPurchaseInfo, CreditCard creditCard, String storageTokenId,
+            VerificationRequest verificationRequest);
+
+    /**
+     * Issues {@link CreditCardService#updateRecurringPurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> updateRecurringPurchase(
+            PeriodicPurchaseInfo periodicPurchaseInfo, CreditCard creditCard, String storageTokenId,
+            VerificationRequest verificationRequest, PurchaseCardRequest purchaseCard);
+
+    /**
+     * Issues {@link CreditCardService#refund} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> refund(long purchaseId, String purchaseOrderId,
+            String refundOrderId, long amount);
+
+    /**
+     * Issues {@link CreditCardService#preAuth} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> preAuth(String orderId, CreditCard creditCard,
+            long amount, VerificationRequest verificationRequest);
+
+    /**
+     * Issues {@link CreditCardService#preAuth} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> preAuth(String orderId, String storageTokenId,
+            long amount, VerificationRequest verificationRequest);
+
+    /**
+     * Issues {@link CreditCardService#capture} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> capture(long purchaseId, String purchaseOrderId,
+            long amount);
+
+    /**
+     * Issues {@link CreditCardService#singleCredit} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> singleCredit(String orderId, CreditCard creditCard,
+            long amount, VerificationRequest verificationRequest);
+
+    /**
+     * Issues {@link CreditCardService#singleCredit} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> singleCredit(String orderId, String storageTokenId,
+            long amount, VerificationRequest verificationRequest);
+
+    /**
+     * Issues {@link CreditCardService#singlePurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> singlePurchase(String orderId,
+            CreditCard creditCard, long amount, VerificationRequest verificationRequest);
+
+    /**
+     * Issues {@link CreditCardService#singlePurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> singlePurchase(String orderId,
+            CreditCard creditCard, long amount, VerificationRequest verificationRequest,
+            PurchaseCardRequest purchaseCard);
+
+    /**
+     * Issues {@link CreditCardService#singlePurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> singlePurchase(String orderId,
+            CreditCard creditCard, long amount, VerificationRequest verificationRequest,
+            PurchaseCardRequest purchaseCard, String secureTokenId);
+
+    /**
+     * Issues {@link CreditCardService#singlePurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> singlePurchase(String orderId,
+            String storageTokenId, long amount, VerificationRequest verificationRequest);
+
+    /**
+     * Issues {@link CreditCardService#singlePurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> singlePurchase(String orderId,
+            String storageTokenId, long amount, VerificationRequest verificationRequest,
+            PurchaseCardRequest purchaseCard);
+
+    /**
+     * Issues {@link CreditCardService#forcePurchase} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> forcePurchase(String orderId, CreditCard creditCard,
+            long amount, String approvalCode, VerificationRequest verificationRequest);
+
+    /**
+     * Issues {@link CreditCardService#reverseTransaction} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> reverseTransaction(long transactionId,
+            String transactionOrderId);
+
+    /**
+     * Issues {@link CreditCardService#verifyCreditCard} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> verifyCreditCard(CreditCard creditCard,
+            VerificationRequest verificationRequest);
+
+    /**
+     * Issues {@link CreditCardService#verifyCreditCard} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> verifyCreditCard(CreditCard creditCard,
+            VerificationRequest verificationRequest, String secureTokenId);
+
+    /**
+     * Issues {@link CreditCardService#verifyCreditCard} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> verifyCreditCard(String storageTokenId,
+            VerificationRequest verificationRequest);
+
+    /**
+     * Issues {@link CreditCardService#voidTransaction} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> voidTransaction(long transactionId,
+            String transactionOrderId);
+
+    /**
+     * Issues {@link CreditCardService#verifyTransaction} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<CreditCardReceipt> verifyTransaction(Long transactionId,
+            String transactionOrderId);
+
+    /**
+     * Issues {@link CreditCardService#addToStorage} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<StorageReceipt> addToStorage(String storageTokenId,
+            PaymentProfile paymentProfile);
+
+    /**
+     * Issues {@link CreditCardService#deleteFromStorage} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<StorageReceipt> deleteFromStorage(String storageTokenId);
+
+    /**
+     * Issues {@link CreditCardService#queryStorage} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<StorageReceipt> queryStorage(String storageTokenId);
+
+    /**
+     * Issues {@link CreditCardService#updateStorage} asynchronously.
+     * 
+     * @return a future completed with the receipt
+     */
+    public CompletableFuture<StorageReceipt> updateStorage(String storageTokenId,
+            PaymentProfile paymentProfile);
+}
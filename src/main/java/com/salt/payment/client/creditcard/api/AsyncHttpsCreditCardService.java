@@ -0,0 +1,345 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+import com.salt.payment.client.creditcard.api.PeriodicPurchaseInfo.Schedule;
+
+/**
+ * The implementation of the {@link AsyncCreditCardService} that issues the
+ * requests of a {@link CreditCardService}, typically a
+ * {@link HttpsCreditCardService}, on an {@link Executor}. The calling thread
+ * returns as soon as the request is handed over; the receipt is delivered
+ * through the returned future.
+ * <p>
+ * The number of requests actually talking to the gateway at once is bounded by
+ * the connections of the service's {@link HttpTransport}; the executor only
+ * needs enough threads to keep those connections busy. To run the requests
+ * on virtual threads, pass an executor from
+ * {@link GatewayExecutors#newVirtualThreadExecutor(int)}.
+ * <p>
+ * A request is held to the {@link Deadline} of the thread that issued it, if
+ * any, from the time it was handed over.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @since JSE8
+ */
+public final class AsyncHttpsCreditCardService implements AsyncCreditCardService {
+    /** Lazily created executor shared by instances not given their own. */
+    private static final class DefaultExecutorHolder {
+        static final ExecutorService INSTANCE = GatewayExecutors.newDefaultExecutor();
+    }
+
+    // --------------------------------------------------------------------------
+    // Fields
+    // --------------------------------------------------------------------------
+    private final CreditCardService service;
+    private final Executor executor;
+
+    /**
+     * Creates an instance issuing the requests on a shared executor: virtual
+     * threads if the runtime supports them, otherwise a pool of daemon
+     * threads.
+     * 
+     * @param service
+     *            the service issuing the requests. Not null.
+     */
+    public AsyncHttpsCreditCardService(CreditCardService service) {
+        this(service, DefaultExecutorHolder.INSTANCE);
+    }
+
+    /**
+     * Creates an instance.
+     * 
+     * @param service
+     *            the service issuing the requests. Not null.
+     * @param executor
+     *            the executor running the requests. Not null.
+     */
+    public AsyncHttpsCreditCardService(CreditCardService service, Executor executor) {
+        if (service == null) {
+            throw new IllegalArgumentException("service must not be null");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        this.service = service;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the service issuing the requests
+     */
+    public CreditCardService getService() {
+        return this.service;
+    }
+
+    /**
+     * @return the executor running the requests
+     */
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    public CompletableFuture<CreditCardReceipt> installmentPurchase(String orderId,
+            CreditCard creditCard, long perInstallmentAmount, Date startDate,
+            int totalNumberInstallments, VerificationRequest verificationRequest) {
+        return this.submit(() -> this.service.installmentPurchase(orderId, creditCard,
+                perInstallmentAmount, startDate, totalNumberInstallments, verificationRequest));
+    }
+
+    public CompletableFuture<CreditCardReceipt> recurringPurchase(String orderId,
+            CreditCard creditCard, long perPaymentAmount, Date startDate,
+            Date endDate, Schedule schedule,
+            VerificationRequest verificationRequest) {
+        return this.submit(() -> this.service.recurringPurchase(orderId, creditCard,
+                perPaymentAmount, startDate, endDate, schedule, verificationRequest));
+    }
+
+    public CompletableFuture<CreditCardReceipt> recurringPurchase(String orderId,
+            String storageTokenId, long perPaymentAmount, Date startDate,
+            Date endDate, Schedule schedule,
+            VerificationRequest verificationRequest) {
+        return this.submit(() -> this.service.recurringPurchase(orderId, storageTokenId,
+                perPaymentAmount, startDate, endDate, schedule, verificationRequest));
+    }
+
+    public CompletableFuture<CreditCardReceipt> recurringPurchase(
+            PeriodicPurchaseInfo periodicPurchaseInfo, CreditCard creditCard,
+            String storageTokenId, VerificationRequest verificationRequest) {
+        return this.submit(() -> this.service.recurringPurchase(periodicPurchaseInfo, creditCard,
+                storageTokenId, verificationRequest));
+    }
+
+    public CompletableFuture<CreditCardReceipt> recurringPurchase(
+            PeriodicPurchaseInfo periodicPurchaseInfo, CreditCard creditCard,
+            String storageTokenId, VerificationRequest verificationRequest,
+            PurchaseCardRequest purchaseCard) {
+        return this.submit(() -> this.service.recurringPurchase(periodicPurchaseInfo, creditCard,
+                storageTokenId, verificationRequest, purchaseCard));
+    }
+
+    public CompletableFuture<CreditCardReceipt> executeRecurringPurchase(
+            Long recurringPurchaseId, String cvv2) {
+        return this.submit(() -> this.service.executeRecurringPurchase(recurringPurchaseId, cvv2));
+    }
+
+    public CompletableFuture<CreditCardReceipt> holdRecurringPurchase(
+            Long recurringPurchaseId) {
+        return this.submit(() -> this.service.holdRecurringPurchase(recurringPurchaseId));
+    }
+
+    public CompletableFuture<CreditCardReceipt> resumeRecurringPurchase(
+            Long recurringPurchaseId) {
+        return this.submit(() -> this.service.resumeRecurringPurchase(recurringPurchaseId));
+    }
+
+    public CompletableFuture<CreditCardReceipt> cancelRecurringPurchase(
+            Long recurringPurchaseId) {
+        return this.submit(() -> this.service.cancelRecurringPurchase(recurringPurchaseId));
+    }
+
+    public CompletableFuture<CreditCardReceipt> queryRecurringPurchase(
+            Long recurringPurchaseId) {
+        return this.submit(() -> this.service.queryRecurringPurchase(recurringPurchaseId));
+    }
+
+    public CompletableFuture<CreditCardReceipt> updateRecurringPurchase(
+            Long recurringPurchaseId, CreditCard creditCard,
+            Long perPaymentAmount, VerificationRequest verificationRequest) {
+        return this.submit(() -> this.service.updateRecurringPurchase(recurringPurchaseId,
+                creditCard, perPaymentAmount, verificationRequest));
+    }
+
+    public CompletableFuture<CreditCardReceipt> updateRecurringPurchase(
+            Long recurringPurchaseId, String storageTokenId,
+            Long perPaymentAmount, VerificationRequest verificationRequest) {
+        return this.submit(() -> this.service.updateRecurringPurchase(recurringPurchaseId,
+                storageTokenId, perPaymentAmount, verificationRequest));
+    }
+
+    public CompletableFuture<CreditCardReceipt> updateRecurringPurchase(
+            PeriodicPurchaseInfo periodicPurchaseInfo, CreditCard creditCard,
+            String storageTokenId, VerificationRequest verificationRequest) {
+        return this.submit(() -> this.service.updateRecurringPurchase(periodicPurchaseInfo,
+                creditCard, storageTokenId, verificationRequest));
+    }
+
+    public CompletableFuture<CreditCardReceipt> updateRecurringPurchase(
+            PeriodicPurchaseInfo periodicPurchaseInfo, CreditCard creditCard,
+            String storageTokenId, VerificationRequest verificationRequest,
+            PurchaseCardRequest purchaseCard) {
+        return this.submit(() -> this.service.updateRecurringPurchase(periodicPurchaseInfo,
+                creditCard, storageTokenId, verificationRequest, purchaseCard));
+    }
+
+    public CompletableFuture<CreditCardReceipt> refund(long purchaseId,
+            String purchaseOrderId, String refundOrderId, long amount) {
+        return this.submit(() -> this.service.refund(purchaseId, purchaseOrderId, refundOrderId,
+                amount));
+    }
+
+    public CompletableFuture<CreditCardReceipt> preAuth(String orderId,
+            CreditCard creditCard, long amount,
+            VerificationRequest verificationRequest) {
+        return this.submit(() -> this.service.preAuth(orderId, creditCard, amount,
+                verificationRequest));
+    }
+
+    public CompletableFuture<CreditCardReceipt> preAuth(String orderId,
+            String storageTokenId, long amount,
+            VerificationRequest verificationRequest) {
+        return this.submit(() -> this.service.preAuth(orderId, storageTokenId, amount,
+                verificationRequest));
+    }
+
+    public CompletableFuture<CreditCardReceipt> capture(long purchaseId,
+            String purchaseOrderId, long amount) {
+        return this.submit(() -> this.service.capture(purchaseId, purchaseOrderId, amount));
+    }
+
+    public CompletableFuture<CreditCardReceipt> singleCredit(String orderId,
+            CreditCard creditCard, long amount,
+            VerificationRequest verificationRequest) {
+        return this.submit(() -> this.service.singleCredit(orderId, creditCard, amount,
+                verificationRequest));
+    }
+
+    public CompletableFuture<CreditCardReceipt> singleCredit(String orderId,
+            String storageTokenId, long amount,
+            VerificationRequest verificationRequest) {
+        return this.submit(() -> this.service.singleCredit(orderId, storageTokenId, amount,
+                verificationRequest));
+    }
+
+    public CompletableFuture<CreditCardReceipt> singlePurchase(String orderId,
+            CreditCard creditCard, long amount,
+            VerificationRequest verificationRequest) {
+        return this.submit(() -> this.service.singlePurchase(orderId, creditCard, amount,
+                verificationRequest));
+    }
+
+    public CompletableFuture<CreditCardReceipt> singlePurchase(String orderId,
+            CreditCard creditCard, long amount,
+            VerificationRequest verificationRequest, PurchaseCardRequest purchaseCard) {
+        return this.submit(() -> this.service.singlePurchase(orderId, creditCard, amount,
+                verificationRequest, purchaseCard));
+    }
+
+    public CompletableFuture<CreditCardReceipt> singlePurchase(String orderId,
+            CreditCard creditCard, long amount,
+            VerificationRequest verificationRequest, PurchaseCardRequest purchaseCard,
+            String secureTokenId) {
+        return this.submit(() -> this.service.singlePurchase(orderId, creditCard, amount,
+                verificationRequest, purchaseCard, secureTokenId));
+    }
+
+    public CompletableFuture<CreditCardReceipt> singlePurchase(String orderId,
+            String storageTokenId, long amount,
+            VerificationRequest verificationRequest) {
+        return this.submit(() -> this.service.singlePurchase(orderId, storageTokenId, amount,
+                verificationRequest));
+    }
+
+    public CompletableFuture<CreditCardReceipt> singlePurchase(String orderId,
+            String storageTokenId, long amount,
+            VerificationRequest verificationRequest, PurchaseCardRequest purchaseCard) {
+        return this.submit(() -> this.service.singlePurchase(orderId, storageTokenId, amount,
+                verificationRequest, purchaseCard));
+    }
+
+    public CompletableFuture<CreditCardReceipt> forcePurchase(String orderId,
+            CreditCard creditCard, long amount, String approvalCode,
+            VerificationRequest verificationRequest) {
+        return this.submit(() -> this.service.forcePurchase(orderId, creditCard, amount,
+                approvalCode, verificationRequest));
+    }
+
+    public CompletableFuture<CreditCardReceipt> reverseTransaction(long transactionId,
+            String transactionOrderId) {
+        return this.submit(() -> this.service.reverseTransaction(transactionId,
+                transactionOrderId));
+    }
+
+    public CompletableFuture<CreditCardReceipt> verifyCreditCard(CreditCard creditCard,
+            VerificationRequest verificationRequest) {
+        return this.submit(() -> this.service.verifyCreditCard(creditCard, verificationRequest));
+    }
+
+    public CompletableFuture<CreditCardReceipt> verifyCreditCard(CreditCard creditCard,
+            VerificationRequest verificationRequest, String secureTokenId) {
+        return this.submit(() -> this.service.verifyCreditCard(creditCard, verificationRequest,
+                secureTokenId));
+    }
+
+    public CompletableFuture<CreditCardReceipt> verifyCreditCard(String storageTokenId,
+            VerificationRequest verificationRequest) {
+        return this.submit(() -> this.service.verifyCreditCard(storageTokenId,
+                verificationRequest));
+    }
+
+    public CompletableFuture<CreditCardReceipt> voidTransaction(long transactionId,
+            String transactionOrderId) {
+        return this.submit(() -> this.service.voidTransaction(transactionId, transactionOrderId));
+    }
+
+    public CompletableFuture<CreditCardReceipt> verifyTransaction(Long transactionId,
+            String transactionOrderId) {
+        return this.submit(() -> this.service.verifyTransaction(transactionId, transactionOrderId));
+    }
+
+    public CompletableFuture<StorageReceipt> addToStorage(String storageTokenId,
+            PaymentProfile paymentProfile) {
+        return this.submit(() -> this.service.addToStorage(storageTokenId, paymentProfile));
+    }
+
+    public CompletableFuture<StorageReceipt> deleteFromStorage(String storageTokenId) {
+        return this.submit(() -> this.service.deleteFromStorage(storageTokenId));
+    }
+
+    public CompletableFuture<StorageReceipt> queryStorage(String storageTokenId) {
+        return this.submit(() -> this.service.queryStorage(storageTokenId));
+    }
+
+    public CompletableFuture<StorageReceipt> updateStorage(String storageTokenId,
+            PaymentProfile paymentProfile) {
+        return this.submit(() -> this.service.updateStorage(storageTokenId, paymentProfile));
+    }
+
+    /**
+     * Hands the request over to the executor. If the executor refuses it, the
+     * returned future is completed exceptionally.
+     */
+    private <T> CompletableFuture<T> submit(Supplier<T> request) {
+        // the request is held to the caller's deadline, time queued included
+        final Deadline deadline = Deadline.current();
+        final Supplier<T> task = deadline == null ? request : () -> {
+            final Deadline.Scope scope = deadline.enter();
+            try {
+                return request.get();
+            } finally {
+                scope.close();
+            }
+        };
+        try {
+            return CompletableFuture.supplyAsync(task, this.executor);
+        } catch (final RuntimeException e) {
+            final CompletableFuture<T> failed = new CompletableFuture<T>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+}
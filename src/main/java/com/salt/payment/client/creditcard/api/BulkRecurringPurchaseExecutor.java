@@ -0,0 +1,467 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.salt.payment.client.creditcard.api.BulkRecurringPurchaseResults.Outcome;
+
+/**
+ * Executes many recurring purchases, ie. the billing run of a merchant, with a
+ * bounded number of calls in flight and a maximum rate of calls. Ie.
+ * 
+ * <pre>
+ * BulkRecurringPurchaseExecutor executor = new BulkRecurringPurchaseExecutor(service,
+ *         new File(&quot;billing-2026-10.journal&quot;));
+ * executor.setParallelism(16);
+ * executor.setMaxCallsPerSecond(100);
+ * BulkRecurringPurchaseResults results = executor.execute(ids.iterator(), null);
+ * </pre>
+ * 
+ * Each id is taken from the iterator by one of {@link #getParallelism()}
+ * workers, which waits for its turn at {@link #getMaxCallsPerSecond()}, and
+ * calls {@link CreditCardService#executeRecurringPurchase(Long, String)}
+ * within a {@link Deadline} of {@link #getItemTimeoutMs()}. The ids are read
+ * as they are needed, so that they may be streamed, ie. from a database
+ * cursor.
+ * <p>
+ * Progress is checkpointed in a journal file, appended to before and after
+ * each call, so that a run that stopped, ie. crashed, resumes where it was
+ * when executed again over the same ids with the same journal:
+ * <ul>
+ * <li>the ids approved or declined are {@link Outcome#SKIPPED}</li>
+ * <li>the ids that failed before they were sent are executed again</li>
+ * <li>the ids whose call was started but whose outcome is unknown, ie. lost
+ * with the response or the process, are {@link Outcome#IN_DOUBT} and never
+ * executed again: they must be checked rather than charged twice</li>
+ * </ul>
+ * An id repeated in the iterator is executed once, even if it failed before
+ * it was sent: the repeat is then {@link Outcome#NOT_SENT} as well, and the
+ * id is executed again by the next run. The journal is synced to
+ * the disk before each call is sent, unless {@link #setSyncJournal(boolean)
+ * disabled}, so that even a crash of the host does not lose a call started.
+ * The journal is a text file, one record per line: <code>S id</code> when
+ * started, then <code>A id transactionId</code> if approved, <code>D id
+ * errorCode</code> if declined, <code>N id errorCode</code> if not sent or
+ * <code>U id errorCode</code> if in doubt.
+ * <p>
+ * The settings are read when a run starts. This class is thread-safe, one run
+ * at a time.
+ * 
+ * @since JSE8
+ */
+public final class BulkRecurringPurchaseExecutor {
+    /** The default number of calls in flight is {@value}. */
+    public static final int DEFAULT_PARALLELISM = 8;
+    /** The default maximum number of calls per second is {@value}. */
+    public static final double DEFAULT_MAX_CALLS_PER_SECOND = 50;
+    /** The default number of ms a call is given is {@value}. */
+    public static final long DEFAULT_ITEM_TIMEOUT_MS = 30000;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final CreditCardService service;
+    private final File journal;
+    private volatile int parallelism = DEFAULT_PARALLELISM;
+    private volatile double maxCallsPerSecond = DEFAULT_MAX_CALLS_PER_SECOND;
+    private volatile long itemTimeoutMs = DEFAULT_ITEM_TIMEOUT_MS;
+    private volatile boolean syncJournal = true;
+
+    /**
+     * Creates an instance.
+     * 
+     * @param service
+     *            the service executing the recurring purchases. Not null.
+     * @param journal
+     *            the journal of the run, created if it does not exist, or
+     *            resumed. Not null.
+     */
+    public BulkRecurringPurchaseExecutor(CreditCardService service, File journal) {
+        if (service == null) {
+            throw new IllegalArgumentException("service is required");
+        }
+        if (journal == null) {
+            throw new IllegalArgumentException("journal is required");
+        }
+        this.service = service;
+        this.journal = journal;
+    }
+
+    /**
+     * @return the maximum number of calls in flight
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * @param parallelism
+     *            the maximum number of calls in flight. Positive. Defaults to
+     *            {@value #DEFAULT_PARALLELISM}.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the maximum number of calls started per second
+     */
+    public double getMaxCallsPerSecond() {
+        return this.maxCallsPerSecond;
+    }
+
+    /**
+     * @param maxCallsPerSecond
+     *            the maximum number of calls started per second, evenly
+     *            spaced. Positive. Defaults to
+     *            {@value #DEFAULT_MAX_CALLS_PER_SECOND}.
+     */
+    public void setMaxCallsPerSecond(double maxCallsPerSecond) {
+        if (!(maxCallsPerSecond > 0) || Double.isInfinite(maxCallsPerSecond)) {
+            throw new IllegalArgumentException("maxCallsPerSecond must be positive");
+        }
+        this.maxCallsPerSecond = maxCallsPerSecond;
+    }
+
+    /**
+     * @return the number of ms a call is given
+     */
+    public long getItemTimeoutMs() {
+        return this.itemTimeoutMs;
+    }
+
+    /**
+     * @param itemTimeoutMs
+     *            the number of ms a call is given, connect and read included.
+     *            Positive. Defaults to {@value #DEFAULT_ITEM_TIMEOUT_MS}.
+     */
+    public void setItemTimeoutMs(long itemTimeoutMs) {
+        if (itemTimeoutMs <= 0) {
+            throw new IllegalArgumentException("itemTimeoutMs must be positive");
+        }
+        this.itemTimeoutMs = itemTimeoutMs;
+    }
+
+    /**
+     * @return true if the journal is synced to the disk before each call
+     */
+    public boolean isSyncJournal() {
+        return this.syncJournal;
+    }
+
+    /**
+     * @param syncJournal
+     *            true to sync the journal to the disk before each call, so
+     *            that a crash of the host does not lose it, false to only
+     *            survive a crash of the process. Defaults to true.
+     */
+    public void setSyncJournal(boolean syncJournal) {
+        this.syncJournal = syncJournal;
+    }
+
+    /**
+     * Executes the recurring purchases, or resumes the run of the journal,
+     * and returns once all are done.
+     * 
+     * @param recurringPurchaseIds
+     *            the ids of the recurring purchases. Not null, without null
+     *            ids.
+     * @param cvv2
+     *            the CVV2 of the cards, or null if none
+     * @return the outcomes of the ids, in the order they were done
+     * @throws IOException
+     *             if the journal cannot be read or written: the run stops
+     *             once the calls in flight are done
+     * @throws InterruptedException
+     *             if the calling thread was interrupted: the run stops once
+     *             the calls in flight are done and journaled
+     */
+    public synchronized BulkRecurringPurchaseResults execute(Iterator<Long> recurringPurchaseIds,
+            String cvv2) throws IOException, InterruptedException {
+        if (recurringPurchaseIds == null) {
+            throw new IllegalArgumentException("recurringPurchaseIds is required");
+        }
+        final Run run = new Run(recurringPurchaseIds, cvv2);
+        try {
+            return run.execute();
+        } finally {
+            run.close();
+        }
+    }
+
+    /** A run of the executor, from its settings when it started. */
+    private final class Run {
+        private final Iterator<Long> ids;
+        private final String cvv2;
+        private final int parallelism = BulkRecurringPurchaseExecutor.this.parallelism;
+        private final long itemTimeoutMs = BulkRecurringPurchaseExecutor.this.itemTimeoutMs;
+        private final boolean syncJournal = BulkRecurringPurchaseExecutor.this.syncJournal;
+        private final TokenBucket bucket =
+                new TokenBucket(BulkRecurringPurchaseExecutor.this.maxCallsPerSecond, 1);
+        /** The latest outcome of the ids journaled. Guarded by itself. */
+        private final LongObjectMap<Outcome> states = new LongObjectMap<Outcome>(1024);
+        /** The ids not sent by this run, not executed again if repeated. Guarded by states. */
+        private final LongObjectMap<Boolean> notSentByRun = new LongObjectMap<Boolean>(16);
+        private final BulkRecurringPurchaseResults results = new BulkRecurringPurchaseResults();
+        private final FileChannel channel;
+        private volatile boolean stopped = false;
+        /** The first failure of a worker. Guarded by this. */
+        private Throwable failure;
+
+        Run(Iterator<Long> ids, String cvv2) throws IOException {
+            this.ids = ids;
+            this.cvv2 = cvv2;
+            this.load();
+            this.channel = new FileOutputStream(BulkRecurringPurchaseExecutor.this.journal, true)
+                    .getChannel();
+        }
+
+        /** Loads the journal, without the record it may have been cut in. */
+        private void load() throws IOException {
+            final File journal = BulkRecurringPurchaseExecutor.this.journal;
+            if (!journal.exists()) {
+                return;
+            }
+            final RandomAccessFile file = new RandomAccessFile(journal, "rw");
+            try {
+                long length = file.length();
+                while (length > 0) {
+                    file.seek(length - 1);
+                    if (file.read() == '\n') {
+                        break;
+                    }
+                    length--;
+                }
+                file.setLength(length);
+            } finally {
+                file.close();
+            }
+            final BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(journal), ASCII));
+            try {
+                int lineNumber = 0;
+                String line;
+                while ((line = in.readLine()) != null) {
+                    lineNumber++;
+                    this.parse(line, lineNumber);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        private void parse(String line, int lineNumber) throws IOException {
+            final int end = line.indexOf(' ', 2);
+            final Outcome outcome;
+            try {
+                final long id =
+                        Long.parseLong(end < 0 ? line.substring(2) : line.substring(2, end));
+                switch (line.charAt(0)) {
+                case 'S':
+                case 'U':
+                    outcome = Outcome.IN_DOUBT;
+                    break;
+                case 'A':
+                    outcome = Outcome.APPROVED;
+                    break;
+                case 'D':
+                    outcome = Outcome.DECLINED;
+                    break;
+                case 'N':
+                    outcome = Outcome.NOT_SENT;
+                    break;
+                default:
+                    outcome = null;
+                }
+                if (outcome != null && line.charAt(1) == ' ') {
+                    this.states.put(id, outcome);
+                    return;
+                }
+            } catch (final RuntimeException e) {
+                // reported below
+            }
+            throw new IOException("malformed record at line " + lineNumber + " of the journal "
+                    + BulkRecurringPurchaseExecutor.this.journal + ": " + line);
+        }
+
+        BulkRecurringPurchaseResults execute() throws IOException, InterruptedException {
+            final ExecutorService executor = GatewayExecutors.newDefaultExecutor();
+            final CountDownLatch done = new CountDownLatch(this.parallelism);
+            try {
+                for (int i = 0; i < this.parallelism; i++) {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                Run.this.work();
+                            } catch (final Throwable e) {
+                                Run.this.fail(e);
+                            } finally {
+                                done.countDown();
+                            }
+                        }
+                    });
+                }
+                try {
+                    done.await();
+                } catch (final InterruptedException e) {
+                    this.stopped = true;
+                    // the calls in flight are journaled before returning
+                    while (true) {
+                        try {
+                            done.await();
+                            break;
+                        } catch (final InterruptedException again) {
+                            // thrown below
+                        }
+                    }
+                    throw e;
+                }
+            } finally {
+                executor.shutdown();
+            }
+            synchronized (this) {
+                if (this.failure instanceof IOException) {
+                    throw (IOException) this.failure;
+                } else if (this.failure instanceof RuntimeException) {
+                    throw (RuntimeException) this.failure;
+                } else if (this.failure instanceof Error) {
+                    throw (Error) this.failure;
+                }
+            }
+            return this.results;
+        }
+
+        private synchronized void fail(Throwable e) {
+            if (this.failure == null) {
+                this.failure = e;
+            }
+            this.stopped = true;
+        }
+
+        /** Executes the ids until there is none left or the run stops. */
+        private void work() throws IOException, InterruptedException {
+            while (!this.stopped) {
+                final long id;
+                synchronized (this.ids) {
+                    if (!this.ids.hasNext()) {
+                        return;
+                    }
+                    final Long next = this.ids.next();
+                    if (next == null) {
+                        throw new IllegalArgumentException(
+                                "recurringPurchaseIds must not contain null");
+                    }
+                    id = next;
+                }
+                final Outcome previous;
+                final boolean claimed;
+                synchronized (this.states) {
+                    previous = this.states.get(id);
+                    claimed = previous == null || (previous == Outcome.NOT_SENT
+                            && this.notSentByRun.get(id) == null);
+                    if (claimed) {
+                        // a repeated id is not executed meanwhile
+                        this.states.put(id, Outcome.IN_DOUBT);
+                    }
+                }
+                if (claimed) {
+                    this.executeOne(id);
+                } else {
+                    this.results.add(id, previous == Outcome.IN_DOUBT
+                            || previous == Outcome.NOT_SENT ? previous : Outcome.SKIPPED, null);
+                }
+            }
+        }
+
+        private void executeOne(long id) throws IOException, InterruptedException {
+            final long waitNanos = this.bucket.reserve(System.nanoTime(), Long.MAX_VALUE);
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (final InterruptedException e) {
+                    // not started: executed again when the run resumes
+                    synchronized (this.states) {
+                        this.states.put(id, Outcome.NOT_SENT);
+                        this.notSentByRun.put(id, Boolean.TRUE);
+                    }
+                    throw e;
+                }
+            }
+            this.append("S " + id + "\n", this.syncJournal);
+            final CreditCardReceipt receipt;
+            final Deadline.Scope scope = Deadline.after(this.itemTimeoutMs).enter();
+            try {
+                receipt = BulkRecurringPurchaseExecutor.this.service.executeRecurringPurchase(id,
+                        this.cvv2);
+            } finally {
+                scope.close();
+            }
+            final Outcome outcome;
+            final char record;
+            final int errorCode = RetryInterceptor.clientErrorCode(receipt);
+            if (receipt.isApproved()) {
+                outcome = Outcome.APPROVED;
+                record = 'A';
+            } else if (errorCode == 0) {
+                outcome = Outcome.DECLINED;
+                record = 'D';
+            } else if (RetryInterceptor.isAmbiguous(errorCode)) {
+                outcome = Outcome.IN_DOUBT;
+                record = 'U';
+            } else {
+                outcome = Outcome.NOT_SENT;
+                record = 'N';
+            }
+            final Object detail = outcome == Outcome.APPROVED ? receipt.getTransactionId()
+                    : receipt.getErrorCode();
+            this.append(record + " " + id + " " + String.valueOf(detail).replace(' ', '_') + "\n",
+                    false);
+            synchronized (this.states) {
+                this.states.put(id, outcome);
+                if (outcome == Outcome.NOT_SENT) {
+                    this.notSentByRun.put(id, Boolean.TRUE);
+                }
+            }
+            this.results.add(id, outcome, receipt);
+        }
+
+        private void append(String record, boolean sync) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(ASCII));
+            synchronized (this.channel) {
+                while (buffer.hasRemaining()) {
+                    this.channel.write(buffer);
+                }
+                if (sync) {
+                    this.channel.force(false);
+                }
+            }
+        }
+
+        void close() throws IOException {
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.util.Arrays;
+
+/**
+ * The outcomes of a run of {@link BulkRecurringPurchaseExecutor}, one per
+ * recurring purchase id, in the order they were done. Only what a billing run
+ * needs to reconcile is kept, in primitive arrays: the id, the
+ * {@link Outcome}, the transaction id and the error code, about 21 bytes per
+ * id rather than a receipt.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @since JSE8
+ */
+public final class BulkRecurringPurchaseResults {
+    /** The outcome of a recurring purchase. */
+    public enum Outcome {
+        /** Approved by the gateway. */
+        APPROVED,
+        /** Declined by the gateway. */
+        DECLINED,
+        /** Failed before it was sent: executed again when the run resumes. */
+        NOT_SENT,
+        /**
+         * Failed after it may have been sent, ie. without a response, or
+         * started by a run that stopped without recording its outcome. It is
+         * never executed again: check it, ie. with
+         * {@link CreditCardService#queryRecurringPurchase(Long)}.
+         */
+        IN_DOUBT,
+        /** Approved or declined by an earlier run, according to the journal. */
+        SKIPPED;
+
+        private static final Outcome[] VALUES = values();
+    }
+
+    private long[] ids = new long[16];
+    private byte[] outcomes = new byte[16];
+    /** The transaction ids, or -1 if none. */
+    private long[] transactionIds = new long[16];
+    /** The error codes, or 0 if none or not numeric. */
+    private int[] errorCodes = new int[16];
+    private int size = 0;
+    private final int[] counts = new int[Outcome.VALUES.length];
+
+    BulkRecurringPurchaseResults() {
+    }
+
+    synchronized void add(long id, Outcome outcome, AbstractReceipt receipt) {
+        if (this.size == this.ids.length) {
+            final int capacity = this.size * 2;
+            this.ids = Arrays.copyOf(this.ids, capacity);
+            this.outcomes = Arrays.copyOf(this.outcomes, capacity);
+            this.transactionIds = Arrays.copyOf(this.transactionIds, capacity);
+            this.errorCodes = Arrays.copyOf(this.errorCodes, capacity);
+        }
+        final Long transactionId = receipt != null ? receipt.getTransactionId() : null;
+        this.ids[this.size] = id;
+        this.outcomes[this.size] = (byte) outcome.ordinal();
+        this.transactionIds[this.size] = transactionId != null ? transactionId : -1;
+        this.errorCodes[this.size] = receipt != null ? parseErrorCode(receipt.getErrorCode()) : 0;
+        this.size++;
+        this.counts[outcome.ordinal()]++;
+    }
+
+    private static int parseErrorCode(String errorCode) {
+        try {
+            return errorCode != null ? Integer.parseInt(errorCode) : 0;
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the number of recurring purchases
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the number of recurring purchases with <code>outcome</code>
+     */
+    public synchronized int getCount(Outcome outcome) {
+        return this.counts[outcome.ordinal()];
+    }
+
+    /**
+     * @param index
+     *            the index of the recurring purchase, from 0 to
+     *            {@link #size()} excluded
+     * @return the recurring purchase id
+     */
+    public synchronized long getId(int index) {
+        this.checkIndex(index);
+        return this.ids[index];
+    }
+
+    /**
+     * @param index
+     *            the index of the recurring purchase, from 0 to
+     *            {@link #size()} excluded
+     * @return the outcome
+     */
+    public synchronized Outcome getOutcome(int index) {
+        this.checkIndex(index);
+        return Outcome.VALUES[this.outcomes[index]];
+    }
+
+    /**
+     * @param index
+     *            the index of the recurring purchase, from 0 to
+     *            {@link #size()} excluded
+     * @return the id of the transaction created, or null if none
+     */
+    public synchronized Long getTransactionId(int index) {
+        this.checkIndex(index);
+        return this.transactionIds[index] != -1 ? Long.valueOf(this.transactionIds[index]) : null;
+    }
+
+    /**
+     * @param index
+     *            the index of the recurring purchase, from 0 to
+     *            {@link #size()} excluded
+     * @return the error code of the receipt, or 0 if none
+     */
+    public synchronized int getErrorCode(int index) {
+        this.checkIndex(index);
+        return this.errorCodes[index];
+    }
+
+    /**
+     * @return the ids of the recurring purchases {@link Outcome#IN_DOUBT}
+     */
+    public synchronized long[] getInDoubtIds() {
+        final long[] inDoubt = new long[this.counts[Outcome.IN_DOUBT.ordinal()]];
+        int n = 0;
+        for (int i = 0; i < this.size; i++) {
+            if (this.outcomes[i] == Outcome.IN_DOUBT.ordinal()) {
+                inDoubt[n++] = this.ids[i];
+            }
+        }
+        return inDoubt;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + this.size);
+        }
+    }
+
+    /**
+     * @return the counts by outcome, ie.
+     *         <code>{APPROVED=9500, DECLINED=480, ...}</code>
+     */
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder("{");
+        for (final Outcome outcome : Outcome.VALUES) {
+            sb.append(sb.length() > 1 ? ", " : "").append(outcome).append('=')
+                    .append(this.counts[outcome.ordinal()]);
+        }
+        return sb.append('}').toString();
+    }
+}
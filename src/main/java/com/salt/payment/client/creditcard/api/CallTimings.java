@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+/**
+ * The times at which a call to the gateway went through each of its phases,
+ * marked by the service and its {@link HttpTransport} as the call proceeds,
+ * from {@link System#nanoTime()}. A phase the call never reached, ie. because
+ * the connection failed, has no duration.
+ * <p>
+ * This class is not thread-safe: it is used by the thread making the call.
+ * 
+ * @since JSE8
+ */
+public final class CallTimings {
+    /** The phases of a call. */
+    public enum Phase {
+        /**
+         * From the start of the call until a connection is ready: waiting for
+         * a pooled connection, or connecting and the TLS handshake.
+         */
+        CONNECT,
+        /** Writing the request. */
+        WRITE,
+        /** From the request written until the response starts to arrive. */
+        TIME_TO_FIRST_BYTE,
+        /** Receiving and decoding the response, then building the receipt. */
+        PARSE,
+        /** The whole call. */
+        TOTAL;
+    }
+
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private final long startNanos;
+    private long connectedNanos = UNSET;
+    private long writtenNanos = UNSET;
+    private long firstByteNanos = UNSET;
+    private long endNanos = UNSET;
+    private boolean reusedConnection = false;
+
+    /**
+     * Starts timing a call, now.
+     */
+    public CallTimings() {
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Marks a connection ready.
+     * 
+     * @param reused
+     *            true if the connection was pooled rather than opened
+     */
+    public void connected(boolean reused) {
+        this.connectedNanos = System.nanoTime();
+        this.reusedConnection = reused;
+    }
+
+    /**
+     * Marks the request written.
+     */
+    public void requestWritten() {
+        this.writtenNanos = System.nanoTime();
+    }
+
+    /**
+     * Marks the first bytes of the response received.
+     */
+    public void responseStarted() {
+        this.firstByteNanos = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of the call. Done by the service once the receipt is
+     * built.
+     */
+    void ended() {
+        this.endNanos = System.nanoTime();
+    }
+
+    /**
+     * @return true if the call was sent on a pooled connection
+     */
+    public boolean isReusedConnection() {
+        return this.reusedConnection;
+    }
+
+    /**
+     * @param phase
+     *            the phase. Not null.
+     * @return how long the call spent in <code>phase</code>, in nanoseconds,
+     *         or -1 if it did not go through it
+     */
+    public long getNanos(Phase phase) {
+        switch (phase) {
+        case CONNECT:
+            return between(this.startNanos, this.connectedNanos);
+        case WRITE:
+            return between(this.connectedNanos, this.writtenNanos);
+        case TIME_TO_FIRST_BYTE:
+            return between(this.writtenNanos, this.firstByteNanos);
+        case PARSE:
+            return between(this.firstByteNanos, this.endNanos);
+        default:
+            return between(this.startNanos, this.endNanos);
+        }
+    }
+
+    private static long between(long from, long to) {
+        return from == UNSET || to == UNSET ? -1 : to - from;
+    }
+}
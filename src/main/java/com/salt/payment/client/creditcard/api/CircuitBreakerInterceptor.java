@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.*;
+
+/**
+ * Fails the requests fast while the gateway is failing, rather than have
+ * each of them wait for the connect and read timeouts. Ie.
+ * 
+ * <pre>
+ * service.addInterceptor(new CircuitBreakerInterceptor());
+ * </pre>
+ * 
+ * A circuit is kept for each gateway url and request code (and operation
+ * code, if any). It records the outcome of the latest
+ * {@link #setWindowSize(int) window} of requests: failed if the gateway did
+ * not answer ({@link CreditCardService#REQ_CONNECTION_FAILED},
+ * {@link CreditCardService#REQ_POST_ERROR} or
+ * {@link CreditCardService#REQ_RESPONSE_ERROR}), slow if it took longer than
+ * {@link #setSlowCallMs(long)}. Declines are answers: they are neither.
+ * <p>
+ * Once the window holds {@link #setMinimumCalls(int)} requests, the circuit
+ * opens if the rate of failed or of slow requests reaches its threshold.
+ * While open, the requests are not sent: they fail at once with
+ * {@link CreditCardService#REQ_CIRCUIT_OPEN}. After
+ * {@link #setOpenMs(long)}, the circuit is half-open: up to
+ * {@link #setTrialCalls(int)} trial requests are sent, the others still
+ * failing fast. The circuit closes if none of the trials fails or is slow,
+ * and opens again otherwise.
+ * <p>
+ * Add it after a {@link RetryInterceptor}, so that each attempt is recorded
+ * and no retry is made while the circuit is open. The settings can be
+ * changed while in use. This class is thread-safe.
+ * 
+ * @since JSE8
+ */
+public final class CircuitBreakerInterceptor implements GatewayInterceptor {
+    /** The states of a circuit. */
+    public enum State {
+        /** The requests are sent. */
+        CLOSED,
+        /** The requests fail fast. */
+        OPEN,
+        /** A few trial requests are sent, the others fail fast. */
+        HALF_OPEN
+    }
+
+    /** The default rate of failed requests opening a circuit, in percent. */
+    public static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+    /** The default rate of slow requests opening a circuit, in percent. */
+    public static final int DEFAULT_SLOW_CALL_RATE_THRESHOLD = 80;
+    /** The default duration of a slow request, in ms. */
+    public static final long DEFAULT_SLOW_CALL_MS = 10000;
+    /** The default number of requests recorded by a circuit. */
+    public static final int DEFAULT_WINDOW_SIZE = 50;
+    /** The default number of requests recorded before a circuit may open. */
+    public static final int DEFAULT_MINIMUM_CALLS = 10;
+    /** The default duration a circuit stays open, in ms. */
+    public static final long DEFAULT_OPEN_MS = 30000;
+    /** The default number of trial requests of a half-open circuit. */
+    public static final int DEFAULT_TRIAL_CALLS = 3;
+
+    private static final byte SUCCEEDED = 0;
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final ConcurrentMap<String, Circuit> circuits =
+            new ConcurrentHashMap<String, Circuit>();
+    private volatile int failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+    private volatile int slowCallRateThreshold = DEFAULT_SLOW_CALL_RATE_THRESHOLD;
+    private volatile long slowCallNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_CALL_MS);
+    private volatile int windowSize = DEFAULT_WINDOW_SIZE;
+    private volatile int minimumCalls = DEFAULT_MINIMUM_CALLS;
+    private volatile long openNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_OPEN_MS);
+    private volatile int trialCalls = DEFAULT_TRIAL_CALLS;
+
+    /**
+     * Creates an instance with the default settings.
+     */
+    public CircuitBreakerInterceptor() {
+    }
+
+    /**
+     * Sets the rate of failed requests opening a circuit.
+     * {@value #DEFAULT_FAILURE_RATE_THRESHOLD} by default.
+     * 
+     * @param percent
+     *            the rate, from 1 to 100
+     */
+    public void setFailureRateThreshold(int percent) {
+        this.failureRateThreshold = checkPercent(percent);
+    }
+
+    /**
+     * Sets the rate of slow requests opening a circuit.
+     * {@value #DEFAULT_SLOW_CALL_RATE_THRESHOLD} by default.
+     * 
+     * @param percent
+     *            the rate, from 1 to 100
+     */
+    public void setSlowCallRateThreshold(int percent) {
+        this.slowCallRateThreshold = checkPercent(percent);
+    }
+
+    /**
+     * Sets the duration from which a request is slow.
+     * {@value #DEFAULT_SLOW_CALL_MS} ms by default.
+     * 
+     * @param millis
+     *            the duration, in ms. Positive.
+     */
+    public void setSlowCallMs(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("millis must be positive");
+        }
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Sets the number of latest requests recorded by a circuit, for circuits
+     * created from now on. {@value #DEFAULT_WINDOW_SIZE} by default.
+     * 
+     * @param size
+     *            the number of requests. Positive.
+     */
+    public void setWindowSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.windowSize = size;
+    }
+
+    /**
+     * Sets the number of requests recorded before a circuit may open.
+     * {@value #DEFAULT_MINIMUM_CALLS} by default.
+     * 
+     * @param calls
+     *            the number of requests. Positive.
+     */
+    public void setMinimumCalls(int calls) {
+        if (calls <= 0) {
+            throw new IllegalArgumentException("calls must be positive");
+        }
+        this.minimumCalls = calls;
+    }
+
+    /**
+     * Sets how long a circuit stays open before trial requests are sent.
+     * {@value #DEFAULT_OPEN_MS} ms by default.
+     * 
+     * @param millis
+     *            the duration, in ms. Not negative.
+     */
+    public void setOpenMs(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis must not be negative");
+        }
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Sets the number of trial requests of a half-open circuit.
+     * {@value #DEFAULT_TRIAL_CALLS} by default.
+     * 
+     * @param calls
+     *            the number of requests. Positive.
+     */
+    public void setTrialCalls(int calls) {
+        if (calls <= 0) {
+            throw new IllegalArgumentException("calls must be positive");
+        }
+        this.trialCalls = calls;
+    }
+
+    private static int checkPercent(int percent) {
+        if (percent < 1 || percent > 100) {
+            throw new IllegalArgumentException("percent must be between 1 and 100");
+        }
+        return percent;
+    }
+
+    /**
+     * @return the state of each circuit, by gateway url and request, ie.
+     *         <code>https://.../processor.do singlePurchase</code>
+     */
+    public Map<String, State> getStates() {
+        final Map<String, State> states = new TreeMap<String, State>();
+        final long now = System.nanoTime();
+        for (final Map.Entry<String, Circuit> circuit : this.circuits.entrySet()) {
+            states.put(circuit.getKey(), circuit.getValue().getState(now));
+        }
+        return states;
+    }
+
+    @Override
+    public AbstractReceipt intercept(Chain chain) {
+        final GatewayRequest request = chain.request();
+        final String key = request.getUrl() + " " + request;
+        Circuit circuit = this.circuits.get(key);
+        if (circuit == null) {
+            final Circuit created = new Circuit(this.windowSize);
+            circuit = this.circuits.putIfAbsent(key, created);
+            if (circuit == null) {
+                circuit = created;
+            }
+        }
+        final long start = System.nanoTime();
+        if (!circuit.tryAcquire(start)) {
+            return request.newErrorReceipt(REQ_CIRCUIT_OPEN, String.format(
+                    "the credit card gateway is failing, %s requests are not sent for now.",
+                    request), null);
+        }
+        byte outcome = FAILED;
+        try {
+            final AbstractReceipt receipt = chain.proceed(request);
+            final String errorCode = receipt.getErrorCode();
+            final long end = System.nanoTime();
+            if (!receipt.isApproved()
+                    && (String.valueOf(REQ_CONNECTION_FAILED).equals(errorCode)
+                            || String.valueOf(REQ_POST_ERROR).equals(errorCode) || String
+                            .valueOf(REQ_RESPONSE_ERROR).equals(errorCode))) {
+                outcome = FAILED;
+            } else if (end - start >= this.slowCallNanos) {
+                outcome = SLOW;
+            } else {
+                outcome = SUCCEEDED;
+            }
+            return receipt;
+        } finally {
+            circuit.record(outcome, System.nanoTime());
+        }
+    }
+
+    /** The outcomes of the latest requests of one url and request code. */
+    private final class Circuit {
+        /** The outcomes, in a ring. */
+        private final byte[] window;
+        private int next = 0;
+        private int size = 0;
+        private int failed = 0;
+        private int slow = 0;
+        private State state = State.CLOSED;
+        /** When the circuit opened, if open. */
+        private long openedAt;
+        /** The trial requests sent and completed, if half-open. */
+        private int trialsSent;
+        private int trialsSucceeded;
+
+        Circuit(int windowSize) {
+            this.window = new byte[windowSize];
+        }
+
+        synchronized State getState(long now) {
+            if (this.state == State.OPEN
+                    && now - this.openedAt >= CircuitBreakerInterceptor.this.openNanos) {
+                return State.HALF_OPEN;
+            }
+            return this.state;
+        }
+
+        /** @return true if a request may be sent */
+        synchronized boolean tryAcquire(long now) {
+            switch (this.state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - this.openedAt < CircuitBreakerInterceptor.this.openNanos) {
+                    return false;
+                }
+                this.state = State.HALF_OPEN;
+                this.trialsSent = 0;
+                this.trialsSucceeded = 0;
+                return this.tryTrial();
+            default:
+                return this.tryTrial();
+            }
+        }
+
+        /** @return true if one more trial request may be sent, if half-open */
+        private boolean tryTrial() {
+            if (this.trialsSent >= CircuitBreakerInterceptor.this.trialCalls) {
+                return false;
+            }
+            this.trialsSent++;
+            return true;
+        }
+
+        synchronized void record(byte outcome, long now) {
+            if (this.state == State.HALF_OPEN) {
+                if (outcome != SUCCEEDED) {
+                    this.open(now);
+                } else if (++this.trialsSucceeded >= CircuitBreakerInterceptor.this.trialCalls) {
+                    this.state = State.CLOSED;
+                    this.next = 0;
+                    this.size = 0;
+                    this.failed = 0;
+                    this.slow = 0;
+                }
+                return;
+            }
+            if (this.state == State.OPEN) {
+                // sent before the circuit opened
+                return;
+            }
+            if (this.size == this.window.length) {
+                this.forget(this.window[this.next]);
+            } else {
+                this.size++;
+            }
+            this.window[this.next] = outcome;
+            this.next = (this.next + 1) % this.window.length;
+            if (outcome == FAILED) {
+                this.failed++;
+            } else if (outcome == SLOW) {
+                this.slow++;
+            }
+            if (this.size >= CircuitBreakerInterceptor.this.minimumCalls
+                    && (this.failed * 100 >= CircuitBreakerInterceptor.this.failureRateThreshold
+                            * this.size || this.slow * 100 >= CircuitBreakerInterceptor.this
+                            .slowCallRateThreshold * this.size)) {
+                this.open(now);
+            }
+        }
+
+        private void forget(byte outcome) {
+            if (outcome == FAILED) {
+                this.failed--;
+            } else if (outcome == SLOW) {
+                this.slow--;
+            }
+        }
+
+        private void open(long now) {
+            this.state = State.OPEN;
+            this.openedAt = now;
+        }
+    }
+}
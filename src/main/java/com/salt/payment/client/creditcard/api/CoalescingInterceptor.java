@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.*;
+
+/**
+ * Sends a single call for identical queries issued at the same time, and gives
+ * its answer to all of them, so that a burst of callers asking for the same
+ * token or transaction opens one gateway connection rather than one each. Ie.
+ * 
+ * <pre>
+ * service.addInterceptor(new CoalescingInterceptor());
+ * </pre>
+ * 
+ * Only the queries are coalesced: <code>verifyTransaction</code> and the
+ * <code>query</code> operations of <code>secureStorage</code> and
+ * <code>recurringPurchase</code>. Queries are identical if their request code
+ * and parameters are, merchant included. The other requests go through
+ * untouched.
+ * <p>
+ * The first query sends the call; an identical query issued while it is in
+ * flight waits for its answer, up to its own deadline, and gets a new receipt
+ * parsed from the same response, or the same error if the call failed without
+ * an answer. If the call in flight has a {@link Deadline} and the query a
+ * later one, or none, the query sends a call of its own, so that it does not
+ * fail early because of a caller in a hurry. A query without a deadline
+ * waits for up to {@link #setMaxWaitMs(long)}, and an interrupted one gives
+ * up with {@link CreditCardService#REQ_RESPONSE_ERROR}. Queries are only
+ * coalesced while in flight: an answer is not kept once returned, see
+ * {@link StorageCacheInterceptor} for that.
+ * <p>
+ * Share the interceptor between the services of an application, and add it
+ * after the caches and before a {@link RetryInterceptor}, so that the retries
+ * are shared too. This class is thread-safe.
+ * 
+ * @since JSE8
+ */
+public final class CoalescingInterceptor implements GatewayInterceptor {
+    /**
+     * The default maximum wait of a query without a deadline for the call in
+     * flight, in ms: a call without a deadline connects and reads for 30 s
+     * at least each.
+     */
+    public static final long DEFAULT_MAX_WAIT_MS = 65000;
+
+    /** The calls in flight, by query. */
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private volatile long maxWaitMs = DEFAULT_MAX_WAIT_MS;
+
+    /**
+     * Sets how long a query without a deadline may wait for the identical
+     * call in flight. {@value #DEFAULT_MAX_WAIT_MS} ms by default.
+     * 
+     * @param millis
+     *            the duration, in ms. Not negative.
+     */
+    public void setMaxWaitMs(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis must not be negative");
+        }
+        this.maxWaitMs = millis;
+    }
+
+    /**
+     * @return the number of queries that sent a call
+     */
+    public long getCallCount() {
+        return this.calls.sum();
+    }
+
+    /**
+     * @return the number of queries answered by the call of another
+     */
+    public long getCoalescedCount() {
+        return this.coalesced.sum();
+    }
+
+    /**
+     * @return the number of calls in flight
+     */
+    public int getInFlightCount() {
+        return this.flights.size();
+    }
+
+    @Override
+    public AbstractReceipt intercept(Chain chain) {
+        final GatewayRequest request = chain.request();
+        final String name = request.toString();
+        if (!RetryInterceptor.QUERIES.contains(name)) {
+            return chain.proceed(request);
+        }
+        final String key = name + request.getParameters();
+        final Flight flight = new Flight(request);
+        final Flight inFlight = this.flights.putIfAbsent(key, flight);
+        if (inFlight != null && inFlight.outlasts(request)) {
+            this.coalesced.increment();
+            return inFlight.awaitReceipt(request, this.maxWaitMs);
+        }
+        this.calls.increment();
+        AbstractReceipt receipt = null;
+        try {
+            receipt = chain.proceed(request);
+            return receipt;
+        } finally {
+            if (inFlight == null) {
+                this.flights.remove(key, flight);
+                flight.land(receipt != null ? receipt : request.newErrorReceipt(
+                        REQ_RESPONSE_ERROR, "the identical query in flight failed", null));
+            }
+        }
+    }
+
+    /**
+     * A call in flight, and the queries waiting for it. They wait on a latch
+     * rather than a monitor, so as not to pin a virtual thread.
+     */
+    private static final class Flight {
+        final GatewayRequest request;
+        private final CountDownLatch landed = new CountDownLatch(1);
+        /** The receipt of the call, or null until landed. */
+        private volatile AbstractReceipt receipt;
+
+        Flight(GatewayRequest request) {
+            this.request = request;
+        }
+
+        /**
+         * @return true if the call in flight is given at least as long as
+         *         <code>other</code> would be
+         */
+        boolean outlasts(GatewayRequest other) {
+            final Timer timer = this.request.getTimer();
+            // calls without a deadline of the caller read for 30 s at least
+            return !timer.isStrict() || other.getTimer().isStrict()
+                    && timer.getRemainingMs() >= other.getRemainingMs();
+        }
+
+        void land(AbstractReceipt receipt) {
+            this.receipt = receipt;
+            this.landed.countDown();
+        }
+
+        /**
+         * Waits for the receipt of the call, up to the deadline of
+         * <code>request</code> if set by the caller, otherwise up to
+         * <code>maxWaitMs</code>.
+         * 
+         * @return a copy of the receipt for <code>request</code>, or an error
+         *         receipt if not landed in time or if interrupted
+         */
+        AbstractReceipt awaitReceipt(GatewayRequest request, long maxWaitMs) {
+            final long waitMs =
+                    request.getTimer().isStrict() ? request.getRemainingMs() : maxWaitMs;
+            try {
+                if (!this.landed.await(waitMs, TimeUnit.MILLISECONDS)) {
+                    return request.newErrorReceipt(REQ_RESPONSE_ERROR,
+                            "timed out waiting for the identical query in flight", null);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return request.newErrorReceipt(REQ_RESPONSE_ERROR,
+                        "interrupted waiting for the identical query in flight", e.toString());
+            }
+            final AbstractReceipt receipt = this.receipt;
+            final String response = receipt.getResponse();
+            if (response != null) {
+                return request.getReceiptKind().newReceipt(ResponseFields.parse(response));
+            }
+            final int errorCode = RetryInterceptor.clientErrorCode(receipt);
+            return request.newErrorReceipt(errorCode != 0 ? errorCode : REQ_RESPONSE_ERROR,
+                    receipt.getErrorMessage(), receipt.getDebugMessage());
+        }
+    }
+}
@@ -9,7 +9,6 @@
  ******************************************************************************/
 package com.salt.payment.client.creditcard.api;
 
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import static com.salt.payment.client.creditcard.api.CreditCardService.*;
@@ -46,8 +45,18 @@ public class CreditCardReceipt extends AbstractReceipt {
      *            the response from the gateway to parse. Not null.
      */
     public CreditCardReceipt(String response) {
-        super(response);
-        if (response == null || response.length() <= 0) {
+        this(parseResponse(response));
+    }
+
+    /**
+     * Creates an instance from the parsed response from the gateway.
+     * 
+     * @param fields
+     *            the parsed response, or null if there was none
+     */
+    public CreditCardReceipt(ResponseFields fields) {
+        super(fields);
+        if (isNullResponse(fields)) {
             // null response, null receipt
             this.errorCode = (new Integer(REQ_RESPONSE_ERROR)).toString();
             this.errorMessage = "null or empty response received.";
@@ -61,9 +70,9 @@ public class CreditCardReceipt extends AbstractReceipt {
             if (this.isApproved()) {
                 this.approvalInfo =
                         new ApprovalInfo(this.parseLong("AUTHORIZED_AMOUNT"),
-                                this.params.get("APPROVAL_CODE"),
+                                this.param("APPROVAL_CODE"),
                                 this.parseInteger("TRACE_NUMBER"),
-                                this.params.get("REFERENCE_NUMBER"));
+                                this.param("REFERENCE_NUMBER"));
             } else {
                 this.approvalInfo = null;
             }
@@ -71,11 +80,11 @@ public class CreditCardReceipt extends AbstractReceipt {
             final Boolean avsResponseAvailable = this.parseBoolean("AVS_RESPONSE_AVAILABLE");
             if (avsResponseAvailable != null && avsResponseAvailable) {
                 this.avsResponse =
-                        new AvsResponse(this.params.get("AVS_RESPONSE_CODE"),
+                        new AvsResponse(this.param("AVS_RESPONSE_CODE"),
                                 this.parseBoolean("STREET_MATCHED"),
-                                this.parseBoolean("ZIP_MATCHED"), this.params.get("ZIP_TYPE"),
-                                this.params.get("AVS_ERROR_CODE"),
-                                this.params.get("AVS_ERROR_MESSAGE"));
+                                this.parseBoolean("ZIP_MATCHED"), this.param("ZIP_TYPE"),
+                                this.param("AVS_ERROR_CODE"),
+                                this.param("AVS_ERROR_MESSAGE"));
             } else {
                 this.avsResponse = null;
             }
@@ -83,8 +92,8 @@ public class CreditCardReceipt extends AbstractReceipt {
             final Boolean cvv2ResponseAvailable = this.parseBoolean("CVV2_RESPONSE_AVAILABLE");
             if (cvv2ResponseAvailable != null && cvv2ResponseAvailable) {
                 this.cvv2Response =
-                        new Cvv2Response(this.params.get("CVV2_RESPONSE_CODE"),
-                                this.params.get("CVV2_RESPONSE_MESSAGE"));
+                        new Cvv2Response(this.param("CVV2_RESPONSE_CODE"),
+                                this.param("CVV2_RESPONSE_MESSAGE"));
             } else {
                 this.cvv2Response = null;
             }
@@ -94,15 +103,13 @@ public class CreditCardReceipt extends AbstractReceipt {
                 final PeriodicPurchaseInfo.State periodicPurchaseState =
                         PeriodicPurchaseInfo.State.fromCode(this
                                 .parseShort("PERIODIC_TRANSACTION_STATE"));
-                final String nextPaymentDateString = this.params.get("PERIODIC_NEXT_PAYMENT_DATE");
+                final String nextPaymentDateString = this.param("PERIODIC_NEXT_PAYMENT_DATE");
                 Date nextPaymentDate = null;
                 if (!Utils.isEmpty(nextPaymentDateString)) {
-                    nextPaymentDate =
-                            new SimpleDateFormat(AbstractCreditCardService.DATE_FORMAT)
-                                    .parse(nextPaymentDateString);
+                    nextPaymentDate = DateCodec.parseDate(nextPaymentDateString);
                 }
                 final Long lastPaymentId =
-                        this.params.get("PERIODIC_LAST_PAYMENT_ID") != null ? this
+                        this.param("PERIODIC_LAST_PAYMENT_ID") != null ? this
                                 .parseLong("PERIODIC_LAST_PAYMENT_ID") : null;
                 this.periodicPurchaseInfo =
                         new PeriodicPurchaseInfo(periodicPurchaseId, periodicPurchaseState,
@@ -112,15 +119,15 @@ public class CreditCardReceipt extends AbstractReceipt {
             }
 
             // Parse newely added fields
-            sanitizedCardNumber = this.params.get("CARD_NUMBER");
+            sanitizedCardNumber = this.param("CARD_NUMBER");
             storageTokenExpiryDate = this.parseShort("STORAGE_TOKEN_EXPIRY");
-            responseHash = this.params.get("RESPONSE_HASH");
+            responseHash = this.param("RESPONSE_HASH");
             cardBrand = this.parseInteger("CARD_BRAND");
-            storageTokenId = this.params.get("STORAGE_TOKEN_ID");
+            storageTokenId = this.param("STORAGE_TOKEN_ID");
 
             fraudScore = this.parseInteger("FRAUD_SCORE");
-            fraudDecision = this.params.get("FRAUD_DECISION");
-            fraudSessionId = this.params.get("FRAUD_SESSION_ID");
+            fraudDecision = this.param("FRAUD_DECISION");
+            fraudSessionId = this.param("FRAUD_SESSION_ID");
 
         } catch (final Exception e) {
             this.errorCode = (new Integer(REQ_RESPONSE_ERROR)).toString();
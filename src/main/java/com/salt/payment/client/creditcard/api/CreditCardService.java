@@ -27,6 +27,10 @@ public interface CreditCardService {
     public final static int REQ_RESPONSE_ERROR = -4;
     public final static int REQ_CONNECTION_FAILED = -5;
     public final static int REQ_INVALID_REQUEST = -6;
+    /** The request was not sent: the gateway is failing, see CircuitBreakerInterceptor. */
+    public final static int REQ_CIRCUIT_OPEN = -7;
+    /** The request was not sent: over the limits of ThrottlingInterceptor. */
+    public final static int REQ_THROTTLED = -8;
 
     /**
      * Issues a request for an installment purchase to be made by monthly
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.text.ParseException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.util.Date;
+
+/**
+ * Formats and parses the fixed date formats of the gateway with cached
+ * {@link DateTimeFormatter}s rather than a new {@link java.text.SimpleDateFormat}
+ * each time. Dates are converted in the default time zone at the time of the
+ * call. Parsing is lenient, as that of <code>SimpleDateFormat</code> is: out
+ * of range fields roll over, ie. 2014-13-01 is 2015-01-01.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @since JSE5
+ */
+final class DateCodec {
+    /** The gateway's date format, ie. of requests (ISO 8601 format). */
+    static final String DATE_FORMAT = AbstractCreditCardService.DATE_FORMAT;
+    /** The maximum number of characters written for a date. */
+    static final int MAX_DATE_LENGTH = 32;
+
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("uuuu-MM-dd");
+    private static final DateTimeFormatter COMPACT_DATE =
+            DateTimeFormatter.ofPattern("uuuuMMdd");
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HHmmss");
+    /** Parses yyyy-MM-dd, with fields of any width. */
+    private static final DateTimeFormatter DATE_PARSER = new DateTimeFormatterBuilder()
+            .parseLenient().appendPattern("uuuu-MM-dd").toFormatter()
+            .withResolverStyle(ResolverStyle.LENIENT);
+    /** Parses yyMMddHHmmss, for the two digit years of the current year. */
+    private static volatile ProcessedParser processedParser = new ProcessedParser(0);
+
+    private DateCodec() {
+    }
+
+    /**
+     * Writes <code>date</code> as yyyy-MM-dd, or yyyyMMdd if not
+     * <code>dashes</code>.
+     * 
+     * @param dest
+     *            the array to write to, with room for {@link #MAX_DATE_LENGTH}
+     *            bytes from <code>offset</code>
+     * @return the index after the last byte written
+     */
+    static int formatDate(Date date, boolean dashes, byte[] dest, int offset) {
+        final String str = (dashes ? DATE : COMPACT_DATE).format(toLocalDate(date));
+        for (int i = 0; i < str.length(); i++) {
+            dest[offset + i] = (byte) str.charAt(i);
+        }
+        return offset + str.length();
+    }
+
+    /**
+     * Appends <code>date</code> as yyyyMMdd.
+     */
+    static void appendCompactDate(StringBuilder str, Date date) {
+        COMPACT_DATE.formatTo(toLocalDate(date), str);
+    }
+
+    /**
+     * Appends the time of <code>date</code> as HHmmss.
+     */
+    static void appendTime(StringBuilder str, Date date) {
+        TIME.formatTo(date.toInstant().atZone(ZoneId.systemDefault()), str);
+    }
+
+    /**
+     * Parses a yyyy-MM-dd date, as a lenient {@link java.text.SimpleDateFormat}
+     * does.
+     * 
+     * @throws ParseException
+     *             if <code>str</code> is not a date
+     */
+    static Date parseDate(String str) throws ParseException {
+        try {
+            return toDate(LocalDate.parse(str, DATE_PARSER).atStartOfDay());
+        } catch (final DateTimeException e) {
+            throw parseException(str, e);
+        }
+    }
+
+    /**
+     * Parses the yyMMdd date and HHmmss time of a receipt, as a lenient
+     * {@link java.text.SimpleDateFormat} does: two digit years are within 80
+     * years before and 20 years after the current year.
+     * 
+     * @throws ParseException
+     *             if the date and time are not valid
+     */
+    static Date parseProcessedDateTime(String date, String time) throws ParseException {
+        final String str = date + time;
+        try {
+            return toDate(LocalDateTime.parse(str, processedParser().parser));
+        } catch (final DateTimeException e) {
+            throw parseException(str, e);
+        }
+    }
+
+    /**
+     * @return the parser of yyMMddHHmmss for the current year, built again
+     *         when the year changes
+     */
+    private static ProcessedParser processedParser() {
+        final int baseYear = LocalDate.now().getYear() - 80;
+        ProcessedParser parser = processedParser;
+        if (parser.baseYear != baseYear) {
+            // racing threads build the same parser
+            parser = new ProcessedParser(baseYear);
+            processedParser = parser;
+        }
+        return parser;
+    }
+
+    private static LocalDate toLocalDate(Date date) {
+        return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+
+    private static Date toDate(LocalDateTime dateTime) {
+        return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    private static ParseException parseException(String str, DateTimeException e) {
+        final ParseException pe = new ParseException("Unparseable date: \"" + str + "\"",
+                e instanceof DateTimeParseException ? ((DateTimeParseException) e)
+                        .getErrorIndex() : 0);
+        pe.initCause(e);
+        return pe;
+    }
+
+    /** The parser of yyMMddHHmmss for two digit years from a base year. */
+    private static final class ProcessedParser {
+        final int baseYear;
+        final DateTimeFormatter parser;
+
+        ProcessedParser(int baseYear) {
+            this.baseYear = baseYear;
+            this.parser = new DateTimeFormatterBuilder()
+                    .appendValueReduced(ChronoField.YEAR, 2, 2, baseYear)
+                    .appendPattern("MMddHHmmss").toFormatter()
+                    .withResolverStyle(ResolverStyle.LENIENT);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which a call must be done, measured with
+ * {@link System#nanoTime()} so that setting the system clock does not move it.
+ * <p>
+ * A deadline is passed to the requests of a {@link CreditCardService} by
+ * entering it on the calling thread:
+ * 
+ * <pre>
+ * try (Deadline.Scope scope = Deadline.after(5000).enter()) {
+ *     receipt = service.singlePurchase(orderId, creditCard, amount, null);
+ * }
+ * </pre>
+ * 
+ * Every request issued in the scope must be done by the deadline: the connect
+ * and read timeouts are what is left of it, rather than at least
+ * {@link AbstractCreditCardService#getMinResponseReadTimeoutMs()} each, and a
+ * request whose deadline has passed fails with
+ * {@link CreditCardService#REQ_CONNECTION_FAILED} without being sent. Requests
+ * issued outside of any scope keep the default timeouts.
+ * <p>
+ * Scopes nest: the earliest deadline wins, so that a callee cannot extend the
+ * deadline of its caller. {@link AsyncHttpsCreditCardService} carries the
+ * deadline of the calling thread over to the thread issuing the request.
+ * <p>
+ * This class is immutable.
+ * 
+ * @since JSE8
+ */
+public final class Deadline {
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<Deadline>();
+    /** Longer timeouts, about 146 years, are cut so that nanoTime() does not overflow. */
+    static final long MAX_TIMEOUT_NANOS = Long.MAX_VALUE / 2;
+
+    /** The value of System.nanoTime() at the deadline. */
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @param timeoutMs
+     *            the number of milliseconds before the deadline. If negative,
+     *            the deadline has already passed.
+     * @return the deadline <code>timeoutMs</code> from now
+     */
+    public static Deadline after(long timeoutMs) {
+        return after(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param timeout
+     *            the time before the deadline, in <code>unit</code>. If
+     *            negative, the deadline has already passed.
+     * @param unit
+     *            the unit of <code>timeout</code>. Not null.
+     * @return the deadline <code>timeout</code> from now
+     */
+    public static Deadline after(long timeout, TimeUnit unit) {
+        if (unit == null) {
+            throw new IllegalArgumentException("unit is required");
+        }
+        return new Deadline(System.nanoTime()
+                + Math.min(unit.toNanos(Math.max(timeout, 0)), MAX_TIMEOUT_NANOS));
+    }
+
+    /**
+     * @return the deadline of the innermost scope entered on this thread, or
+     *         null if there is none
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Enters the scope of this deadline on the calling thread, or of the
+     * current deadline if it is earlier. The scope must be closed by the same
+     * thread, which then goes back to the previous deadline.
+     * 
+     * @return the scope
+     */
+    public Scope enter() {
+        final Deadline previous = CURRENT.get();
+        CURRENT.set(previous != null ? previous.earliest(this) : this);
+        return new Scope(previous);
+    }
+
+    /**
+     * @param other
+     *            the other deadline. Not null.
+     * @return the earlier of this deadline and <code>other</code>
+     */
+    public Deadline earliest(Deadline other) {
+        if (other == null) {
+            throw new IllegalArgumentException("other is required");
+        }
+        // compared by difference, nanoTime() may overflow
+        return other.deadlineNanos - this.deadlineNanos < 0 ? other : this;
+    }
+
+    /**
+     * @param unit
+     *            the unit of the result. Not null.
+     * @return the time left before the deadline, or 0 if it has passed
+     */
+    public long getRemaining(TimeUnit unit) {
+        return unit.convert(this.getRemainingNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the number of milliseconds left before the deadline, or 0 if it
+     *         has passed
+     */
+    public long getRemainingMs() {
+        return TimeUnit.NANOSECONDS.toMillis(this.getRemainingNanos());
+    }
+
+    private long getRemainingNanos() {
+        final long remaining = this.deadlineNanos - System.nanoTime();
+        return remaining < 0 ? 0 : remaining;
+    }
+
+    /**
+     * @return true if the deadline has passed
+     */
+    public boolean isExpired() {
+        return this.deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /** The value of System.nanoTime() at the deadline. */
+    long getDeadlineNanos() {
+        return this.deadlineNanos;
+    }
+
+    /**
+     * @return the remaining time, ie. <code>Deadline[1500ms]</code>
+     */
+    @Override
+    public String toString() {
+        return "Deadline[" + this.getRemainingMs() + "ms]";
+    }
+
+    /**
+     * The scope of a deadline on a thread, from {@link Deadline#enter()} to
+     * {@link #close()}.
+     */
+    public static final class Scope implements Closeable {
+        private final Deadline previous;
+        private boolean closed = false;
+
+        private Scope(Deadline previous) {
+            this.previous = previous;
+        }
+
+        /**
+         * Goes back to the deadline in force before the scope was entered.
+         * Closing a scope again does nothing.
+         */
+        @Override
+        public void close() {
+            if (!this.closed) {
+                this.closed = true;
+                if (this.previous != null) {
+                    CURRENT.set(this.previous);
+                } else {
+                    CURRENT.remove();
+                }
+            }
+        }
+    }
+}
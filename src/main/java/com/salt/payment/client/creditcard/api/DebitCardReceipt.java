@@ -32,8 +32,18 @@ public class DebitCardReceipt extends AbstractReceipt {
      *            the response from the gateway to parse. Not null.
      */
     public DebitCardReceipt(String response) {
-        super(response);
-        if (response == null || response.length() <= 0) {
+        this(parseResponse(response));
+    }
+
+    /**
+     * Creates an instance from the parsed response from the gateway.
+     * 
+     * @param fields
+     *            the parsed response, or null if there was none
+     */
+    public DebitCardReceipt(ResponseFields fields) {
+        super(fields);
+        if (isNullResponse(fields)) {
             // null response, null receipt
             this.errorCode = (new Integer(REQ_RESPONSE_ERROR)).toString();
             this.errorMessage = "null or empty response received.";
@@ -47,9 +57,9 @@ public class DebitCardReceipt extends AbstractReceipt {
             if (this.isApproved()) {
                 this.approvalInfo =
                         new ApprovalInfo(this.parseLong("AUTHORIZED_AMOUNT"),
-                                this.params.get("APPROVAL_CODE"),
+                                this.param("APPROVAL_CODE"),
                                 this.parseInteger("TRACE_NUMBER"),
-                                this.params.get("REFERENCE_NUMBER"));
+                                this.param("REFERENCE_NUMBER"));
             } else {
                 this.approvalInfo = null;
             }
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory methods for the executors running blocking gateway requests, ie. for
+ * {@link AsyncHttpsCreditCardService}.
+ * <p>
+ * On a Java 21+ runtime, {@link #newVirtualThreadExecutor(int)} runs every
+ * request on its own virtual thread. A request blocked on the gateway then
+ * costs a few hundred bytes of heap rather than a platform thread, so tens of
+ * thousands of payments can be in flight without tuning a thread pool. The
+ * transport is written for this: {@link PooledHttpTransport} waits on
+ * {@link java.util.concurrent.locks.ReentrantLock}s rather than monitors and
+ * does its own buffering, so a blocked request never pins its carrier thread.
+ * <p>
+ * The library is compiled for Java 8, so virtual threads are looked up
+ * reflectively; use {@link #isVirtualThreadSupported()} to check for them.
+ * 
+ * @since JSE8
+ */
+public final class GatewayExecutors {
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findVirtualThreadFactory();
+
+    private static Method findVirtualThreadFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private GatewayExecutors() {
+    }
+
+    /**
+     * @return true if the runtime supports virtual threads (Java 21+)
+     */
+    public static boolean isVirtualThreadSupported() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor that runs each task on a new virtual thread, with no
+     * more than <code>maxConcurrency</code> tasks running at once. Tasks over
+     * the limit wait on their own (virtual) thread for a permit, in order.
+     * 
+     * @param maxConcurrency
+     *            the maximum number of tasks running at once. Must be
+     *            positive.
+     * @return the executor, to be shut down when no longer needed
+     * @throws UnsupportedOperationException
+     *             if the runtime does not support virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor(int maxConcurrency) {
+        return new ConcurrencyLimitedExecutorService(newVirtualThreadExecutor(), maxConcurrency);
+    }
+
+    /**
+     * Creates an executor that runs each task on a new virtual thread.
+     * 
+     * @return the executor, to be shut down when no longer needed
+     * @throws UnsupportedOperationException
+     *             if the runtime does not support virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null) {
+            throw new UnsupportedOperationException(
+                    "virtual threads require a Java 21 or later runtime");
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (final Exception e) {
+            throw new UnsupportedOperationException("could not create a virtual thread executor",
+                    e);
+        }
+    }
+
+    /**
+     * Creates an executor running tasks on a growing pool of daemon platform
+     * threads, reused when idle.
+     * 
+     * @return the executor, to be shut down when no longer needed
+     */
+    public static ExecutorService newPlatformThreadExecutor() {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "salt-gateway-" + this.count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Creates the executor used when none is specified: virtual threads if
+     * the runtime supports them, otherwise daemon platform threads.
+     * 
+     * @return the executor, to be shut down when no longer needed
+     */
+    public static ExecutorService newDefaultExecutor() {
+        return isVirtualThreadSupported() ? newVirtualThreadExecutor()
+                : newPlatformThreadExecutor();
+    }
+
+    /** Runs at most a fixed number of tasks of the delegate at once. */
+    private static final class ConcurrencyLimitedExecutorService extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        ConcurrencyLimitedExecutorService(ExecutorService delegate, int maxConcurrency) {
+            if (maxConcurrency <= 0) {
+                throw new IllegalArgumentException("maxConcurrency must be positive");
+            }
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxConcurrency, true);
+        }
+
+        public void execute(final Runnable command) {
+            this.delegate.execute(new Runnable() {
+                public void run() {
+                    // cheap to wait here: this is a virtual thread
+                    ConcurrencyLimitedExecutorService.this.permits.acquireUninterruptibly();
+                    try {
+                        command.run();
+                    } finally {
+                        ConcurrencyLimitedExecutorService.this.permits.release();
+                    }
+                }
+            });
+        }
+
+        public void shutdown() {
+            this.delegate.shutdown();
+        }
+
+        public List<Runnable> shutdownNow() {
+            return this.delegate.shutdownNow();
+        }
+
+        public boolean isShutdown() {
+            return this.delegate.isShutdown();
+        }
+
+        public boolean isTerminated() {
+            return this.delegate.isTerminated();
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return this.delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
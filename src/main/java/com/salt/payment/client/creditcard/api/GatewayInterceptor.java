@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+/**
+ * Observes, changes, answers or repeats the requests a service sends to the
+ * gateway, once added with
+ * {@link AbstractCreditCardService#addInterceptor(GatewayInterceptor)}. The
+ * interceptors of a service form a chain, called in the order they were
+ * added: each one hands the request to the next by
+ * {@link Chain#proceed(GatewayRequest)}, and the last one sends it.
+ * <p>
+ * An interceptor may:
+ * <ul>
+ * <li>proceed with the request and return the receipt as is, ie. to measure
+ * or log the call</li>
+ * <li>proceed with a copy of the request, ie. with another deadline</li>
+ * <li>return a receipt without proceeding, ie. from a cache or
+ * {@link GatewayRequest#newErrorReceipt(int, String, String)} to reject the
+ * request</li>
+ * <li>proceed more than once, ie. to retry the request</li>
+ * </ul>
+ * <p>
+ * Interceptors are called by the threads making the calls, so they must be
+ * thread-safe. An exception thrown by an interceptor fails the call with a
+ * {@link CreditCardService#REQ_POST_ERROR} receipt.
+ * 
+ * @since JSE8
+ */
+public interface GatewayInterceptor {
+    /**
+     * The rest of the chain, from an interceptor to the gateway.
+     */
+    interface Chain {
+        /**
+         * @return the request handed to the interceptor
+         */
+        GatewayRequest request();
+
+        /**
+         * Hands the request to the next interceptor, or sends it to the
+         * gateway from the last one.
+         * 
+         * @param request
+         *            the request to proceed with. Not null.
+         * @return the receipt of the request, of the type
+         *         {@link GatewayRequest#getReceiptType()}. Not null.
+         */
+        AbstractReceipt proceed(GatewayRequest request);
+    }
+
+    /**
+     * Intercepts a request.
+     * 
+     * @param chain
+     *            the rest of the chain, holding the request. Not null.
+     * @return the receipt of the request, of the type
+     *         {@link GatewayRequest#getReceiptType()}. Not null.
+     */
+    AbstractReceipt intercept(Chain chain);
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The built-in {@link MetricsRecorder}: counters and latency histograms for
+ * each request code and operation code, ie. <code>singlePurchase</code>,
+ * <code>recurringPurchase/execute</code> or <code>secureStorage/query</code>,
+ * split by {@link CallTimings.Phase}. Recording a call takes no lock and
+ * allocates nothing once its request code was seen.
+ * <p>
+ * One instance is usually shared by all the services of an application, and
+ * exported with {@link JmxMetricsExporter}:
+ * 
+ * <pre>
+ * final GatewayMetrics metrics = new GatewayMetrics();
+ * service.setMetricsRecorder(metrics);
+ * new JmxMetricsExporter(metrics).start();
+ * </pre>
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @since JSE8
+ */
+public final class GatewayMetrics implements MetricsRecorder {
+    /** Notified of the metrics of each new request code and operation code. */
+    public interface Listener {
+        /**
+         * Called once for each {@link RequestMetrics}, when first recorded
+         * into, or when the listener is added for those that already exist.
+         */
+        void requestMetricsAdded(RequestMetrics metrics);
+    }
+
+    /** The request code recorded for requests without one. */
+    static final String UNKNOWN_REQUEST_CODE = "unknown";
+
+    /** The metrics of a request code, and of each of its operation codes. */
+    private static final class RequestCodeMetrics {
+        volatile RequestMetrics withoutOperation;
+        final ConcurrentMap<String, RequestMetrics> byOperation =
+                new ConcurrentHashMap<String, RequestMetrics>();
+    }
+
+    private final ConcurrentMap<String, RequestCodeMetrics> byRequestCode =
+            new ConcurrentHashMap<String, RequestCodeMetrics>();
+    private final List<RequestMetrics> all = new ArrayList<RequestMetrics>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    /**
+     * Creates empty metrics.
+     */
+    public GatewayMetrics() {
+    }
+
+    /**
+     * Records a call into the metrics of its request code and operation code,
+     * created on the first call of those, or of <code>unknown</code> if it
+     * has no request code.
+     */
+    @Override
+    public void record(String requestCode, String operationCode, CallTimings timings,
+            AbstractReceipt receipt) {
+        this.get(requestCode == null ? UNKNOWN_REQUEST_CODE : requestCode, operationCode).record(
+                timings, receipt);
+    }
+
+    private RequestMetrics get(String requestCode, String operationCode) {
+        RequestCodeMetrics entry = this.byRequestCode.get(requestCode);
+        if (entry == null) {
+            final RequestCodeMetrics created = new RequestCodeMetrics();
+            entry = this.byRequestCode.putIfAbsent(requestCode, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        final RequestMetrics metrics =
+                operationCode == null ? entry.withoutOperation : entry.byOperation
+                        .get(operationCode);
+        return metrics != null ? metrics : this.add(entry, requestCode, operationCode);
+    }
+
+    /** Creates the metrics of a new request code, once. */
+    private synchronized RequestMetrics add(RequestCodeMetrics entry, String requestCode,
+            String operationCode) {
+        RequestMetrics metrics =
+                operationCode == null ? entry.withoutOperation : entry.byOperation
+                        .get(operationCode);
+        if (metrics == null) {
+            metrics = new RequestMetrics(requestCode, operationCode);
+            if (operationCode == null) {
+                entry.withoutOperation = metrics;
+            } else {
+                entry.byOperation.put(operationCode, metrics);
+            }
+            this.all.add(metrics);
+            for (final Listener listener : this.listeners) {
+                listener.requestMetricsAdded(metrics);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the metrics recorded so far by name, ie.
+     *         <code>secureStorage/query</code>, see
+     *         {@link RequestMetrics#getName()}
+     */
+    public synchronized Map<String, RequestMetrics> getRequestMetrics() {
+        final Map<String, RequestMetrics> metrics = new TreeMap<String, RequestMetrics>();
+        for (final RequestMetrics m : this.all) {
+            metrics.put(m.getName(), m);
+        }
+        return metrics;
+    }
+
+    /**
+     * Adds a listener, at once notified of the metrics recorded so far.
+     * 
+     * @param listener
+     *            the listener. Not null.
+     */
+    public synchronized void addListener(Listener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        this.listeners.add(listener);
+        for (final RequestMetrics metrics : this.all) {
+            listener.requestMetricsAdded(metrics);
+        }
+    }
+
+    /**
+     * Removes a listener.
+     * 
+     * @param listener
+     *            the listener
+     */
+    public synchronized void removeListener(Listener listener) {
+        this.listeners.remove(listener);
+    }
+}
@@ -0,0 +1,335 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.*;
+
+/**
+ * A request on its way to the gateway, as seen by the
+ * {@link GatewayInterceptor}s of a service: the gateway url it is sent to,
+ * its request and operation codes, its encoded parameters, the time left
+ * before its deadline and the type of receipt it yields.
+ * <p>
+ * A request is immutable: an interceptor changes the request sent by
+ * proceeding with the copy returned by {@link #withParameter(String, Object)},
+ * {@link #withTimeoutMs(long)} or {@link #withUrl(String)}.
+ * 
+ * @since JSE8
+ */
+public final class GatewayRequest {
+    /** The kinds of receipts, built the same way for every request. */
+    enum ReceiptKind {
+        CREDIT_CARD(CreditCardReceipt.class), DEBIT_CARD(DebitCardReceipt.class), STORAGE(
+                StorageReceipt.class);
+
+        final Class<? extends AbstractReceipt> type;
+
+        ReceiptKind(Class<? extends AbstractReceipt> type) {
+            this.type = type;
+        }
+
+        AbstractReceipt newReceipt(ResponseFields fields) {
+            switch (this) {
+            case DEBIT_CARD:
+                return new DebitCardReceipt(fields);
+            case STORAGE:
+                return new StorageReceipt(fields);
+            default:
+                return new CreditCardReceipt(fields);
+            }
+        }
+
+        AbstractReceipt newErrorReceipt(int errorCode, String errorMessage,
+                String debugMessage) {
+            switch (this) {
+            case DEBIT_CARD:
+                return new DebitCardReceipt(errorCode, errorMessage, debugMessage);
+            case STORAGE:
+                return new StorageReceipt(errorCode, errorMessage, debugMessage);
+            default:
+                return new CreditCardReceipt(errorCode, errorMessage, debugMessage);
+            }
+        }
+    }
+
+    private final String url;
+    /** The parsed url, or null if malformed. */
+    private final URL parsedUrl;
+    private final RequestEncoder encoder;
+    private final ReceiptKind receiptKind;
+    private final Timer timer;
+    /** The decoded parameters, on demand. */
+    private volatile Map<String, String> parameters;
+
+    GatewayRequest(String url, URL parsedUrl, RequestEncoder encoder, ReceiptKind receiptKind,
+            Timer timer) {
+        this.url = url;
+        this.parsedUrl = parsedUrl;
+        this.encoder = encoder;
+        this.receiptKind = receiptKind;
+        this.timer = timer;
+    }
+
+    /**
+     * @return the url of the gateway the request is sent to
+     */
+    public String getUrl() {
+        return this.url;
+    }
+
+    URL getParsedUrl() {
+        return this.parsedUrl;
+    }
+
+    /**
+     * Returns a copy of this request sent to another gateway url.
+     * 
+     * @param url
+     *            the url of the gateway. Not null.
+     * @return the copy
+     */
+    public GatewayRequest withUrl(String url) {
+        if (url == null) {
+            throw new IllegalArgumentException("url is required");
+        }
+        URL parsed = null;
+        try {
+            parsed = new URL(url);
+        } catch (final MalformedURLException e) {
+            // reported when sent
+        }
+        return new GatewayRequest(url, parsed, this.encoder, this.receiptKind, this.timer);
+    }
+
+    /**
+     * @return the key of the merchant issuing the request: its merchantId,
+     *         followed by a slash and its storeId if any
+     */
+    public String getMerchantKey() {
+        final Merchant merchant = this.encoder.getMerchant();
+        if (merchant != null) {
+            return merchant.getKey();
+        }
+        return Merchant.key(this.getParameter("merchantId"), this.getParameter("storeId"));
+    }
+
+    /**
+     * @return the request code, ie. <code>singlePurchase</code>, or null if
+     *         unknown
+     */
+    public String getRequestCode() {
+        return this.encoder.getRequestCode();
+    }
+
+    /**
+     * @return the operation code, ie. <code>query</code> for a
+     *         <code>secureStorage</code> request, or null if none
+     */
+    public String getOperationCode() {
+        return this.encoder.getOperationCode();
+    }
+
+    /**
+     * @param name
+     *            the name of the parameter. Not null.
+     * @return the value of the parameter, or null if the request has none
+     */
+    public String getParameter(String name) {
+        return this.getParameters().get(name);
+    }
+
+    /**
+     * Decodes the parameters of the request on the first call: the request
+     * is only held encoded otherwise.
+     * 
+     * @return the parameters of the request, in the order they are sent. Not
+     *         modifiable.
+     */
+    public Map<String, String> getParameters() {
+        // racing threads decode the same parameters
+        Map<String, String> parameters = this.parameters;
+        if (parameters == null) {
+            parameters = Collections.unmodifiableMap(decode(this.encoder.toString()));
+            this.parameters = parameters;
+        }
+        return parameters;
+    }
+
+    private static Map<String, String> decode(String encoded) {
+        final Map<String, String> map = new LinkedHashMap<String, String>();
+        int start = 0;
+        while (start < encoded.length()) {
+            int end = encoded.indexOf('&', start);
+            if (end == -1) {
+                end = encoded.length();
+            }
+            final int eq = encoded.indexOf('=', start);
+            try {
+                if (eq == -1 || eq > end) {
+                    map.put(URLDecoder.decode(encoded.substring(start, end), "UTF-8"), "");
+                } else {
+                    map.put(URLDecoder.decode(encoded.substring(start, eq), "UTF-8"),
+                            URLDecoder.decode(encoded.substring(eq + 1, end), "UTF-8"));
+                }
+            } catch (final UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            start = end + 1;
+        }
+        return map;
+    }
+
+    /**
+     * @return a copy of the encoded parameters, as sent to the gateway:
+     *         changing it does not change the request
+     */
+    public RequestEncoder getEncoder() {
+        return this.encoder.copy();
+    }
+
+    /**
+     * @return the encoded parameters themselves, not to be changed
+     */
+    RequestEncoder encoder() {
+        return this.encoder;
+    }
+
+    /**
+     * Returns a copy of this request with the parameter set to
+     * <code>value</code>, in place of its current value if any.
+     * 
+     * @param name
+     *            the name of the parameter. Not null.
+     * @param value
+     *            the value of the parameter, or null to remove it
+     * @return the copy
+     */
+    public GatewayRequest withParameter(String name, Object value) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is required");
+        }
+        final RequestEncoder copy = new RequestEncoder();
+        boolean found = false;
+        for (final Map.Entry<String, String> param : this.getParameters().entrySet()) {
+            if (param.getKey().equals(name)) {
+                found = true;
+                copy.param(name, value);
+            } else {
+                copy.param(param.getKey(), param.getValue());
+            }
+        }
+        if (!found) {
+            copy.param(name, value);
+        }
+        copy.setRequestCode(this.encoder.getRequestCode());
+        copy.setOperationCode(this.encoder.getOperationCode());
+        if (!"merchantId".equals(name) && !"storeId".equals(name)) {
+            copy.setMerchant(this.encoder.getMerchant());
+        }
+        if ("requestCode".equals(name)) {
+            copy.setRequestCode(value != null ? value.toString() : null);
+        } else if ("operationCode".equals(name)) {
+            copy.setOperationCode(value != null ? value.toString() : null);
+        }
+        return new GatewayRequest(this.url, this.parsedUrl, copy, this.receiptKind, this.timer);
+    }
+
+    /**
+     * @return the number of milliseconds left before the deadline of the
+     *         request, or 0 if passed
+     */
+    public long getRemainingMs() {
+        return this.timer.getRemainingMs();
+    }
+
+    /**
+     * Returns a copy of this request whose deadline is <code>timeoutMs</code>
+     * from now, or the deadline of this request if earlier: a copy is never
+     * given more time than the request. The deadline is strict, as one
+     * entered by the caller is: the connect and read timeouts of the copy are
+     * no longer than what is left of it.
+     * 
+     * @param timeoutMs
+     *            the number of milliseconds before the deadline
+     * @return the copy
+     */
+    public GatewayRequest withTimeoutMs(long timeoutMs) {
+        return new GatewayRequest(this.url, this.parsedUrl, this.encoder, this.receiptKind,
+                this.timer.within(timeoutMs));
+    }
+
+    Timer getTimer() {
+        return this.timer;
+    }
+
+    /**
+     * @return the type of the receipt of the request: an interceptor that
+     *         answers the request itself must return a receipt of this type
+     */
+    public Class<? extends AbstractReceipt> getReceiptType() {
+        return this.receiptKind.type;
+    }
+
+    ReceiptKind getReceiptKind() {
+        return this.receiptKind;
+    }
+
+    /**
+     * Creates a receipt of the type of the request reporting an error, for
+     * an interceptor that fails the request without sending it.
+     * 
+     * @param errorCode
+     *            the error code, ie. one of the <code>REQ_</code> codes of
+     *            {@link CreditCardService}
+     * @param errorMessage
+     *            the error message
+     * @param debugMessage
+     *            the debug message, or null if none
+     * @return the receipt
+     */
+    public AbstractReceipt newErrorReceipt(int errorCode, String errorMessage,
+            String debugMessage) {
+        return this.receiptKind.newErrorReceipt(errorCode, errorMessage, debugMessage);
+    }
+
+    /**
+     * Checks that <code>receipt</code>, returned by an interceptor, is one of
+     * this request.
+     * 
+     * @return <code>receipt</code>, or an error receipt if it is not one
+     */
+    AbstractReceipt checkReceipt(AbstractReceipt receipt) {
+        if (receipt == null) {
+            return this.newErrorReceipt(REQ_RESPONSE_ERROR, "an interceptor returned no receipt",
+                    null);
+        }
+        if (!this.receiptKind.type.isInstance(receipt)) {
+            return this.newErrorReceipt(REQ_RESPONSE_ERROR, String.format(
+                    "an interceptor returned a %s instead of a %s", receipt.getClass()
+                            .getSimpleName(), this.receiptKind.type.getSimpleName()), null);
+        }
+        return receipt;
+    }
+
+    @Override
+    public String toString() {
+        final String operationCode = this.getOperationCode();
+        return operationCode != null ? this.getRequestCode() + "/" + operationCode : String
+                .valueOf(this.getRequestCode());
+    }
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Factory methods for the {@link SSLContext} of a {@link PooledHttpTransport},
+ * trusting the certificates of a trust store rather than those of the JVM.
+ * Ie. with the <code>jssecacerts</code> trust store bundled on the classpath:
+ * 
+ * <pre>
+ * SSLContext context =
+ *         GatewaySslContexts.newSslContext(GatewaySslContexts.DEFAULT_SESSION_CACHE_SIZE);
+ * HttpTransport transport = new PooledHttpTransport(20, 30000, context);
+ * </pre>
+ * 
+ * or with one written by <code>InstallCert</code>, once the certificates of
+ * the gateway change:
+ * 
+ * <pre>
+ * SSLContext context = GatewaySslContexts.newSslContext(new File(&quot;jssecacerts&quot;),
+ *         &quot;changeit&quot;.toCharArray(), GatewaySslContexts.DEFAULT_SESSION_CACHE_SIZE);
+ * </pre>
+ * 
+ * Build the context once and share it: its cache keeps the TLS sessions
+ * negotiated with the gateway, so that a connection opened after another was
+ * closed, ie. once idle for too long, resumes a session with an abbreviated
+ * handshake rather than a full one. The sessions are cached by host and
+ * port: a few entries per gateway endpoint are enough, whatever the number of
+ * connections to it.
+ * 
+ * @since JSE8
+ */
+public final class GatewaySslContexts {
+    /** The default number of TLS sessions cached is {@value}. */
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 100;
+    /** The default number of seconds a TLS session is cached is {@value}. */
+    public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 86400;
+    /** The classpath resource of the bundled trust store is {@value}. */
+    public static final String BUNDLED_TRUST_STORE = "/jssecacerts";
+    /** The password of the bundled trust store. */
+    private static final String BUNDLED_TRUST_STORE_PASSWORD = "changeit";
+
+    private GatewaySslContexts() {
+    }
+
+    /**
+     * Loads a trust store of the default type (PKCS12 or JKS).
+     * 
+     * @param file
+     *            the trust store, ie. <code>jssecacerts</code>. Not null.
+     * @param password
+     *            the password checking the integrity of the trust store, or
+     *            null not to check it
+     * @return the trust store
+     * @throws IOException
+     *             if the file cannot be read or is not a trust store
+     * @throws GeneralSecurityException
+     *             if the trust store cannot be loaded
+     */
+    public static KeyStore loadTrustStore(File file, char[] password) throws IOException,
+            GeneralSecurityException {
+        if (file == null) {
+            throw new IllegalArgumentException("file is required");
+        }
+        final InputStream in = new FileInputStream(file);
+        try {
+            return loadTrustStore(in, password);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Loads a trust store of the default type (PKCS12 or JKS).
+     * 
+     * @param in
+     *            the trust store, ie. a classpath resource. Not null, not
+     *            closed.
+     * @param password
+     *            the password checking the integrity of the trust store, or
+     *            null not to check it
+     * @return the trust store
+     * @throws IOException
+     *             if the stream cannot be read or is not a trust store
+     * @throws GeneralSecurityException
+     *             if the trust store cannot be loaded
+     */
+    public static KeyStore loadTrustStore(InputStream in, char[] password) throws IOException,
+            GeneralSecurityException {
+        if (in == null) {
+            throw new IllegalArgumentException("in is required");
+        }
+        final KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(in, password);
+        return trustStore;
+    }
+
+    /**
+     * Loads the trust store bundled with the client,
+     * {@value #BUNDLED_TRUST_STORE}, checking its integrity.
+     * 
+     * @return the trust store
+     * @throws IOException
+     *             if the trust store is not on the classpath or cannot be read
+     * @throws GeneralSecurityException
+     *             if the trust store cannot be loaded
+     */
+    public static KeyStore loadBundledTrustStore() throws IOException, GeneralSecurityException {
+        final InputStream in = GatewaySslContexts.class.getResourceAsStream(BUNDLED_TRUST_STORE);
+        if (in == null) {
+            throw new IOException(BUNDLED_TRUST_STORE + " is not on the classpath");
+        }
+        try {
+            final KeyStore trustStore = KeyStore.getInstance("JKS");
+            trustStore.load(in, BUNDLED_TRUST_STORE_PASSWORD.toCharArray());
+            return trustStore;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Creates a context trusting the certificates of the bundled trust store,
+     * {@value #BUNDLED_TRUST_STORE}, caching the TLS sessions for
+     * {@value #DEFAULT_SESSION_TIMEOUT_SECONDS} seconds.
+     * 
+     * @param sessionCacheSize
+     *            the maximum number of TLS sessions cached. Positive.
+     * @return the context
+     * @throws IOException
+     *             if the trust store is not on the classpath or cannot be read
+     * @throws GeneralSecurityException
+     *             if the context cannot be created
+     */
+    public static SSLContext newSslContext(int sessionCacheSize) throws IOException,
+            GeneralSecurityException {
+        return newSslContext(loadBundledTrustStore(), sessionCacheSize,
+                DEFAULT_SESSION_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Creates a context trusting the certificates of the trust store
+     * <code>file</code>, caching the TLS sessions for
+     * {@value #DEFAULT_SESSION_TIMEOUT_SECONDS} seconds.
+     * 
+     * @param file
+     *            the trust store, ie. <code>jssecacerts</code>. Not null.
+     * @param password
+     *            the password checking the integrity of the trust store, or
+     *            null not to check it
+     * @param sessionCacheSize
+     *            the maximum number of TLS sessions cached. Positive.
+     * @return the context
+     * @throws IOException
+     *             if the file cannot be read or is not a trust store
+     * @throws GeneralSecurityException
+     *             if the context cannot be created
+     */
+    public static SSLContext newSslContext(File file, char[] password, int sessionCacheSize)
+            throws IOException, GeneralSecurityException {
+        return newSslContext(loadTrustStore(file, password), sessionCacheSize,
+                DEFAULT_SESSION_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Creates a TLS context trusting the certificates of
+     * <code>trustStore</code>.
+     * 
+     * @param trustStore
+     *            the trusted certificates, or null for those of the JVM
+     * @param sessionCacheSize
+     *            the maximum number of TLS sessions cached. Positive.
+     * @param sessionTimeoutSeconds
+     *            the number of seconds a TLS session is cached. Positive.
+     * @return the context
+     * @throws GeneralSecurityException
+     *             if the context cannot be created
+     */
+    public static SSLContext newSslContext(KeyStore trustStore, int sessionCacheSize,
+            int sessionTimeoutSeconds) throws GeneralSecurityException {
+        if (sessionCacheSize <= 0) {
+            throw new IllegalArgumentException("sessionCacheSize must be positive");
+        }
+        if (sessionTimeoutSeconds <= 0) {
+            throw new IllegalArgumentException("sessionTimeoutSeconds must be positive");
+        }
+        final TrustManagerFactory trustManagers =
+                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trustStore);
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        final SSLSessionContext sessions = context.getClientSessionContext();
+        sessions.setSessionCacheSize(sessionCacheSize);
+        sessions.setSessionTimeout(sessionTimeoutSeconds);
+        return context;
+    }
+}
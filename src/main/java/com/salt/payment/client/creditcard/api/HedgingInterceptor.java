@@ -0,0 +1,432 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.*;
+
+/**
+ * Sends a second copy of a slow query, and returns whichever answer comes
+ * first, to cut the tail latency of the queries. Ie.
+ * 
+ * <pre>
+ * service.addInterceptor(new HedgingInterceptor());
+ * </pre>
+ * 
+ * Only the queries are hedged, as they can be sent twice safely:
+ * <code>verifyTransaction</code> and the <code>query</code> operations of
+ * <code>secureStorage</code> and <code>recurringPurchase</code>. The other
+ * requests go through untouched.
+ * <p>
+ * A query is sent from an executor thread while the caller waits for its
+ * answer. If none came within the {@link #setPercentile(double) percentile}
+ * of the latest latencies of the same kind of query, the hedge is sent as
+ * well, on another connection, and the first answer from the gateway is
+ * returned; the failure of one copy is only returned if the other fails too.
+ * The copy that loses is not cancelled: its answer is dropped. Queries are
+ * not hedged before {@value #MIN_SAMPLES} of their kind have answered.
+ * <p>
+ * The hedges are paid for by a budget: each query earns
+ * {@link #setMaxHedgeRatio(double)} of a hedge, up to
+ * {@value #MAX_BURST} hedges saved, so that hedging adds no more than that
+ * ratio of the queries to the load of the gateway, and never doubles it. When
+ * the gateway slows down as a whole, the budget runs out rather than making
+ * it worse.
+ * <p>
+ * Add it after a {@link RetryInterceptor}, and before a
+ * {@link LoadBalancingInterceptor} so that the hedge may go to another
+ * endpoint, and a {@link CircuitBreakerInterceptor}. The settings can be
+ * changed while in use. This class is thread-safe.
+ * 
+ * @since JSE8
+ */
+public final class HedgingInterceptor implements GatewayInterceptor {
+    /** The default percentile of the latencies after which a query is hedged. */
+    public static final double DEFAULT_PERCENTILE = 95;
+    /** The default number of hedges per query. */
+    public static final double DEFAULT_MAX_HEDGE_RATIO = 0.1;
+    /** The default minimum delay before a query is hedged, in ms. */
+    public static final long DEFAULT_MIN_DELAY_MS = 10;
+    /** The number of answers of a kind of query before it is hedged. */
+    public static final int MIN_SAMPLES = 100;
+    /** The maximum number of hedges saved in the budget. */
+    public static final int MAX_BURST = 10;
+
+    /** The latencies are measured over the latest WINDOW_SIZE answers or so. */
+    private static final int WINDOW_SIZE = 1000;
+
+    /** Lazily created executor shared by instances not given their own. */
+    private static final class DefaultExecutorHolder {
+        static final ExecutorService INSTANCE = GatewayExecutors.newDefaultExecutor();
+    }
+
+    private final Executor executor;
+    private final ConcurrentMap<String, Latencies> latencies =
+            new ConcurrentHashMap<String, Latencies>();
+    private volatile double percentile = DEFAULT_PERCENTILE;
+    private volatile double maxHedgeRatio = DEFAULT_MAX_HEDGE_RATIO;
+    private volatile long minDelayMs = DEFAULT_MIN_DELAY_MS;
+    /** The hedges saved in the budget. */
+    private double budget = 0;
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+
+    /**
+     * Creates an instance sending the queries on a shared executor: virtual
+     * threads if the runtime supports them, otherwise a pool of daemon
+     * threads.
+     */
+    public HedgingInterceptor() {
+        this(DefaultExecutorHolder.INSTANCE);
+    }
+
+    /**
+     * Creates an instance sending the queries on <code>executor</code>. It
+     * needs a thread for each query and hedge in flight: if it refuses one,
+     * the query is sent from the calling thread and not hedged.
+     * 
+     * @param executor
+     *            the executor. Not null.
+     */
+    public HedgingInterceptor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor is required");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the percentile of the latest latencies of a kind of query after
+     * which it is hedged. {@value #DEFAULT_PERCENTILE} by default.
+     * 
+     * @param percentile
+     *            the percentile, above 0 and below 100
+     */
+    public void setPercentile(double percentile) {
+        if (!(percentile > 0 && percentile < 100)) {
+            throw new IllegalArgumentException("percentile must be above 0 and below 100");
+        }
+        this.percentile = percentile;
+    }
+
+    /**
+     * @return the percentile of the latencies after which a query is hedged
+     */
+    public double getPercentile() {
+        return this.percentile;
+    }
+
+    /**
+     * Sets the number of hedges each query earns.
+     * {@value #DEFAULT_MAX_HEDGE_RATIO} by default.
+     * 
+     * @param ratio
+     *            the number of hedges per query, above 0 and at most 1
+     */
+    public void setMaxHedgeRatio(double ratio) {
+        if (!(ratio > 0 && ratio <= 1)) {
+            throw new IllegalArgumentException("ratio must be above 0 and at most 1");
+        }
+        this.maxHedgeRatio = ratio;
+    }
+
+    /**
+     * @return the number of hedges each query earns
+     */
+    public double getMaxHedgeRatio() {
+        return this.maxHedgeRatio;
+    }
+
+    /**
+     * Sets the minimum delay before a query is hedged, however fast the
+     * queries are. {@value #DEFAULT_MIN_DELAY_MS} ms by default.
+     * 
+     * @param millis
+     *            the delay, in ms. Not negative.
+     */
+    public void setMinDelayMs(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis must not be negative");
+        }
+        this.minDelayMs = millis;
+    }
+
+    /**
+     * @return the minimum delay before a query is hedged, in ms
+     */
+    public long getMinDelayMs() {
+        return this.minDelayMs;
+    }
+
+    /**
+     * @return the number of hedges sent
+     */
+    public long getHedgeCount() {
+        return this.hedges.sum();
+    }
+
+    /**
+     * @return the number of hedges that answered first
+     */
+    public long getHedgeWinCount() {
+        return this.hedgesWon.sum();
+    }
+
+    /**
+     * @return the delay in ms before each kind of query is hedged, by request
+     *         code (and operation code, if any), of the queries that answered
+     *         often enough to be hedged
+     */
+    public Map<String, Long> getDelaysMs() {
+        final Map<String, Long> delays = new TreeMap<String, Long>();
+        for (final Map.Entry<String, Latencies> entry : this.latencies.entrySet()) {
+            final long delayMicros = entry.getValue().delayMicros;
+            if (delayMicros >= 0) {
+                delays.put(entry.getKey(), Math.max(TimeUnit.MICROSECONDS.toMillis(delayMicros),
+                        this.minDelayMs));
+            }
+        }
+        return delays;
+    }
+
+    @Override
+    public AbstractReceipt intercept(Chain chain) {
+        final GatewayRequest request = chain.request();
+        final String name = request.toString();
+        if (!RetryInterceptor.QUERIES.contains(name)) {
+            return chain.proceed(request);
+        }
+        Latencies latencies = this.latencies.get(name);
+        if (latencies == null) {
+            final Latencies created = new Latencies();
+            latencies = this.latencies.putIfAbsent(name, created);
+            if (latencies == null) {
+                latencies = created;
+            }
+        }
+        final boolean canHedge = this.earnHedge();
+        final long delayMicros = latencies.delayMicros;
+        final long delayNanos =
+                Math.max(TimeUnit.MICROSECONDS.toNanos(delayMicros),
+                        TimeUnit.MILLISECONDS.toNanos(this.minDelayMs));
+        if (!canHedge || delayMicros < 0
+                || delayNanos >= TimeUnit.MILLISECONDS.toNanos(request.getRemainingMs())) {
+            // no hedge: no need for another thread either
+            return new Call(chain, request, latencies, null).send();
+        }
+        final Race race = new Race();
+        try {
+            this.executor.execute(new Call(chain, request, latencies, race));
+        } catch (final RejectedExecutionException e) {
+            return new Call(chain, request, latencies, null).send();
+        }
+        boolean hedge;
+        try {
+            hedge = !race.awaitFirst(delayNanos) && this.spendHedge();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            hedge = false;
+        }
+        if (hedge) {
+            final Call copy = new Call(chain, request, latencies, race);
+            race.hedging(copy);
+            try {
+                this.executor.execute(copy);
+                this.hedges.increment();
+            } catch (final RejectedExecutionException e) {
+                // the query alone, then
+                race.hedging(null);
+            }
+        }
+        return race.awaitAnswer();
+    }
+
+    /**
+     * Adds the share of a hedge each query earns to the budget.
+     * 
+     * @return true if the budget holds a hedge
+     */
+    private synchronized boolean earnHedge() {
+        this.budget = Math.min(this.budget + this.maxHedgeRatio, MAX_BURST);
+        return this.budget >= 1;
+    }
+
+    /**
+     * @return true if a hedge was taken from the budget
+     */
+    private synchronized boolean spendHedge() {
+        if (this.budget < 1) {
+            return false;
+        }
+        this.budget--;
+        return true;
+    }
+
+    /** The latest latencies of a kind of query, in microseconds. */
+    private final class Latencies {
+        private volatile LatencyHistogram histogram = new LatencyHistogram();
+        private final AtomicLong count = new AtomicLong();
+        /** The latency at the percentile, or -1 until MIN_SAMPLES answered. */
+        volatile long delayMicros = -1;
+
+        void record(long micros) {
+            final LatencyHistogram histogram = this.histogram;
+            histogram.record(micros);
+            final long n = this.count.incrementAndGet();
+            if (n % MIN_SAMPLES == 0) {
+                // every MIN_SAMPLES answers, so as not to scan the histogram
+                // on each
+                this.delayMicros =
+                        histogram.getValueAtPercentile(HedgingInterceptor.this.percentile);
+                if (n % WINDOW_SIZE == 0) {
+                    this.histogram = new LatencyHistogram();
+                }
+            }
+        }
+    }
+
+    /** A copy of a query, sent from the calling or an executor thread. */
+    private final class Call implements Runnable {
+        private final Chain chain;
+        private final GatewayRequest request;
+        private final Latencies latencies;
+        private final Race race;
+
+        Call(Chain chain, GatewayRequest request, Latencies latencies, Race race) {
+            this.chain = chain;
+            this.request = request;
+            this.latencies = latencies;
+            this.race = race;
+        }
+
+        AbstractReceipt send() {
+            final long start = System.nanoTime();
+            final AbstractReceipt receipt = this.chain.proceed(this.request);
+            if (RetryInterceptor.clientErrorCode(receipt) == 0) {
+                this.latencies.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            }
+            return receipt;
+        }
+
+        @Override
+        public void run() {
+            AbstractReceipt receipt = null;
+            try {
+                receipt = this.send();
+            } catch (final RuntimeException e) {
+                receipt =
+                        this.request.newErrorReceipt(REQ_POST_ERROR,
+                                "error attempting to send POST request", e.toString());
+            } finally {
+                // an Error too ends this copy, or the caller would wait for
+                // it forever
+                if (receipt == null) {
+                    receipt =
+                            this.request.newErrorReceipt(REQ_POST_ERROR,
+                                    "error attempting to send POST request", null);
+                }
+                this.race.finished(receipt, this);
+            }
+        }
+    }
+
+    /**
+     * The copies of a query in flight, and their receipts. Waits on a lock
+     * rather than a monitor, so as not to pin a virtual thread.
+     */
+    private final class Race {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = this.lock.newCondition();
+        /** Guarded by the lock, as are the fields below. */
+        private Call hedge;
+        private int finished = 0;
+        private AbstractReceipt first;
+        private AbstractReceipt answer;
+
+        /** Sets the hedge about to be sent, or null if it could not be. */
+        void hedging(Call hedge) {
+            this.lock.lock();
+            try {
+                this.hedge = hedge;
+                this.changed.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        void finished(AbstractReceipt receipt, Call call) {
+            this.lock.lock();
+            try {
+                this.finished++;
+                if (this.first == null) {
+                    this.first = receipt;
+                }
+                if (this.answer == null && RetryInterceptor.clientErrorCode(receipt) == 0) {
+                    this.answer = receipt;
+                    if (call == this.hedge) {
+                        HedgingInterceptor.this.hedgesWon.increment();
+                    }
+                }
+                this.changed.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        /**
+         * Waits for a copy to finish, for up to <code>timeoutNanos</code>.
+         * 
+         * @return true if one did
+         */
+        boolean awaitFirst(long timeoutNanos) throws InterruptedException {
+            this.lock.lock();
+            try {
+                long remaining = timeoutNanos;
+                while (this.finished == 0 && remaining > 0) {
+                    remaining = this.changed.awaitNanos(remaining);
+                }
+                return this.finished != 0;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        /**
+         * Waits for the first answer from the gateway, or for all copies to
+         * fail. The copies end by the deadline of the query, so it is waited
+         * for even if the thread is interrupted.
+         * 
+         * @return the answer, or the first failure
+         */
+        AbstractReceipt awaitAnswer() {
+            this.lock.lock();
+            try {
+                while (this.answer == null && this.finished < (this.hedge != null ? 2 : 1)) {
+                    this.changed.awaitUninterruptibly();
+                }
+                return this.answer != null ? this.answer : this.first;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+}
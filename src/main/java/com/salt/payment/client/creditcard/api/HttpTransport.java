@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.net.URL;
+
+/**
+ * The transport used by {@link AbstractCreditCardService} to POST requests to
+ * the gateway. Implementations must be thread-safe.
+ * 
+ * @since JSE5
+ */
+public interface HttpTransport {
+    /**
+     * POSTs the form-encoded <code>request</code> to <code>url</code> and
+     * returns the body of the response, decoded by a {@link ResponseDecoder}
+     * as it is received.
+     * 
+     * @param url
+     *            the gateway url. Not null.
+     * @param request
+     *            the encoded request. Not null.
+     * @param connectTimeoutMs
+     *            the maximum number of milliseconds to wait for a connection
+     * @param readTimeoutMs
+     *            the maximum number of milliseconds to wait for the response
+     * @return the fields of the response
+     * @throws TransportException
+     *             if the request could not be sent or the response could not
+     *             be read. The error code tells which:
+     *             {@link CreditCardService#REQ_CONNECTION_FAILED} only if the
+     *             request was not sent, so that it can be sent again, or
+     *             {@link CreditCardService#REQ_POST_ERROR} and
+     *             {@link CreditCardService#REQ_RESPONSE_ERROR} if it may have
+     *             reached the gateway.
+     */
+    public ResponseFields post(URL url, RequestEncoder request, int connectTimeoutMs, int readTimeoutMs)
+            throws TransportException;
+
+    /**
+     * POSTs the request as {@link #post(URL, RequestEncoder, int, int)} does,
+     * marking the phases of the call in <code>timings</code> as it goes
+     * through them. The default implementation marks none.
+     * 
+     * @param timings
+     *            the timings of the call, or null if it is not timed
+     * @see CallTimings
+     */
+    default ResponseFields post(URL url, RequestEncoder request, int connectTimeoutMs,
+            int readTimeoutMs, CallTimings timings) throws TransportException {
+        return this.post(url, request, connectTimeoutMs, readTimeoutMs);
+    }
+
+    /**
+     * Releases the resources (ie. pooled connections) held by this transport.
+     */
+    public void close();
+}
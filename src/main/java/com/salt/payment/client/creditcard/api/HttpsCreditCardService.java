@@ -25,6 +25,8 @@ import com.salt.payment.client.creditcard.api.PeriodicPurchaseInfo.Schedule;
 public final class HttpsCreditCardService extends AbstractCreditCardService implements
         CreditCardService {
     private static final MarketSegment DEFAULT_MARKET_SEGMENT = MarketSegment.INTERNET;
+    private static final byte[] MARKET_SEGMENT_PARAM = new RequestEncoder().param(
+            "marketSegmentCode", DEFAULT_MARKET_SEGMENT.toCode()).toByteArray();
 
     // --------------------------------------------------------------------------
     // Fields
@@ -59,6 +61,26 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
         this.merchant = merchant;
     }
 
+    /**
+     * Creates an instance that sends its requests through the given
+     * transport.
+     * 
+     * @param merchant
+     *            the merchant issuing the requests.
+     * @param url
+     *            the creditcard gateway url to send requests to. Not null.
+     * @param secured
+     *            true if using https, otherwise http is used
+     * @param transport
+     *            the transport that sends the requests, ie. a
+     *            {@link PooledHttpTransport} sized for this service. Not null.
+     */
+    public HttpsCreditCardService(Merchant merchant, String url, boolean secured,
+            HttpTransport transport) {
+        super(url, secured, transport);
+        this.merchant = merchant;
+    }
+
     /**
      * Creates an instance. Secured by default.
      * 
@@ -116,15 +138,12 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
     }
 
     @Override
-    protected void appendHeader(StringBuilder req, String requestCode) {
+    protected void appendHeader(RequestEncoder req, String requestCode) {
         super.appendHeader(req, requestCode);
-        this.appendMerchantId(req, this.merchant.getMerchantId());
-        this.appendApiToken(req, this.merchant.getApiToken());
-        this.appendParam(req, "marketSegmentCode", DEFAULT_MARKET_SEGMENT.toCode());
-
-        if (this.merchant.getStoreId() != null) {
-            this.appendParam(req, "storeId", this.merchant.getStoreId());
-        }
+        // the merchant fields are the same on every request: append them
+        // pre-encoded
+        req.appendEncoded(this.merchant.getEncodedHeader()).appendEncoded(MARKET_SEGMENT_PARAM);
+        req.setMerchant(this.merchant);
     }
 
     /**
@@ -175,7 +194,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
         if (creditCard == null) {
             return new CreditCardReceipt(REQ_INVALID_REQUEST, "creditCard is required", null);
         }
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             // create the request string
             this.appendHeader(req, "installmentPurchase");
@@ -265,7 +284,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
                     "at least one of creditCard or storageTokenId is required", null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "recurringPurchase");
             this.appendOperationType(req, "create");
@@ -311,7 +330,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
                     null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "recurringPurchase");
             this.appendOperationType(req, "query");
@@ -334,7 +353,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
                     null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "recurringPurchase");
             this.appendOperationType(req, "execute");
@@ -417,7 +436,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
                     null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "recurringPurchase");
             this.appendOperationType(req, "update");
@@ -456,7 +475,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
             return new CreditCardReceipt(REQ_INVALID_REQUEST, "purchaseOrderId is required", null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "refund");
             this.appendTransactionId(req, purchaseId);
@@ -509,7 +528,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
             return new CreditCardReceipt(REQ_INVALID_REQUEST, "orderId is required", null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "preAuth");
             this.appendOrderId(req, orderId);
@@ -542,7 +561,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
         if (purchaseOrderId == null) {
             return new CreditCardReceipt(REQ_INVALID_REQUEST, "purchaseOrderId is required", null);
         }
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "capture");
             this.appendTransactionId(req, purchaseId);
@@ -580,7 +599,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
             return new CreditCardReceipt(REQ_INVALID_REQUEST, "orderId is required", null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "singleCredit");
             this.appendOrderId(req, orderId);
@@ -696,7 +715,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
             return new CreditCardReceipt(REQ_INVALID_REQUEST, "orderId is required", null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "singlePurchase");
             this.appendOrderId(req, orderId);
@@ -753,7 +772,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
             return new CreditCardReceipt(REQ_INVALID_REQUEST, "orderId is required", null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "force");
             this.appendOrderId(req, orderId);
@@ -777,7 +796,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
                     null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "reversal");
             this.appendTransactionId(req, transactionId);
@@ -797,7 +816,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
             return new CreditCardReceipt(REQ_INVALID_REQUEST, "orderId is required", null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "lodging");
             this.appendOperationType(req, "checkin");
@@ -818,7 +837,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
             return new CreditCardReceipt(REQ_INVALID_REQUEST, "orderId is required", null);
         }
 
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "lodging");
             this.appendOperationType(req, "incremental");
@@ -839,7 +858,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
         }
 
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "lodging");
             this.appendOperationType(req, "checkout");
@@ -908,7 +927,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
                     null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "verifyCreditCard");
             if (isActualCreditCard) {
@@ -940,7 +959,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
                     null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "void");
             this.appendTransactionId(req, transactionId);
@@ -956,7 +975,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
             return new CreditCardReceipt(REQ_INVALID_REQUEST, "at least one of transactionId or transactionOrderId is required", null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "verifyTransaction");
             if (transactionId != null) {
@@ -984,7 +1003,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
             return new StorageReceipt(REQ_INVALID_REQUEST, "paymentProfile is required", null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "secureStorage");
             this.appendOperationType(req, "create");
@@ -1001,7 +1020,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
             return new StorageReceipt(REQ_INVALID_REQUEST, "storageTokenId is required", null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "secureStorage");
             this.appendOperationType(req, "delete");
@@ -1017,7 +1036,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
             return new StorageReceipt(REQ_INVALID_REQUEST, "storageTokenId is required", null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "secureStorage");
             this.appendOperationType(req, "query");
@@ -1036,7 +1055,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
             return new StorageReceipt(REQ_INVALID_REQUEST, "paymentProfile is required", null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "secureStorage");
             this.appendOperationType(req, "update");
@@ -1051,7 +1070,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
     public CreditCardReceipt closeBatch() {
 
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "batch");
             this.appendOperationType(req, "close");
@@ -1064,7 +1083,7 @@ public final class HttpsCreditCardService extends AbstractCreditCardService impl
     public CreditCardReceipt updateFraud(Long transactionId, String fraudSessionId, String auth) {
 
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "fraudUpdate");
             this.appendTransactionId(req, transactionId);
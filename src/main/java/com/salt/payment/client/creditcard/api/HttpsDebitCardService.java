@@ -69,6 +69,31 @@ public class HttpsDebitCardService extends AbstractCreditCardService {
         this.marketSegment = marketSegment;
     }
 
+    /**
+     * Creates an instance that sends its requests through the given
+     * transport.
+     * 
+     * @param merchant
+     *            the id of the merchant issuing the requests
+     * @param apiToken
+     *            the apiToken of the merchant issuing the requests
+     * @param marketSegment
+     *            the market segment of all requests. Not null.
+     * @param url
+     *            the gateway url to send requests to. Not null.
+     * @param secured
+     *            true if using https, otherwise http is used
+     * @param transport
+     *            the transport that sends the requests. Not null.
+     */
+    public HttpsDebitCardService(int merchantId, String apiToken, MarketSegment marketSegment,
+            String url, boolean secured, HttpTransport transport) {
+        super(url, secured, transport);
+        this.merchantId = merchantId;
+        this.apiToken = apiToken;
+        this.marketSegment = marketSegment;
+    }
+
     /**
      * Creates an instance with default {@link MarketSegment.INTERNET}. Secured
      * by default.
@@ -85,14 +110,14 @@ public class HttpsDebitCardService extends AbstractCreditCardService {
     }
 
     @Override
-    protected void appendHeader(StringBuilder req, String requestCode) {
+    protected void appendHeader(RequestEncoder req, String requestCode) {
         super.appendHeader(req, requestCode);
         this.appendMerchantId(req, this.merchantId);
         this.appendApiToken(req, this.apiToken);
         this.appendParam(req, "marketSegmentCode", this.marketSegment.toCode());
     }
 
-    protected void appendDebitCard(StringBuilder req, USDebitCard debitCard) {
+    protected void appendDebitCard(RequestEncoder req, USDebitCard debitCard) {
         if (debitCard.getAccountType() != null) {
             this.appendParam(req, USDebitCard.Field.accountType.name(), debitCard.getAccountType());
         }
@@ -116,6 +141,12 @@ public class HttpsDebitCardService extends AbstractCreditCardService {
         }
     }
 
+    /** @deprecated override or call {@link #appendDebitCard(RequestEncoder, USDebitCard)} */
+    @Deprecated
+    protected final void appendDebitCard(StringBuilder req, USDebitCard debitCard) {
+        this.appendTo(req, e -> this.appendDebitCard(e, debitCard));
+    }
+
     /**
      * @return the apiToken of the merchant issuing the requests
      */
@@ -153,7 +184,7 @@ public class HttpsDebitCardService extends AbstractCreditCardService {
             return new DebitCardReceipt(REQ_INVALID_REQUEST, "orderId is required", null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, RequestCode.singleDebitPurchase.name());
             this.appendOrderId(req, orderId);
@@ -179,7 +210,7 @@ public class HttpsDebitCardService extends AbstractCreditCardService {
             return new DebitCardReceipt(REQ_INVALID_REQUEST, "orderId is required", null);
         }
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, RequestCode.singleDebitRefund.name());
             this.appendOrderId(req, orderId);
@@ -195,7 +226,7 @@ public class HttpsDebitCardService extends AbstractCreditCardService {
     public CreditCardReceipt closeBatch() {
 
         // create the request string
-        final StringBuilder req = new StringBuilder();
+        final RequestEncoder req = new RequestEncoder();
         try {
             this.appendHeader(req, "batch");
             this.appendOperationType(req, "close");
@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.salt.payment.client.creditcard.api.CallTimings.Phase;
+
+/**
+ * Exports {@link GatewayMetrics} as JMX MBeans, one per request code and
+ * operation code, ie.
+ * <code>com.salt.payment.client:type=GatewayMetrics,request=secureStorage,operation=query</code>
+ * . Each has read-only attributes:
+ * <ul>
+ * <li>Count, ApprovedCount, ErrorCount and ReusedConnectionCount</li>
+ * <li>ErrorCodeCounts: the number of calls by error code, ie.
+ * <code>{-5=2, 51=7}</code></li>
+ * <li>for each phase, Connect, Write, TimeToFirstByte, Parse and Total, its
+ * P50Ms, P99Ms, P999Ms, MaxMs and MeanMs, ie. TimeToFirstByteP99Ms</li>
+ * </ul>
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @since JSE8
+ */
+public final class JmxMetricsExporter {
+    /** The default domain of the MBeans. */
+    public static final String DEFAULT_DOMAIN = "com.salt.payment.client";
+
+    private final GatewayMetrics metrics;
+    private final MBeanServer server;
+    private final String domain;
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+    private final GatewayMetrics.Listener listener = new GatewayMetrics.Listener() {
+        public void requestMetricsAdded(RequestMetrics requestMetrics) {
+            JmxMetricsExporter.this.register(requestMetrics);
+        }
+    };
+    private boolean started = false;
+
+    /**
+     * Creates an exporter to the platform MBean server, in
+     * {@link #DEFAULT_DOMAIN}.
+     * 
+     * @param metrics
+     *            the metrics to export. Not null.
+     */
+    public JmxMetricsExporter(GatewayMetrics metrics) {
+        this(metrics, ManagementFactory.getPlatformMBeanServer(), DEFAULT_DOMAIN);
+    }
+
+    /**
+     * Creates an exporter.
+     * 
+     * @param metrics
+     *            the metrics to export. Not null.
+     * @param server
+     *            the MBean server to register with. Not null.
+     * @param domain
+     *            the domain of the MBeans. Not null.
+     */
+    public JmxMetricsExporter(GatewayMetrics metrics, MBeanServer server, String domain) {
+        if (metrics == null || server == null || domain == null) {
+            throw new IllegalArgumentException("metrics, server and domain are required");
+        }
+        this.metrics = metrics;
+        this.server = server;
+        this.domain = domain;
+    }
+
+    /**
+     * Registers the MBeans of the metrics recorded so far, and of those
+     * recorded from now on.
+     */
+    public synchronized void start() {
+        if (!this.started) {
+            this.started = true;
+            this.metrics.addListener(this.listener);
+        }
+    }
+
+    /**
+     * Unregisters the MBeans.
+     */
+    public synchronized void stop() {
+        if (this.started) {
+            this.started = false;
+            this.metrics.removeListener(this.listener);
+            for (final ObjectName name : this.registered) {
+                try {
+                    this.server.unregisterMBean(name);
+                } catch (final JMException e) {
+                    // already unregistered
+                }
+            }
+            this.registered.clear();
+        }
+    }
+
+    private synchronized void register(RequestMetrics requestMetrics) {
+        if (!this.started) {
+            return;
+        }
+        try {
+            final StringBuilder name = new StringBuilder(this.domain);
+            name.append(":type=GatewayMetrics,request=").append(
+                    quoteIfNeeded(requestMetrics.getRequestCode()));
+            if (requestMetrics.getOperationCode() != null) {
+                name.append(",operation=").append(quoteIfNeeded(requestMetrics.getOperationCode()));
+            }
+            final ObjectName objectName = new ObjectName(name.toString());
+            this.server.registerMBean(new RequestMetricsMBean(requestMetrics), objectName);
+            this.registered.add(objectName);
+        } catch (final JMException e) {
+            // ie. already registered by another exporter: not exported twice
+        }
+    }
+
+    private static String quoteIfNeeded(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') {
+                return ObjectName.quote(value);
+            }
+        }
+        return value;
+    }
+
+    /** The attributes of one {@link RequestMetrics}. */
+    private static final class RequestMetricsMBean implements DynamicMBean {
+        private static final String[] STATS = {"P50Ms", "P99Ms", "P999Ms", "MaxMs", "MeanMs"};
+        private static final double[] PERCENTILES = {50, 99, 99.9};
+        /** The phase and statistic of each latency attribute, by name. */
+        private static final Map<String, int[]> LATENCY_ATTRIBUTES =
+                new LinkedHashMap<String, int[]>();
+        static {
+            for (final Phase phase : Phase.values()) {
+                for (int stat = 0; stat < STATS.length; stat++) {
+                    LATENCY_ATTRIBUTES.put(camelCase(phase) + STATS[stat], new int[] {
+                            phase.ordinal(), stat});
+                }
+            }
+        }
+        private static final MBeanInfo INFO = createInfo();
+
+        private final RequestMetrics metrics;
+
+        RequestMetricsMBean(RequestMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        private static String camelCase(Phase phase) {
+            final StringBuilder name = new StringBuilder();
+            for (final String word : phase.name().split("_")) {
+                name.append(word.charAt(0)).append(word.substring(1).toLowerCase());
+            }
+            return name.toString();
+        }
+
+        private static MBeanInfo createInfo() {
+            final List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+            attributes.add(new MBeanAttributeInfo("Count", "long", "the number of calls", true,
+                    false, false));
+            attributes.add(new MBeanAttributeInfo("ApprovedCount", "long",
+                    "the number of calls approved", true, false, false));
+            attributes.add(new MBeanAttributeInfo("ErrorCount", "long",
+                    "the number of calls not approved", true, false, false));
+            attributes.add(new MBeanAttributeInfo("ReusedConnectionCount", "long",
+                    "the number of calls sent on a pooled connection", true, false, false));
+            attributes.add(new MBeanAttributeInfo("ErrorCodeCounts", "java.lang.String",
+                    "the number of calls not approved by error code", true, false, false));
+            for (final String name : LATENCY_ATTRIBUTES.keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "double", "latency in milliseconds",
+                        true, false, false));
+            }
+            return new MBeanInfo(RequestMetrics.class.getName(),
+                    "the calls to the gateway with a request code and operation code",
+                    attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null,
+                    null);
+        }
+
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            if ("Count".equals(attribute)) {
+                return this.metrics.getCount();
+            } else if ("ApprovedCount".equals(attribute)) {
+                return this.metrics.getApprovedCount();
+            } else if ("ErrorCount".equals(attribute)) {
+                return this.metrics.getErrorCount();
+            } else if ("ReusedConnectionCount".equals(attribute)) {
+                return this.metrics.getReusedConnectionCount();
+            } else if ("ErrorCodeCounts".equals(attribute)) {
+                return this.metrics.getErrorCodeCounts().toString();
+            }
+            final int[] latency = LATENCY_ATTRIBUTES.get(attribute);
+            if (latency == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            final LatencyHistogram histogram =
+                    this.metrics.getHistogram(Phase.values()[latency[0]]);
+            final int stat = latency[1];
+            final double micros;
+            if (stat < PERCENTILES.length) {
+                micros = histogram.getValueAtPercentile(PERCENTILES[stat]);
+            } else if (stat == PERCENTILES.length) {
+                micros = histogram.getMax();
+            } else {
+                micros = histogram.getMean();
+            }
+            return micros / 1000;
+        }
+
+        public AttributeList getAttributes(String[] attributes) {
+            final AttributeList list = new AttributeList();
+            for (final String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, this.getAttribute(attribute)));
+                } catch (final AttributeNotFoundException e) {
+                    // left out, as the contract wants
+                }
+            }
+            return list;
+        }
+
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("read-only: " + attribute.getName());
+        }
+
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        public MBeanInfo getMBeanInfo() {
+            return INFO;
+        }
+    }
+}
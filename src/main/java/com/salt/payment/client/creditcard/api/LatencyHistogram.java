@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies, in the manner of HdrHistogram: each
+ * power of two is split into 64 buckets, so any recorded value is reported
+ * within 1.6% of its true value, whatever its magnitude. Recording is a few
+ * atomic increments, with no lock and no allocation.
+ * <p>
+ * The unit is the caller's: {@link GatewayMetrics} records microseconds.
+ * <p>
+ * This class is thread-safe. Values read while others are recorded are
+ * approximate.
+ * 
+ * @since JSE8
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS)
+            * HALF_SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram() {
+    }
+
+    /**
+     * Records a latency.
+     * 
+     * @param value
+     *            the latency. Negative values count as 0.
+     */
+    public void record(long value) {
+        final long v = Math.max(0, value);
+        this.counts.incrementAndGet(index(v));
+        this.totalCount.increment();
+        this.sum.add(v);
+        long current = this.max.get();
+        while (v > current && !this.max.compareAndSet(current, v)) {
+            current = this.max.get();
+        }
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    public long getCount() {
+        return this.totalCount.sum();
+    }
+
+    /**
+     * @return the highest latency recorded, or 0 if none was
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @return the mean of the latencies recorded, or 0 if none was
+     */
+    public double getMean() {
+        final long count = this.totalCount.sum();
+        return count == 0 ? 0 : (double) this.sum.sum() / count;
+    }
+
+    /**
+     * @param percentile
+     *            the percentile, from 0 to 100
+     * @return the latency at <code>percentile</code>: the highest value of its
+     *         bucket, or 0 if none was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        final long total = this.totalCount.sum();
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // value >>> shift is from 64 to 127
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT
+                + (int) (value >>> shift) - HALF_SUB_BUCKET_COUNT;
+    }
+
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + 1;
+        final long mantissa = (index - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT
+                + HALF_SUB_BUCKET_COUNT;
+        final long highest = ((mantissa + 1) << shift) - 1;
+        // the last bucket ends at Long.MAX_VALUE
+        return highest < 0 ? Long.MAX_VALUE : highest;
+    }
+}
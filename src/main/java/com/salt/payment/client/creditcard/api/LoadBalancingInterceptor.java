@@ -0,0 +1,396 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.*;
+
+/**
+ * Spreads the requests over several gateway endpoints, ie. of a primary and
+ * a disaster recovery data center, by their health and latency. Ie.
+ * 
+ * <pre>
+ * service.addInterceptor(new LoadBalancingInterceptor(primaryUrl, recoveryUrl));
+ * </pre>
+ * 
+ * Each request goes to the better of two endpoints drawn at random (the
+ * power of two choices): the one with the lowest moving average of its
+ * latency, weighted by its requests in flight. Most requests thus go to the
+ * nearest endpoint, while the others keep being measured.
+ * <p>
+ * An endpoint that cannot be connected to is set aside for
+ * {@link #setDownMs(long)}, and the request is sent to the next one at
+ * once: a request that was not sent ({@link CreditCardService#REQ_CONNECTION_FAILED}
+ * or {@link CreditCardService#REQ_CIRCUIT_OPEN}) is safe to send elsewhere.
+ * A request that may have reached the gateway is not sent elsewhere, see
+ * {@link RetryInterceptor}.
+ * <p>
+ * Requests following up a transaction, ie. <code>capture</code>,
+ * <code>void</code> or <code>refund</code>, go to the endpoint that
+ * processed it, as long as it is up, if it was processed through this
+ * instance and is among the {@link #setMaxPinnedTransactions(int) latest}.
+ * So does a <code>verifyTransaction</code> by order id only, ie. of the
+ * {@link RetryInterceptor} after a request without a response: it goes to
+ * the endpoint the request with that order id was last sent to.
+ * <p>
+ * Add it after a {@link RetryInterceptor}, so that the retries may go to
+ * another endpoint, and before a {@link CircuitBreakerInterceptor}, so that
+ * circuits are kept per endpoint. The url of the service itself is only used
+ * if it is one of the endpoints. This class is thread-safe.
+ * 
+ * @since JSE8
+ */
+public final class LoadBalancingInterceptor implements GatewayInterceptor {
+    /** The default time an endpoint that cannot be connected to is set aside, in ms. */
+    public static final long DEFAULT_DOWN_MS = 5000;
+    /** The default number of transactions whose endpoint is remembered. */
+    public static final int DEFAULT_MAX_PINNED_TRANSACTIONS = 10000;
+    /** The minimum weight of the latest latency in the moving averages. */
+    private static final double EWMA_WEIGHT = 0.2;
+    /**
+     * The time over which the moving average of an endpoint fades, in ns: the
+     * endpoints not chosen for a while are tried again, and their next
+     * latency outweighs the old ones.
+     */
+    private static final double DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+    /** The requests creating the transactions followed up. */
+    private static final Set<String> TRANSACTIONS = new HashSet<String>(Arrays.asList(
+            "singlePurchase", "preAuth", "singleCredit", "force", "installmentPurchase"));
+    /** The requests following up a transaction, by its transactionId or transactionOrderId. */
+    private static final Set<String> FOLLOW_UPS = new HashSet<String>(Arrays.asList("capture",
+            "void", "refund", "reversal", "verifyTransaction"));
+
+    /** The health and latency of one endpoint. */
+    private static final class Endpoint {
+        final String url;
+        /** The moving average of the latency, in ns. */
+        private volatile double ewma = 0;
+        /** The nanoTime of the latest latency. */
+        private volatile long updated = System.nanoTime();
+        final AtomicInteger inFlight = new AtomicInteger();
+        /** The nanoTime until which the endpoint is down. */
+        volatile long downUntil;
+        volatile boolean down;
+
+        Endpoint(String url) {
+            this.url = url;
+        }
+
+        synchronized void recordLatency(long nanos, long now) {
+            final double weight =
+                    Math.max(EWMA_WEIGHT, 1 - Math.exp(-(now - this.updated) / DECAY_NANOS));
+            this.ewma = this.ewma == 0 ? nanos : this.ewma + weight * (nanos - this.ewma);
+            this.updated = now;
+        }
+
+        /** @return the moving average of the latency, faded since updated */
+        double latency(long now) {
+            return this.ewma * Math.exp(-(now - this.updated) / DECAY_NANOS);
+        }
+
+        /** @return the cost of a new request, the lower the better */
+        double cost(long now) {
+            return this.latency(now) * (this.inFlight.get() + 1);
+        }
+
+        boolean isUp(long now) {
+            return !this.down || now - this.downUntil >= 0;
+        }
+    }
+
+    private final Endpoint[] endpoints;
+    private volatile long downNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DOWN_MS);
+    private volatile int maxPinnedTransactions = DEFAULT_MAX_PINNED_TRANSACTIONS;
+    /** The endpoints of the latest transactions, by id. Guarded by itself. */
+    private final Map<Long, Endpoint> pinned = this.newPinMap();
+    /**
+     * The endpoints the latest transaction requests were sent to, by merchant
+     * and order id, whether answered or not. Guarded by itself.
+     */
+    private final Map<String, Endpoint> pinnedOrders = this.newPinMap();
+
+    /**
+     * Creates an instance spreading the requests over <code>urls</code>.
+     * 
+     * @param urls
+     *            the urls of the gateway endpoints. At least one, not null.
+     */
+    public LoadBalancingInterceptor(String... urls) {
+        this(Arrays.asList(urls));
+    }
+
+    /**
+     * Creates an instance spreading the requests over <code>urls</code>.
+     * 
+     * @param urls
+     *            the urls of the gateway endpoints. At least one, not null.
+     */
+    public LoadBalancingInterceptor(List<String> urls) {
+        if (urls == null || urls.isEmpty()) {
+            throw new IllegalArgumentException("urls are required");
+        }
+        this.endpoints = new Endpoint[urls.size()];
+        for (int i = 0; i < this.endpoints.length; i++) {
+            if (urls.get(i) == null) {
+                throw new IllegalArgumentException("urls must not be null");
+            }
+            this.endpoints[i] = new Endpoint(urls.get(i));
+        }
+    }
+
+    /**
+     * @return the urls of the gateway endpoints
+     */
+    public List<String> getUrls() {
+        final String[] urls = new String[this.endpoints.length];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = this.endpoints[i].url;
+        }
+        return Collections.unmodifiableList(Arrays.asList(urls));
+    }
+
+    /**
+     * Sets how long an endpoint that cannot be connected to is set aside.
+     * {@value #DEFAULT_DOWN_MS} ms by default.
+     * 
+     * @param millis
+     *            the duration, in ms. Not negative.
+     */
+    public void setDownMs(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis must not be negative");
+        }
+        this.downNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Sets the number of latest transactions whose endpoint is remembered, to
+     * send their follow-ups to. {@value #DEFAULT_MAX_PINNED_TRANSACTIONS} by
+     * default, 0 to send the follow-ups as any other request.
+     * 
+     * @param max
+     *            the number of transactions. Not negative.
+     */
+    public void setMaxPinnedTransactions(int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("max must not be negative");
+        }
+        this.maxPinnedTransactions = max;
+        if (max == 0) {
+            synchronized (this.pinned) {
+                this.pinned.clear();
+            }
+            synchronized (this.pinnedOrders) {
+                this.pinnedOrders.clear();
+            }
+        }
+    }
+
+    /** @return a map keeping the {@link #setMaxPinnedTransactions(int) latest} entries */
+    private <K> Map<K, Endpoint> newPinMap() {
+        return new LinkedHashMap<K, Endpoint>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Endpoint> eldest) {
+                return this.size() > LoadBalancingInterceptor.this.maxPinnedTransactions;
+            }
+        };
+    }
+
+    /**
+     * @return the moving average of the latency of each endpoint, in ms,
+     *         faded if not chosen lately, or -1 for the endpoints set aside
+     */
+    public Map<String, Double> getLatencies() {
+        final Map<String, Double> latencies = new LinkedHashMap<String, Double>();
+        final long now = System.nanoTime();
+        for (final Endpoint endpoint : this.endpoints) {
+            latencies.put(endpoint.url, endpoint.isUp(now) ? endpoint.latency(now) / 1e6 : -1);
+        }
+        return latencies;
+    }
+
+    @Override
+    public AbstractReceipt intercept(Chain chain) {
+        final GatewayRequest request = chain.request();
+        Endpoint endpoint = this.pinnedEndpoint(request);
+        if (endpoint == null) {
+            endpoint = this.choose(null);
+        }
+        // at most one try per endpoint, as long as the request was not sent
+        boolean[] tried = null;
+        while (true) {
+            final long start = System.nanoTime();
+            endpoint.inFlight.incrementAndGet();
+            final AbstractReceipt receipt;
+            try {
+                receipt = chain.proceed(request.withUrl(endpoint.url));
+            } finally {
+                endpoint.inFlight.decrementAndGet();
+            }
+            final long end = System.nanoTime();
+            final String errorCode = receipt.getErrorCode();
+            final boolean notSent =
+                    !receipt.isApproved()
+                            && (String.valueOf(REQ_CONNECTION_FAILED).equals(errorCode) || String
+                                    .valueOf(REQ_CIRCUIT_OPEN).equals(errorCode));
+            if (!notSent) {
+                endpoint.down = false;
+                endpoint.recordLatency(end - start, end);
+                this.pin(request, receipt, endpoint);
+                return receipt;
+            }
+            if (String.valueOf(REQ_CONNECTION_FAILED).equals(errorCode)) {
+                endpoint.downUntil = end + this.downNanos;
+                endpoint.down = true;
+            }
+            if (tried == null) {
+                tried = new boolean[this.endpoints.length];
+            }
+            tried[this.indexOf(endpoint)] = true;
+            final Endpoint next = this.choose(tried);
+            if (next == null || request.getRemainingMs() <= 0) {
+                return receipt;
+            }
+            endpoint = next;
+        }
+    }
+
+    /**
+     * Chooses the better of two endpoints drawn at random among those up and
+     * not tried, or the first to come back up if all are down.
+     * 
+     * @param tried
+     *            the endpoints already tried, by index, or null if none
+     * @return the endpoint, or null if all were tried
+     */
+    private Endpoint choose(boolean[] tried) {
+        final long now = System.nanoTime();
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        Endpoint first = null;
+        Endpoint second = null;
+        int candidates = 0;
+        Endpoint soonestUp = null;
+        for (int i = 0; i < this.endpoints.length; i++) {
+            final Endpoint endpoint = this.endpoints[i];
+            if (tried != null && tried[i]) {
+                continue;
+            }
+            if (!endpoint.isUp(now)) {
+                if (soonestUp == null || endpoint.downUntil - soonestUp.downUntil < 0) {
+                    soonestUp = endpoint;
+                }
+                continue;
+            }
+            // reservoir sampling of two candidates
+            candidates++;
+            if (candidates == 1) {
+                first = endpoint;
+            } else if (candidates == 2) {
+                second = endpoint;
+            } else {
+                final int j = random.nextInt(candidates);
+                if (j == 0) {
+                    first = endpoint;
+                } else if (j == 1) {
+                    second = endpoint;
+                }
+            }
+        }
+        if (first == null) {
+            return soonestUp;
+        }
+        if (second == null) {
+            return first;
+        }
+        final double firstCost = first.cost(now);
+        final double secondCost = second.cost(now);
+        if (firstCost == secondCost) {
+            return random.nextBoolean() ? first : second;
+        }
+        return firstCost < secondCost ? first : second;
+    }
+
+    private int indexOf(Endpoint endpoint) {
+        for (int i = 0; i < this.endpoints.length; i++) {
+            if (this.endpoints[i] == endpoint) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the endpoint that processed the transaction the request follows
+     *         up, by its transactionId, or else its transactionOrderId, if
+     *         known and up, otherwise null
+     */
+    private Endpoint pinnedEndpoint(GatewayRequest request) {
+        if (this.maxPinnedTransactions == 0 || !FOLLOW_UPS.contains(request.getRequestCode())) {
+            return null;
+        }
+        Endpoint endpoint = null;
+        final String transactionId = request.getParameter("transactionId");
+        if (transactionId != null) {
+            try {
+                synchronized (this.pinned) {
+                    endpoint = this.pinned.get(Long.valueOf(transactionId));
+                }
+            } catch (final NumberFormatException e) {
+                // not pinned
+            }
+        }
+        final String orderId = request.getParameter("transactionOrderId");
+        if (endpoint == null && orderId != null) {
+            synchronized (this.pinnedOrders) {
+                endpoint = this.pinnedOrders.get(orderKey(request, orderId));
+            }
+        }
+        return endpoint != null && endpoint.isUp(System.nanoTime()) ? endpoint : null;
+    }
+
+    /**
+     * Remembers the endpoint a transaction request was sent to, by its order
+     * id, and the endpoint that processed the transaction of the receipt.
+     */
+    private void pin(GatewayRequest request, AbstractReceipt receipt, Endpoint endpoint) {
+        if (this.maxPinnedTransactions == 0 || !TRANSACTIONS.contains(request.getRequestCode())) {
+            return;
+        }
+        final String orderId = request.getParameter("orderId");
+        if (orderId != null) {
+            synchronized (this.pinnedOrders) {
+                this.pinnedOrders.put(orderKey(request, orderId), endpoint);
+            }
+        }
+        final Long transactionId = receipt.getTransactionId();
+        if (transactionId == null || !receipt.isApproved()) {
+            return;
+        }
+        synchronized (this.pinned) {
+            this.pinned.put(transactionId, endpoint);
+        }
+    }
+
+    private static String orderKey(GatewayRequest request, String orderId) {
+        return request.getMerchantKey() + " " + orderId;
+    }
+}
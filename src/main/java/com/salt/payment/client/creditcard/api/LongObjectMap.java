@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive <code>long</code> keys to non-null values, in two
+ * arrays: no boxed key and no entry object per mapping. Collisions are
+ * resolved by linear probing, and removals shift the following entries back
+ * rather than leaving tombstones. The table is kept at most half full.
+ * <p>
+ * This class is not thread-safe.
+ * 
+ * @since JSE8
+ */
+final class LongObjectMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    /** The values, null in the free slots. */
+    private Object[] values;
+    private int size = 0;
+    /** The number of bits of an index. */
+    private int bits;
+
+    /**
+     * Creates a map holding <code>expectedSize</code> entries without growing.
+     */
+    LongObjectMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2L && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        this.allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.bits = Integer.numberOfTrailingZeros(capacity);
+    }
+
+    /** @return the home slot of <code>key</code>, by Fibonacci hashing */
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - this.bits));
+    }
+
+    /** @return the slot of <code>key</code>, or -1 if absent */
+    private int find(long key) {
+        final int mask = this.values.length - 1;
+        for (int i = this.slot(key); this.values[i] != null; i = (i + 1) & mask) {
+            if (this.keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the value of <code>key</code>, or null if absent
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        final int i = this.find(key);
+        return i >= 0 ? (V) this.values[i] : null;
+    }
+
+    /**
+     * Maps <code>key</code> to <code>value</code>.
+     * 
+     * @param value
+     *            the value. Not null.
+     * @return the previous value of <code>key</code>, or null if absent
+     */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        final int mask = this.values.length - 1;
+        int i = this.slot(key);
+        while (this.values[i] != null) {
+            if (this.keys[i] == key) {
+                final V previous = (V) this.values[i];
+                this.values[i] = value;
+                return previous;
+            }
+            i = (i + 1) & mask;
+        }
+        this.keys[i] = key;
+        this.values[i] = value;
+        if (++this.size * 2 > this.values.length) {
+            this.grow();
+        }
+        return null;
+    }
+
+    /**
+     * @return the value <code>key</code> was mapped to, or null if absent
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int i = this.find(key);
+        if (i < 0) {
+            return null;
+        }
+        final V previous = (V) this.values[i];
+        this.values[i] = null;
+        this.size--;
+        // shift back the entries that probed past the freed slot
+        final int mask = this.values.length - 1;
+        for (int j = (i + 1) & mask; this.values[j] != null; j = (j + 1) & mask) {
+            final int home = this.slot(this.keys[j]);
+            // j stays if its home is cyclically within (i, j]
+            if (i <= j ? (i < home && home <= j) : (i < home || home <= j)) {
+                continue;
+            }
+            this.keys[i] = this.keys[j];
+            this.values[i] = this.values[j];
+            this.values[j] = null;
+            i = j;
+        }
+        return previous;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Removes all entries, keeping the capacity.
+     */
+    void clear() {
+        Arrays.fill(this.values, null);
+        this.size = 0;
+    }
+
+    private void grow() {
+        final long[] oldKeys = this.keys;
+        final Object[] oldValues = this.values;
+        this.allocate(oldValues.length * 2);
+        final int mask = this.values.length - 1;
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] != null) {
+                int i = this.slot(oldKeys[j]);
+                while (this.values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                this.keys[i] = oldKeys[j];
+                this.values[i] = oldValues[j];
+            }
+        }
+    }
+}
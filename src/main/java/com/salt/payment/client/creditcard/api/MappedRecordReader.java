@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the records of a UTF-8 text file, one per line, through a window of
+ * the file mapped in memory, so that a file of any size is read without
+ * copying it to the heap but a record at a time. A line end within double
+ * quotes does not end a record if <code>quoted</code>, as in CSV. A UTF-8
+ * byte order mark is skipped, and so is the carriage return of a line end.
+ * <p>
+ * This class is not thread-safe.
+ * 
+ * @since JSE8
+ */
+final class MappedRecordReader implements Closeable {
+    /** The default number of bytes mapped at a time is {@value}. */
+    static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long length;
+    private final boolean quoted;
+    private final int windowSize;
+    /** The mapped part of the file, or null before the first record. */
+    private MappedByteBuffer window;
+    /** The position in the file of the start of the window. */
+    private long windowStart;
+    /** The position in the file of the next record. */
+    private long position = 0;
+    /** The bytes of the latest record. */
+    private byte[] bytes = new byte[256];
+
+    /**
+     * Opens a file.
+     * 
+     * @param file
+     *            the file. Not null.
+     * @param quoted
+     *            true if a line end within double quotes is part of the record
+     * @param windowSize
+     *            the number of bytes mapped at a time, more than the longest
+     *            record. Positive.
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    MappedRecordReader(File file, boolean quoted, int windowSize) throws IOException {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive");
+        }
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.length = this.channel.size();
+        this.quoted = quoted;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @return the next record, without its line end, or null at the end of
+     *         the file
+     * @throws IOException
+     *             if the file cannot be read, or a record is longer than the
+     *             window
+     */
+    String next() throws IOException {
+        while (this.position < this.length) {
+            if (this.window == null) {
+                this.map(this.position);
+                if (this.length >= 3 && this.window.get(0) == (byte) 0xEF
+                        && this.window.get(1) == (byte) 0xBB && this.window.get(2) == (byte) 0xBF) {
+                    this.position = 3;
+                    continue;
+                }
+            }
+            final int start = (int) (this.position - this.windowStart);
+            final int limit = this.window.limit();
+            boolean inQuotes = false;
+            for (int i = start; i < limit; i++) {
+                final byte b = this.window.get(i);
+                if (b == '"' && this.quoted) {
+                    inQuotes = !inQuotes;
+                } else if (b == '\n' && !inQuotes) {
+                    this.position = this.windowStart + i + 1;
+                    return this.decode(start, i);
+                }
+            }
+            if (this.windowStart + limit >= this.length) {
+                // the last record, without a line end
+                this.position = this.length;
+                return this.decode(start, limit);
+            }
+            if (start == 0) {
+                throw new IOException("a record at byte " + this.position
+                        + " is longer than " + this.windowSize + " bytes");
+            }
+            this.map(this.position);
+        }
+        return null;
+    }
+
+    private void map(long start) throws IOException {
+        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, start,
+                Math.min(this.windowSize, this.length - start));
+        this.windowStart = start;
+    }
+
+    private String decode(int start, int end) {
+        if (end > start && this.window.get(end - 1) == '\r') {
+            end--;
+        }
+        final int n = end - start;
+        if (n > this.bytes.length) {
+            this.bytes = new byte[Math.max(n, this.bytes.length * 2)];
+        }
+        // through Buffer, whose position(int) runs on Java 8 as well
+        ((Buffer) this.window).position(start);
+        this.window.get(this.bytes, 0, n);
+        return new String(this.bytes, 0, n, UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.window = null;
+        this.file.close();
+    }
+}
@@ -18,6 +18,10 @@ public final class Merchant {
     private final int merchantId;
     private final String apiToken;
     private final String storeId;
+    /** The header fields of every request, encoded once. */
+    private final byte[] encodedHeader;
+    /** The key of the merchant and store. */
+    private final String key;
 
     /**
      * Create a new merchant with the provided ID, API token, and no store ID.
@@ -56,6 +60,9 @@ public final class Merchant {
         this.merchantId = merchantId;
         this.apiToken = apiToken;
         this.storeId = storeId;
+        this.encodedHeader = new RequestEncoder().param("merchantId", merchantId)
+                .param("apiToken", apiToken).param("storeId", storeId).toByteArray();
+        this.key = key(String.valueOf(merchantId), storeId);
     }
 
     public int getMerchantId() {
@@ -69,4 +76,27 @@ public final class Merchant {
     public String getStoreId() {
         return this.storeId;
     }
+
+    /**
+     * @return the merchantId, followed by a slash and the storeId if any,
+     *         ie. to key the settings of each store
+     */
+    String getKey() {
+        return this.key;
+    }
+
+    static String key(String merchantId, String storeId) {
+        return storeId != null ? merchantId + "/" + storeId : merchantId;
+    }
+
+    /**
+     * Returns the merchant's request header fields (merchantId, apiToken and
+     * storeId if any) encoded as they are sent to the gateway. The fields are
+     * encoded once and shared by all the requests of this merchant.
+     * 
+     * @return the encoded header fields. Must not be modified.
+     */
+    byte[] getEncodedHeader() {
+        return this.encodedHeader;
+    }
 }
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+/**
+ * Receives the measurements of every call a service makes to the gateway,
+ * once set with {@link AbstractCreditCardService#setMetricsRecorder}.
+ * {@link GatewayMetrics} keeps them in histograms and counters; implement
+ * this interface to hand them to another metrics library instead.
+ * <p>
+ * Implementations are called by the threads making the calls, so they must
+ * be thread-safe and quick. Exceptions they throw are ignored.
+ * 
+ * @since JSE8
+ */
+public interface MetricsRecorder {
+    /**
+     * Records a call to the gateway, once its receipt is built.
+     * 
+     * @param requestCode
+     *            the request code of the call, ie. <code>singlePurchase</code>,
+     *            or null if unknown
+     * @param operationCode
+     *            the operation code of the call, ie. <code>query</code> for a
+     *            <code>secureStorage</code> request, or null if none
+     * @param timings
+     *            the time spent in each phase of the call. Not null.
+     * @param receipt
+     *            the receipt of the call. Not null.
+     */
+    void record(String requestCode, String operationCode, CallTimings timings,
+            AbstractReceipt receipt);
+}
@@ -0,0 +1,841 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.*;
+
+/**
+ * A {@link HttpTransport} that speaks HTTP/1.1 over a bounded pool of
+ * persistent (keep-alive) connections per gateway host, so the TCP and TLS
+ * handshakes are paid once per connection instead of once per request.
+ * <p>
+ * At most <code>maxConnections</code> connections are opened to each host.
+ * When all of them are in use, callers wait for one to be released, for no
+ * longer than their connect timeout. Connections idle for longer than
+ * <code>idleTimeoutMs</code> (or the keep-alive timeout announced by the
+ * server, if shorter) are closed instead of being reused.
+ * <p>
+ * Like <code>HttpURLConnection</code>, the https connections are opened with
+ * {@link HttpsURLConnection#getDefaultSSLSocketFactory()}, unless created with
+ * an {@link SSLContext} of their own, and through the proxy chosen by the
+ * default {@link ProxySelector}, ie. that of the <code>https.proxyHost</code>,
+ * <code>http.proxyHost</code> and <code>socksProxyHost</code> system
+ * properties. An https connection goes through an HTTP proxy with a
+ * <code>CONNECT</code> tunnel. Proxies asking for authentication are not
+ * supported.
+ * <p>
+ * The connect timeout covers the wait for a connection as well as opening
+ * it, and the read timeout covers the whole response rather than each read
+ * from the socket. The response is not waited for past the {@link Deadline}
+ * of the calling thread either.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @since JSE5
+ */
+public final class PooledHttpTransport implements HttpTransport {
+    /** The default maximum number of connections per host is {@value}. */
+    public static final int DEFAULT_MAX_CONNECTIONS = 20;
+    /** The default number of ms after which an idle connection is closed. */
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30000;
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_HEADER_LINE = 8192;
+    /** Idle connections older than this are checked before being reused. */
+    private static final long VALIDATE_AFTER_INACTIVITY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** Lazily created transport shared by services not given their own. */
+    private static final class DefaultHolder {
+        static final PooledHttpTransport INSTANCE = new PooledHttpTransport();
+    }
+
+    /**
+     * @return the transport shared by all services that were not created with
+     *         their own. Not to be closed.
+     */
+    public static PooledHttpTransport getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    // --------------------------------------------------------------------------
+    // Fields
+    // --------------------------------------------------------------------------
+    private final int maxConnections;
+    private final long idleTimeoutMs;
+    /** The factory of the https connections, or null for that of HttpsURLConnection. */
+    private final SSLSocketFactory sslSocketFactory;
+    private final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<String, Pool>();
+    private volatile boolean closed = false;
+
+    /**
+     * Creates an instance with {@value #DEFAULT_MAX_CONNECTIONS} connections
+     * per host and the default idle timeout.
+     */
+    public PooledHttpTransport() {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    /**
+     * Creates an instance.
+     * 
+     * @param maxConnections
+     *            the maximum number of connections opened to each host. Must
+     *            be positive.
+     * @param idleTimeoutMs
+     *            the number of ms after which an idle connection is closed
+     *            rather than reused
+     */
+    public PooledHttpTransport(int maxConnections, long idleTimeoutMs) {
+        this(maxConnections, idleTimeoutMs, (SSLSocketFactory) null);
+    }
+
+    /**
+     * Creates an instance opening its https connections with
+     * <code>sslContext</code>, ie. one trusting the certificates of a trust
+     * store, created by {@link GatewaySslContexts}. The TLS sessions cached by
+     * the context are resumed by the new connections.
+     * 
+     * @param maxConnections
+     *            the maximum number of connections opened to each host. Must
+     *            be positive.
+     * @param idleTimeoutMs
+     *            the number of ms after which an idle connection is closed
+     *            rather than reused
+     * @param sslContext
+     *            the TLS context. Not null.
+     * @since JSE8
+     */
+    public PooledHttpTransport(int maxConnections, long idleTimeoutMs, SSLContext sslContext) {
+        this(maxConnections, idleTimeoutMs, checkSslContext(sslContext).getSocketFactory());
+    }
+
+    private PooledHttpTransport(int maxConnections, long idleTimeoutMs,
+            SSLSocketFactory sslSocketFactory) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("maxConnections must be positive");
+        }
+        this.maxConnections = maxConnections;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.sslSocketFactory = sslSocketFactory;
+    }
+
+    private static SSLContext checkSslContext(SSLContext sslContext) {
+        if (sslContext == null) {
+            throw new IllegalArgumentException("sslContext must not be null");
+        }
+        return sslContext;
+    }
+
+    /**
+     * @return the maximum number of connections opened to each host
+     */
+    public int getMaxConnections() {
+        return this.maxConnections;
+    }
+
+    /**
+     * @return the number of ms after which an idle connection is closed
+     */
+    public long getIdleTimeoutMs() {
+        return this.idleTimeoutMs;
+    }
+
+    public ResponseFields post(URL url, RequestEncoder request, int connectTimeoutMs, int readTimeoutMs)
+            throws TransportException {
+        return this.post(url, request, connectTimeoutMs, readTimeoutMs, null);
+    }
+
+    @Override
+    public ResponseFields post(URL url, RequestEncoder request, int connectTimeoutMs,
+            int readTimeoutMs, CallTimings timings) throws TransportException {
+        if (this.closed) {
+            throw new TransportException(REQ_CONNECTION_FAILED, "the transport is closed", null);
+        }
+        final String path = Utils.isEmpty(url.getFile()) ? "/" : url.getFile();
+        final Pool pool = this.getPool(url);
+        Connection c = pool.acquire(connectTimeoutMs);
+        if (timings != null) {
+            timings.connected(c.reused);
+        }
+        boolean reusable = false;
+        try {
+            try {
+                c.writeRequest(path, request);
+            } catch (final IOException e) {
+                if (!c.reused) {
+                    throw new TransportException(REQ_POST_ERROR,
+                            "error attempting to send POST request", e);
+                }
+                // the server dropped the idle connection before we wrote to
+                // it, the request did not go out: once more on a fresh one
+                pool.release(c, false);
+                c = null;
+                c = pool.acquireNew(connectTimeoutMs);
+                if (timings != null) {
+                    timings.connected(false);
+                }
+                try {
+                    c.writeRequest(path, request);
+                } catch (final IOException e2) {
+                    throw new TransportException(REQ_POST_ERROR,
+                            "error attempting to send POST request", e2);
+                }
+            }
+            if (timings != null) {
+                timings.requestWritten();
+            }
+            final ResponseFields response;
+            try {
+                response = c.readResponse(readTimeoutMs, timings);
+            } catch (final IOException e) {
+                throw new TransportException(REQ_RESPONSE_ERROR,
+                        "error receiving response after request was sent", e);
+            }
+            reusable = c.keepAlive;
+            return response;
+        } finally {
+            if (c != null) {
+                pool.release(c, reusable);
+            }
+        }
+    }
+
+    /**
+     * Closes all idle connections. Connections in use are closed when
+     * released, and further requests are refused.
+     */
+    public void close() {
+        this.closed = true;
+        for (final Pool pool : this.pools.values()) {
+            pool.closeIdle();
+        }
+    }
+
+    private Pool getPool(URL url) throws TransportException {
+        final String protocol = url.getProtocol();
+        final boolean secured = "https".equals(protocol);
+        if (!secured && !"http".equals(protocol)) {
+            throw new TransportException(REQ_CONNECTION_FAILED, String.format(
+                    "the protocol [%s] is not supported", protocol), null);
+        }
+        final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        final String key = protocol + "://" + url.getHost() + ":" + port;
+        Pool pool = this.pools.get(key);
+        if (pool == null) {
+            final Pool created = new Pool(url.getHost(), port, secured);
+            pool = this.pools.putIfAbsent(key, created);
+            if (pool == null) {
+                pool = created;
+            }
+        }
+        return pool;
+    }
+
+    // --------------------------------------------------------------------------
+    // Pool
+    // --------------------------------------------------------------------------
+    /** The connections to one host. */
+    private final class Pool {
+        private final String host;
+        private final int port;
+        private final boolean secured;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition released = this.lock.newCondition();
+        /** Most recently used first, so that the warmest connection is reused. */
+        private final ArrayDeque<Connection> idle = new ArrayDeque<Connection>();
+        /** Number of connections open or being opened, idle or not. */
+        private int total = 0;
+
+        Pool(String host, int port, boolean secured) {
+            this.host = host;
+            this.port = port;
+            this.secured = secured;
+        }
+
+        Connection acquire(int connectTimeoutMs) throws TransportException {
+            final long deadline =
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMs);
+            while (true) {
+                Connection c = null;
+                this.lock.lock();
+                try {
+                    while ((c = this.idle.pollFirst()) == null) {
+                        if (this.total < PooledHttpTransport.this.maxConnections) {
+                            this.total++;
+                            break;
+                        }
+                        final long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            throw new TransportException(REQ_CONNECTION_FAILED,
+                                    "timed out waiting for a connection to the credit card gateway.",
+                                    null);
+                        }
+                        this.released.awaitNanos(remaining);
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TransportException(REQ_CONNECTION_FAILED,
+                            "interrupted while waiting for a connection to the credit card gateway.",
+                            e);
+                } finally {
+                    this.lock.unlock();
+                }
+                if (c == null) {
+                    // the wait for a slot counts against the connect timeout
+                    return this.open((int) Math.max(
+                            TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()), 1));
+                }
+                // validate outside of the lock, it may block for a moment
+                if (c.isReusable()) {
+                    c.reused = true;
+                    return c;
+                }
+                this.release(c, false);
+            }
+        }
+
+        /**
+         * Opens a fresh connection, bypassing the idle ones: when the pool is
+         * full, an idle connection is closed to make room, or a connection
+         * released is waited for.
+         */
+        Connection acquireNew(int connectTimeoutMs) throws TransportException {
+            final long deadline =
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMs);
+            this.lock.lock();
+            try {
+                while (this.total >= PooledHttpTransport.this.maxConnections) {
+                    final Connection eldest = this.idle.pollLast();
+                    if (eldest != null) {
+                        eldest.close();
+                        this.total--;
+                        break;
+                    }
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new TransportException(REQ_CONNECTION_FAILED,
+                                "timed out waiting for a connection to the credit card gateway.",
+                                null);
+                    }
+                    this.released.awaitNanos(remaining);
+                }
+                this.total++;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransportException(REQ_CONNECTION_FAILED,
+                        "interrupted while waiting for a connection to the credit card gateway.",
+                        e);
+            } finally {
+                this.lock.unlock();
+            }
+            return this.open((int) Math.max(
+                    TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()), 1));
+        }
+
+        /** Opens a connection whose slot has already been counted in total. */
+        private Connection open(int connectTimeoutMs) throws TransportException {
+            try {
+                return new Connection(this.host, this.port, this.secured, connectTimeoutMs);
+            } catch (final IOException e) {
+                this.release(null, false);
+                throw new TransportException(REQ_CONNECTION_FAILED,
+                        "error connecting to the credit card gateway.", e);
+            }
+        }
+
+        void release(Connection c, boolean reusable) {
+            this.lock.lock();
+            try {
+                if (c != null && reusable && !PooledHttpTransport.this.closed) {
+                    c.idleSince = System.nanoTime();
+                    this.idle.addFirst(c);
+                } else {
+                    if (c != null) {
+                        c.close();
+                    }
+                    this.total--;
+                }
+                this.released.signal();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        void closeIdle() {
+            this.lock.lock();
+            try {
+                Connection c;
+                while ((c = this.idle.pollFirst()) != null) {
+                    c.close();
+                    this.total--;
+                }
+                this.released.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    // Connection
+    // --------------------------------------------------------------------------
+    /** A single HTTP/1.1 connection. Used by one thread at a time. */
+    private final class Connection {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final String hostHeader;
+        /** Prefixed to the path of the requests, the origin if sent to an HTTP proxy. */
+        private final String targetPrefix;
+        /*
+         * Buffered by hand rather than with Buffered*Stream, whose
+         * synchronized methods would pin a virtual thread blocked on the
+         * socket to its carrier (before Java 21).
+         */
+        private final byte[] readBuffer = new byte[BUFFER_SIZE];
+        private int readPos = 0;
+        private int readLimit = 0;
+        /** The System.nanoTime() by which the response must be read, while reading it. */
+        private long readDeadlineNanos;
+        private boolean readDeadlineSet = false;
+        private byte[] writeBuffer = new byte[BUFFER_SIZE];
+        private int writeLength = 0;
+        /** True if the connection came out of the pool rather than being new. */
+        boolean reused = false;
+        /** True if the last response allows the connection to be reused. */
+        boolean keepAlive = false;
+        long idleSince;
+        private long keepAliveNanos;
+
+        Connection(String host, int port, boolean secured, int connectTimeoutMs)
+                throws IOException {
+            this.hostHeader = port == (secured ? 443 : 80) ? host : host + ":" + port;
+            this.keepAliveNanos =
+                    TimeUnit.MILLISECONDS.toNanos(PooledHttpTransport.this.idleTimeoutMs);
+            final Proxy proxy = selectProxy(host, port, secured);
+            final boolean httpProxy = proxy.type() == Proxy.Type.HTTP;
+            this.targetPrefix = httpProxy && !secured ? "http://" + this.hostHeader : "";
+            Socket s = proxy.type() == Proxy.Type.SOCKS ? new Socket(proxy) : new Socket();
+            try {
+                s.setTcpNoDelay(true);
+                s.setKeepAlive(true);
+                if (httpProxy) {
+                    s.connect(resolve(proxy.address()), connectTimeoutMs);
+                } else {
+                    s.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+                }
+                if (secured) {
+                    if (httpProxy) {
+                        s.setSoTimeout(connectTimeoutMs);
+                        tunnel(s, this.hostHeader.indexOf(':') < 0 ? host + ":" + port
+                                : this.hostHeader);
+                    }
+                    final SSLSocketFactory factory =
+                            PooledHttpTransport.this.sslSocketFactory != null
+                                    ? PooledHttpTransport.this.sslSocketFactory
+                                    : HttpsURLConnection.getDefaultSSLSocketFactory();
+                    final SSLSocket ssl = (SSLSocket) factory.createSocket(s, host, port, true);
+                    // verify the hostname like HttpsURLConnection does
+                    final SSLParameters params = ssl.getSSLParameters();
+                    params.setEndpointIdentificationAlgorithm("HTTPS");
+                    ssl.setSSLParameters(params);
+                    s = ssl;
+                    s.setSoTimeout(connectTimeoutMs);
+                    ssl.startHandshake();
+                }
+            } catch (final IOException e) {
+                try {
+                    s.close();
+                } catch (final IOException ignore) {
+                }
+                throw e;
+            }
+            this.socket = s;
+            this.in = s.getInputStream();
+            this.out = s.getOutputStream();
+        }
+
+        /** Writes the request head and body with a single write to the socket. */
+        void writeRequest(String path, RequestEncoder body) throws IOException {
+            this.writeLength = 0;
+            this.writeAscii("POST ").writeAscii(this.targetPrefix).writeAscii(path)
+                    .writeAscii(" HTTP/1.1\r\nHost: ");
+            this.writeAscii(this.hostHeader);
+            this.writeAscii("\r\nContent-Type: application/x-www-form-urlencoded\r\n");
+            this.writeAscii("Content-Length: ").writeAscii(String.valueOf(body.size()));
+            this.writeAscii("\r\nConnection: keep-alive\r\n\r\n");
+            this.ensureWriteCapacity(body.size());
+            body.copyTo(this.writeBuffer, this.writeLength);
+            this.writeLength += body.size();
+            this.out.write(this.writeBuffer, 0, this.writeLength);
+            this.out.flush();
+        }
+
+        private Connection writeAscii(String str) {
+            final int len = str.length();
+            this.ensureWriteCapacity(len);
+            for (int i = 0; i < len; i++) {
+                this.writeBuffer[this.writeLength++] = (byte) str.charAt(i);
+            }
+            return this;
+        }
+
+        private void ensureWriteCapacity(int extra) {
+            if (this.writeLength + extra > this.writeBuffer.length) {
+                final byte[] grown =
+                        new byte[Math.max(this.writeBuffer.length * 2, this.writeLength + extra)];
+                System.arraycopy(this.writeBuffer, 0, grown, 0, this.writeLength);
+                this.writeBuffer = grown;
+            }
+        }
+
+        private int read() throws IOException {
+            if (this.readPos == this.readLimit && !this.fill()) {
+                return -1;
+            }
+            return this.readBuffer[this.readPos++] & 0xff;
+        }
+
+        /** Refills the read buffer, returns false at the end of the stream. */
+        private boolean fill() throws IOException {
+            if (this.readDeadlineSet) {
+                final long remaining = this.readDeadlineNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("timed out reading the response");
+                }
+                // rounded up, 0 would wait forever
+                this.socket.setSoTimeout((int) Math.min(
+                        (remaining + 999999) / 1000000, Integer.MAX_VALUE));
+            }
+            final int n = this.in.read(this.readBuffer, 0, this.readBuffer.length);
+            this.readPos = 0;
+            this.readLimit = n > 0 ? n : 0;
+            return n > 0;
+        }
+
+        /**
+         * Reads the response, within <code>readTimeoutMs</code> in all and by
+         * the {@link Deadline} of the calling thread if it is earlier.
+         */
+        ResponseFields readResponse(int readTimeoutMs, CallTimings timings) throws IOException {
+            long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readTimeoutMs);
+            final Deadline current = Deadline.current();
+            if (current != null && current.getDeadlineNanos() - deadlineNanos < 0) {
+                deadlineNanos = current.getDeadlineNanos();
+            }
+            this.readDeadlineNanos = deadlineNanos;
+            this.readDeadlineSet = true;
+            try {
+                return this.readResponse(timings);
+            } finally {
+                this.readDeadlineSet = false;
+            }
+        }
+
+        private ResponseFields readResponse(CallTimings timings) throws IOException {
+            this.keepAlive = false;
+            if (timings != null) {
+                if (this.readPos == this.readLimit) {
+                    // waits for the first bytes
+                    this.fill();
+                }
+                timings.responseStarted();
+            }
+            String statusLine;
+            int status;
+            do {
+                statusLine = this.readLine();
+                if (statusLine == null) {
+                    throw new EOFException("connection closed before the response was received");
+                }
+                status = parseStatus(statusLine);
+                if (status >= 100 && status < 200) {
+                    // skip the headers of the interim response
+                    while (this.readHeaderLine().length() > 0) {
+                    }
+                }
+            } while (status >= 100 && status < 200);
+
+            boolean close = statusLine.startsWith("HTTP/1.0");
+            boolean chunked = false;
+            long contentLength = -1;
+            String line;
+            while ((line = this.readHeaderLine()).length() > 0) {
+                final int colon = line.indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                final String name = line.substring(0, colon).trim();
+                final String value = line.substring(colon + 1).trim();
+                if ("Content-Length".equalsIgnoreCase(name)) {
+                    contentLength = parseLength(value, 10);
+                } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                    chunked = value.toLowerCase().indexOf("chunked") >= 0;
+                } else if ("Connection".equalsIgnoreCase(name)) {
+                    if ("close".equalsIgnoreCase(value)) {
+                        close = true;
+                    } else if ("keep-alive".equalsIgnoreCase(value)) {
+                        close = false;
+                    }
+                } else if ("Keep-Alive".equalsIgnoreCase(name)) {
+                    this.parseKeepAlive(value);
+                }
+            }
+
+            // decoded as it arrives
+            final ResponseDecoder body = new ResponseDecoder();
+            if (status == 204 || status == 304) {
+                // no body
+            } else if (chunked) {
+                this.readChunked(body);
+            } else if (contentLength >= 0) {
+                this.readFully(body, contentLength);
+            } else {
+                // delimited by the end of the connection
+                this.readFully(body, Long.MAX_VALUE);
+                close = true;
+            }
+            if (status < 200 || status >= 300) {
+                throw new IOException(String.format("Server returned HTTP response code: %d",
+                        status));
+            }
+            this.keepAlive = !close;
+            return body.finish();
+        }
+
+        private void parseKeepAlive(String value) {
+            final int i = value.indexOf("timeout=");
+            if (i >= 0) {
+                int end = i + 8;
+                while (end < value.length() && Character.isDigit(value.charAt(end))) {
+                    end++;
+                }
+                if (end > i + 8 && end - i - 8 <= 9) {
+                    // give up a second early so that the server never beats us
+                    final long seconds = Long.parseLong(value.substring(i + 8, end)) - 1;
+                    this.keepAliveNanos =
+                            Math.min(this.keepAliveNanos, TimeUnit.SECONDS.toNanos(seconds));
+                }
+            }
+        }
+
+        private void readChunked(ResponseDecoder body) throws IOException {
+            while (true) {
+                String line = this.readLine();
+                if (line == null) {
+                    throw new EOFException("connection closed in the middle of a chunk");
+                }
+                final int ext = line.indexOf(';');
+                if (ext >= 0) {
+                    line = line.substring(0, ext);
+                }
+                final long size = parseLength(line.trim(), 16);
+                if (size == 0) {
+                    // skip the trailers
+                    while ((line = this.readLine()) != null && line.length() > 0) {
+                    }
+                    return;
+                }
+                this.readFully(body, size);
+                this.readLine();
+            }
+        }
+
+        /** Reads <code>length</code> bytes, or up to the end of the stream if MAX_VALUE. */
+        private void readFully(ResponseDecoder body, long length) throws IOException {
+            long remaining = length;
+            while (remaining > 0) {
+                if (this.readPos == this.readLimit && !this.fill()) {
+                    if (length == Long.MAX_VALUE) {
+                        return;
+                    }
+                    throw new EOFException("connection closed before the response was complete");
+                }
+                final int n = (int) Math.min(remaining, this.readLimit - this.readPos);
+                body.write(this.readBuffer, this.readPos, n);
+                this.readPos += n;
+                remaining -= n;
+            }
+        }
+
+        /** Reads a header line, the end of the stream is an error. */
+        private String readHeaderLine() throws IOException {
+            final String line = this.readLine();
+            if (line == null) {
+                throw new EOFException("connection closed in the middle of the response headers");
+            }
+            return line;
+        }
+
+        /** Reads an ISO-8859-1 line without its terminator, or null at the end of stream. */
+        private String readLine() throws IOException {
+            final StringBuilder line = new StringBuilder(64);
+            int b;
+            while ((b = this.read()) != '\n') {
+                if (b == -1) {
+                    if (line.length() == 0) {
+                        return null;
+                    }
+                    break;
+                }
+                if (line.length() >= MAX_HEADER_LINE) {
+                    throw new IOException("response header line too long");
+                }
+                line.append((char) b);
+            }
+            final int len = line.length();
+            if (len > 0 && line.charAt(len - 1) == '\r') {
+                line.setLength(len - 1);
+            }
+            return line.toString();
+        }
+
+        /** Checks that an idle connection can be used for another request. */
+        boolean isReusable() {
+            final long idleNanos = System.nanoTime() - this.idleSince;
+            if (idleNanos > this.keepAliveNanos || this.socket.isClosed()
+                    || this.socket.isInputShutdown() || this.socket.isOutputShutdown()) {
+                return false;
+            }
+            if (this.readPos < this.readLimit) {
+                // bytes nobody asked for
+                return false;
+            }
+            if (idleNanos < VALIDATE_AFTER_INACTIVITY_NANOS) {
+                return true;
+            }
+            // the server may have dropped it while idle: the end of the
+            // stream, or bytes nobody asked for, both mean that it did
+            try {
+                this.socket.setSoTimeout(1);
+                this.fill();
+                return false;
+            } catch (final SocketTimeoutException e) {
+                return true;
+            } catch (final IOException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                this.socket.close();
+            } catch (final IOException ignore) {
+            }
+        }
+    }
+
+    /** @return the proxy to the host, as chosen by the default ProxySelector */
+    private static Proxy selectProxy(String host, int port, boolean secured) {
+        final ProxySelector selector = ProxySelector.getDefault();
+        if (selector == null) {
+            return Proxy.NO_PROXY;
+        }
+        final List<Proxy> proxies =
+                selector.select(URI.create((secured ? "https://" : "http://") + host + ":" + port));
+        return proxies == null || proxies.isEmpty() ? Proxy.NO_PROXY : proxies.get(0);
+    }
+
+    private static InetSocketAddress resolve(SocketAddress address) {
+        final InetSocketAddress inet = (InetSocketAddress) address;
+        return inet.isUnresolved() ? new InetSocketAddress(inet.getHostString(), inet.getPort())
+                : inet;
+    }
+
+    /** Opens a tunnel to <code>authority</code> through the HTTP proxy of the socket. */
+    private static void tunnel(Socket socket, String authority) throws IOException {
+        final String connect = "CONNECT " + authority + " HTTP/1.1\r\nHost: " + authority
+                + "\r\n\r\n";
+        final OutputStream out = socket.getOutputStream();
+        out.write(connect.getBytes("ISO-8859-1"));
+        out.flush();
+        // read byte by byte, not a byte of the TLS handshake may be consumed
+        final InputStream in = socket.getInputStream();
+        final StringBuilder line = new StringBuilder(64);
+        String statusLine = null;
+        while (true) {
+            final int b = in.read();
+            if (b == -1) {
+                throw new EOFException("the proxy closed the connection");
+            } else if (b != '\n') {
+                if (line.length() >= MAX_HEADER_LINE) {
+                    throw new IOException("proxy response header line too long");
+                }
+                line.append((char) b);
+                continue;
+            }
+            if (line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+                line.setLength(line.length() - 1);
+            }
+            if (statusLine == null) {
+                statusLine = line.toString();
+            } else if (line.length() == 0) {
+                break;
+            }
+            line.setLength(0);
+        }
+        final int status = parseStatus(statusLine);
+        if (status < 200 || status >= 300) {
+            throw new IOException(String.format("the proxy refused the tunnel to %s: [%s]",
+                    authority, statusLine));
+        }
+    }
+
+    /** Parses a content or chunk length, a bad one is an IOException. */
+    private static long parseLength(String value, int radix) throws IOException {
+        try {
+            final long length = Long.parseLong(value, radix);
+            if (length >= 0) {
+                return length;
+            }
+        } catch (final NumberFormatException e) {
+            // reported below
+        }
+        throw new IOException(String.format("invalid length [%s]", value));
+    }
+
+    private static int parseStatus(String statusLine) throws IOException {
+        final int sp = statusLine.indexOf(' ');
+        if (!statusLine.startsWith("HTTP/") || sp < 0 || statusLine.length() < sp + 4) {
+            throw new IOException(String.format("invalid status line [%s]", statusLine));
+        }
+        try {
+            return Integer.parseInt(statusLine.substring(sp + 1, sp + 4));
+        } catch (final NumberFormatException e) {
+            throw new IOException(String.format("invalid status line [%s]", statusLine));
+        }
+    }
+}
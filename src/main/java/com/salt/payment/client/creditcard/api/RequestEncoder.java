@@ -0,0 +1,337 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Date;
+
+/**
+ * Encodes the parameters of a gateway request as an
+ * <code>application/x-www-form-urlencoded</code> body, straight into a byte
+ * buffer: names and values are written as UTF-8 and percent-encoded in a
+ * single pass, and numbers are written digit by digit, so building a request
+ * creates no intermediate Strings.
+ * <p>
+ * This class is not thread-safe.
+ * 
+ * @since JSE5
+ */
+public final class RequestEncoder {
+    /** The initial capacity, enough for most requests. */
+    private static final int INITIAL_CAPACITY = 512;
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A',
+            'B', 'C', 'D', 'E', 'F'};
+    /** The characters sent as is, the same as URLEncoder's. */
+    private static final boolean[] UNRESERVED = new boolean[128];
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        UNRESERVED['.'] = true;
+        UNRESERVED['-'] = true;
+        UNRESERVED['*'] = true;
+        UNRESERVED['_'] = true;
+    }
+
+    private byte[] buffer;
+    private int size = 0;
+    /** The request and operation codes, kept for the metrics. */
+    private String requestCode;
+    private String operationCode;
+    /** The merchant issuing the request, if known. */
+    private Merchant merchant;
+
+    /**
+     * Creates an empty request.
+     */
+    public RequestEncoder() {
+        this.buffer = new byte[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Appends the parameter <code>name=value</code>, preceded by a
+     * <code>&amp;</code> unless it is the first one. Nothing is appended if
+     * <code>value</code> is null.
+     * 
+     * @param name
+     *            the name of the parameter. Not null.
+     * @param value
+     *            the value of the parameter. Integral numbers are written as
+     *            is, anything else as its <code>toString()</code>.
+     * @return this
+     */
+    public RequestEncoder param(String name, Object value) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is required");
+        }
+        if (value != null) {
+            this.appendName(name);
+            if (value instanceof Long || value instanceof Integer || value instanceof Short) {
+                this.appendLong(((Number) value).longValue());
+            } else {
+                this.appendEncoded(value.toString());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Appends the parameter <code>name=value</code>, preceded by a
+     * <code>&amp;</code> unless it is the first one.
+     * 
+     * @param name
+     *            the name of the parameter. Not null.
+     * @param value
+     *            the value of the parameter
+     * @return this
+     */
+    public RequestEncoder param(String name, long value) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is required");
+        }
+        this.appendName(name);
+        this.appendLong(value);
+        return this;
+    }
+
+    /**
+     * Appends the parameter <code>name=value</code> with the date formatted
+     * as yyyy-MM-dd, preceded by a <code>&amp;</code> unless it is the first
+     * one. Nothing is appended if <code>value</code> is null.
+     * 
+     * @param name
+     *            the name of the parameter. Not null.
+     * @param value
+     *            the value of the parameter
+     * @return this
+     */
+    RequestEncoder dateParam(String name, Date value) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is required");
+        }
+        if (value != null) {
+            this.appendName(name);
+            // only digits and dashes, nothing to escape
+            this.ensureCapacity(DateCodec.MAX_DATE_LENGTH);
+            this.size = DateCodec.formatDate(value, true, this.buffer, this.size);
+        }
+        return this;
+    }
+
+    /**
+     * Appends parameters that are already encoded, ie. by
+     * {@link #toByteArray()}, preceded by a <code>&amp;</code> unless they are
+     * the first ones.
+     * 
+     * @param encoded
+     *            the encoded parameters. Not null.
+     * @return this
+     */
+    RequestEncoder appendEncoded(byte[] encoded) {
+        if (encoded.length != 0) {
+            this.ensureCapacity(encoded.length + 1);
+            if (this.size != 0) {
+                this.buffer[this.size++] = '&';
+            }
+            System.arraycopy(encoded, 0, this.buffer, this.size, encoded.length);
+            this.size += encoded.length;
+        }
+        return this;
+    }
+
+    private void appendName(String name) {
+        if (this.size != 0) {
+            this.ensureCapacity(1);
+            this.buffer[this.size++] = '&';
+        }
+        this.appendEncoded(name);
+        this.ensureCapacity(1);
+        this.buffer[this.size++] = '=';
+    }
+
+    private void appendLong(long value) {
+        // 20 bytes hold Long.MIN_VALUE
+        this.ensureCapacity(20);
+        long v = value;
+        if (v < 0) {
+            this.buffer[this.size++] = '-';
+        } else {
+            // work on the negative value, which also holds Long.MIN_VALUE
+            v = -v;
+        }
+        int digits = 1;
+        for (long q = v / 10; q != 0; q /= 10) {
+            digits++;
+        }
+        int pos = this.size + digits;
+        this.size = pos;
+        do {
+            this.buffer[--pos] = (byte) ('0' - (int) (v % 10));
+            v /= 10;
+        } while (v != 0);
+    }
+
+    /** Appends <code>str</code> as UTF-8, percent-encoded. */
+    private void appendEncoded(String str) {
+        final int len = str.length();
+        for (int i = 0; i < len; i++) {
+            final char c = str.charAt(i);
+            if (c < 128 && UNRESERVED[c]) {
+                this.ensureCapacity(1);
+                this.buffer[this.size++] = (byte) c;
+            } else if (c == ' ') {
+                this.ensureCapacity(1);
+                this.buffer[this.size++] = '+';
+            } else if (c < 0x80) {
+                this.appendEscaped(c);
+            } else if (c < 0x800) {
+                this.appendEscaped(0xc0 | (c >> 6));
+                this.appendEscaped(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, str.charAt(++i));
+                this.appendEscaped(0xf0 | (cp >> 18));
+                this.appendEscaped(0x80 | ((cp >> 12) & 0x3f));
+                this.appendEscaped(0x80 | ((cp >> 6) & 0x3f));
+                this.appendEscaped(0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate: replaced, as String.getBytes does
+                this.appendEscaped('?');
+            } else {
+                this.appendEscaped(0xe0 | (c >> 12));
+                this.appendEscaped(0x80 | ((c >> 6) & 0x3f));
+                this.appendEscaped(0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private void appendEscaped(int b) {
+        this.ensureCapacity(3);
+        this.buffer[this.size++] = '%';
+        this.buffer[this.size++] = HEX[(b >> 4) & 0xf];
+        this.buffer[this.size++] = HEX[b & 0xf];
+    }
+
+    private void ensureCapacity(int extra) {
+        if (this.size + extra > this.buffer.length) {
+            final byte[] grown = new byte[Math.max(this.buffer.length * 2, this.size + extra)];
+            System.arraycopy(this.buffer, 0, grown, 0, this.size);
+            this.buffer = grown;
+        }
+    }
+
+    /**
+     * @return the request code, ie. <code>singlePurchase</code>, or null if
+     *         not set
+     */
+    String getRequestCode() {
+        return this.requestCode;
+    }
+
+    void setRequestCode(String requestCode) {
+        this.requestCode = requestCode;
+    }
+
+    /**
+     * @return the operation code, ie. <code>query</code>, or null if none
+     */
+    String getOperationCode() {
+        return this.operationCode;
+    }
+
+    void setOperationCode(String operationCode) {
+        this.operationCode = operationCode;
+    }
+
+    /**
+     * @return the merchant issuing the request, or null if not known
+     */
+    Merchant getMerchant() {
+        return this.merchant;
+    }
+
+    void setMerchant(Merchant merchant) {
+        this.merchant = merchant;
+    }
+
+    /**
+     * @return a copy of this request, codes and merchant included
+     */
+    RequestEncoder copy() {
+        final RequestEncoder copy = new RequestEncoder();
+        copy.appendEncoded(this.toByteArray());
+        copy.requestCode = this.requestCode;
+        copy.operationCode = this.operationCode;
+        copy.merchant = this.merchant;
+        return copy;
+    }
+
+    /**
+     * @return the number of bytes of the encoded request
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Copies the encoded request into <code>dest</code>.
+     * 
+     * @param dest
+     *            the array to copy to, with room for {@link #size()} bytes
+     *            from <code>offset</code>
+     * @param offset
+     *            the index of <code>dest</code> to copy to
+     */
+    public void copyTo(byte[] dest, int offset) {
+        System.arraycopy(this.buffer, 0, dest, offset, this.size);
+    }
+
+    /**
+     * Writes the encoded request to <code>out</code>.
+     * 
+     * @param out
+     *            the stream to write to. Not null.
+     * @throws IOException
+     *             if an i/o error occurs
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(this.buffer, 0, this.size);
+    }
+
+    /**
+     * @return a copy of the encoded request
+     */
+    public byte[] toByteArray() {
+        final byte[] bytes = new byte[this.size];
+        System.arraycopy(this.buffer, 0, bytes, 0, this.size);
+        return bytes;
+    }
+
+    /**
+     * @return the encoded request
+     */
+    @Override
+    public String toString() {
+        try {
+            // percent-encoded: all ASCII
+            return new String(this.buffer, 0, this.size, "US-ASCII");
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
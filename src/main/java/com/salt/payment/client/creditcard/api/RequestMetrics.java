@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.salt.payment.client.creditcard.api.CallTimings.Phase;
+
+/**
+ * The counters and latency histograms of the calls with one request code and
+ * operation code, kept by {@link GatewayMetrics}. Latencies are in
+ * microseconds.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @since JSE8
+ */
+public final class RequestMetrics {
+    private final String name;
+    private final String requestCode;
+    private final String operationCode;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder approvedCount = new LongAdder();
+    private final LongAdder reusedConnectionCount = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> errorCodeCounts =
+            new ConcurrentHashMap<String, LongAdder>();
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+
+    RequestMetrics(String requestCode, String operationCode) {
+        this.requestCode = requestCode;
+        this.operationCode = operationCode;
+        this.name = operationCode == null ? requestCode : requestCode + "/" + operationCode;
+        for (int i = 0; i < this.histograms.length; i++) {
+            this.histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    void record(CallTimings timings, AbstractReceipt receipt) {
+        this.count.increment();
+        if (receipt.isApproved()) {
+            this.approvedCount.increment();
+        } else {
+            final String errorCode = String.valueOf(receipt.getErrorCode());
+            LongAdder errors = this.errorCodeCounts.get(errorCode);
+            if (errors == null) {
+                final LongAdder created = new LongAdder();
+                errors = this.errorCodeCounts.putIfAbsent(errorCode, created);
+                if (errors == null) {
+                    errors = created;
+                }
+            }
+            errors.increment();
+        }
+        if (timings.isReusedConnection()) {
+            this.reusedConnectionCount.increment();
+        }
+        for (final Phase phase : Phase.values()) {
+            final long nanos = timings.getNanos(phase);
+            if (nanos >= 0) {
+                this.histograms[phase.ordinal()].record(nanos / 1000);
+            }
+        }
+    }
+
+    /**
+     * @return the request code, and the operation code if any, ie.
+     *         <code>secureStorage/query</code>
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return the request code, ie. <code>secureStorage</code>
+     */
+    public String getRequestCode() {
+        return this.requestCode;
+    }
+
+    /**
+     * @return the operation code, ie. <code>query</code>, or null if none
+     */
+    public String getOperationCode() {
+        return this.operationCode;
+    }
+
+    /**
+     * @return the number of calls
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return the number of calls approved
+     */
+    public long getApprovedCount() {
+        return this.approvedCount.sum();
+    }
+
+    /**
+     * @return the number of calls not approved, whether declined or failed
+     */
+    public long getErrorCount() {
+        long errors = 0;
+        for (final LongAdder adder : this.errorCodeCounts.values()) {
+            errors += adder.sum();
+        }
+        return errors;
+    }
+
+    /**
+     * @return the number of calls sent on a pooled connection
+     */
+    public long getReusedConnectionCount() {
+        return this.reusedConnectionCount.sum();
+    }
+
+    /**
+     * @return the number of calls not approved by error code, ie. the
+     *         <code>REQ_*</code> codes of {@link CreditCardService} for the
+     *         calls that failed
+     */
+    public Map<String, Long> getErrorCodeCounts() {
+        final Map<String, Long> counts = new TreeMap<String, Long>();
+        for (final Map.Entry<String, LongAdder> entry : this.errorCodeCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    /**
+     * @param phase
+     *            the phase. Not null.
+     * @return the latencies of <code>phase</code>, in microseconds
+     */
+    public LatencyHistogram getHistogram(Phase phase) {
+        return this.histograms[phase.ordinal()];
+    }
+}
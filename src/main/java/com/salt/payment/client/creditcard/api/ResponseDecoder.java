@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.nio.charset.Charset;
+
+/**
+ * Decodes the UTF-8 body of a gateway response into its
+ * {@link ResponseFields} as the bytes arrive: each line is parsed as soon as
+ * it is complete, the keys the receipts read are matched on their bytes
+ * rather than decoded, and the response is only decoded as a whole String if
+ * {@link ResponseFields#getResponse()} is called.
+ * <p>
+ * Responses with escapes or line continuations, which the gateway does not
+ * send, are parsed as a String by {@link ResponseFields#parse(String)} once
+ * complete.
+ * <p>
+ * This class is not thread-safe.
+ * 
+ * @since JSE5
+ */
+public final class ResponseDecoder {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 1024;
+    /** The keys read by the receipts. */
+    private static final String[] KNOWN_KEYS = {"APPROVED", "TRANSACTION_ID", "ORDER_ID",
+            "PROCESSED_DATE", "PROCESSED_TIME", "ERROR_CODE", "ERROR_MESSAGE", "DEBUG_MESSAGE",
+            "AUTHORIZED_AMOUNT", "APPROVAL_CODE", "TRACE_NUMBER", "REFERENCE_NUMBER",
+            "AVS_RESPONSE_AVAILABLE", "AVS_RESPONSE_CODE", "STREET_MATCHED", "ZIP_MATCHED",
+            "ZIP_TYPE", "AVS_ERROR_CODE", "AVS_ERROR_MESSAGE", "CVV2_RESPONSE_AVAILABLE",
+            "CVV2_RESPONSE_CODE", "CVV2_RESPONSE_MESSAGE", "PERIODIC_TRANSACTION_ID",
+            "PERIODIC_TRANSACTION_STATE", "PERIODIC_NEXT_PAYMENT_DATE",
+            "PERIODIC_LAST_PAYMENT_ID", "CARD_NUMBER", "STORAGE_TOKEN_EXPIRY", "RESPONSE_HASH",
+            "CARD_BRAND", "STORAGE_TOKEN_ID", "FRAUD_SCORE", "FRAUD_DECISION",
+            "FRAUD_SESSION_ID", "PAYMENT_PROFILE_AVAILABLE", "CREDIT_CARD_AVAILABLE",
+            "CREDIT_CARD_NUMBER", "EXPIRY_DATE", "CUSTOMER_PROFILE_AVAILABLE",
+            "CUSTOMER_PROFILE_LEGAL_NAME", "CUSTOMER_PROFILE_TRADE_NAME",
+            "CUSTOMER_PROFILE_WEBSITE", "CUSTOMER_PROFILE_FIRST_NAME",
+            "CUSTOMER_PROFILE_LAST_NAME", "CUSTOMER_PROFILE_PHONE_NUMBER",
+            "CUSTOMER_PROFILE_FAX_NUMBER", "CUSTOMER_PROFILE_ADDRESS1",
+            "CUSTOMER_PROFILE_ADDRESS2", "CUSTOMER_PROFILE_CITY", "CUSTOMER_PROFILE_PROVINCE",
+            "CUSTOMER_PROFILE_POSTAL", "CUSTOMER_PROFILE_COUNTRY"};
+    /** The known keys by the hash of their bytes, open addressing. */
+    private static final String[] KEY_TABLE = new String[128];
+    private static final byte[][] KEY_BYTES_TABLE = new byte[KEY_TABLE.length][];
+    static {
+        for (final String key : KNOWN_KEYS) {
+            int i = key.hashCode() & (KEY_TABLE.length - 1);
+            while (KEY_TABLE[i] != null) {
+                i = (i + 1) & (KEY_TABLE.length - 1);
+            }
+            KEY_TABLE[i] = key;
+            KEY_BYTES_TABLE[i] = key.getBytes(UTF_8);
+        }
+    }
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int size = 0;
+    /** The index of the first byte of the line being received. */
+    private int lineStart = 0;
+    /** True once a backslash is seen: the response is parsed when complete. */
+    private boolean escaped = false;
+    private final ResponseFields fields = new ResponseFields();
+
+    /**
+     * Creates a decoder for one response.
+     */
+    public ResponseDecoder() {
+    }
+
+    /**
+     * Decodes the next bytes of the response.
+     * 
+     * @param bytes
+     *            the bytes to decode
+     * @param offset
+     *            the index of the first byte to decode
+     * @param length
+     *            the number of bytes to decode
+     */
+    public void write(byte[] bytes, int offset, int length) {
+        if (this.size + length > this.buffer.length) {
+            final byte[] grown = new byte[Math.max(this.buffer.length * 2, this.size + length)];
+            System.arraycopy(this.buffer, 0, grown, 0, this.size);
+            this.buffer = grown;
+        }
+        System.arraycopy(bytes, offset, this.buffer, this.size, length);
+        int i = this.size;
+        this.size += length;
+        if (this.escaped) {
+            return;
+        }
+        for (; i < this.size; i++) {
+            final byte b = this.buffer[i];
+            if (b == '\n' || b == '\r') {
+                this.parseLine(this.lineStart, i);
+                this.lineStart = i + 1;
+            } else if (b == '\\') {
+                this.escaped = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Completes the decoding once the whole response is written.
+     * 
+     * @return the fields of the response
+     * @throws IllegalArgumentException
+     *             if the response contains a malformed \\uxxxx escape
+     */
+    public ResponseFields finish() {
+        if (this.escaped) {
+            return ResponseFields.parse(new String(this.buffer, 0, this.size, UTF_8));
+        }
+        if (this.lineStart < this.size) {
+            this.parseLine(this.lineStart, this.size);
+            this.lineStart = this.size;
+        }
+        this.fields.setBody(this.buffer, this.size);
+        return this.fields;
+    }
+
+    /** Parses a line without escapes, as {@link ResponseFields} does. */
+    private void parseLine(int start, int end) {
+        final byte[] buf = this.buffer;
+        int i = start;
+        while (i < end && (buf[i] == ' ' || buf[i] == '\t' || buf[i] == '\f')) {
+            i++;
+        }
+        if (i == end || buf[i] == '#' || buf[i] == '!') {
+            // blank or comment
+            return;
+        }
+        int keyEnd = i;
+        int valueStart = end;
+        boolean hasSep = false;
+        int hash = 0;
+        while (keyEnd < end) {
+            final byte b = buf[keyEnd];
+            if (b == '=' || b == ':') {
+                valueStart = keyEnd + 1;
+                hasSep = true;
+                break;
+            } else if (b == ' ' || b == '\t' || b == '\f') {
+                valueStart = keyEnd + 1;
+                break;
+            }
+            hash = 31 * hash + (b & 0xff);
+            keyEnd++;
+        }
+        while (valueStart < end) {
+            final byte b = buf[valueStart];
+            if (b != ' ' && b != '\t' && b != '\f') {
+                if (!hasSep && (b == '=' || b == ':')) {
+                    hasSep = true;
+                } else {
+                    break;
+                }
+            }
+            valueStart++;
+        }
+        String key = this.knownKey(i, keyEnd, hash);
+        if (key == null) {
+            key = new String(buf, i, keyEnd - i, UTF_8);
+            hash = key.hashCode();
+        }
+        final String value =
+                valueStart == end ? "" : new String(buf, valueStart, end - valueStart, UTF_8);
+        this.fields.put(key, hash, value);
+    }
+
+    /**
+     * @return the known key spelled by the bytes from start to end, whose
+     *         hash is <code>hash</code>, or null if not known
+     */
+    private String knownKey(int start, int end, int hash) {
+        final int len = end - start;
+        for (int i = hash & (KEY_TABLE.length - 1); KEY_TABLE[i] != null; i =
+                (i + 1) & (KEY_TABLE.length - 1)) {
+            final byte[] candidate = KEY_BYTES_TABLE[i];
+            if (candidate.length == len) {
+                int j = 0;
+                while (j < len && candidate[j] == this.buffer[start + j]) {
+                    j++;
+                }
+                if (j == len) {
+                    return KEY_TABLE[i];
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,392 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The <code>KEY=VALUE</code> fields of a gateway response, parsed in a single
+ * pass over the response. The syntax is that of
+ * {@link java.util.Properties#load(java.io.Reader)}: comments, blank lines,
+ * <code>=</code>, <code>:</code> or whitespace separators, escapes and line
+ * continuations are handled the same way, and the last of duplicate keys
+ * wins. The fields are kept in arrays rather than a map: a response only has
+ * a few dozen.
+ * <p>
+ * Responses received by a {@link HttpTransport} are decoded from their bytes
+ * by a {@link ResponseDecoder} instead.
+ * 
+ * @since JSE5
+ */
+public final class ResponseFields {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 32;
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private String[] values = new String[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int size = 0;
+    /** The response, decoded from {@link #body} on demand. */
+    private volatile String response;
+    /** The bytes of the response, or null once decoded. Guarded by this. */
+    private byte[] body;
+    private int bodyLength;
+
+    ResponseFields() {
+    }
+
+    /**
+     * Parses the fields of <code>response</code>.
+     * 
+     * @param response
+     *            the response to parse. Not null.
+     * @return the fields
+     * @throws IllegalArgumentException
+     *             if the response contains a malformed \\uxxxx escape
+     */
+    public static ResponseFields parse(String response) {
+        final ResponseFields fields = new ResponseFields();
+        fields.response = response;
+        final int len = response.length();
+        // lines without a backslash, the common case, are parsed in place
+        int nextBackslash = response.indexOf('\\');
+        int i = 0;
+        while (i < len) {
+            final char c = response.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\f' || c == '\r' || c == '\n') {
+                i++;
+                continue;
+            }
+            int end = i;
+            while (end < len && response.charAt(end) != '\n' && response.charAt(end) != '\r') {
+                end++;
+            }
+            if (c == '#' || c == '!') {
+                // comment line, never continued
+                i = end;
+                continue;
+            }
+            if (c == '\\' && end == i + 1) {
+                // a lone continuation: Properties reads it as a blank line,
+                // or as an empty key if it ends the input
+                if (end >= len - 1) {
+                    fields.put("", "");
+                }
+                i = end;
+                continue;
+            }
+            if (nextBackslash != -1 && nextBackslash < i) {
+                nextBackslash = response.indexOf('\\', i);
+            }
+            if (nextBackslash == -1 || nextBackslash >= end) {
+                fields.addLine(response, i, end);
+                i = end;
+            } else {
+                i = fields.addContinuedLine(response, i, end);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Joins the line at <code>start</code> with the lines continuing it and
+     * adds the result.
+     * 
+     * @return the index after the last line joined
+     */
+    private int addContinuedLine(String response, int start, int firstEnd) {
+        final int len = response.length();
+        final StringBuilder line = new StringBuilder(firstEnd - start + 16);
+        int from = start;
+        int end = firstEnd;
+        while (true) {
+            line.append(response, from, end);
+            int backslashes = 0;
+            for (int j = end - 1; j >= from && response.charAt(j) == '\\'; j--) {
+                backslashes++;
+            }
+            if (backslashes % 2 == 0) {
+                break;
+            }
+            // an odd number of trailing backslashes continues the line
+            line.setLength(line.length() - 1);
+            if (end < len && response.charAt(end) == '\r') {
+                end++;
+            }
+            if (end < len && response.charAt(end) == '\n') {
+                end++;
+            }
+            from = end;
+            while (from < len
+                    && (response.charAt(from) == ' ' || response.charAt(from) == '\t' || response
+                            .charAt(from) == '\f')) {
+                from++;
+            }
+            end = from;
+            while (end < len && response.charAt(end) != '\n' && response.charAt(end) != '\r') {
+                end++;
+            }
+            if (from == len) {
+                break;
+            }
+        }
+        this.addLine(line, 0, line.length());
+        return end;
+    }
+
+    /** Splits a logical line into its key and value and adds them. */
+    private void addLine(CharSequence line, int start, int end) {
+        int keyEnd = start;
+        int valueStart = end;
+        boolean hasSep = false;
+        boolean precedingBackslash = false;
+        while (keyEnd < end) {
+            final char c = line.charAt(keyEnd);
+            if ((c == '=' || c == ':') && !precedingBackslash) {
+                valueStart = keyEnd + 1;
+                hasSep = true;
+                break;
+            } else if ((c == ' ' || c == '\t' || c == '\f') && !precedingBackslash) {
+                valueStart = keyEnd + 1;
+                break;
+            }
+            precedingBackslash = c == '\\' ? !precedingBackslash : false;
+            keyEnd++;
+        }
+        while (valueStart < end) {
+            final char c = line.charAt(valueStart);
+            if (c != ' ' && c != '\t' && c != '\f') {
+                if (!hasSep && (c == '=' || c == ':')) {
+                    hasSep = true;
+                } else {
+                    break;
+                }
+            }
+            valueStart++;
+        }
+        this.put(unescape(line, start, keyEnd), unescape(line, valueStart, end));
+    }
+
+    private static String unescape(CharSequence str, int start, int end) {
+        int i = start;
+        while (i < end && str.charAt(i) != '\\') {
+            i++;
+        }
+        if (i == end) {
+            return str.subSequence(start, end).toString();
+        }
+        final StringBuilder out = new StringBuilder(end - start);
+        out.append(str, start, i);
+        while (i < end) {
+            char c = str.charAt(i++);
+            if (c == '\\' && i < end) {
+                c = str.charAt(i++);
+                if (c == 'u') {
+                    if (i + 4 > end) {
+                        throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                    }
+                    int value = 0;
+                    for (int j = 0; j < 4; j++) {
+                        final char h = str.charAt(i++);
+                        final int digit =
+                                h >= '0' && h <= '9' ? h - '0' : h >= 'a' && h <= 'f' ? h - 'a'
+                                        + 10 : h >= 'A' && h <= 'F' ? h - 'A' + 10 : -1;
+                        if (digit < 0) {
+                            throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                        }
+                        value = (value << 4) | digit;
+                    }
+                    c = (char) value;
+                } else if (c == 't') {
+                    c = '\t';
+                } else if (c == 'r') {
+                    c = '\r';
+                } else if (c == 'n') {
+                    c = '\n';
+                } else if (c == 'f') {
+                    c = '\f';
+                }
+            }
+            out.append(c);
+        }
+        return out.toString();
+    }
+
+    private void put(String key, String value) {
+        this.put(key, key.hashCode(), value);
+    }
+
+    /**
+     * Adds a field, replacing any field with the same key.
+     * 
+     * @param hash
+     *            the hash code of <code>key</code>
+     */
+    void put(String key, int hash, String value) {
+        for (int i = 0; i < this.size; i++) {
+            if (this.hashes[i] == hash && this.keys[i].equals(key)) {
+                this.values[i] = value;
+                return;
+            }
+        }
+        if (this.size == this.keys.length) {
+            final int capacity = this.size * 2;
+            final String[] grownKeys = new String[capacity];
+            final String[] grownValues = new String[capacity];
+            final int[] grownHashes = new int[capacity];
+            System.arraycopy(this.keys, 0, grownKeys, 0, this.size);
+            System.arraycopy(this.values, 0, grownValues, 0, this.size);
+            System.arraycopy(this.hashes, 0, grownHashes, 0, this.size);
+            this.keys = grownKeys;
+            this.values = grownValues;
+            this.hashes = grownHashes;
+        }
+        this.keys[this.size] = key;
+        this.values[this.size] = value;
+        this.hashes[this.size] = hash;
+        this.size++;
+    }
+
+    /**
+     * @param key
+     *            the key of the field. Not null.
+     * @return the value of the field, or null if the response has none
+     */
+    public String get(String key) {
+        final int hash = key.hashCode();
+        for (int i = 0; i < this.size; i++) {
+            if (this.hashes[i] == hash && this.keys[i].equals(key)) {
+                return this.values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of fields
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return a new, modifiable map of the fields
+     */
+    public Map<String, String> toMap() {
+        final Map<String, String> map = new HashMap<String, String>();
+        for (int i = 0; i < this.size; i++) {
+            map.put(this.keys[i], this.values[i]);
+        }
+        return map;
+    }
+
+    /**
+     * @return a modifiable map of the fields, that reads them in place until
+     *         it is iterated or modified
+     */
+    Map<String, String> asMap() {
+        return new FieldMap(this);
+    }
+
+    /** Sets the UTF-8 bytes of the response, decoded by getResponse(). */
+    void setBody(byte[] body, int length) {
+        this.body = body;
+        this.bodyLength = length;
+    }
+
+    /**
+     * @return true if the response was empty
+     */
+    boolean isEmptyResponse() {
+        return this.response != null ? this.response.length() == 0 : this.bodyLength == 0;
+    }
+
+    /**
+     * Returns the response, decoded on the first call if it was received as
+     * bytes.
+     * 
+     * @return the whole response
+     */
+    public String getResponse() {
+        final String response = this.response;
+        return response != null ? response : this.decodeResponse();
+    }
+
+    private synchronized String decodeResponse() {
+        if (this.response == null && this.body != null) {
+            this.response = new String(this.body, 0, this.bodyLength, UTF_8);
+            // the fields hold all that is needed from now on
+            this.body = null;
+        }
+        return this.response;
+    }
+
+    /**
+     * The fields as a map: lookups read the fields, anything else a
+     * {@link HashMap} copied on first use.
+     */
+    private static final class FieldMap extends AbstractMap<String, String> {
+        private final ResponseFields fields;
+        /** The copy of the fields, or null until needed. */
+        private volatile Map<String, String> copy;
+
+        FieldMap(ResponseFields fields) {
+            this.fields = fields;
+        }
+
+        private Map<String, String> copy() {
+            Map<String, String> copy = this.copy;
+            if (copy == null) {
+                synchronized (this) {
+                    copy = this.copy;
+                    if (copy == null) {
+                        copy = this.fields.toMap();
+                        this.copy = copy;
+                    }
+                }
+            }
+            return copy;
+        }
+
+        @Override
+        public String get(Object key) {
+            final Map<String, String> copy = this.copy;
+            if (copy != null) {
+                return copy.get(key);
+            }
+            return key instanceof String ? this.fields.get((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return this.get(key) != null || this.copy().containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            final Map<String, String> copy = this.copy;
+            return copy != null ? copy.size() : this.fields.size();
+        }
+
+        @Override
+        public String put(String key, String value) {
+            return this.copy().put(key, value);
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return this.copy().entrySet();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.*;
+
+/**
+ * Retries the requests that failed without an answer from the gateway,
+ * within their deadline, without ever charging twice. Ie.
+ * 
+ * <pre>
+ * service.addInterceptor(new RetryInterceptor());
+ * </pre>
+ * 
+ * A failed request is only sent again when that is safe:
+ * <ul>
+ * <li>if it was not sent, ie. the connection failed
+ * ({@link CreditCardService#REQ_CONNECTION_FAILED}): any request</li>
+ * <li>if it may have reached the gateway
+ * ({@link CreditCardService#REQ_POST_ERROR} or
+ * {@link CreditCardService#REQ_RESPONSE_ERROR}): only the queries, ie.
+ * <code>verifyTransaction</code> and the <code>query</code> operations of
+ * <code>secureStorage</code> and <code>recurringPurchase</code></li>
+ * </ul>
+ * The requests moving money, or changing a token or a recurring purchase, are
+ * never sent again once they may have reached the gateway: the gateway may
+ * still process the first one, and a second one might charge twice. For
+ * those moving money under an order id of their own,
+ * <code>singlePurchase</code>, <code>preAuth</code>, <code>singleCredit</code>,
+ * <code>force</code> and <code>refund</code>, the order id is looked up by
+ * <code>verifyTransaction</code> instead, for up to
+ * {@link #getSettleWindowMs()}, to give the gateway time to finish: the
+ * receipt of the first lookup that finds the transaction, approved or
+ * declined, is returned. If none does, the failure of the request is
+ * returned, for the caller to check the order id later.
+ * <p>
+ * Before each retry and lookup, it waits a backoff doubling from
+ * {@link #getInitialBackoffMs()} up to {@link #getMaxBackoffMs()}, half of it
+ * drawn at random so that clients failing together do not retry together.
+ * It gives up after {@link #getMaxAttempts()} attempts, or when the backoff
+ * would end past the deadline of the request.
+ * <p>
+ * Add it before the interceptors that should see each attempt, ie. a rate
+ * limiter. This class is thread-safe.
+ * 
+ * @since JSE8
+ */
+public final class RetryInterceptor implements GatewayInterceptor {
+    /** The default maximum number of attempts of a request, the first included. */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    /** The default backoff before the first retry, in ms. */
+    public static final long DEFAULT_INITIAL_BACKOFF_MS = 100;
+    /** The default maximum backoff, in ms. */
+    public static final long DEFAULT_MAX_BACKOFF_MS = 2000;
+    /** The default time the order id of a request is looked up for, in ms. */
+    public static final long DEFAULT_SETTLE_WINDOW_MS = 3000;
+
+    /** The queries, by request code and operation code if any. */
+    static final Set<String> QUERIES = new HashSet<String>(Arrays.asList(
+            "verifyTransaction", "secureStorage/query", "recurringPurchase/query"));
+    /** The requests moving money that verifyTransaction finds by their orderId. */
+    private static final Set<String> ORDERS = new HashSet<String>(Arrays.asList(
+            "singlePurchase", "preAuth", "singleCredit", "force", "refund"));
+    /**
+     * The parameters copied from a request to the lookup of its order id, the
+     * merchant ones only if the request was not encoded for a {@link Merchant}.
+     */
+    private static final String[] MERCHANT_PARAMS = {"merchantId", "apiToken", "storeId"};
+    private static final String MARKET_SEGMENT_PARAM = "marketSegmentCode";
+
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final long settleWindowMs;
+
+    /**
+     * Creates an instance with the default attempts, backoffs and settle
+     * window.
+     */
+    public RetryInterceptor() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF_MS, DEFAULT_MAX_BACKOFF_MS);
+    }
+
+    /**
+     * Creates an instance with the default settle window.
+     * 
+     * @param maxAttempts
+     *            the maximum number of attempts of a request, the first
+     *            included. At least 1.
+     * @param initialBackoffMs
+     *            the backoff before the first retry, in ms. Not negative.
+     * @param maxBackoffMs
+     *            the maximum backoff, in ms. At least
+     *            <code>initialBackoffMs</code>.
+     */
+    public RetryInterceptor(int maxAttempts, long initialBackoffMs, long maxBackoffMs) {
+        this(maxAttempts, initialBackoffMs, maxBackoffMs, DEFAULT_SETTLE_WINDOW_MS);
+    }
+
+    /**
+     * Creates an instance.
+     * 
+     * @param maxAttempts
+     *            the maximum number of attempts of a request, the first
+     *            included. At least 1.
+     * @param initialBackoffMs
+     *            the backoff before the first retry, in ms. Not negative.
+     * @param maxBackoffMs
+     *            the maximum backoff, in ms. At least
+     *            <code>initialBackoffMs</code>.
+     * @param settleWindowMs
+     *            the time the order id of a request that may have reached
+     *            the gateway is looked up for, in ms, or 0 not to look it up.
+     *            Not negative.
+     */
+    public RetryInterceptor(int maxAttempts, long initialBackoffMs, long maxBackoffMs,
+            long settleWindowMs) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        if (initialBackoffMs < 0) {
+            throw new IllegalArgumentException("initialBackoffMs must not be negative");
+        }
+        if (maxBackoffMs < initialBackoffMs) {
+            throw new IllegalArgumentException("maxBackoffMs must be at least initialBackoffMs");
+        }
+        if (settleWindowMs < 0) {
+            throw new IllegalArgumentException("settleWindowMs must not be negative");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.settleWindowMs = settleWindowMs;
+    }
+
+    /**
+     * @return the maximum number of attempts of a request, the first included
+     */
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    /**
+     * @return the backoff before the first retry, in ms
+     */
+    public long getInitialBackoffMs() {
+        return this.initialBackoffMs;
+    }
+
+    /**
+     * @return the maximum backoff, in ms
+     */
+    public long getMaxBackoffMs() {
+        return this.maxBackoffMs;
+    }
+
+    /**
+     * @return the time the order id of a request that may have reached the
+     *         gateway is looked up for, in ms
+     */
+    public long getSettleWindowMs() {
+        return this.settleWindowMs;
+    }
+
+    @Override
+    public AbstractReceipt intercept(Chain chain) {
+        final GatewayRequest request = chain.request();
+        final String name = request.toString();
+        final boolean query = QUERIES.contains(name);
+        final String orderId = ORDERS.contains(name) ? request.getParameter("orderId") : null;
+        AbstractReceipt receipt = chain.proceed(request);
+        for (int attempt = 1; attempt < this.maxAttempts; attempt++) {
+            final int errorCode = clientErrorCode(receipt);
+            if (errorCode != REQ_CONNECTION_FAILED && !(query && isAmbiguous(errorCode))) {
+                break;
+            }
+            if (!this.backOff(attempt, request.getRemainingMs())) {
+                break;
+            }
+            receipt = chain.proceed(request);
+        }
+        if (orderId != null && isAmbiguous(clientErrorCode(receipt))) {
+            // never sent again, the gateway may still process it
+            final AbstractReceipt settled = this.settle(chain, request, orderId);
+            if (settled != null) {
+                return settled;
+            }
+        }
+        return receipt;
+    }
+
+    /**
+     * Looks up the transaction with the order id of <code>request</code>
+     * until the gateway reports it, for up to the settle window.
+     * 
+     * @return the receipt of the lookup that found the transaction, approved
+     *         or declined, or null if none did
+     */
+    private AbstractReceipt settle(Chain chain, GatewayRequest request, String orderId) {
+        if (this.settleWindowMs == 0) {
+            return null;
+        }
+        final long settleDeadline =
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.settleWindowMs);
+        final RequestEncoder encoder = new RequestEncoder();
+        encoder.param("requestCode", "verifyTransaction");
+        // the merchant and store the service itself would look it up for
+        final Merchant merchant = request.encoder().getMerchant();
+        if (merchant != null) {
+            encoder.appendEncoded(merchant.getEncodedHeader());
+        } else {
+            for (final String name : MERCHANT_PARAMS) {
+                encoder.param(name, request.getParameter(name));
+            }
+        }
+        encoder.param(MARKET_SEGMENT_PARAM, request.getParameter(MARKET_SEGMENT_PARAM));
+        encoder.param("transactionOrderId", orderId);
+        encoder.setRequestCode("verifyTransaction");
+        encoder.setMerchant(merchant);
+        final GatewayRequest lookup =
+                new GatewayRequest(request.getUrl(), request.getParsedUrl(), encoder,
+                        GatewayRequest.ReceiptKind.CREDIT_CARD, request.getTimer());
+        for (int attempt = 1;; attempt++) {
+            // leaves time for the gateway to finish processing the request
+            final long settleRemainingMs =
+                    TimeUnit.NANOSECONDS.toMillis(settleDeadline - System.nanoTime());
+            if (!this.backOff(attempt, Math.min(settleRemainingMs, lookup.getRemainingMs()))) {
+                return null;
+            }
+            final AbstractReceipt receipt = chain.proceed(lookup);
+            // not found yet, or the lookup failed: look again
+            if (clientErrorCode(receipt) == 0
+                    && (receipt.isApproved() || receipt.getTransactionId() != null)) {
+                return receipt;
+            }
+        }
+    }
+
+    /**
+     * Waits the backoff before the retry <code>attempt</code>.
+     * 
+     * @param remainingMs
+     *            the time the backoff must end within, in ms
+     * @return false if the backoff would not end within
+     *         <code>remainingMs</code>, or was interrupted
+     */
+    private boolean backOff(int attempt, long remainingMs) {
+        final long ceiling =
+                Math.min(this.maxBackoffMs, this.initialBackoffMs << Math.min(attempt - 1, 30));
+        final long backoffMs =
+                ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling - ceiling / 2 + 1);
+        if (backoffMs >= remainingMs) {
+            return false;
+        }
+        try {
+            Thread.sleep(backoffMs);
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return the <code>REQ_</code> error code of <code>receipt</code>, or 0
+     *         if it is an answer from the gateway
+     */
+    static int clientErrorCode(AbstractReceipt receipt) {
+        final String errorCode = receipt.getErrorCode();
+        if (receipt.isApproved() || errorCode == null || !errorCode.startsWith("-")) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(errorCode);
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /** @return true if the request may have reached the gateway */
+    static boolean isAmbiguous(int errorCode) {
+        return errorCode == REQ_POST_ERROR || errorCode == REQ_RESPONSE_ERROR;
+    }
+}
@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Answers the secure storage queries from a cache of the latest answers,
+ * rather than from the gateway. Ie.
+ * 
+ * <pre>
+ * service.addInterceptor(new StorageCacheInterceptor());
+ * </pre>
+ * 
+ * The approved answers of <code>queryStorage</code> are kept by merchant and
+ * storage token id, for up to {@link #getMaxEntries()} tokens, the least
+ * recently used evicted first, and for no longer than {@link #getTtlMs()}.
+ * A query of a token in the cache is answered by a new receipt parsed from the
+ * cached response, so that each caller gets a receipt and payment profile of
+ * its own.
+ * <p>
+ * A token is evicted when a request through the same interceptor may change
+ * it: <code>addToStorage</code>, <code>updateStorage</code>,
+ * <code>deleteFromStorage</code>, and the purchases and verifications adding
+ * the card to the storage. The answers of the queries sent while it changes
+ * are not cached. Changes made by other clients, ie. other instances of the
+ * application, are only seen once the answer expires: share the interceptor
+ * between the services of an application, and keep the time to live short
+ * if the tokens are changed elsewhere.
+ * <p>
+ * Add it before the other interceptors, so that a query answered from the
+ * cache goes no further. This class is thread-safe.
+ * 
+ * @since JSE8
+ */
+public final class StorageCacheInterceptor implements GatewayInterceptor {
+    /** The default maximum number of tokens cached is {@value}. */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    /** The default number of ms an answer is cached is {@value}. */
+    public static final long DEFAULT_TTL_MS = 60000;
+
+    /** The requests adding a card to the storage if asked to. */
+    private static final Set<String> ADDING_TO_STORAGE = new HashSet<String>(Arrays.asList(
+            "singlePurchase", "verifyCreditCard"));
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    /** The cached answers, least recently used first. Guarded by itself. */
+    private final Map<String, CachedAnswer> entries =
+            new LinkedHashMap<String, CachedAnswer>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedAnswer> eldest) {
+                    return this.size() > StorageCacheInterceptor.this.maxEntries;
+                }
+            };
+    /** Incremented as a token starts and ends changing. */
+    private final AtomicLong changes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates an instance caching up to {@value #DEFAULT_MAX_ENTRIES} tokens
+     * for {@value #DEFAULT_TTL_MS} ms.
+     */
+    public StorageCacheInterceptor() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MS);
+    }
+
+    /**
+     * Creates an instance.
+     * 
+     * @param maxEntries
+     *            the maximum number of tokens cached. Positive.
+     * @param ttlMs
+     *            the number of ms an answer is cached. Positive.
+     */
+    public StorageCacheInterceptor(int maxEntries, long ttlMs) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        if (ttlMs <= 0) {
+            throw new IllegalArgumentException("ttlMs must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+
+    /**
+     * @return the maximum number of tokens cached
+     */
+    public int getMaxEntries() {
+        return this.maxEntries;
+    }
+
+    /**
+     * @return the number of ms an answer is cached
+     */
+    public long getTtlMs() {
+        return TimeUnit.NANOSECONDS.toMillis(this.ttlNanos);
+    }
+
+    /**
+     * @return the number of tokens cached, expired ones included
+     */
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * @return the number of queries answered from the cache
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return the number of queries sent to the gateway
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Evicts all tokens, ie. after they were changed by another client.
+     */
+    public void clear() {
+        synchronized (this.entries) {
+            this.changes.incrementAndGet();
+            this.entries.clear();
+        }
+    }
+
+    @Override
+    public AbstractReceipt intercept(Chain chain) {
+        final GatewayRequest request = chain.request();
+        final String name = request.toString();
+        final String changedToken;
+        if ("secureStorage/query".equals(name)) {
+            return this.query(chain, request);
+        } else if (name.startsWith("secureStorage/")) {
+            changedToken = request.getParameter("storageTokenId");
+        } else if (ADDING_TO_STORAGE.contains(name)
+                && "true".equals(request.getParameter("addToStorage"))) {
+            changedToken = request.getParameter("storageTokenId");
+        } else {
+            changedToken = null;
+        }
+        if (changedToken == null) {
+            return chain.proceed(request);
+        }
+        final String key = key(request, changedToken);
+        this.evict(key);
+        try {
+            return chain.proceed(request);
+        } finally {
+            // the queries sent meanwhile may have read either version
+            this.evict(key);
+        }
+    }
+
+    private AbstractReceipt query(Chain chain, GatewayRequest request) {
+        final String token = request.getParameter("storageTokenId");
+        if (token == null) {
+            return chain.proceed(request);
+        }
+        final String key = key(request, token);
+        final long now = System.nanoTime();
+        final CachedAnswer cached;
+        synchronized (this.entries) {
+            final CachedAnswer entry = this.entries.get(key);
+            if (entry != null && entry.expiresAt - now <= 0) {
+                this.entries.remove(key);
+                cached = null;
+            } else {
+                cached = entry;
+            }
+        }
+        if (cached != null) {
+            this.hits.increment();
+            return request.getReceiptKind().newReceipt(ResponseFields.parse(cached.response));
+        }
+        this.misses.increment();
+        final long changes = this.changes.get();
+        final AbstractReceipt receipt = chain.proceed(request);
+        final String response = receipt.isApproved() ? receipt.getResponse() : null;
+        if (response != null) {
+            final CachedAnswer entry =
+                    new CachedAnswer(response, System.nanoTime() + this.ttlNanos);
+            synchronized (this.entries) {
+                // not if a token changed meanwhile: it may be this one
+                if (this.changes.get() == changes) {
+                    this.entries.put(key, entry);
+                }
+            }
+        }
+        return receipt;
+    }
+
+    private void evict(String key) {
+        synchronized (this.entries) {
+            this.changes.incrementAndGet();
+            this.entries.remove(key);
+        }
+    }
+
+    private static String key(GatewayRequest request, String token) {
+        return request.getMerchantKey() + " " + token;
+    }
+
+    /** A cached answer. */
+    private static final class CachedAnswer {
+        final String response;
+        /** The System.nanoTime() at which it expires. */
+        final long expiresAt;
+
+        CachedAnswer(String response, long expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,632 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.*;
+
+/**
+ * Adds the payment profiles of a CSV or NDJSON file to the secure storage,
+ * ie. when a merchant is onboarded. Ie.
+ * 
+ * <pre>
+ * StorageImporter importer = new StorageImporter(service);
+ * importer.setParallelism(32);
+ * StorageImporter.Totals totals = importer.importFile(new File(&quot;cards.csv&quot;),
+ *         StorageImporter.Format.CSV, new File(&quot;cards-receipts.csv&quot;));
+ * </pre>
+ * 
+ * Each record is a payment profile, of the fields:
+ * <ul>
+ * <li><code>storageTokenId</code>, generated by the gateway if empty</li>
+ * <li>the card: <code>creditCardNumber</code> and <code>expiryDate</code>
+ * (YYMM), required, <code>cvv2</code>, <code>street</code>, <code>zip</code>
+ * and <code>cardHolderName</code></li>
+ * <li>the customer, if any of: <code>legalName</code>, <code>tradeName</code>,
+ * <code>website</code>, <code>firstName</code>, <code>lastName</code>,
+ * <code>phoneNumber</code>, <code>faxNumber</code>, <code>address1</code>,
+ * <code>address2</code>, <code>city</code>, <code>province</code>,
+ * <code>postal</code> and <code>country</code></li>
+ * </ul>
+ * A CSV file starts with a header naming its columns, among the fields; an
+ * NDJSON file has an object of fields per line, whose values are strings,
+ * numbers or null. Blank lines are skipped.
+ * <p>
+ * The file is read through a window mapped in memory, a record at a time, and
+ * each record is added to the storage by one of {@link #getParallelism()}
+ * calls in flight: reading waits for a call to finish before parsing the next
+ * record, so that the heap holds no more than that many records, whatever the
+ * size of the file, and the import goes as fast as the gateway answers.
+ * <p>
+ * The receipts are written to the output file as CSV, as the calls finish:
+ * <code>record,storageTokenId,approved,errorCode,errorMessage</code>, where
+ * <code>record</code> is the number of the record in the input, from 1, and
+ * <code>storageTokenId</code> the token of the receipt, or of the record if
+ * none. A record that cannot be parsed is not sent, and its receipt has the
+ * error code {@link CreditCardService#REQ_INVALID_REQUEST}.
+ * <p>
+ * The settings are read when an import starts. This class is thread-safe.
+ * 
+ * @since JSE8
+ */
+public final class StorageImporter {
+    /** The format of an input file. */
+    public enum Format {
+        /** Comma separated values, RFC 4180, with a header. */
+        CSV,
+        /** Newline delimited JSON objects. */
+        NDJSON
+    }
+
+    /** The default number of calls in flight is {@value}. */
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final List<String> CARD_FIELDS = Arrays.asList("storageTokenId",
+            "creditCardNumber", "expiryDate", "cvv2", "street", "zip", "cardHolderName");
+    private static final List<String> CUSTOMER_FIELDS = Arrays.asList("legalName", "tradeName",
+            "website", "firstName", "lastName", "phoneNumber", "faxNumber", "address1",
+            "address2", "city", "province", "postal", "country");
+    private static final Set<String> FIELDS = new HashSet<String>();
+    static {
+        FIELDS.addAll(CARD_FIELDS);
+        FIELDS.addAll(CUSTOMER_FIELDS);
+    }
+
+    private final CreditCardService service;
+    private volatile int parallelism = DEFAULT_PARALLELISM;
+
+    /**
+     * Creates an instance.
+     * 
+     * @param service
+     *            the service adding the payment profiles. Not null.
+     */
+    public StorageImporter(CreditCardService service) {
+        if (service == null) {
+            throw new IllegalArgumentException("service is required");
+        }
+        this.service = service;
+    }
+
+    /**
+     * @return the maximum number of calls in flight
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * @param parallelism
+     *            the maximum number of calls in flight. Positive. Defaults to
+     *            {@value #DEFAULT_PARALLELISM}.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Adds the payment profiles of a file to the storage, and returns once all
+     * are done.
+     * 
+     * @param input
+     *            the file of payment profiles. Not null.
+     * @param format
+     *            the format of <code>input</code>. Not null.
+     * @param output
+     *            the file the receipts are written to, replaced if it
+     *            exists. Not null.
+     * @return the totals of the receipts
+     * @throws IOException
+     *             if a file cannot be read or written, or the header of a CSV
+     *             file names an unknown field: the import stops once the
+     *             calls in flight are done
+     * @throws InterruptedException
+     *             if the calling thread was interrupted: the import stops once
+     *             the calls in flight are done and written
+     */
+    public Totals importFile(File input, Format format, File output) throws IOException,
+            InterruptedException {
+        if (input == null) {
+            throw new IllegalArgumentException("input is required");
+        }
+        if (format == null) {
+            throw new IllegalArgumentException("format is required");
+        }
+        if (output == null) {
+            throw new IllegalArgumentException("output is required");
+        }
+        final MappedRecordReader reader = new MappedRecordReader(input, format == Format.CSV,
+                MappedRecordReader.DEFAULT_WINDOW_SIZE);
+        try {
+            final Import run = new Import(output, this.parallelism);
+            try {
+                run.read(reader, format);
+            } finally {
+                run.close();
+            }
+            return run.totals;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /** An import, from its settings when it started. */
+    private final class Import {
+        private final Writer out;
+        private final int parallelism;
+        private final Semaphore calls;
+        private final ExecutorService executor = GatewayExecutors.newDefaultExecutor();
+        private final Totals totals = new Totals();
+        /** The first failure to write a receipt. Guarded by out. */
+        private IOException failure;
+
+        Import(File output, int parallelism) throws IOException {
+            this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output),
+                    UTF_8));
+            this.out.write("record,storageTokenId,approved,errorCode,errorMessage\n");
+            this.parallelism = parallelism;
+            this.calls = new Semaphore(parallelism);
+        }
+
+        void read(MappedRecordReader reader, Format format) throws IOException,
+                InterruptedException {
+            String[] header = null;
+            long recordNumber = 0;
+            String record;
+            while ((record = reader.next()) != null) {
+                if (record.trim().isEmpty()) {
+                    continue;
+                }
+                if (format == Format.CSV && header == null) {
+                    header = parseHeader(record);
+                    continue;
+                }
+                recordNumber++;
+                String storageTokenId = null;
+                PaymentProfile paymentProfile = null;
+                String invalid = null;
+                try {
+                    final Map<String, String> fields = format == Format.CSV
+                            ? toFields(header, parseCsv(record)) : parseJson(record);
+                    storageTokenId = fields.get("storageTokenId");
+                    paymentProfile = toPaymentProfile(fields);
+                } catch (final IllegalArgumentException e) {
+                    invalid = e.getMessage();
+                }
+                this.checkFailure();
+                if (invalid != null) {
+                    this.write(recordNumber, storageTokenId, new StorageReceipt(
+                            REQ_INVALID_REQUEST, invalid, null));
+                } else {
+                    this.submit(recordNumber, storageTokenId, paymentProfile);
+                }
+            }
+        }
+
+        /** Waits for a call to finish if all are in flight, and sends one. */
+        private void submit(final long recordNumber, final String storageTokenId,
+                final PaymentProfile paymentProfile) throws InterruptedException {
+            this.calls.acquire();
+            try {
+                this.executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            final StorageReceipt receipt = StorageImporter.this.service
+                                    .addToStorage(storageTokenId, paymentProfile);
+                            Import.this.write(recordNumber, storageTokenId, receipt);
+                        } finally {
+                            Import.this.calls.release();
+                        }
+                    }
+                });
+            } catch (final RuntimeException e) {
+                this.calls.release();
+                throw e;
+            }
+        }
+
+        private void write(long recordNumber, String storageTokenId, StorageReceipt receipt) {
+            final String token = receipt.getStorageTokenId() != null
+                    ? receipt.getStorageTokenId() : storageTokenId;
+            final StringBuilder line = new StringBuilder(96);
+            line.append(recordNumber).append(',');
+            appendCsv(line, token).append(',').append(receipt.isApproved()).append(',');
+            appendCsv(line, receipt.getErrorCode()).append(',');
+            appendCsv(line, receipt.getErrorMessage()).append('\n');
+            synchronized (this.out) {
+                this.totals.add(receipt);
+                if (this.failure == null) {
+                    try {
+                        this.out.write(line.toString());
+                    } catch (final IOException e) {
+                        this.failure = e;
+                    }
+                }
+            }
+        }
+
+        private void checkFailure() throws IOException {
+            synchronized (this.out) {
+                if (this.failure != null) {
+                    throw this.failure;
+                }
+            }
+        }
+
+        /** Waits for the calls in flight, and closes the output. */
+        void close() throws IOException {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    this.calls.acquire(this.parallelism);
+                    break;
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            this.executor.shutdown();
+            try {
+                this.checkFailure();
+            } finally {
+                this.out.close();
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private static String[] parseHeader(String record) throws IOException {
+        final List<String> columns = parseCsv(record);
+        for (final String column : columns) {
+            if (!FIELDS.contains(column)) {
+                throw new IOException("unknown field in the CSV header: " + column);
+            }
+        }
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    /** @return the fields of a CSV record */
+    static List<String> parseCsv(String record) {
+        final List<String> values = new ArrayList<String>();
+        final StringBuilder value = new StringBuilder();
+        boolean inQuotes = false;
+        for (int i = 0; i < record.length(); i++) {
+            final char c = record.charAt(i);
+            if (inQuotes) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    inQuotes = false;
+                }
+            } else if (c == '"') {
+                inQuotes = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (inQuotes) {
+            throw new IllegalArgumentException("unterminated quoted value");
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    private static Map<String, String> toFields(String[] header, List<String> values) {
+        if (values.size() != header.length) {
+            throw new IllegalArgumentException(values.size() + " values for " + header.length
+                    + " columns");
+        }
+        final Map<String, String> fields = new HashMap<String, String>();
+        for (int i = 0; i < header.length; i++) {
+            if (!values.get(i).isEmpty()) {
+                fields.put(header[i], values.get(i));
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @return the fields of an NDJSON record, a flat object of strings,
+     *         numbers, booleans and nulls, without the nulls
+     */
+    static Map<String, String> parseJson(String record) {
+        final JsonCursor in = new JsonCursor(record);
+        final Map<String, String> fields = new HashMap<String, String>();
+        in.expect('{');
+        if (!in.consume('}')) {
+            do {
+                final String name = in.string();
+                in.expect(':');
+                final String value = in.value();
+                if (!FIELDS.contains(name)) {
+                    throw new IllegalArgumentException("unknown field " + name);
+                }
+                if (value != null && !value.isEmpty()) {
+                    fields.put(name, value);
+                }
+            } while (in.consume(','));
+            in.expect('}');
+        }
+        in.end();
+        return fields;
+    }
+
+    private static PaymentProfile toPaymentProfile(Map<String, String> fields) {
+        final String number = fields.get("creditCardNumber");
+        final String expiryDate = fields.get("expiryDate");
+        if (number == null || expiryDate == null) {
+            throw new IllegalArgumentException("creditCardNumber and expiryDate are required");
+        }
+        final CreditCard creditCard;
+        try {
+            creditCard = new CreditCard(Long.parseLong(number.trim()),
+                    Short.parseShort(expiryDate.trim()), fields.get("cvv2"),
+                    fields.get("street"), fields.get("zip"));
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("creditCardNumber and expiryDate must be numbers");
+        }
+        creditCard.setCardHolderName(fields.get("cardHolderName"));
+        CustomerProfile customerProfile = null;
+        for (final String field : CUSTOMER_FIELDS) {
+            final String value = fields.get(field);
+            if (value != null) {
+                if (customerProfile == null) {
+                    customerProfile = new CustomerProfile();
+                }
+                setCustomerField(customerProfile, field, value);
+            }
+        }
+        return new PaymentProfile(creditCard, customerProfile);
+    }
+
+    private static void setCustomerField(CustomerProfile profile, String field, String value) {
+        if ("legalName".equals(field)) {
+            profile.setLegalName(value);
+        } else if ("tradeName".equals(field)) {
+            profile.setTradeName(value);
+        } else if ("website".equals(field)) {
+            profile.setWebsite(value);
+        } else if ("firstName".equals(field)) {
+            profile.setFirstName(value);
+        } else if ("lastName".equals(field)) {
+            profile.setLastName(value);
+        } else if ("phoneNumber".equals(field)) {
+            profile.setPhoneNumber(value);
+        } else if ("faxNumber".equals(field)) {
+            profile.setFaxNumber(value);
+        } else if ("address1".equals(field)) {
+            profile.setAddress1(value);
+        } else if ("address2".equals(field)) {
+            profile.setAddress2(value);
+        } else if ("city".equals(field)) {
+            profile.setCity(value);
+        } else if ("province".equals(field)) {
+            profile.setProvince(value);
+        } else if ("postal".equals(field)) {
+            profile.setPostal(value);
+        } else {
+            profile.setCountry(value);
+        }
+    }
+
+    private static StringBuilder appendCsv(StringBuilder sb, String value) {
+        if (value == null) {
+            return sb;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                && value.indexOf('\r') < 0) {
+            return sb.append(value);
+        }
+        return sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    /** Reads the tokens of a flat JSON object. */
+    private static final class JsonCursor {
+        private final String text;
+        private int i = 0;
+
+        JsonCursor(String text) {
+            this.text = text;
+        }
+
+        private void skipSpaces() {
+            while (this.i < this.text.length()
+                    && Character.isWhitespace(this.text.charAt(this.i))) {
+                this.i++;
+            }
+        }
+
+        boolean consume(char c) {
+            this.skipSpaces();
+            if (this.i < this.text.length() && this.text.charAt(this.i) == c) {
+                this.i++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            if (!this.consume(c)) {
+                throw this.error("'" + c + "' expected");
+            }
+        }
+
+        void end() {
+            this.skipSpaces();
+            if (this.i < this.text.length()) {
+                throw this.error("end of record expected");
+            }
+        }
+
+        /** @return the value, as text, or null if null */
+        String value() {
+            this.skipSpaces();
+            if (this.i >= this.text.length()) {
+                throw this.error("value expected");
+            }
+            final char c = this.text.charAt(this.i);
+            if (c == '"') {
+                return this.string();
+            } else if (c == '{' || c == '[') {
+                throw this.error("nested values are not supported");
+            }
+            final int start = this.i;
+            while (this.i < this.text.length() && ",} \t".indexOf(this.text.charAt(this.i)) < 0) {
+                this.i++;
+            }
+            final String literal = this.text.substring(start, this.i);
+            if ("null".equals(literal)) {
+                return null;
+            } else if (!"true".equals(literal) && !"false".equals(literal)
+                    && !literal.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?")) {
+                throw this.error("invalid value " + literal);
+            }
+            return literal;
+        }
+
+        String string() {
+            this.expect('"');
+            final StringBuilder sb = new StringBuilder();
+            while (this.i < this.text.length()) {
+                final char c = this.text.charAt(this.i++);
+                if (c == '"') {
+                    return sb.toString();
+                } else if (c != '\\') {
+                    sb.append(c);
+                } else if (this.i < this.text.length()) {
+                    final char escaped = this.text.charAt(this.i++);
+                    switch (escaped) {
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (this.i + 4 > this.text.length()) {
+                            throw this.error("invalid escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(
+                                    this.text.substring(this.i, this.i + 4), 16));
+                        } catch (final NumberFormatException e) {
+                            throw this.error("invalid escape");
+                        }
+                        this.i += 4;
+                        break;
+                    default:
+                        sb.append(escaped);
+                    }
+                }
+            }
+            throw this.error("unterminated string");
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at column " + (this.i + 1));
+        }
+    }
+
+    /**
+     * The totals of the receipts of an import. This class is thread-safe.
+     */
+    public static final class Totals {
+        private long records;
+        private long approved;
+        private long declined;
+        private long failed;
+
+        synchronized void add(StorageReceipt receipt) {
+            this.records++;
+            if (receipt.isApproved()) {
+                this.approved++;
+            } else if (RetryInterceptor.clientErrorCode(receipt) != 0) {
+                this.failed++;
+            } else {
+                this.declined++;
+            }
+        }
+
+        /**
+         * @return the number of records
+         */
+        public synchronized long getRecordCount() {
+            return this.records;
+        }
+
+        /**
+         * @return the number of records added to the storage
+         */
+        public synchronized long getApprovedCount() {
+            return this.approved;
+        }
+
+        /**
+         * @return the number of records declined by the gateway
+         */
+        public synchronized long getDeclinedCount() {
+            return this.declined;
+        }
+
+        /**
+         * @return the number of records not answered by the gateway, ie.
+         *         invalid, or whose call failed
+         */
+        public synchronized long getFailedCount() {
+            return this.failed;
+        }
+
+        /**
+         * @return the totals, ie.
+         *         <code>{records=1000, approved=990, declined=8, failed=2}</code>
+         */
+        @Override
+        public synchronized String toString() {
+            return "{records=" + this.records + ", approved=" + this.approved + ", declined="
+                    + this.declined + ", failed=" + this.failed + "}";
+        }
+    }
+}
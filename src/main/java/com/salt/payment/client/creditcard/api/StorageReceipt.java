@@ -54,8 +54,18 @@ public class StorageReceipt extends AbstractReceipt {
      *            the response from the gateway to parse. Not null.
      */
     public StorageReceipt(String response) {
-        super(response);
-        if (response == null || response.length() <= 0) {
+        this(parseResponse(response));
+    }
+
+    /**
+     * Creates an instance from the parsed response from the gateway.
+     * 
+     * @param fields
+     *            the parsed response, or null if there was none
+     */
+    public StorageReceipt(ResponseFields fields) {
+        super(fields);
+        if (isNullResponse(fields)) {
             // null response, null receipt
             this.errorCode = (new Integer(REQ_RESPONSE_ERROR)).toString();
             this.errorMessage = "null or empty response received.";
@@ -66,7 +76,7 @@ public class StorageReceipt extends AbstractReceipt {
         // parse the storage-specific parameters
         try {
             // storage token ID
-            this.storageTokenId = this.params.get(STORAGE_TOKEN_ID);
+            this.storageTokenId = this.param(STORAGE_TOKEN_ID);
 
             // make sure profile available
             final Boolean paymentProfileAvailable = this.parseBoolean(PAYMENT_PROFILE_AVAILABLE);
@@ -76,7 +86,7 @@ public class StorageReceipt extends AbstractReceipt {
                 CreditCard creditCard = null;
                 final Boolean creditCardAvailable = this.parseBoolean(CREDIT_CARD_AVAILABLE);
                 if (creditCardAvailable != null && creditCardAvailable) {
-                    String sanitized = this.params.get(CREDIT_CARD_NUMBER);
+                    String sanitized = this.param(CREDIT_CARD_NUMBER);
                     sanitized = sanitized.replaceAll("\\*", "");
                     creditCard =
                             new CreditCard(new Long(sanitized), this.parseShort(EXPIRY_DATE));
@@ -87,19 +97,19 @@ public class StorageReceipt extends AbstractReceipt {
                         this.parseBoolean(CUSTOMER_PROFILE_AVAILABLE);
                 if (customerProfileAvailable != null && customerProfileAvailable) {
                     profile = new CustomerProfile();
-                    profile.setLegalName(this.params.get(CUSTOMER_PROFILE_LEGAL_NAME));
-                    profile.setTradeName(this.params.get(CUSTOMER_PROFILE_TRADE_NAME));
-                    profile.setWebsite(this.params.get(CUSTOMER_PROFILE_WEBSITE));
-                    profile.setFirstName(this.params.get(CUSTOMER_PROFILE_FIRST_NAME));
-                    profile.setLastName(this.params.get(CUSTOMER_PROFILE_LAST_NAME));
-                    profile.setPhoneNumber(this.params.get(CUSTOMER_PROFILE_PHONE_NUMBER));
-                    profile.setFaxNumber(this.params.get(CUSTOMER_PROFILE_FAX_NUMBER));
-                    profile.setAddress1(this.params.get(CUSTOMER_PROFILE_ADDRESS1));
-                    profile.setAddress2(this.params.get(CUSTOMER_PROFILE_ADDRESS2));
-                    profile.setCity(this.params.get(CUSTOMER_PROFILE_CITY));
-                    profile.setProvince(this.params.get(CUSTOMER_PROFILE_PROVINCE));
-                    profile.setPostal(this.params.get(CUSTOMER_PROFILE_POSTAL));
-                    profile.setCountry(this.params.get(CUSTOMER_PROFILE_COUNTRY));
+                    profile.setLegalName(this.param(CUSTOMER_PROFILE_LEGAL_NAME));
+                    profile.setTradeName(this.param(CUSTOMER_PROFILE_TRADE_NAME));
+                    profile.setWebsite(this.param(CUSTOMER_PROFILE_WEBSITE));
+                    profile.setFirstName(this.param(CUSTOMER_PROFILE_FIRST_NAME));
+                    profile.setLastName(this.param(CUSTOMER_PROFILE_LAST_NAME));
+                    profile.setPhoneNumber(this.param(CUSTOMER_PROFILE_PHONE_NUMBER));
+                    profile.setFaxNumber(this.param(CUSTOMER_PROFILE_FAX_NUMBER));
+                    profile.setAddress1(this.param(CUSTOMER_PROFILE_ADDRESS1));
+                    profile.setAddress2(this.param(CUSTOMER_PROFILE_ADDRESS2));
+                    profile.setCity(this.param(CUSTOMER_PROFILE_CITY));
+                    profile.setProvince(this.param(CUSTOMER_PROFILE_PROVINCE));
+                    profile.setPostal(this.param(CUSTOMER_PROFILE_POSTAL));
+                    profile.setCountry(this.param(CUSTOMER_PROFILE_COUNTRY));
                 }
                 this.paymentProfile = new PaymentProfile(creditCard, profile);
             } else {
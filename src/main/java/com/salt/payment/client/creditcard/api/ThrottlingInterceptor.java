@@ -0,0 +1,450 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.*;
+
+/**
+ * Limits the rate and concurrency of the requests of each merchant, so that a
+ * burst of one store neither starves the others nor trips the throttling of
+ * the gateway. One instance is shared by the services of all the merchants
+ * of the JVM. Ie.
+ * 
+ * <pre>
+ * final ThrottlingInterceptor throttling = new ThrottlingInterceptor(100);
+ * throttling.setRateLimit(50, 20);
+ * throttling.setRateLimit(bigMerchant, 200, 50);
+ * for (final HttpsCreditCardService service : services) {
+ *     service.addInterceptor(throttling);
+ * }
+ * </pre>
+ * 
+ * The rate limits are token buckets: a merchant, or a request code of a
+ * merchant, may send a burst of requests at once, then requests at the rate
+ * of the bucket. A request over the rate waits for its turn.
+ * <p>
+ * The concurrent requests are limited by a bulkhead shared by the merchants:
+ * once it is full, the requests wait for a slot, and a merchant is given a
+ * freed slot only if it holds less than its fair share, the capacity divided
+ * by the merchants with requests in flight or waiting, or if no other
+ * merchant waits. A merchant may also be given a lower maximum of its own.
+ * <p>
+ * A request never waits past its deadline or {@link #setMaxWaitMs(long)}: if
+ * its turn would come later, it fails at once with
+ * {@link CreditCardService#REQ_THROTTLED}, without being sent.
+ * <p>
+ * Merchants are told apart by their merchantId and storeId, see
+ * {@link GatewayRequest#getMerchantKey()}. The state of a merchant without
+ * settings of its own is dropped once idle, ie. its bucket is full again and
+ * none of its requests are in flight, so that any number of merchants may go
+ * through an instance. The settings can be changed while in use. This class
+ * is thread-safe.
+ * 
+ * @since JSE8
+ */
+public final class ThrottlingInterceptor implements GatewayInterceptor {
+    /** The default maximum wait for a turn, in ms. */
+    public static final long DEFAULT_MAX_WAIT_MS = 5000;
+    /** The time between two sweeps of the idle default buckets, in ns. */
+    private static final long SWEEP_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /** The requests of a merchant in the bulkhead. Guarded by the lock. */
+    private static final class Tenant {
+        int inFlight;
+        int waiting;
+        int maxConcurrentCalls = Integer.MAX_VALUE;
+    }
+
+    private final int maxConcurrentCalls;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = this.lock.newCondition();
+    /** Guarded by the lock. */
+    private final Map<String, Tenant> tenants = new HashMap<String, Tenant>();
+    private int inFlight = 0;
+    private int waiting = 0;
+    /** The merchants with requests in flight or waiting. */
+    private int activeTenants = 0;
+
+    private volatile double defaultCallsPerSecond = 0;
+    private volatile int defaultBurst = 0;
+    /** The rate limits, by merchant key or merchant key and request code. */
+    private final ConcurrentMap<String, TokenBucket> buckets =
+            new ConcurrentHashMap<String, TokenBucket>();
+    /** The merchant keys limited by the default rate limit. */
+    private final ConcurrentMap<String, TokenBucket> defaultBuckets =
+            new ConcurrentHashMap<String, TokenBucket>();
+    /** The nanoTime of the next sweep of the default buckets. */
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + SWEEP_NANOS);
+    private volatile long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_WAIT_MS);
+
+    /**
+     * Creates an instance without rate limits.
+     * 
+     * @param maxConcurrentCalls
+     *            the maximum number of requests in flight, of all the
+     *            merchants. Positive.
+     */
+    public ThrottlingInterceptor(int maxConcurrentCalls) {
+        if (maxConcurrentCalls <= 0) {
+            throw new IllegalArgumentException("maxConcurrentCalls must be positive");
+        }
+        this.maxConcurrentCalls = maxConcurrentCalls;
+    }
+
+    /**
+     * @return the maximum number of requests in flight, of all the merchants
+     */
+    public int getMaxConcurrentCalls() {
+        return this.maxConcurrentCalls;
+    }
+
+    /**
+     * Sets the rate limit of each merchant without a rate limit of its own.
+     * None by default.
+     * 
+     * @param callsPerSecond
+     *            the rate, or 0 for none. Not negative.
+     * @param burst
+     *            the number of requests that may be sent at once. Positive
+     *            if limited.
+     */
+    public void setRateLimit(double callsPerSecond, int burst) {
+        checkRateLimit(callsPerSecond, burst);
+        this.defaultBuckets.clear();
+        this.defaultCallsPerSecond = callsPerSecond;
+        this.defaultBurst = burst;
+    }
+
+    /**
+     * Sets the rate limit of a merchant, in place of the default one.
+     * 
+     * @param merchant
+     *            the merchant. Not null.
+     * @param callsPerSecond
+     *            the rate, or 0 to remove the limit of the merchant. Not
+     *            negative.
+     * @param burst
+     *            the number of requests that may be sent at once. Positive
+     *            if limited.
+     */
+    public void setRateLimit(Merchant merchant, double callsPerSecond, int burst) {
+        if (merchant == null) {
+            throw new IllegalArgumentException("merchant must not be null");
+        }
+        this.setBucket(merchant.getKey(), callsPerSecond, burst);
+    }
+
+    /**
+     * Sets the rate limit of a request code of a merchant, on top of the
+     * rate limit of the merchant.
+     * 
+     * @param merchant
+     *            the merchant. Not null.
+     * @param requestCode
+     *            the request code, ie. <code>singlePurchase</code>. Not null.
+     * @param callsPerSecond
+     *            the rate, or 0 to remove the limit. Not negative.
+     * @param burst
+     *            the number of requests that may be sent at once. Positive
+     *            if limited.
+     */
+    public void setRateLimit(Merchant merchant, String requestCode, double callsPerSecond,
+            int burst) {
+        if (merchant == null) {
+            throw new IllegalArgumentException("merchant must not be null");
+        }
+        if (requestCode == null) {
+            throw new IllegalArgumentException("requestCode is required");
+        }
+        this.setBucket(merchant.getKey() + " " + requestCode, callsPerSecond, burst);
+    }
+
+    private void setBucket(String key, double callsPerSecond, int burst) {
+        checkRateLimit(callsPerSecond, burst);
+        if (callsPerSecond == 0) {
+            this.buckets.remove(key);
+        } else {
+            this.buckets.put(key, new TokenBucket(callsPerSecond, burst));
+        }
+    }
+
+    private static void checkRateLimit(double callsPerSecond, int burst) {
+        if (!(callsPerSecond >= 0) || Double.isInfinite(callsPerSecond)) {
+            throw new IllegalArgumentException("callsPerSecond must not be negative");
+        }
+        if (callsPerSecond > 0 && burst <= 0) {
+            throw new IllegalArgumentException("burst must be positive");
+        }
+    }
+
+    /**
+     * Sets the maximum number of requests in flight of a merchant, below its
+     * fair share of the bulkhead. None by default.
+     * 
+     * @param merchant
+     *            the merchant. Not null.
+     * @param maxConcurrentCalls
+     *            the maximum. Positive.
+     */
+    public void setMaxConcurrentCalls(Merchant merchant, int maxConcurrentCalls) {
+        if (merchant == null) {
+            throw new IllegalArgumentException("merchant must not be null");
+        }
+        if (maxConcurrentCalls <= 0) {
+            throw new IllegalArgumentException("maxConcurrentCalls must be positive");
+        }
+        this.lock.lock();
+        try {
+            this.tenant(merchant.getKey()).maxConcurrentCalls = maxConcurrentCalls;
+            this.released.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets how long a request may wait for its turn, if its deadline is
+     * later. {@value #DEFAULT_MAX_WAIT_MS} ms by default.
+     * 
+     * @param millis
+     *            the duration, in ms. Not negative.
+     */
+    public void setMaxWaitMs(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis must not be negative");
+        }
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * @return the number of requests in flight, of all the merchants
+     */
+    public int getInFlight() {
+        this.lock.lock();
+        try {
+            return this.inFlight;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public AbstractReceipt intercept(Chain chain) {
+        final GatewayRequest request = chain.request();
+        final String merchantKey = request.getMerchantKey();
+        final long start = System.nanoTime();
+        final long deadline =
+                start
+                        + Math.min(this.maxWaitNanos, TimeUnit.MILLISECONDS.toNanos(request
+                                .getRemainingMs()));
+
+        // the rate limits: reserve a turn, then wait for it
+        final TokenBucket merchantBucket = this.merchantBucket(merchantKey);
+        final TokenBucket requestBucket =
+                this.buckets.isEmpty() ? null : this.buckets.get(merchantKey + " "
+                        + request.getRequestCode());
+        long waitNanos = 0;
+        if (merchantBucket != null) {
+            waitNanos = merchantBucket.reserve(start, deadline - start);
+            if (waitNanos < 0) {
+                return throttled(request, "rate");
+            }
+        }
+        if (requestBucket != null) {
+            final long requestWaitNanos = requestBucket.reserve(start, deadline - start);
+            if (requestWaitNanos < 0) {
+                if (merchantBucket != null) {
+                    merchantBucket.cancel();
+                }
+                return throttled(request, "rate");
+            }
+            waitNanos = Math.max(waitNanos, requestWaitNanos);
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // not sent: the turns go to the next requests
+                if (merchantBucket != null) {
+                    merchantBucket.cancel();
+                }
+                if (requestBucket != null) {
+                    requestBucket.cancel();
+                }
+                return throttled(request, "rate");
+            }
+        }
+
+        // the bulkhead
+        if (!this.acquire(merchantKey, deadline)) {
+            return throttled(request, "concurrency");
+        }
+        try {
+            return chain.proceed(request);
+        } finally {
+            this.release(merchantKey);
+        }
+    }
+
+    private TokenBucket merchantBucket(String merchantKey) {
+        final TokenBucket bucket = this.buckets.get(merchantKey);
+        if (bucket != null || this.defaultCallsPerSecond == 0) {
+            return bucket;
+        }
+        this.sweepDefaultBuckets();
+        TokenBucket defaultBucket = this.defaultBuckets.get(merchantKey);
+        if (defaultBucket == null) {
+            final TokenBucket created =
+                    new TokenBucket(this.defaultCallsPerSecond, this.defaultBurst);
+            defaultBucket = this.defaultBuckets.putIfAbsent(merchantKey, created);
+            if (defaultBucket == null) {
+                defaultBucket = created;
+            }
+        }
+        return defaultBucket;
+    }
+
+    /**
+     * Drops the default buckets full again, every {@link #SWEEP_NANOS}: a new
+     * bucket is the same. A request racing the sweep may still take a token
+     * of the bucket dropped, ie. one more request of the burst.
+     */
+    private void sweepDefaultBuckets() {
+        final long now = System.nanoTime();
+        final long next = this.nextSweep.get();
+        if (now - next < 0 || !this.nextSweep.compareAndSet(next, now + SWEEP_NANOS)) {
+            return;
+        }
+        for (final Map.Entry<String, TokenBucket> entry : this.defaultBuckets.entrySet()) {
+            if (entry.getValue().isFull(now)) {
+                this.defaultBuckets.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static AbstractReceipt throttled(GatewayRequest request, String limit) {
+        return request.newErrorReceipt(REQ_THROTTLED, String.format(
+                "the %s limit of the merchant is reached, the %s request was not sent.", limit,
+                request), null);
+    }
+
+    /** @return true once a slot of the bulkhead is taken, false if not by the deadline */
+    private boolean acquire(String merchantKey, long deadline) {
+        this.lock.lock();
+        try {
+            final Tenant tenant = this.tenant(merchantKey);
+            if (tenant.inFlight == 0 && tenant.waiting == 0) {
+                this.activeTenants++;
+            }
+            tenant.waiting++;
+            this.waiting++;
+            try {
+                while (!this.mayEnter(tenant)) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    this.released.awaitNanos(remaining);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                tenant.waiting--;
+                this.waiting--;
+                if (tenant.inFlight == 0 && tenant.waiting == 0) {
+                    // gave up: its fair share goes to the others
+                    this.activeTenants--;
+                    this.evictIfIdle(merchantKey, tenant);
+                    this.released.signalAll();
+                }
+            }
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /** Takes a slot for the tenant if it may enter. Called with the lock held. */
+    private boolean mayEnter(Tenant tenant) {
+        if (this.inFlight >= this.maxConcurrentCalls
+                || tenant.inFlight >= tenant.maxConcurrentCalls) {
+            return false;
+        }
+        final int fairShare = Math.max(1, (this.maxConcurrentCalls + this.activeTenants - 1)
+                / this.activeTenants);
+        if (tenant.inFlight >= fairShare && this.othersWaiting(tenant)) {
+            return false;
+        }
+        tenant.inFlight++;
+        this.inFlight++;
+        return true;
+    }
+
+    /** @return true if another tenant waits and may enter once a slot is free */
+    private boolean othersWaiting(Tenant tenant) {
+        if (this.waiting == tenant.waiting) {
+            return false;
+        }
+        for (final Tenant other : this.tenants.values()) {
+            if (other != tenant && other.waiting > 0
+                    && other.inFlight < other.maxConcurrentCalls) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void release(String merchantKey) {
+        this.lock.lock();
+        try {
+            final Tenant tenant = this.tenant(merchantKey);
+            tenant.inFlight--;
+            this.inFlight--;
+            if (tenant.inFlight == 0 && tenant.waiting == 0) {
+                this.activeTenants--;
+                this.evictIfIdle(merchantKey, tenant);
+            }
+            this.released.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Drops a tenant without requests, unless it has a maximum of its own.
+     * Called with the lock held.
+     */
+    private void evictIfIdle(String merchantKey, Tenant tenant) {
+        if (tenant.maxConcurrentCalls == Integer.MAX_VALUE) {
+            this.tenants.remove(merchantKey);
+        }
+    }
+
+    /** Called with the lock held. */
+    private Tenant tenant(String merchantKey) {
+        Tenant tenant = this.tenants.get(merchantKey);
+        if (tenant == null) {
+            tenant = new Tenant();
+            this.tenants.put(merchantKey, tenant);
+        }
+        return tenant;
+    }
+}
@@ -9,9 +9,12 @@
  ******************************************************************************/
 package com.salt.payment.client.creditcard.api;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * A timer that is used to check whether a specified number of milliseconds has
- * passed.
+ * passed. It is measured with {@link System#nanoTime()}, so that setting the
+ * system clock does not skew it.
  * 
  * @immutable
  * @since JSE5
@@ -26,30 +29,76 @@ final class Timer {
      * @return the Timer that has been started with the specified timeout time
      */
     public static Timer start(long timeoutMs) {
-        return new Timer(timeoutMs);
+        final long timeoutNanos =
+                Math.min(TimeUnit.MILLISECONDS.toNanos(Math.max(timeoutMs, 0)),
+                        Deadline.MAX_TIMEOUT_NANOS);
+        return new Timer(System.nanoTime() + timeoutNanos, null);
     }
 
-    private final long startedTime;
-    private final long timeoutMs;
+    /**
+     * Returns a strict Timer timing out at <code>deadline</code>.
+     * 
+     * @param deadline
+     *            the deadline set by the caller. Not null.
+     * @return the Timer
+     */
+    public static Timer until(Deadline deadline) {
+        return new Timer(deadline.getDeadlineNanos(), deadline);
+    }
+
+    /** The value of System.nanoTime() at the timeout. */
+    private final long timeoutNanos;
+    /** The deadline set by the caller, or null if the Timer is not strict. */
+    private final Deadline deadline;
+
+    private Timer(long timeoutNanos, Deadline deadline) {
+        this.timeoutNanos = timeoutNanos;
+        this.deadline = deadline;
+    }
 
     /**
-     * Creates a new Timer and starts it.
+     * Returns a strict Timer timing out <code>timeoutMs</code> from now, or
+     * when this Timer does if earlier.
      * 
      * @param timeoutMs
-     *            the number of milliseconds after which the Timer will timeout.
-     *            If negative, then the Timer would timeout immediately.
+     *            the number of milliseconds before the timeout
+     * @return the Timer
+     */
+    Timer within(long timeoutMs) {
+        final Deadline deadline = Deadline.after(timeoutMs);
+        if (this.deadline != null) {
+            return until(this.deadline.earliest(deadline));
+        }
+        // compared by difference, nanoTime() may overflow
+        if (this.timeoutNanos - deadline.getDeadlineNanos() < 0) {
+            return until(Deadline.after(this.timeoutNanos - System.nanoTime(),
+                    TimeUnit.NANOSECONDS));
+        }
+        return until(deadline);
+    }
+
+    /**
+     * @return true if the timeout is a deadline set by the caller, that the
+     *         connect and read timeouts must not go beyond
+     */
+    public boolean isStrict() {
+        return this.deadline != null;
+    }
+
+    /**
+     * @return the deadline set by the caller, or null if the Timer is not
+     *         strict
      */
-    private Timer(long timeoutMs) {
-        this.startedTime = System.currentTimeMillis();
-        this.timeoutMs = timeoutMs < 0 ? 0 : timeoutMs;
+    public Deadline getDeadline() {
+        return this.deadline;
     }
 
     /**
      * @return the remaining number of milliseconds before timeout
      */
     public long getRemainingMs() {
-        final long result = this.timeoutMs - (System.currentTimeMillis() - this.startedTime);
-        return result < 0 ? 0 : result;
+        final long result = this.timeoutNanos - System.nanoTime();
+        return result < 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(result);
     }
 
     /**
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket, refilled at a fixed rate up to its burst. A call reserves a
+ * token ahead of time and waits until it is due.
+ * 
+ * @since JSE8
+ */
+final class TokenBucket {
+    private final double tokensPerNano;
+    private final double burst;
+    /** The tokens available, negative if reserved ahead. */
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(double callsPerSecond, int burst) {
+        this.tokensPerNano = callsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Reserves a token.
+     * 
+     * @return the time to wait before using the token, in ns, or -1 if
+     *         more than <code>maxWaitNanos</code>: nothing is reserved
+     */
+    synchronized long reserve(long now, long maxWaitNanos) {
+        final double refill = (now - this.refilledAt) * this.tokensPerNano;
+        this.tokens = Math.min(this.burst, this.tokens + refill);
+        this.refilledAt = now;
+        final long waitNanos =
+                this.tokens >= 1 ? 0 : (long) Math.ceil((1 - this.tokens) / this.tokensPerNano);
+        if (waitNanos > maxWaitNanos) {
+            return -1;
+        }
+        this.tokens--;
+        return waitNanos;
+    }
+
+    /**
+     * @return true if the bucket is full at <code>now</code>, as a new one
+     */
+    synchronized boolean isFull(long now) {
+        return this.tokens + (now - this.refilledAt) * this.tokensPerNano >= this.burst;
+    }
+
+    /** Gives back a reserved token. */
+    synchronized void cancel() {
+        this.tokens = Math.min(this.burst, this.tokens + 1);
+    }
+}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a {@link HttpTransport} when a request could not be completed. The
+ * error code is one of the <code>REQ_*</code> codes of
+ * {@link CreditCardService} and tells in which phase the request failed:
+ * {@link CreditCardService#REQ_CONNECTION_FAILED} if the request was never
+ * sent, {@link CreditCardService#REQ_POST_ERROR} if sending it failed, and
+ * {@link CreditCardService#REQ_RESPONSE_ERROR} if the request was sent but the
+ * response could not be read.
+ * 
+ * @since JSE5
+ */
+public class TransportException extends IOException {
+    private static final long serialVersionUID = -4154393390937164163L;
+
+    private final int errorCode;
+
+    /**
+     * Creates a new instance.
+     * 
+     * @param errorCode
+     *            one of the <code>REQ_*</code> codes of
+     *            {@link CreditCardService}
+     * @param msg
+     *            the error message
+     * @param cause
+     *            the cause, if any
+     */
+    public TransportException(int errorCode, String msg, Throwable cause) {
+        super(msg, cause);
+        this.errorCode = errorCode;
+    }
+
+    /**
+     * @return the <code>REQ_*</code> code of {@link CreditCardService}
+     *         describing the failure
+     */
+    public int getErrorCode() {
+        return this.errorCode;
+    }
+}
@@ -0,0 +1,375 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Answers <code>verifyTransaction</code> from a cache of the transactions in a
+ * final state, rather than from the gateway. Ie.
+ * 
+ * <pre>
+ * service.addInterceptor(new VerificationCacheInterceptor());
+ * </pre>
+ * 
+ * A transaction is final once nothing can change the answer of its
+ * verification:
+ * <ul>
+ * <li>a declined transaction, ie. an answer with a transaction id that is not
+ * approved</li>
+ * <li>an approved transaction processed more than {@link #getSettlementMs()}
+ * ago, by when its batch is closed</li>
+ * </ul>
+ * Answers without a transaction id, ie. of an order the gateway does not know
+ * (yet), and calls that failed without an answer are never cached.
+ * <p>
+ * The final answers are kept by merchant, both by transaction id and by order
+ * id, in primitive <code>long</code> keyed tables, for up to about
+ * {@link #getMaxEntries()} transactions: when the recent table is full, the
+ * older one is dropped and the recent one takes its place, and a hit in the
+ * older table moves the transaction back into the recent one. A verification
+ * in the cache is answered by a new receipt parsed from the cached response.
+ * <p>
+ * A <code>capture</code>, <code>void</code>, <code>reversal</code> or
+ * <code>refund</code> of a transaction through the same interceptor evicts it,
+ * and the answers of the verifications sent meanwhile are not cached. So
+ * does a new transaction for an order id already verified, ie. a
+ * <code>singlePurchase</code> again after a declined one: the order id then
+ * stands for the new transaction.
+ * <p>
+ * Add it before the other interceptors, so that a verification answered from
+ * the cache goes no further. This class is thread-safe.
+ * 
+ * @since JSE8
+ */
+public final class VerificationCacheInterceptor implements GatewayInterceptor {
+    /** The default maximum number of transactions cached is {@value}. */
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+    /** The default number of ms after which an approved transaction is settled is {@value}. */
+    public static final long DEFAULT_SETTLEMENT_MS = 2 * 24 * 60 * 60 * 1000L;
+
+    /** The requests that may change the state of a transaction. */
+    private static final Set<String> CHANGING = new HashSet<String>(Arrays.asList("capture",
+            "void", "reversal", "refund"));
+    /** The requests creating a transaction for their orderId. */
+    private static final Set<String> ORDERS = new HashSet<String>(Arrays.asList(
+            "singlePurchase", "preAuth", "singleCredit", "force", "installmentPurchase"));
+
+    private final int maxEntries;
+    private volatile long settlementMs = DEFAULT_SETTLEMENT_MS;
+    /** Guards the tables. */
+    private final Object lock = new Object();
+    /** The transactions cached since the older table was dropped. Guarded by lock. */
+    private Tables recent;
+    /** The transactions cached before. Guarded by lock. */
+    private Tables older;
+    /** Incremented as a transaction starts and ends changing. */
+    private final AtomicLong changes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates an instance caching up to about {@value #DEFAULT_MAX_ENTRIES}
+     * transactions.
+     */
+    public VerificationCacheInterceptor() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates an instance.
+     * 
+     * @param maxEntries
+     *            the maximum number of transactions cached. Positive.
+     */
+    public VerificationCacheInterceptor(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.recent = new Tables(this.getTableSize());
+        this.older = new Tables(this.getTableSize());
+    }
+
+    /** @return the number of transactions of a table */
+    private int getTableSize() {
+        return (this.maxEntries + 1) / 2;
+    }
+
+    /**
+     * @return the maximum number of transactions cached
+     */
+    public int getMaxEntries() {
+        return this.maxEntries;
+    }
+
+    /**
+     * @return the number of ms after which an approved transaction is settled
+     */
+    public long getSettlementMs() {
+        return this.settlementMs;
+    }
+
+    /**
+     * @param settlementMs
+     *            the number of ms after which an approved transaction is
+     *            settled, ie. the time between the batch closes of the
+     *            merchants and then some. Positive. Defaults to
+     *            {@value #DEFAULT_SETTLEMENT_MS}.
+     */
+    public void setSettlementMs(long settlementMs) {
+        if (settlementMs <= 0) {
+            throw new IllegalArgumentException("settlementMs must be positive");
+        }
+        this.settlementMs = settlementMs;
+    }
+
+    /**
+     * @return the number of transactions cached
+     */
+    public int size() {
+        synchronized (this.lock) {
+            return this.recent.byTransactionId.size() + this.older.byTransactionId.size();
+        }
+    }
+
+    /**
+     * @return the number of verifications answered from the cache
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return the number of verifications sent to the gateway
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Evicts all transactions.
+     */
+    public void clear() {
+        synchronized (this.lock) {
+            this.changes.incrementAndGet();
+            this.recent.clear();
+            this.older.clear();
+        }
+    }
+
+    @Override
+    public AbstractReceipt intercept(Chain chain) {
+        final GatewayRequest request = chain.request();
+        final String code = request.getRequestCode();
+        if ("verifyTransaction".equals(code)) {
+            return this.verify(chain, request);
+        }
+        final Long transactionId;
+        final String orderId;
+        if (CHANGING.contains(code)) {
+            transactionId = parseId(request.getParameter("transactionId"));
+            orderId = request.getParameter("transactionOrderId");
+        } else if (ORDERS.contains(code)) {
+            transactionId = null;
+            orderId = request.getParameter("orderId");
+        } else {
+            return chain.proceed(request);
+        }
+        final String merchantKey = String.valueOf(request.getMerchantKey());
+        this.evict(merchantKey, transactionId, orderId);
+        try {
+            return chain.proceed(request);
+        } finally {
+            // the verifications sent meanwhile may have read either state
+            this.evict(merchantKey, transactionId, orderId);
+        }
+    }
+
+    private AbstractReceipt verify(Chain chain, GatewayRequest request) {
+        final String merchantKey = String.valueOf(request.getMerchantKey());
+        final Long transactionId = parseId(request.getParameter("transactionId"));
+        final String orderId = request.getParameter("transactionOrderId");
+        final CachedAnswer cached;
+        synchronized (this.lock) {
+            cached = this.get(merchantKey, transactionId, orderId);
+        }
+        if (cached != null) {
+            this.hits.increment();
+            return request.getReceiptKind().newReceipt(ResponseFields.parse(cached.response));
+        }
+        this.misses.increment();
+        final long changes = this.changes.get();
+        final AbstractReceipt receipt = chain.proceed(request);
+        if (this.isFinal(receipt)) {
+            final CachedAnswer entry = new CachedAnswer(merchantKey, receipt.getTransactionId(),
+                    receipt.getOrderId() != null ? receipt.getOrderId() : orderId,
+                    receipt.getResponse());
+            synchronized (this.lock) {
+                // not if a transaction changed meanwhile: it may be this one
+                if (this.changes.get() == changes) {
+                    this.put(entry);
+                }
+            }
+        }
+        return receipt;
+    }
+
+    /** @return true if the verification answered by <code>receipt</code> cannot change */
+    private boolean isFinal(AbstractReceipt receipt) {
+        if (receipt.getTransactionId() == null || receipt.getResponse() == null
+                || RetryInterceptor.clientErrorCode(receipt) != 0) {
+            return false;
+        }
+        if (!receipt.isApproved()) {
+            return true;
+        }
+        final Date processed = receipt.getProcessedDateTime();
+        return processed != null
+                && System.currentTimeMillis() - processed.getTime() > this.settlementMs;
+    }
+
+    /** @return the cached answer of the verification, or null. Guarded by lock. */
+    private CachedAnswer get(String merchantKey, Long transactionId, String orderId) {
+        CachedAnswer entry = this.recent.get(merchantKey, transactionId, orderId);
+        if (entry == null) {
+            entry = this.older.get(merchantKey, transactionId, orderId);
+            if (entry != null) {
+                this.older.remove(entry);
+                this.put(entry);
+            }
+        }
+        return entry;
+    }
+
+    /** Guarded by lock. */
+    private void put(CachedAnswer entry) {
+        if (this.recent.byTransactionId.size() >= this.getTableSize()) {
+            this.older = this.recent;
+            this.recent = new Tables(this.getTableSize());
+        }
+        // replaces an answer cached for another merchant with the same id
+        this.recent.remove(this.recent.byTransactionId.get(entry.transactionId));
+        this.older.remove(this.older.byTransactionId.get(entry.transactionId));
+        this.recent.put(entry);
+    }
+
+    private void evict(String merchantKey, Long transactionId, String orderId) {
+        synchronized (this.lock) {
+            this.changes.incrementAndGet();
+            for (final Tables tables : new Tables[] { this.recent, this.older }) {
+                if (transactionId != null) {
+                    tables.remove(tables.byTransactionId.get(transactionId));
+                }
+                if (orderId != null) {
+                    tables.remove(tables.byOrderId.get(orderKey(merchantKey, orderId)));
+                }
+            }
+        }
+    }
+
+    private static Long parseId(String transactionId) {
+        try {
+            return transactionId != null ? Long.valueOf(transactionId) : null;
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return a 64-bit FNV-1a hash of the merchant and order id. Collisions
+     *         are told apart by the entry.
+     */
+    static long orderKey(String merchantKey, String orderId) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < merchantKey.length(); i++) {
+            hash = (hash ^ merchantKey.charAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ ' ') * 0x100000001b3L;
+        for (int i = 0; i < orderId.length(); i++) {
+            hash = (hash ^ orderId.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** The transactions cached, by transaction id and by order id. */
+    private static final class Tables {
+        final LongObjectMap<CachedAnswer> byTransactionId;
+        final LongObjectMap<CachedAnswer> byOrderId;
+
+        Tables(int size) {
+            this.byTransactionId = new LongObjectMap<CachedAnswer>(size);
+            this.byOrderId = new LongObjectMap<CachedAnswer>(size);
+        }
+
+        CachedAnswer get(String merchantKey, Long transactionId, String orderId) {
+            final CachedAnswer entry =
+                    transactionId != null ? this.byTransactionId.get(transactionId)
+                            : this.byOrderId.get(orderKey(merchantKey, orderId));
+            if (entry == null || !entry.merchantKey.equals(merchantKey)
+                    || orderId != null && !orderId.equals(entry.orderId)) {
+                return null;
+            }
+            return entry;
+        }
+
+        void put(CachedAnswer entry) {
+            this.byTransactionId.put(entry.transactionId, entry);
+            if (entry.orderId != null) {
+                final long orderKey = orderKey(entry.merchantKey, entry.orderId);
+                // a colliding order keeps its place, it is found by transaction id
+                if (this.byOrderId.get(orderKey) == null) {
+                    this.byOrderId.put(orderKey, entry);
+                }
+            }
+        }
+
+        /** Removes <code>entry</code> if not null. */
+        void remove(CachedAnswer entry) {
+            if (entry == null) {
+                return;
+            }
+            if (this.byTransactionId.get(entry.transactionId) == entry) {
+                this.byTransactionId.remove(entry.transactionId);
+            }
+            if (entry.orderId != null) {
+                final long orderKey = orderKey(entry.merchantKey, entry.orderId);
+                if (this.byOrderId.get(orderKey) == entry) {
+                    this.byOrderId.remove(orderKey);
+                }
+            }
+        }
+
+        void clear() {
+            this.byTransactionId.clear();
+            this.byOrderId.clear();
+        }
+    }
+
+    /** A cached answer. */
+    private static final class CachedAnswer {
+        final String merchantKey;
+        final long transactionId;
+        final String orderId;
+        final String response;
+
+        CachedAnswer(String merchantKey, long transactionId, String orderId, String response) {
+            this.merchantKey = merchantKey;
+            this.transactionId = transactionId;
+            this.orderId = orderId;
+            this.response = response;
+        }
+    }
+}
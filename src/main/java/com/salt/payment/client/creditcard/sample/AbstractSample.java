@@ -51,7 +51,7 @@ public abstract class AbstractSample {
             merchantId = Integer.parseInt(merchantProp.getProperty("merchant.Id"));
             storageTokenId = merchantProp.getProperty("merchant.storageToken");
             orderId = merchantProp.getProperty("merchant.orderId");
-            url = merchantProp.getProperty("sold.gateway.ur");
+            url = merchantProp.getProperty("sold.gateway.url");
             refundOrderId = merchantProp.getProperty("refund.OrderId");
 
         } catch (Exception e) {
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+
+import org.junit.Test;
+
+public class AbstractCreditCardServiceTest {
+    /** Answers every request with an approval, keeping the last one. */
+    static class RecordingTransport implements HttpTransport {
+        volatile String lastRequest;
+
+        @Override
+        public ResponseFields post(URL url, RequestEncoder request, int connectTimeoutMs,
+                int readTimeoutMs) {
+            this.lastRequest = request.toString();
+            return ResponseFields.parse("APPROVED=true\nTRANSACTION_ID=42\n");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** A subclass written against the StringBuilder requests. */
+    @SuppressWarnings("deprecation")
+    static final class LegacyService extends AbstractCreditCardService {
+        LegacyService(HttpTransport transport) {
+            super("http://localhost/", false, transport);
+        }
+
+        CreditCardReceipt purchase(long amount, String comment) {
+            final StringBuilder req = new StringBuilder();
+            this.appendHeader(req, "singlePurchase");
+            this.appendAmount(req, amount);
+            this.appendParam(req, "comment", comment);
+            return this.send(req);
+        }
+
+        SendResult sendRaw(long amount) {
+            final StringBuilder req = new StringBuilder();
+            this.appendHeader(req, "singlePurchase");
+            this.appendAmount(req, amount);
+            return this.doSend(req);
+        }
+    }
+
+    @Test
+    public void aFailingTransportGivesTheSameReceiptWithOrWithoutInterceptors() {
+        final HttpTransport failing = new RecordingTransport() {
+            @Override
+            public ResponseFields post(URL url, RequestEncoder request, int connectTimeoutMs,
+                    int readTimeoutMs) {
+                throw new IllegalStateException("broken");
+            }
+        };
+        final LegacyService plain = new LegacyService(failing);
+        final LegacyService intercepted = new LegacyService(failing);
+        intercepted.addInterceptor(chain -> chain.proceed(chain.request()));
+        for (final LegacyService service : new LegacyService[] {plain, intercepted}) {
+            final CreditCardReceipt receipt = service.purchase(100, null);
+            assertEquals(String.valueOf(CreditCardService.REQ_POST_ERROR),
+                    receipt.getErrorCode());
+            assertEquals("java.lang.IllegalStateException: broken", receipt.getDebugMessage());
+        }
+    }
+
+    @Test
+    public void stringBuilderRequestsAreStillSent() {
+        final RecordingTransport transport = new RecordingTransport();
+        final LegacyService service = new LegacyService(transport);
+        final GatewayRequest[] seen = new GatewayRequest[1];
+        service.addInterceptor(chain -> {
+            seen[0] = chain.request();
+            return chain.proceed(chain.request());
+        });
+        final CreditCardReceipt receipt = service.purchase(100, "a b");
+        assertTrue(receipt.isApproved());
+        assertEquals(Long.valueOf(42), receipt.getTransactionId());
+        assertEquals("requestCode=singlePurchase&amount=100&comment=a+b", transport.lastRequest);
+        assertEquals("singlePurchase", seen[0].getRequestCode());
+        assertEquals("a b", seen[0].getParameter("comment"));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void theResultOfDoSendKeepsTheResponseString() {
+        final AbstractCreditCardService.SendResult result =
+                new LegacyService(new RecordingTransport()).sendRaw(100);
+        assertEquals("APPROVED=true\nTRANSACTION_ID=42\n", result.response);
+        assertEquals("42", result.fields.get("TRANSACTION_ID"));
+        assertNull(result.errorCode);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void aResultOfAStringIsParsed() {
+        final AbstractCreditCardService.SendResult result =
+                new AbstractCreditCardService.SendResult("APPROVED=true\n", null, null, null);
+        assertEquals("true", result.fields.get("APPROVED"));
+        assertEquals("APPROVED=true\n", result.response);
+    }
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.REQ_CONNECTION_FAILED;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salt.payment.client.creditcard.api.BulkRecurringPurchaseResults.Outcome;
+import com.salt.payment.client.creditcard.api.RetryInterceptorTest.ScriptedTransport;
+
+public class BulkRecurringPurchaseExecutorTest {
+    private static final String APPROVED = "APPROVED=true\nTRANSACTION_ID=9\n"
+            + "STORAGE_TOKEN_EXPIRY=0\n";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ScriptedTransport transport;
+    private BulkRecurringPurchaseExecutor executor;
+
+    @Before
+    public void setUp() throws Exception {
+        this.transport = new ScriptedTransport();
+        final HttpsCreditCardService service = new HttpsCreditCardService(new Merchant(1,
+                "token"), "https://localhost/", true, this.transport);
+        this.executor = new BulkRecurringPurchaseExecutor(service, new File(this.folder.getRoot(),
+                "journal"));
+        this.executor.setParallelism(1);
+        this.executor.setMaxCallsPerSecond(1000);
+    }
+
+    @Test
+    public void aRepeatedIdNotSentIsNotExecutedAgainInTheRun() throws Exception {
+        this.transport.script("recurringPurchase", REQ_CONNECTION_FAILED);
+        final BulkRecurringPurchaseResults results =
+                this.executor.execute(Arrays.asList(1L, 1L).iterator(), null);
+        assertEquals(1, this.transport.sent.size());
+        assertEquals(2, results.getCount(Outcome.NOT_SENT));
+    }
+
+    @Test
+    public void anIdNotSentIsExecutedByTheNextRun() throws Exception {
+        this.transport.script("recurringPurchase", REQ_CONNECTION_FAILED, APPROVED);
+        this.executor.execute(Arrays.asList(1L).iterator(), null);
+        final BulkRecurringPurchaseResults results =
+                this.executor.execute(Arrays.asList(1L, 1L).iterator(), null);
+        assertEquals(2, this.transport.sent.size());
+        assertEquals(Outcome.APPROVED, results.getOutcome(0));
+        assertEquals(Outcome.SKIPPED, results.getOutcome(1));
+    }
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.REQ_CIRCUIT_OPEN;
+import static com.salt.payment.client.creditcard.api.CreditCardService.REQ_POST_ERROR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.salt.payment.client.creditcard.api.CircuitBreakerInterceptor.State;
+import com.salt.payment.client.creditcard.api.RetryInterceptorTest.ScriptedTransport;
+
+public class CircuitBreakerInterceptorTest {
+    private static final String APPROVED = "APPROVED=true\nTRANSACTION_ID=1\n"
+            + "STORAGE_TOKEN_EXPIRY=0\n";
+
+    /** Holds the requests until released, while gated. */
+    private static final class GatedTransport implements HttpTransport {
+        private final HttpTransport transport;
+        private volatile CountDownLatch entered;
+        private volatile CountDownLatch released;
+
+        GatedTransport(HttpTransport transport) {
+            this.transport = transport;
+        }
+
+        void gate(int requests) {
+            this.entered = new CountDownLatch(requests);
+            this.released = new CountDownLatch(1);
+        }
+
+        @Override
+        public ResponseFields post(URL url, RequestEncoder request, int connectTimeoutMs,
+                int readTimeoutMs) throws TransportException {
+            final CountDownLatch release = this.released;
+            if (release != null) {
+                this.entered.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return this.transport.post(url, request, connectTimeoutMs, readTimeoutMs);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private ScriptedTransport transport;
+    private GatedTransport gated;
+    private CircuitBreakerInterceptor breaker;
+    private HttpsCreditCardService service;
+
+    @Before
+    public void setUp() {
+        this.transport = new ScriptedTransport();
+        this.gated = new GatedTransport(this.transport);
+        this.service = new HttpsCreditCardService(new Merchant(1, "token"), "https://localhost/",
+                true, this.gated);
+        this.breaker = new CircuitBreakerInterceptor();
+        this.breaker.setWindowSize(10);
+        this.breaker.setMinimumCalls(4);
+        this.breaker.setTrialCalls(2);
+        this.service.addInterceptor(this.breaker);
+    }
+
+    private CreditCardReceipt purchase() {
+        return this.service.singlePurchase("order-1", new CreditCard(4242424242424242L,
+                (short) 1230), 100, null);
+    }
+
+    private State state() {
+        return this.breaker.getStates().values().iterator().next();
+    }
+
+    /** Opens the circuit by four failed requests. */
+    private void open() {
+        this.transport.script("singlePurchase", REQ_POST_ERROR);
+        for (int i = 0; i < 4; i++) {
+            this.purchase();
+        }
+        assertEquals(State.OPEN, this.state());
+        this.transport.sent.clear();
+    }
+
+    @Test
+    public void opensAtTheFailureRateOnceMinimumCallsAreRecorded() {
+        this.transport.script("singlePurchase", REQ_POST_ERROR, REQ_POST_ERROR, REQ_POST_ERROR,
+                APPROVED);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(String.valueOf(REQ_POST_ERROR), this.purchase().getErrorCode());
+        }
+        // all failed, but fewer than the minimum calls
+        assertEquals(State.CLOSED, this.state());
+        assertTrue(this.purchase().isApproved());
+        // 3 failed of 4, over 50%
+        assertEquals(State.OPEN, this.state());
+    }
+
+    @Test
+    public void staysClosedUnderTheFailureRate() {
+        this.transport.script("singlePurchase", REQ_POST_ERROR, APPROVED, APPROVED, APPROVED,
+                REQ_POST_ERROR, REQ_POST_ERROR);
+        for (int i = 0; i < 5; i++) {
+            this.purchase();
+        }
+        // 2 failed of 5
+        assertEquals(State.CLOSED, this.state());
+        this.purchase();
+        // 3 failed of 6: at the threshold
+        assertEquals(State.OPEN, this.state());
+    }
+
+    @Test
+    public void anOpenCircuitFailsFastWithoutSending() {
+        this.open();
+        final CreditCardReceipt receipt = this.purchase();
+        assertFalse(receipt.isApproved());
+        assertEquals(String.valueOf(REQ_CIRCUIT_OPEN), receipt.getErrorCode());
+        assertTrue(this.transport.sent.isEmpty());
+    }
+
+    @Test
+    public void aHalfOpenCircuitSendsAtMostTheTrialCalls() throws InterruptedException {
+        this.open();
+        this.breaker.setOpenMs(0);
+        this.transport.script("singlePurchase", APPROVED);
+        this.gated.gate(2);
+        final AtomicReference<CreditCardReceipt> first = new AtomicReference<CreditCardReceipt>();
+        final AtomicReference<CreditCardReceipt> second =
+                new AtomicReference<CreditCardReceipt>();
+        final Thread firstTrial = new Thread(() -> first.set(this.purchase()));
+        final Thread secondTrial = new Thread(() -> second.set(this.purchase()));
+        firstTrial.start();
+        secondTrial.start();
+        assertTrue(this.gated.entered.await(5, TimeUnit.SECONDS));
+
+        // both trials are in flight
+        assertEquals(String.valueOf(REQ_CIRCUIT_OPEN), this.purchase().getErrorCode());
+
+        this.gated.released.countDown();
+        firstTrial.join();
+        secondTrial.join();
+        assertTrue(first.get().isApproved());
+        assertTrue(second.get().isApproved());
+        assertEquals(2, this.transport.sent.size());
+    }
+
+    @Test
+    public void closesOnceTheTrialsSucceed() {
+        this.open();
+        this.breaker.setOpenMs(0);
+        this.transport.script("singlePurchase", APPROVED);
+        assertTrue(this.purchase().isApproved());
+        assertEquals(State.HALF_OPEN, this.state());
+        assertTrue(this.purchase().isApproved());
+        assertEquals(State.CLOSED, this.state());
+
+        // the failures before are forgotten
+        this.transport.script("singlePurchase", REQ_POST_ERROR);
+        for (int i = 0; i < 3; i++) {
+            this.purchase();
+        }
+        assertEquals(State.CLOSED, this.state());
+    }
+
+    @Test
+    public void opensAgainOnAFailedTrial() {
+        this.open();
+        this.breaker.setOpenMs(0);
+        this.transport.script("singlePurchase", APPROVED, REQ_POST_ERROR);
+        assertTrue(this.purchase().isApproved());
+        assertEquals(String.valueOf(REQ_POST_ERROR), this.purchase().getErrorCode());
+        this.breaker.setOpenMs(CircuitBreakerInterceptor.DEFAULT_OPEN_MS);
+        assertEquals(State.OPEN, this.state());
+        assertEquals(String.valueOf(REQ_CIRCUIT_OPEN), this.purchase().getErrorCode());
+        assertEquals(2, this.transport.sent.size());
+    }
+}
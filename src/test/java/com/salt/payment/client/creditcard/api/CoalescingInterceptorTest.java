@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.REQ_RESPONSE_ERROR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CoalescingInterceptorTest {
+    /** Answers once released. */
+    static final class GatedTransport implements HttpTransport {
+        final CountDownLatch arrived = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        public ResponseFields post(URL url, RequestEncoder request, int connectTimeoutMs,
+                int readTimeoutMs) throws TransportException {
+            this.arrived.countDown();
+            try {
+                this.gate.await();
+            } catch (final InterruptedException e) {
+                throw new TransportException(REQ_RESPONSE_ERROR, "interrupted", e);
+            }
+            return ResponseFields.parse("APPROVED=true\nTRANSACTION_ID=1\n"
+                    + "STORAGE_TOKEN_EXPIRY=0\n");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private GatedTransport transport;
+    private HttpsCreditCardService service;
+    private CoalescingInterceptor coalescing;
+    private Thread leader;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        this.transport = new GatedTransport();
+        this.service = new HttpsCreditCardService(new Merchant(1, "token"), "https://localhost/",
+                true, this.transport);
+        this.coalescing = new CoalescingInterceptor();
+        this.service.addInterceptor(this.coalescing);
+        this.leader = new Thread(() -> this.service.verifyTransaction(1L, null));
+        this.leader.start();
+        this.transport.arrived.await();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        this.transport.gate.countDown();
+        this.leader.join();
+    }
+
+    @Test
+    public void anInterruptedQueryGivesUp() throws InterruptedException {
+        final AtomicReference<CreditCardReceipt> receipt = new AtomicReference<CreditCardReceipt>();
+        final AtomicReference<Boolean> interrupted = new AtomicReference<Boolean>();
+        final Thread follower = new Thread(() -> {
+            receipt.set(this.service.verifyTransaction(1L, null));
+            interrupted.set(Thread.currentThread().isInterrupted());
+        });
+        follower.start();
+        while (this.coalescing.getCoalescedCount() == 0) {
+            Thread.sleep(10);
+        }
+        follower.interrupt();
+        follower.join();
+        assertEquals(String.valueOf(REQ_RESPONSE_ERROR), receipt.get().getErrorCode());
+        assertTrue(interrupted.get());
+    }
+
+    @Test
+    public void aQueryWithoutADeadlineWaitsForTheMaximum() {
+        this.coalescing.setMaxWaitMs(100);
+        final CreditCardReceipt receipt = this.service.verifyTransaction(1L, null);
+        assertEquals(String.valueOf(REQ_RESPONSE_ERROR), receipt.getErrorCode());
+        assertEquals(1, this.coalescing.getCoalescedCount());
+    }
+
+    @Test
+    public void aQueryGetsTheAnswerInFlight() throws InterruptedException {
+        final AtomicReference<CreditCardReceipt> receipt = new AtomicReference<CreditCardReceipt>();
+        final Thread follower =
+                new Thread(() -> receipt.set(this.service.verifyTransaction(1L, null)));
+        follower.start();
+        while (this.coalescing.getCoalescedCount() == 0) {
+            Thread.sleep(10);
+        }
+        this.transport.gate.countDown();
+        follower.join();
+        assertTrue(receipt.get().isApproved());
+        assertEquals(1, this.coalescing.getCallCount());
+    }
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks that {@link DateCodec} gives the results of a
+ * {@link SimpleDateFormat}, in the default time zone of the time.
+ */
+public class DateCodecTest {
+    private static final String[] ZONES = {"UTC", "America/New_York", "Europe/Paris",
+            "Asia/Kolkata", "Australia/Lord_Howe", "America/Sao_Paulo"};
+    /**
+     * 1970-01-01 to 2100-01-01: earlier, TimeZone and java.time disagree on
+     * the local mean time of some zones.
+     */
+    private static final long MIN_MILLIS = 0L;
+    private static final long MAX_MILLIS = 4102444800000L;
+
+    private final TimeZone defaultZone = TimeZone.getDefault();
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(this.defaultZone);
+    }
+
+    private static String format(String pattern, Date date) {
+        return new SimpleDateFormat(pattern).format(date);
+    }
+
+    private static String formatDate(Date date, boolean dashes) {
+        final byte[] bytes = new byte[DateCodec.MAX_DATE_LENGTH];
+        final int end = DateCodec.formatDate(date, dashes, bytes, 0);
+        return new String(bytes, 0, end);
+    }
+
+    /** @return true if the local time is not in a gap or an overlap */
+    private static boolean isUnambiguous(LocalDateTime dateTime) {
+        return ZoneId.systemDefault().getRules().getValidOffsets(dateTime).size() == 1;
+    }
+
+    @Test
+    public void formatsAsSimpleDateFormat() {
+        final Random random = new Random(42);
+        for (final String zone : ZONES) {
+            TimeZone.setDefault(TimeZone.getTimeZone(zone));
+            for (int n = 0; n < 5000; n++) {
+                final Date date = new Date(MIN_MILLIS
+                        + (long) (random.nextDouble() * (MAX_MILLIS - MIN_MILLIS)));
+                assertEquals(zone, format("yyyy-MM-dd", date), formatDate(date, true));
+                assertEquals(zone, format("yyyyMMdd", date), formatDate(date, false));
+                final StringBuilder sb = new StringBuilder();
+                DateCodec.appendCompactDate(sb, date);
+                DateCodec.appendTime(sb, date);
+                assertEquals(zone, format("yyyyMMddHHmmss", date), sb.toString());
+            }
+        }
+    }
+
+    @Test
+    public void parsesAsSimpleDateFormat() throws ParseException {
+        final Random random = new Random(42);
+        final int thisYear = LocalDateTime.now().getYear();
+        for (final String zone : ZONES) {
+            TimeZone.setDefault(TimeZone.getTimeZone(zone));
+            for (int n = 0; n < 5000; n++) {
+                final int year = 1970 + random.nextInt(130);
+                final int month = 1 + random.nextInt(12);
+                final int day = 1 + random.nextInt(28);
+                final String date = String.format("%04d-%02d-%02d", year, month, day);
+                if (isUnambiguous(LocalDateTime.of(year, month, day, 0, 0))) {
+                    assertEquals(date, new SimpleDateFormat("yyyy-MM-dd").parse(date),
+                            DateCodec.parseDate(date));
+                }
+                final int yy = random.nextInt(100);
+                final int hour = random.nextInt(24);
+                final int minute = random.nextInt(60);
+                final int second = random.nextInt(60);
+                final String processedDate = String.format("%02d%02d%02d", yy, month, day);
+                final String processedTime = String.format("%02d%02d%02d", hour, minute, second);
+                final Date expected = new SimpleDateFormat("yyMMddHHmmss")
+                        .parse(processedDate + processedTime);
+                final int expectedYear = expected.toInstant().atZone(ZoneId.systemDefault())
+                        .getYear();
+                // the year of the window boundary depends on the day with
+                // SimpleDateFormat, on the year only here
+                if (expectedYear >= 1970 && expectedYear != thisYear + 20
+                        && isUnambiguous(LocalDateTime.of(expectedYear, month, day, hour,
+                                minute, second))) {
+                    assertEquals(processedDate + processedTime, expected,
+                            DateCodec.parseProcessedDateTime(processedDate, processedTime));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parsesLeniently() throws ParseException {
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        for (final String date : new String[] {"2014-13-01", "2014-02-30", "2014-1-5",
+                "2014-00-00"}) {
+            assertEquals(date, new SimpleDateFormat("yyyy-MM-dd").parse(date),
+                    DateCodec.parseDate(date));
+        }
+        assertEquals(new SimpleDateFormat("yyMMddHHmmss").parse("141231240000"),
+                DateCodec.parseProcessedDateTime("141231", "240000"));
+    }
+
+    @Test
+    public void rejectsWhatIsNotADate() {
+        for (final String date : new String[] {"", "2014", "2014/01/01", "abcd-ef-gh"}) {
+            try {
+                DateCodec.parseDate(date);
+                fail(date);
+            } catch (final ParseException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void followsTheDefaultZone() {
+        final Date date = new Date(1400000000000L);
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+        final StringBuilder east = new StringBuilder();
+        DateCodec.appendTime(east, date);
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Pago_Pago"));
+        final StringBuilder west = new StringBuilder();
+        DateCodec.appendTime(west, date);
+        assertEquals(format("HHmmss", date), west.toString());
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+        assertEquals(format("HHmmss", date), east.toString());
+    }
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.REQ_CONNECTION_FAILED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeadlineTest {
+    /** Records the timeouts of the latest request, and approves it. */
+    private static final class RecordingTransport implements HttpTransport {
+        int sent = 0;
+        int connectTimeoutMs;
+        int readTimeoutMs;
+        Deadline deadline;
+
+        @Override
+        public ResponseFields post(URL url, RequestEncoder request, int connectTimeoutMs,
+                int readTimeoutMs) throws TransportException {
+            this.sent++;
+            this.connectTimeoutMs = connectTimeoutMs;
+            this.readTimeoutMs = readTimeoutMs;
+            this.deadline = Deadline.current();
+            return ResponseFields.parse("APPROVED=true\nTRANSACTION_ID=1\n"
+                    + "STORAGE_TOKEN_EXPIRY=0\n");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private RecordingTransport transport;
+    private HttpsCreditCardService service;
+
+    @Before
+    public void setUp() {
+        this.transport = new RecordingTransport();
+        this.service = new HttpsCreditCardService(new Merchant(1, "token"), "https://localhost/",
+                true, this.transport);
+    }
+
+    @After
+    public void tearDown() {
+        // no scope left open by a failed test
+        assertNull(Deadline.current());
+    }
+
+    private CreditCardReceipt purchase() {
+        return this.service.singlePurchase("order-1", new CreditCard(4242424242424242L,
+                (short) 1230), 100, null);
+    }
+
+    @Test
+    public void nestedScopesKeepTheEarliestDeadline() {
+        final Deadline outer = Deadline.after(1000);
+        try (Deadline.Scope outerScope = outer.enter()) {
+            try (Deadline.Scope later = Deadline.after(60000).enter()) {
+                assertSame(outer, Deadline.current());
+            }
+            final Deadline earlier = Deadline.after(100);
+            try (Deadline.Scope inner = earlier.enter()) {
+                assertSame(earlier, Deadline.current());
+            }
+            assertSame(outer, Deadline.current());
+        }
+    }
+
+    @Test
+    public void closingAScopeRestoresThePreviousDeadline() {
+        final Deadline outer = Deadline.after(1000);
+        final Deadline.Scope outerScope = outer.enter();
+        final Deadline.Scope inner = Deadline.after(10).enter();
+        inner.close();
+        assertSame(outer, Deadline.current());
+        // closed again: nothing changes
+        inner.close();
+        assertSame(outer, Deadline.current());
+        outerScope.close();
+        assertNull(Deadline.current());
+    }
+
+    @Test
+    public void theRemainingTimeIsNeverNegative() {
+        final Deadline expired = Deadline.after(-5);
+        assertTrue(expired.isExpired());
+        assertEquals(0, expired.getRemainingMs());
+        final Deadline far = Deadline.after(Long.MAX_VALUE, TimeUnit.DAYS);
+        assertFalse(far.isExpired());
+        assertTrue(far.getRemaining(TimeUnit.DAYS) > 365 * 100);
+        assertSame(expired, far.earliest(expired));
+        assertSame(expired, expired.earliest(far));
+    }
+
+    @Test
+    public void aTimerWithinATimeoutTimesOutAtTheEarliest() {
+        final Timer lenient = Timer.start(60000);
+        assertFalse(lenient.isStrict());
+        final Timer within = lenient.within(100);
+        assertTrue(within.isStrict());
+        assertTrue(within.getRemainingMs() <= 100);
+
+        final Timer strict = Timer.until(Deadline.after(50));
+        assertTrue(strict.within(60000).getRemainingMs() <= 50);
+        assertTrue(Timer.start(-1).isTimedOut());
+        assertEquals(30000, Timer.start(-1).getRemainingMs(30000));
+    }
+
+    @Test
+    public void anExpiredDeadlineFailsWithoutSending() {
+        try (Deadline.Scope scope = Deadline.after(0).enter()) {
+            final CreditCardReceipt receipt = this.purchase();
+            assertFalse(receipt.isApproved());
+            assertEquals(String.valueOf(REQ_CONNECTION_FAILED), receipt.getErrorCode());
+        }
+        assertEquals(0, this.transport.sent);
+    }
+
+    @Test
+    public void theTimeoutsAreTheTimeLeftBeforeTheDeadline() {
+        final Deadline deadline = Deadline.after(2000);
+        try (Deadline.Scope scope = deadline.enter()) {
+            assertTrue(this.purchase().isApproved());
+            // the transport sees the deadline, and it is still in force
+            assertSame(deadline, this.transport.deadline);
+            assertSame(deadline, Deadline.current());
+        }
+        // not raised to the minimum read timeout
+        assertTrue(String.valueOf(this.transport.connectTimeoutMs),
+                this.transport.connectTimeoutMs > 1000 && this.transport.connectTimeoutMs <= 2000);
+        assertTrue(String.valueOf(this.transport.readTimeoutMs),
+                this.transport.readTimeoutMs > 1000 && this.transport.readTimeoutMs <= 2000);
+    }
+
+    @Test
+    public void withoutADeadlineTheTimeoutsAreTheDefaults() {
+        assertTrue(this.purchase().isApproved());
+        assertNull(this.transport.deadline);
+        final int timeoutMs = AbstractCreditCardService.CONNECTION_TIMEOUT_MS_BUFFER;
+        assertTrue(this.transport.connectTimeoutMs > timeoutMs - 1000
+                && this.transport.connectTimeoutMs <= timeoutMs);
+        assertTrue(this.transport.readTimeoutMs > timeoutMs - 1000
+                && this.transport.readTimeoutMs <= timeoutMs);
+    }
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.salt.payment.client.creditcard.api.CallTimings.Phase;
+
+public class GatewayMetricsTest {
+    /** Goes through the phases of a call, waiting 20 ms for the response. */
+    private static final class PhasedTransport implements HttpTransport {
+        String response = "APPROVED=true\nSTORAGE_TOKEN_ID=tok-1\n";
+
+        @Override
+        public ResponseFields post(URL url, RequestEncoder request, int connectTimeoutMs,
+                int readTimeoutMs) throws TransportException {
+            return ResponseFields.parse(this.response);
+        }
+
+        @Override
+        public ResponseFields post(URL url, RequestEncoder request, int connectTimeoutMs,
+                int readTimeoutMs, CallTimings timings) throws TransportException {
+            timings.connected(true);
+            timings.requestWritten();
+            try {
+                Thread.sleep(20);
+            } catch (final InterruptedException e) {
+                throw new TransportException(CreditCardService.REQ_RESPONSE_ERROR,
+                        "interrupted", e);
+            }
+            timings.responseStarted();
+            return this.post(url, request, connectTimeoutMs, readTimeoutMs);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private PhasedTransport transport;
+    private GatewayMetrics metrics;
+    private HttpsCreditCardService service;
+
+    @Before
+    public void setUp() {
+        this.transport = new PhasedTransport();
+        this.metrics = new GatewayMetrics();
+        this.service = new HttpsCreditCardService(new Merchant(1, "token"), "https://localhost/",
+                true, this.transport);
+        this.service.setMetricsRecorder(this.metrics);
+    }
+
+    @Test
+    public void aCallIsRecordedByPhaseUnderItsName() {
+        assertTrue(this.service.queryStorage("tok-1").isApproved());
+
+        assertEquals(Arrays.asList("secureStorage/query"),
+                new ArrayList<String>(this.metrics.getRequestMetrics().keySet()));
+        final RequestMetrics query = this.metrics.getRequestMetrics().get("secureStorage/query");
+        assertEquals("secureStorage", query.getRequestCode());
+        assertEquals("query", query.getOperationCode());
+        assertEquals(1, query.getCount());
+        assertEquals(1, query.getApprovedCount());
+        assertEquals(0, query.getErrorCount());
+        assertEquals(1, query.getReusedConnectionCount());
+        for (final Phase phase : Phase.values()) {
+            assertEquals(phase.name(), 1, query.getHistogram(phase).getCount());
+        }
+        // in microseconds
+        final long waitedMicros = query.getHistogram(Phase.TIME_TO_FIRST_BYTE).getMax();
+        assertTrue(String.valueOf(waitedMicros), waitedMicros >= 20000);
+        assertTrue(query.getHistogram(Phase.TOTAL).getMax() >= waitedMicros);
+    }
+
+    @Test
+    public void theDeclinesAreCountedByErrorCode() {
+        this.transport.response = "APPROVED=false\nERROR_CODE=51\n";
+        this.service.queryStorage("tok-1");
+        this.service.queryStorage("tok-1");
+        this.service.deleteFromStorage("tok-1");
+
+        final RequestMetrics query = this.metrics.getRequestMetrics().get("secureStorage/query");
+        assertEquals(2, query.getCount());
+        assertEquals(0, query.getApprovedCount());
+        assertEquals(Collections.singletonMap("51", 2L), query.getErrorCodeCounts());
+        assertEquals(1, this.metrics.getRequestMetrics().get("secureStorage/delete").getCount());
+    }
+
+    @Test
+    public void aCallWithoutRequestCodeIsUnknown() {
+        final CallTimings timings = new CallTimings();
+        timings.ended();
+        this.metrics.record(null, null, timings, new StorageReceipt("APPROVED=true\n"));
+        final RequestMetrics unknown = this.metrics.getRequestMetrics().get("unknown");
+        assertEquals(1, unknown.getCount());
+        // the phases the call did not go through are not recorded
+        assertEquals(0, unknown.getHistogram(Phase.CONNECT).getCount());
+        assertEquals(1, unknown.getHistogram(Phase.TOTAL).getCount());
+    }
+
+    @Test
+    public void aListenerIsNotifiedOnceOfEachName() {
+        this.service.queryStorage("tok-1");
+        final List<String> added = new ArrayList<String>();
+        this.metrics.addListener(metrics -> added.add(metrics.getName()));
+        this.service.queryStorage("tok-1");
+        this.service.deleteFromStorage("tok-1");
+        this.service.deleteFromStorage("tok-1");
+        assertEquals(Arrays.asList("secureStorage/query", "secureStorage/delete"), added);
+    }
+}
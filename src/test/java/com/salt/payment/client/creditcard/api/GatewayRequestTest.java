@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GatewayRequestTest {
+    private static GatewayRequest request(Timer timer) {
+        final RequestEncoder encoder = new RequestEncoder().param("requestCode", "singlePurchase")
+                .param("amount", 100L);
+        encoder.setRequestCode("singlePurchase");
+        return new GatewayRequest("http://localhost/", null, encoder,
+                GatewayRequest.ReceiptKind.CREDIT_CARD, timer);
+    }
+
+    @Test
+    public void changingTheEncoderDoesNotChangeTheRequest() {
+        final GatewayRequest request = request(Timer.start(60000));
+        final RequestEncoder encoder = request.getEncoder();
+        assertEquals("requestCode=singlePurchase&amount=100", encoder.toString());
+        encoder.param("amount", 1L);
+        assertEquals("100", request.getParameter("amount"));
+        assertEquals("requestCode=singlePurchase&amount=100", request.getEncoder().toString());
+    }
+
+    @Test
+    public void aShorterTimeoutIsKept() {
+        final GatewayRequest request = request(Timer.until(Deadline.after(60000)));
+        final long remainingMs = request.withTimeoutMs(1000).getRemainingMs();
+        assertTrue(remainingMs > 0 && remainingMs <= 1000);
+        assertTrue(request.withTimeoutMs(1000).getTimer().isStrict());
+    }
+
+    @Test
+    public void aLongerTimeoutIsClampedToTheDeadline() {
+        final GatewayRequest request = request(Timer.until(Deadline.after(500)));
+        assertTrue(request.withTimeoutMs(60000).getRemainingMs() <= 500);
+    }
+
+    @Test
+    public void aLongerTimeoutIsClampedToTheTimer() {
+        final GatewayRequest request = request(Timer.start(500));
+        final GatewayRequest copy = request.withTimeoutMs(60000);
+        assertTrue(copy.getTimer().isStrict());
+        assertTrue(copy.getRemainingMs() <= 500);
+    }
+}
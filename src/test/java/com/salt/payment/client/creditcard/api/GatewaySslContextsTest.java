@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyStore;
+
+import javax.net.ssl.SSLContext;
+
+import org.junit.Test;
+
+public class GatewaySslContextsTest {
+    @Test
+    public void theBundledTrustStoreIsOnTheClasspath() throws Exception {
+        final KeyStore trustStore = GatewaySslContexts.loadBundledTrustStore();
+        assertTrue(trustStore.isCertificateEntry("test.salt.com-1"));
+    }
+
+    @Test
+    public void theDefaultContextTrustsTheBundledTrustStore() throws Exception {
+        final SSLContext context = GatewaySslContexts.newSslContext(10);
+        assertEquals(10, context.getClientSessionContext().getSessionCacheSize());
+    }
+}
@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.REQ_POST_ERROR;
+import static com.salt.payment.client.creditcard.api.CreditCardService.REQ_RESPONSE_ERROR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HedgingInterceptorTest {
+    /**
+     * Approves each request with its number as transaction id, after the
+     * scripted delay in ms if any, or throws the scripted Error.
+     */
+    private static final class DelayingTransport implements HttpTransport {
+        private final Deque<Object> script = new ArrayDeque<Object>();
+        final AtomicInteger sent = new AtomicInteger();
+
+        DelayingTransport then(Object answer, int times) {
+            synchronized (this.script) {
+                for (int i = 0; i < times; i++) {
+                    this.script.add(answer);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public ResponseFields post(URL url, RequestEncoder request, int connectTimeoutMs,
+                int readTimeoutMs) throws TransportException {
+            final int n = this.sent.incrementAndGet();
+            final Object answer;
+            synchronized (this.script) {
+                answer = this.script.poll();
+            }
+            if (answer instanceof Error) {
+                throw (Error) answer;
+            }
+            if (answer != null) {
+                try {
+                    Thread.sleep((Long) answer);
+                } catch (final InterruptedException e) {
+                    throw new TransportException(REQ_RESPONSE_ERROR, "interrupted", e);
+                }
+            }
+            return ResponseFields.parse("APPROVED=true\nTRANSACTION_ID=" + n
+                    + "\nSTORAGE_TOKEN_EXPIRY=0\n");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final long SLOW = 50;
+    private static final long HELD = 10000;
+
+    private ExecutorService executor;
+    private DelayingTransport transport;
+    private HedgingInterceptor hedging;
+    private HttpsCreditCardService service;
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            thread.setUncaughtExceptionHandler((t, e) -> {
+                // expected by anErrorOfACopyEndsTheQuery
+            });
+            return thread;
+        });
+        this.transport = new DelayingTransport();
+        this.service = new HttpsCreditCardService(new Merchant(1, "token"), "https://localhost/",
+                true, this.transport);
+        this.hedging = new HedgingInterceptor(this.executor);
+        this.hedging.setMinDelayMs(5);
+        this.service.addInterceptor(this.hedging);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    private CreditCardReceipt query() {
+        return this.service.verifyTransaction("order-1");
+    }
+
+    /** Sends the queries answered before any is hedged. */
+    private void warmUp() {
+        for (int i = 0; i < HedgingInterceptor.MIN_SAMPLES; i++) {
+            assertTrue(this.query().isApproved());
+        }
+        assertEquals(HedgingInterceptor.MIN_SAMPLES, this.transport.sent.get());
+    }
+
+    @Test
+    public void noQueryIsHedgedBeforeMinSamplesAnswered() {
+        this.transport.then(0L, HedgingInterceptor.MIN_SAMPLES - 1).then(SLOW, 1);
+        this.warmUp();
+        assertEquals(0, this.hedging.getHedgeCount());
+        assertTrue(this.hedging.getDelaysMs().containsKey("verifyTransaction"));
+
+        // the next slow one is
+        this.transport.then(SLOW, 2);
+        assertTrue(this.query().isApproved());
+        assertEquals(1, this.hedging.getHedgeCount());
+    }
+
+    @Test
+    public void aQueryIsHedgedAfterThePercentileAndTheHedgeAnswerTaken() {
+        this.hedging.setMinDelayMs(0);
+        this.hedging.setPercentile(90);
+        // 90% at 0 ms, the others at 20 ms
+        this.transport.then(0L, 89).then(20L, 11);
+        this.warmUp();
+        final long delayMs = this.hedging.getDelaysMs().get("verifyTransaction");
+        assertTrue(String.valueOf(delayMs), delayMs >= 19 && delayMs <= 100);
+
+        this.transport.then(HELD, 1);
+        final long start = System.nanoTime();
+        final CreditCardReceipt receipt = this.query();
+        final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(receipt.isApproved());
+        // the query held is the 101st request, its hedge the 102nd
+        assertEquals(Long.valueOf(102), receipt.getTransactionId());
+        assertTrue(String.valueOf(elapsedMs), elapsedMs >= delayMs && elapsedMs < HELD);
+        assertEquals(1, this.hedging.getHedgeCount());
+        assertEquals(1, this.hedging.getHedgeWinCount());
+    }
+
+    @Test
+    public void theBudgetCapsTheHedges() {
+        this.hedging.setMaxHedgeRatio(0.5);
+        this.warmUp();
+        // the budget is full: MAX_BURST hedges, then one per 2 queries
+        final int queries = 20;
+        this.transport.then(SLOW, 2 * queries);
+        for (int i = 0; i < queries; i++) {
+            assertTrue(this.query().isApproved());
+        }
+        assertEquals(19, this.hedging.getHedgeCount());
+        assertTrue(this.hedging.getHedgeCount() <= HedgingInterceptor.MAX_BURST
+                + queries * this.hedging.getMaxHedgeRatio());
+    }
+
+    @Test
+    public void otherRequestsAreNeverHedged() {
+        this.warmUp();
+        this.transport.then(SLOW, 1);
+        final CreditCardReceipt receipt = this.service.singlePurchase("order-1",
+                new CreditCard(4242424242424242L, (short) 1230), 100, null);
+        assertTrue(receipt.isApproved());
+        assertEquals(HedgingInterceptor.MIN_SAMPLES + 1, this.transport.sent.get());
+        assertEquals(0, this.hedging.getHedgeCount());
+        assertFalse(this.hedging.getDelaysMs().containsKey("singlePurchase"));
+    }
+
+    @Test(timeout = 5000)
+    public void anErrorOfACopyEndsTheQuery() {
+        this.warmUp();
+        // the query, and its hedge if sent by the time the query failed
+        this.transport.then(new AssertionError("scripted"), 2);
+        final CreditCardReceipt receipt = this.query();
+        assertFalse(receipt.isApproved());
+        assertEquals(String.valueOf(REQ_POST_ERROR), receipt.getErrorCode());
+    }
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    /** The values of a bucket are within 1/64 of each other. */
+    private static final double PRECISION = 0.016;
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        final String message = "expected " + expected + " but was " + actual;
+        assertTrue(message, actual >= expected);
+        assertTrue(message, actual - expected <= expected * PRECISION);
+    }
+
+    @Test
+    public void anEmptyHistogramIsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void theSmallValuesAreExact() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int v = 0; v < 128; v++) {
+            histogram.record(v);
+        }
+        assertEquals(0, histogram.getValueAtPercentile(0));
+        assertEquals(63, histogram.getValueAtPercentile(50));
+        assertEquals(127, histogram.getValueAtPercentile(100));
+        assertEquals(63.5, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void theValuesAtTheBucketEdgesAreWithinThePrecision() {
+        for (int bit = 7; bit < 63; bit++) {
+            final long power = 1L << bit;
+            for (final long value : new long[] { power - 1, power, power + 1,
+                    power + (power >> 6) - 1, power + (power >> 6) }) {
+                final LatencyHistogram histogram = new LatencyHistogram();
+                histogram.record(value);
+                // so that the value at the percentile is not cut to the max
+                histogram.record(Long.MAX_VALUE);
+                assertWithinPrecision(value, histogram.getValueAtPercentile(50));
+            }
+        }
+    }
+
+    @Test
+    public void theHighestValueIsRecorded() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(1, histogram.getCount());
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void aNegativeValueCountsAsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MIN_VALUE);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(100));
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void thePercentilesAreWithinThePrecision() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int v = 1; v <= 100000; v++) {
+            histogram.record(v);
+        }
+        assertWithinPrecision(50000, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(90000, histogram.getValueAtPercentile(90));
+        assertWithinPrecision(99000, histogram.getValueAtPercentile(99));
+        assertWithinPrecision(99900, histogram.getValueAtPercentile(99.9));
+        // never more than the max
+        assertEquals(100000, histogram.getValueAtPercentile(100));
+        assertEquals(50000.5, histogram.getMean(), 0);
+    }
+}
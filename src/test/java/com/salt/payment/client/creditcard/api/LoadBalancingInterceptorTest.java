@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.REQ_RESPONSE_ERROR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LoadBalancingInterceptorTest {
+    /** Loses the responses of purchases and approves the lookups. */
+    static final class RecordingTransport implements HttpTransport {
+        final List<String> sent = new ArrayList<String>();
+
+        @Override
+        public synchronized ResponseFields post(URL url, RequestEncoder request,
+                int connectTimeoutMs, int readTimeoutMs) throws TransportException {
+            this.sent.add(request.getRequestCode() + " " + url.getHost());
+            if ("singlePurchase".equals(request.getRequestCode())) {
+                throw new TransportException(REQ_RESPONSE_ERROR, "read timed out", null);
+            }
+            return ResponseFields.parse("APPROVED=true\nTRANSACTION_ID=7\nORDER_ID=order\n"
+                    + "STORAGE_TOKEN_EXPIRY=0\n");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void aLookupByOrderIdGoesWhereThePurchaseWent() {
+        final RecordingTransport transport = new RecordingTransport();
+        final HttpsCreditCardService service = new HttpsCreditCardService(new Merchant(1,
+                "token"), "https://a/", true, transport);
+        service.addInterceptor(new RetryInterceptor(3, 10, 40, 500));
+        service.addInterceptor(new LoadBalancingInterceptor("https://a/", "https://b/",
+                "https://c/"));
+        for (int i = 0; i < 30; i++) {
+            transport.sent.clear();
+            final CreditCardReceipt receipt = service.singlePurchase("order-" + i,
+                    new CreditCard(4242424242424242L, (short) 1230), 100, null);
+            assertTrue(receipt.isApproved());
+            assertEquals(2, transport.sent.size());
+            final String host = transport.sent.get(0).substring("singlePurchase ".length());
+            assertEquals("verifyTransaction " + host, transport.sent.get(1));
+        }
+    }
+}
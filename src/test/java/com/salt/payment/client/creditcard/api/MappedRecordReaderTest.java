@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedRecordReaderTest {
+    private static final byte[] BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(byte[]... parts) throws IOException {
+        final File file = this.folder.newFile();
+        int length = 0;
+        for (final byte[] part : parts) {
+            length += part.length;
+        }
+        final byte[] bytes = new byte[length];
+        int offset = 0;
+        for (final byte[] part : parts) {
+            System.arraycopy(part, 0, bytes, offset, part.length);
+            offset += part.length;
+        }
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> read(File file, boolean quoted, int windowSize)
+            throws IOException {
+        final List<String> records = new ArrayList<String>();
+        final MappedRecordReader reader = new MappedRecordReader(file, quoted, windowSize);
+        try {
+            String record;
+            while ((record = reader.next()) != null) {
+                records.add(record);
+            }
+            assertNull(reader.next());
+        } finally {
+            reader.close();
+        }
+        return records;
+    }
+
+    @Test
+    public void aLineEndWithinQuotesIsPartOfTheRecord() throws IOException {
+        final File file = this.write(utf8("a,\"b\nc\",d\ne\n"));
+        assertEquals(Arrays.asList("a,\"b\nc\",d", "e"), read(file, true, 1024));
+        assertEquals(Arrays.asList("a,\"b", "c\",d", "e"), read(file, false, 1024));
+    }
+
+    @Test
+    public void theByteOrderMarkAndCarriageReturnsAreSkipped() throws IOException {
+        final File file = this.write(BOM, utf8("a\r\n\r\nb\r\nc"));
+        assertEquals(Arrays.asList("a", "", "b", "c"), read(file, false, 1024));
+    }
+
+    @Test
+    public void anEmptyFileHasNoRecord() throws IOException {
+        assertEquals(Arrays.asList(), read(this.write(), true, 1024));
+        assertEquals(Arrays.asList(), read(this.write(BOM), true, 1024));
+    }
+
+    @Test
+    public void aRecordAcrossTheWindowIsRead() throws IOException {
+        final List<String> expected = new ArrayList<String>();
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            // 13 bytes with the line end: the windows of 16 end within most
+            final String record = "r\u00e9cord-" + (i < 10 ? "0" : "") + i;
+            expected.add(record);
+            text.append(record).append("\r\n");
+        }
+        final File file = this.write(BOM, utf8(text.toString()));
+        assertEquals(expected, read(file, false, 16));
+        assertEquals(expected, read(file, true, 16));
+    }
+
+    @Test
+    public void aQuotedRecordAcrossTheWindowIsRead() throws IOException {
+        final File file = this.write(utf8("1,\"a\nb\"\n2,\"c,\nd\"\n"));
+        assertEquals(Arrays.asList("1,\"a\nb\"", "2,\"c,\nd\""), read(file, true, 10));
+    }
+
+    @Test
+    public void aRecordLongerThanTheWindowFails() throws IOException {
+        final File file = this.write(utf8("short\na record of 20 b\n"));
+        final MappedRecordReader reader = new MappedRecordReader(file, false, 8);
+        try {
+            assertEquals("short", reader.next());
+            reader.next();
+            fail("the record is longer than the window");
+        } catch (final IOException e) {
+            assertEquals("a record at byte 6 is longer than 8 bytes", e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.REQ_RESPONSE_ERROR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PooledHttpTransportTest {
+    private ServerSocket server;
+    private Thread acceptor;
+    /** The response written to every request. */
+    private volatile String response;
+    private PooledHttpTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new ServerSocket(0);
+        this.acceptor = new Thread(() -> {
+            while (!this.server.isClosed()) {
+                try (Socket s = this.server.accept()) {
+                    readRequest(s.getInputStream());
+                    final OutputStream out = s.getOutputStream();
+                    out.write(this.response.getBytes("ISO-8859-1"));
+                    out.flush();
+                } catch (final IOException e) {
+                    // closed
+                }
+            }
+        });
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+        this.transport = new PooledHttpTransport(2, 30000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.transport.close();
+        this.server.close();
+        this.acceptor.join(5000);
+    }
+
+    /** Reads the headers of a request and its body, as long as Content-Length. */
+    private static void readRequest(InputStream in) throws IOException {
+        final StringBuilder headers = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            headers.append((char) b);
+            if (headers.length() >= 4 && headers.lastIndexOf("\r\n\r\n") == headers.length() - 4) {
+                break;
+            }
+        }
+        final String lower = headers.toString().toLowerCase();
+        final int i = lower.indexOf("content-length:");
+        if (i >= 0) {
+            final int n = Integer.parseInt(lower.substring(i + 15, lower.indexOf('\r', i)).trim());
+            for (int read = 0; read < n && in.read() != -1; read++) {
+            }
+        }
+    }
+
+    private void assertResponseError() throws IOException {
+        try {
+            this.transport.post(new URL("http://localhost:" + this.server.getLocalPort() + "/"),
+                    new RequestEncoder().param("a", "b"), 5000, 5000);
+            fail("no error");
+        } catch (final TransportException e) {
+            assertEquals(REQ_RESPONSE_ERROR, e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void headersCutShortAreAResponseError() throws IOException {
+        this.response = "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n";
+        this.assertResponseError();
+    }
+
+    @Test
+    public void interimHeadersCutShortAreAResponseError() throws IOException {
+        this.response = "HTTP/1.1 100 Continue\r\nX-Interim: 1\r\n";
+        this.assertResponseError();
+    }
+
+    @Test
+    public void invalidContentLengthIsAResponseError() throws IOException {
+        this.response = "HTTP/1.1 200 OK\r\nContent-Length: 12abc\r\n\r\nresponse=ok\n";
+        this.assertResponseError();
+    }
+
+    @Test
+    public void invalidChunkSizeIsAResponseError() throws IOException {
+        this.response = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n";
+        this.assertResponseError();
+    }
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link ResponseFields#parse(String)} and
+ * {@link ResponseDecoder} read responses as {@link Properties} does.
+ */
+public class ResponseFieldsTest {
+    private static final String[] SAMPLES = {
+            "",
+            "APPROVED=true\nTRANSACTION_ID=123\nORDER_ID=abc",
+            "APPROVED=true\r\nTRANSACTION_ID=123\r\n",
+            "# comment\n! other comment\n\n   \nKEY=value\n",
+            "KEY:value\nOTHER value\nSPACED   =   value  \n\tTABBED\t=\tx",
+            "KEY=\nEMPTY\nNOSEP",
+            "DUP=1\nDUP=2\n",
+            "ESCAPED=a\\tb\\nc\\\\d\\=e\\:f\nUNI=\\u00e9t\\u00E9",
+            "KEY\\ WITH\\ SPACES=v\nKEY\\=EQ=w",
+            "CONT=first \\\n    second\\\n\tthird\nNEXT=1",
+            "CONT=\\\r\n  crlf\r\nEND=\\",
+            "# comment \\\nNOT_CONTINUED=1",
+            "UTF8=caf\u00e9 \u20ac\nERROR_MESSAGE=declined: insufficient funds",
+    };
+
+    private static Map<String, String> load(String response) throws IOException {
+        final Properties p = new Properties();
+        p.load(new StringReader(response));
+        final Map<String, String> map = new HashMap<String, String>();
+        for (final String key : p.stringPropertyNames()) {
+            map.put(key, p.getProperty(key));
+        }
+        return map;
+    }
+
+    private static ResponseFields decode(String response, int chunk) {
+        final byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        final ResponseDecoder decoder = new ResponseDecoder();
+        for (int i = 0; i < bytes.length; i += chunk) {
+            decoder.write(bytes, i, Math.min(chunk, bytes.length - i));
+        }
+        return decoder.finish();
+    }
+
+    private static void assertSameFields(Map<String, String> expected, ResponseFields fields,
+            String response) {
+        assertEquals(response, expected, fields.toMap());
+        assertEquals(response, expected.size(), fields.size());
+        for (final Map.Entry<String, String> e : expected.entrySet()) {
+            assertEquals(response, e.getValue(), fields.get(e.getKey()));
+        }
+    }
+
+    @Test
+    public void parsesAsProperties() throws IOException {
+        for (final String sample : SAMPLES) {
+            assertSameFields(load(sample), ResponseFields.parse(sample), sample);
+        }
+    }
+
+    @Test
+    public void decodesAsProperties() throws IOException {
+        for (final String sample : SAMPLES) {
+            final Map<String, String> expected = load(sample);
+            for (int chunk = 1; chunk <= 8; chunk++) {
+                final ResponseFields fields = decode(sample, chunk);
+                assertSameFields(expected, fields, sample);
+                assertEquals(sample, fields.getResponse());
+            }
+        }
+    }
+
+    @Test
+    public void parsesRandomResponsesAsProperties() throws IOException {
+        final String alphabet = "AB=: \t\\\n\r#!u0e9x";
+        final Random random = new Random(42);
+        for (int n = 0; n < 20000; n++) {
+            final StringBuilder sb = new StringBuilder();
+            final int length = random.nextInt(40);
+            for (int i = 0; i < length; i++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            final String response = sb.toString();
+            Map<String, String> expected;
+            try {
+                expected = load(response);
+            } catch (final IllegalArgumentException e) {
+                // a malformed \\uxxxx escape, rejected by both
+                expected = null;
+            }
+            for (int chunk = 0; chunk <= 3; chunk++) {
+                ResponseFields fields;
+                try {
+                    fields = chunk == 0 ? ResponseFields.parse(response)
+                            : decode(response, chunk);
+                } catch (final IllegalArgumentException e) {
+                    fields = null;
+                }
+                if (expected == null) {
+                    assertNull(response, fields);
+                } else {
+                    assertNotNull(response, fields);
+                    assertSameFields(expected, fields, response);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void receiptsReadInParallelSeeTheResponse() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int n = 0; n < 200; n++) {
+                final String response = "APPROVED=true\nTRANSACTION_ID=" + n + "\nORDER_ID=o" + n;
+                final CreditCardReceipt receipt = new CreditCardReceipt(decode(response, 64));
+                final CountDownLatch start = new CountDownLatch(1);
+                final List<Future<Object[]>> reads = new ArrayList<Future<Object[]>>();
+                for (int t = 0; t < 8; t++) {
+                    reads.add(executor.submit(() -> {
+                        start.await();
+                        return new Object[] {receipt.getResponse(), receipt.getParams()};
+                    }));
+                }
+                start.countDown();
+                for (final Future<Object[]> read : reads) {
+                    final Object[] seen = read.get(10, TimeUnit.SECONDS);
+                    assertEquals(response, seen[0]);
+                    assertEquals(load(response), seen[1]);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void paramsAreSetForSubclasses() {
+        final CreditCardReceipt receipt =
+                new CreditCardReceipt(ResponseFields.parse("APPROVED=true\nORDER_ID=o1"));
+        assertEquals("o1", receipt.params.get("ORDER_ID"));
+        assertEquals("true", receipt.params.get("APPROVED"));
+        assertEquals(2, receipt.params.size());
+    }
+}
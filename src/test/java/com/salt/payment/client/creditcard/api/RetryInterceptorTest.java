@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.REQ_CONNECTION_FAILED;
+import static com.salt.payment.client.creditcard.api.CreditCardService.REQ_POST_ERROR;
+import static com.salt.payment.client.creditcard.api.CreditCardService.REQ_RESPONSE_ERROR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RetryInterceptorTest {
+    private static final String NOT_FOUND =
+            response("APPROVED=false\nERROR_CODE=25\nERROR_MESSAGE=no transaction found");
+
+    /** @return the fields followed by those the gateway always sends */
+    private static String response(String fields) {
+        return fields + "\nSTORAGE_TOKEN_EXPIRY=0\n";
+    }
+
+    /**
+     * Answers each request code with its script: a response, or the error
+     * code of a TransportException, the last one repeated.
+     */
+    static final class ScriptedTransport implements HttpTransport {
+        private final Map<String, Deque<Object>> scripts = new HashMap<String, Deque<Object>>();
+        final List<String> sent = new ArrayList<String>();
+        final List<String> bodies = new ArrayList<String>();
+
+        ScriptedTransport script(String requestCode, Object... answers) {
+            this.scripts.put(requestCode, new ArrayDeque<Object>(Arrays.asList(answers)));
+            return this;
+        }
+
+        @Override
+        public synchronized ResponseFields post(URL url, RequestEncoder request,
+                int connectTimeoutMs, int readTimeoutMs) throws TransportException {
+            final String requestCode = request.getRequestCode();
+            this.sent.add(requestCode);
+            this.bodies.add(new String(request.toByteArray(), StandardCharsets.US_ASCII));
+            final Deque<Object> script = this.scripts.get(requestCode);
+            final Object answer = script.size() > 1 ? script.poll() : script.peek();
+            if (answer instanceof Integer) {
+                throw new TransportException((Integer) answer, "scripted failure", null);
+            }
+            return ResponseFields.parse((String) answer);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private ScriptedTransport transport;
+    private HttpsCreditCardService service;
+
+    @Before
+    public void setUp() {
+        this.transport = new ScriptedTransport();
+        this.service = new HttpsCreditCardService(new Merchant(1, "token"), "https://localhost/",
+                true, this.transport);
+        this.service.addInterceptor(new RetryInterceptor(3, 10, 40, 500));
+    }
+
+    private CreditCardReceipt purchase() {
+        return this.service.singlePurchase("order-1", new CreditCard(4242424242424242L,
+                (short) 1230), 100, null);
+    }
+
+    @Test
+    public void aTimeoutThenALateApprovalIsNotSentAgain() {
+        this.transport.script("singlePurchase", REQ_RESPONSE_ERROR).script("verifyTransaction",
+                NOT_FOUND, response("APPROVED=true\nTRANSACTION_ID=7\nORDER_ID=order-1"));
+        final CreditCardReceipt receipt = this.purchase();
+        assertTrue(receipt.isApproved());
+        assertEquals(Long.valueOf(7), receipt.getTransactionId());
+        assertEquals(Arrays.asList("singlePurchase", "verifyTransaction", "verifyTransaction"),
+                this.transport.sent);
+    }
+
+    @Test
+    public void aDeclineFoundByTheLookupIsReturned() {
+        this.transport.script("singlePurchase", REQ_POST_ERROR).script("verifyTransaction",
+                response("APPROVED=false\nTRANSACTION_ID=8\nORDER_ID=order-1\nERROR_CODE=100"));
+        final CreditCardReceipt receipt = this.purchase();
+        assertFalse(receipt.isApproved());
+        assertEquals(Long.valueOf(8), receipt.getTransactionId());
+        assertEquals(Arrays.asList("singlePurchase", "verifyTransaction"), this.transport.sent);
+    }
+
+    @Test
+    public void theLookupIsForTheStoreOfThePurchase() {
+        final ScriptedTransport transport = new ScriptedTransport().script("singlePurchase",
+                REQ_RESPONSE_ERROR).script("verifyTransaction", NOT_FOUND);
+        final HttpsCreditCardService service = new HttpsCreditCardService(new Merchant(1,
+                "token", "store-1"), "https://localhost/", true, transport);
+        service.verifyTransaction("order-1");
+        service.addInterceptor(new RetryInterceptor(3, 10, 40, 100));
+        service.singlePurchase("order-1", new CreditCard(4242424242424242L, (short) 1230), 100,
+                null);
+        final String direct = transport.bodies.get(0);
+        final String lookup = transport.bodies.get(2);
+        assertEquals("verifyTransaction", transport.sent.get(2));
+        assertTrue(lookup, lookup.contains("storeId=store-1"));
+        assertEquals(direct, lookup);
+    }
+
+    @Test
+    public void aTransactionNeverFoundIsNotSentAgain() {
+        this.transport.script("singlePurchase", REQ_RESPONSE_ERROR).script("verifyTransaction",
+                NOT_FOUND);
+        final long start = System.nanoTime();
+        final CreditCardReceipt receipt = this.purchase();
+        final long elapsedMs = (System.nanoTime() - start) / 1000000;
+        assertEquals(String.valueOf(REQ_RESPONSE_ERROR), receipt.getErrorCode());
+        assertEquals(1, this.countSent("singlePurchase"));
+        assertTrue(this.countSent("verifyTransaction") > 1);
+        assertTrue("settled in " + elapsedMs + " ms", elapsedMs < 2000);
+    }
+
+    @Test
+    public void failedLookupsNeverSendAgain() {
+        this.transport.script("singlePurchase", REQ_RESPONSE_ERROR).script("verifyTransaction",
+                REQ_CONNECTION_FAILED);
+        final CreditCardReceipt receipt = this.purchase();
+        assertEquals(String.valueOf(REQ_RESPONSE_ERROR), receipt.getErrorCode());
+        assertEquals(1, this.countSent("singlePurchase"));
+    }
+
+    @Test
+    public void aPurchaseNotSentIsSentAgain() {
+        this.transport.script("singlePurchase", REQ_CONNECTION_FAILED,
+                response("APPROVED=true\nTRANSACTION_ID=9"));
+        final CreditCardReceipt receipt = this.purchase();
+        assertTrue(receipt.isApproved());
+        assertEquals(Arrays.asList("singlePurchase", "singlePurchase"), this.transport.sent);
+    }
+
+    @Test
+    public void anAmbiguousQueryIsSentAgain() {
+        this.transport.script("verifyTransaction", REQ_RESPONSE_ERROR,
+                response("APPROVED=true\nTRANSACTION_ID=10"));
+        final CreditCardReceipt receipt = this.service.verifyTransaction(10L);
+        assertTrue(receipt.isApproved());
+        assertEquals(2, this.countSent("verifyTransaction"));
+    }
+
+    @Test
+    public void anAmbiguousCaptureIsNotSentAgain() {
+        this.transport.script("capture", REQ_POST_ERROR);
+        final CreditCardReceipt receipt = this.service.capture(11L, "order-1", 100);
+        assertEquals(String.valueOf(REQ_POST_ERROR), receipt.getErrorCode());
+        assertEquals(Arrays.asList("capture"), this.transport.sent);
+    }
+
+    private int countSent(String requestCode) {
+        int n = 0;
+        for (final String sent : this.transport.sent) {
+            n += sent.equals(requestCode) ? 1 : 0;
+        }
+        return n;
+    }
+}
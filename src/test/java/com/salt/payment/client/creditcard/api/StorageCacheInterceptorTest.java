@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.salt.payment.client.creditcard.api.RetryInterceptorTest.ScriptedTransport;
+
+public class StorageCacheInterceptorTest {
+    private static final String STORED = "APPROVED=true\nSTORAGE_TOKEN_ID=token\n";
+    private static final String PURCHASED = "APPROVED=true\nTRANSACTION_ID=1\n"
+            + "STORAGE_TOKEN_EXPIRY=0\n";
+    private static final PaymentProfile PROFILE = new PaymentProfile(new CreditCard(
+            4242424242424242L, (short) 1230), null);
+
+    private final ScriptedTransport transport = new ScriptedTransport().script("secureStorage",
+            STORED).script("singlePurchase", PURCHASED);
+    private StorageCacheInterceptor cache;
+    private HttpsCreditCardService service;
+
+    private void setUp(int maxEntries, long ttlMs) {
+        this.cache = new StorageCacheInterceptor(maxEntries, ttlMs);
+        this.service = new HttpsCreditCardService(new Merchant(1, "token"), "https://localhost/",
+                true, this.transport);
+        this.service.addInterceptor(this.cache);
+    }
+
+    @Test
+    public void aQueryIsAnsweredFromTheCache() {
+        this.setUp(10, 60000);
+        final StorageReceipt first = this.service.queryStorage("a");
+        final StorageReceipt second = this.service.queryStorage("a");
+        assertTrue(second.isApproved());
+        assertEquals("token", second.getStorageTokenId());
+        assertNotSame(first, second);
+        assertEquals(1, this.transport.sent.size());
+        assertEquals(1, this.cache.getHitCount());
+        assertEquals(1, this.cache.getMissCount());
+    }
+
+    @Test
+    public void anAnswerExpires() throws InterruptedException {
+        this.setUp(10, 50);
+        this.service.queryStorage("a");
+        Thread.sleep(100);
+        this.service.queryStorage("a");
+        assertEquals(2, this.transport.sent.size());
+        assertEquals(0, this.cache.getHitCount());
+    }
+
+    @Test
+    public void theLeastRecentlyUsedTokenIsEvicted() {
+        this.setUp(2, 60000);
+        this.service.queryStorage("a");
+        this.service.queryStorage("b");
+        this.service.queryStorage("a");
+        this.service.queryStorage("c");
+        assertEquals(2, this.cache.size());
+        this.service.queryStorage("a");
+        assertEquals(2, this.cache.getHitCount());
+        this.service.queryStorage("b");
+        assertEquals(4, this.transport.sent.size());
+    }
+
+    @Test
+    public void anUpdateEvictsTheToken() {
+        this.setUp(10, 60000);
+        this.service.queryStorage("a");
+        this.service.updateStorage("a", PROFILE);
+        this.service.queryStorage("a");
+        assertEquals(0, this.cache.getHitCount());
+    }
+
+    @Test
+    public void aDeleteEvictsTheToken() {
+        this.setUp(10, 60000);
+        this.service.queryStorage("a");
+        this.service.deleteFromStorage("a");
+        this.service.queryStorage("a");
+        assertEquals(0, this.cache.getHitCount());
+    }
+
+    @Test
+    public void aPurchaseAddingToTheStorageEvictsTheToken() {
+        this.setUp(10, 60000);
+        this.service.queryStorage("a");
+        this.service.queryStorage("b");
+        this.service.singlePurchase("order-1", PROFILE.getCreditCard(), 100, null, true, "a");
+        this.service.singlePurchase("order-2", PROFILE.getCreditCard(), 100, null, false, "b");
+        this.service.queryStorage("a");
+        this.service.queryStorage("b");
+        assertEquals(1, this.cache.getHitCount());
+        assertEquals(2, this.cache.size());
+    }
+}
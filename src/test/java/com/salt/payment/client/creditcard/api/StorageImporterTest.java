@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.REQ_INVALID_REQUEST;
+import static com.salt.payment.client.creditcard.api.CreditCardService.REQ_POST_ERROR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salt.payment.client.creditcard.api.RetryInterceptorTest.ScriptedTransport;
+
+public class StorageImporterTest {
+    private static final String BOM = "\ufeff";
+    private static final String APPROVED = "APPROVED=true\nSTORAGE_TOKEN_ID=tok-1\n";
+    private static final String DECLINED =
+            "APPROVED=false\nERROR_CODE=51\nERROR_MESSAGE=declined, \"call\" the bank\n";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ScriptedTransport transport;
+    private StorageImporter importer;
+
+    @Before
+    public void setUp() {
+        this.transport = new ScriptedTransport();
+        final HttpsCreditCardService service = new HttpsCreditCardService(new Merchant(1,
+                "token"), "https://localhost/", true, this.transport);
+        this.importer = new StorageImporter(service);
+        this.importer.setParallelism(1);
+    }
+
+    private File write(String text) throws IOException {
+        final File file = this.folder.newFile();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<String> lines(File file) throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void aCsvRecordKeepsItsQuotedCommasQuotesAndLineEnds() {
+        assertEquals(Arrays.asList("1", "Doe, Jane \"JJ\"\nSr", "", "x"),
+                StorageImporter.parseCsv("1,\"Doe, Jane \"\"JJ\"\"\nSr\",,x"));
+        assertEquals(Arrays.asList("", ""), StorageImporter.parseCsv(","));
+        assertEquals(Arrays.asList("\""), StorageImporter.parseCsv("\"\"\"\""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void anUnterminatedQuoteIsInvalid() {
+        StorageImporter.parseCsv("1,\"Doe, Jane");
+    }
+
+    @Test
+    public void anNdjsonRecordIsUnescaped() {
+        final Map<String, String> fields = StorageImporter.parseJson(" { \"cardHolderName\" : "
+                + "\"a\\\"b\\\\c\\/d\\n\\u00e9\", \"creditCardNumber\": 4242424242424242,"
+                + "\"expiryDate\":1230, \"zip\": null, \"city\": \"\" } ");
+        assertEquals("a\"b\\c/d\n\u00e9", fields.get("cardHolderName"));
+        assertEquals("4242424242424242", fields.get("creditCardNumber"));
+        assertEquals("1230", fields.get("expiryDate"));
+        // the nulls and empty values are dropped
+        assertEquals(3, fields.size());
+    }
+
+    @Test
+    public void anInvalidNdjsonRecordIsRejected() {
+        for (final String record : Arrays.asList("{\"country\": {}}", "{\"unknown\": 1}",
+                "{\"city\": \"a}", "{\"city\": \"\\u00\"}", "{\"city\": nul}", "{} x")) {
+            try {
+                StorageImporter.parseJson(record);
+                fail(record);
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void aCsvFileIsImported() throws Exception {
+        this.transport.script("secureStorage", APPROVED, DECLINED, REQ_POST_ERROR);
+        // in order, as the calls are made one at a time and the invalid
+        // record, written without waiting for one, is first
+        final File input = this.write(BOM
+                + "storageTokenId,creditCardNumber,expiryDate,cardHolderName\r\n"
+                + "tok-0,4242424242424242,,No expiry\r\n"
+                + "\r\n"
+                + ",4242424242424242,1230,\"Doe, Jane \"\"JJ\"\"\nSr\"\r\n"
+                + "tok-2,4000000000000002,1230,Declined\r\n"
+                + "tok-3,4242424242424242,1230,Failed");
+        final File output = this.folder.newFile();
+        final StorageImporter.Totals totals =
+                this.importer.importFile(input, StorageImporter.Format.CSV, output);
+
+        assertEquals(Arrays.asList("record,storageTokenId,approved,errorCode,errorMessage",
+                "1,tok-0,false," + REQ_INVALID_REQUEST
+                        + ",creditCardNumber and expiryDate are required",
+                "2,tok-1,true,,",
+                "3,tok-2,false,51,\"declined, \"\"call\"\" the bank\"",
+                "4,tok-3,false," + REQ_POST_ERROR + ",scripted failure"),
+                lines(output));
+        assertEquals(4, totals.getRecordCount());
+        assertEquals(1, totals.getApprovedCount());
+        assertEquals(1, totals.getDeclinedCount());
+        assertEquals(2, totals.getFailedCount());
+        // the invalid record is not sent
+        assertEquals(3, this.transport.sent.size());
+        assertTrue(this.transport.bodies.get(0).contains("cardHolderName="
+                + URLEncoder.encode("Doe, Jane \"JJ\"\nSr", "UTF-8")));
+    }
+
+    @Test
+    public void anNdjsonFileIsImported() throws Exception {
+        this.transport.script("secureStorage", APPROVED);
+        // the invalid record first: it is written without waiting for a call
+        final File input = this.write(BOM
+                + "{\"creditCardNumber\": 4242424242424242, \"expiryDate\": 1230, \"x\": 1}\r\n"
+                + "{\"creditCardNumber\": \"4242424242424242\", \"expiryDate\": \"1230\", "
+                + "\"cardHolderName\": \"Jane \\\"JJ\\\" Doe\", \"city\": \"Montr\\u00e9al\"}\r\n");
+        final File output = this.folder.newFile();
+        final StorageImporter.Totals totals =
+                this.importer.importFile(input, StorageImporter.Format.NDJSON, output);
+
+        assertEquals(Arrays.asList("record,storageTokenId,approved,errorCode,errorMessage",
+                "1,,false," + REQ_INVALID_REQUEST + ",unknown field x",
+                "2,tok-1,true,,"), lines(output));
+        assertEquals(2, totals.getRecordCount());
+        assertEquals(1, totals.getApprovedCount());
+        assertEquals(1, totals.getFailedCount());
+        assertEquals(1, this.transport.sent.size());
+        final String body = this.transport.bodies.get(0);
+        assertTrue(body, body.contains("cardHolderName="
+                + URLEncoder.encode("Jane \"JJ\" Doe", "UTF-8")));
+        assertTrue(body, body.contains(URLEncoder.encode("Montr\u00e9al", "UTF-8")));
+    }
+
+    @Test
+    public void everyRecordIsWrittenOnceInParallel() throws Exception {
+        this.transport.script("secureStorage", APPROVED);
+        this.importer.setParallelism(4);
+        final StringBuilder text = new StringBuilder("creditCardNumber,expiryDate\n");
+        for (int i = 0; i < 50; i++) {
+            text.append("4242424242424242,1230\n");
+        }
+        final File output = this.folder.newFile();
+        final StorageImporter.Totals totals = this.importer.importFile(
+                this.write(text.toString()), StorageImporter.Format.CSV, output);
+
+        final List<String> lines = lines(output);
+        final List<Integer> records = new ArrayList<Integer>();
+        for (final String line : lines.subList(1, lines.size())) {
+            records.add(Integer.valueOf(line.substring(0, line.indexOf(','))));
+        }
+        Collections.sort(records);
+        for (int i = 0; i < 50; i++) {
+            assertEquals(Integer.valueOf(i + 1), records.get(i));
+        }
+        assertEquals(50, records.size());
+        assertEquals(50, totals.getApprovedCount());
+        assertEquals(50, this.transport.sent.size());
+    }
+
+    @Test
+    public void anUnknownCsvColumnStopsTheImport() throws Exception {
+        try {
+            this.importer.importFile(this.write("creditCardNumber,pin\n1,2\n"),
+                    StorageImporter.Format.CSV, this.folder.newFile());
+            fail("pin is not a field");
+        } catch (final IOException e) {
+            assertEquals("unknown field in the CSV header: pin", e.getMessage());
+        }
+        assertTrue(this.transport.sent.isEmpty());
+    }
+}
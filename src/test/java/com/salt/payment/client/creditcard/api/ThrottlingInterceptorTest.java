@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.REQ_THROTTLED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class ThrottlingInterceptorTest {
+    /** Approves every request. */
+    static final class ApprovingTransport implements HttpTransport {
+        @Override
+        public ResponseFields post(URL url, RequestEncoder request, int connectTimeoutMs,
+                int readTimeoutMs) throws TransportException {
+            return ResponseFields.parse("APPROVED=true\nTRANSACTION_ID=1\n"
+                    + "STORAGE_TOKEN_EXPIRY=0\n");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void anInterruptedWaitGivesItsTurnBack() throws InterruptedException {
+        final HttpsCreditCardService service = new HttpsCreditCardService(new Merchant(1,
+                "token"), "https://localhost/", true, new ApprovingTransport());
+        final ThrottlingInterceptor throttling = new ThrottlingInterceptor(10);
+        throttling.setRateLimit(1, 1);
+        throttling.setMaxWaitMs(1500);
+        service.addInterceptor(throttling);
+        assertTrue(service.verifyTransaction(1L, null).isApproved());
+
+        // waits about 1 s for its turn, and is interrupted
+        final AtomicReference<CreditCardReceipt> interrupted =
+                new AtomicReference<CreditCardReceipt>();
+        final Thread thread = new Thread(() -> interrupted.set(service.verifyTransaction(2L,
+                null)));
+        thread.start();
+        Thread.sleep(200);
+        thread.interrupt();
+        thread.join();
+        assertEquals(String.valueOf(REQ_THROTTLED), interrupted.get().getErrorCode());
+
+        // the next turn is in under 1 s, not 2 s past the maximum wait
+        assertTrue(service.verifyTransaction(3L, null).isApproved());
+    }
+}
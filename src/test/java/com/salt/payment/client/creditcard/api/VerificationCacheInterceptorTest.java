@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.salt.payment.client.creditcard.api.RetryInterceptorTest.ScriptedTransport;
+
+public class VerificationCacheInterceptorTest {
+    private static final String DECLINED = "APPROVED=false\nTRANSACTION_ID=8\nORDER_ID=order-1\n"
+            + "ERROR_CODE=100\nSTORAGE_TOKEN_EXPIRY=0\n";
+    private static final String APPROVED = "APPROVED=true\nTRANSACTION_ID=9\nORDER_ID=order-1\n"
+            + "STORAGE_TOKEN_EXPIRY=0\n";
+
+    private ScriptedTransport transport;
+    private HttpsCreditCardService service;
+    private VerificationCacheInterceptor cache;
+
+    @Before
+    public void setUp() {
+        this.transport = new ScriptedTransport();
+        this.service = new HttpsCreditCardService(new Merchant(1, "token"), "https://localhost/",
+                true, this.transport);
+        this.cache = new VerificationCacheInterceptor();
+        this.service.addInterceptor(this.cache);
+    }
+
+    @Test
+    public void aDeclinedOrderIsAnsweredFromTheCache() {
+        this.transport.script("verifyTransaction", DECLINED);
+        assertFalse(this.service.verifyTransaction("order-1").isApproved());
+        assertFalse(this.service.verifyTransaction("order-1").isApproved());
+        assertEquals(Arrays.asList("verifyTransaction"), this.transport.sent);
+        assertEquals(1, this.cache.getHitCount());
+    }
+
+    @Test
+    public void aPurchaseAgainForTheOrderEvictsTheDecline() {
+        this.transport.script("verifyTransaction", DECLINED, APPROVED).script("singlePurchase",
+                APPROVED);
+        assertFalse(this.service.verifyTransaction("order-1").isApproved());
+        assertTrue(this.service.singlePurchase("order-1", new CreditCard(4242424242424242L,
+                (short) 1230), 100, null).isApproved());
+        final CreditCardReceipt receipt = this.service.verifyTransaction("order-1");
+        assertTrue(receipt.isApproved());
+        assertEquals(Long.valueOf(9), receipt.getTransactionId());
+        assertEquals(0, this.cache.getHitCount());
+    }
+}
@@ -0,0 +1,408 @@
+package com.salt.payment.client.creditcard.sample;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.salt.payment.client.creditcard.api.AbstractReceipt;
+import com.salt.payment.client.creditcard.api.AvsRequest;
+import com.salt.payment.client.creditcard.api.CreditCard;
+import com.salt.payment.client.creditcard.api.CreditCardReceipt;
+import com.salt.payment.client.creditcard.api.CreditCardService;
+import com.salt.payment.client.creditcard.api.Cvv2Request;
+import com.salt.payment.client.creditcard.api.GatewayExecutors;
+import com.salt.payment.client.creditcard.api.HttpsCreditCardService;
+import com.salt.payment.client.creditcard.api.LatencyHistogram;
+import com.salt.payment.client.creditcard.api.Merchant;
+import com.salt.payment.client.creditcard.api.PooledHttpTransport;
+import com.salt.payment.client.creditcard.api.VerificationRequest;
+import com.salt.payment.client.creditcard.stub.LatencyDistribution;
+import com.salt.payment.client.creditcard.stub.StubGateway;
+
+/**
+ * Drives a mix of calls at a target rate and reports the throughput, the
+ * latency percentiles and the error codes.
+ * <p>
+ * The load is open-loop: calls are started on a fixed schedule whether or not
+ * the previous ones completed, and each latency is measured from the time the
+ * call was due rather than the time it started. A slow gateway thus shows up
+ * in the percentiles as it would to the customers waiting on it, instead of
+ * slowing the load down (coordinated omission).
+ * <p>
+ * Arguments are <code>name=value</code> pairs, all optional:
+ * <ul>
+ * <li>url: the gateway url, by default the one of merchant.properties</li>
+ * <li>stub: starts a {@link StubGateway} with this median latency in ms and
+ * sends it the load instead</li>
+ * <li>rate: the calls started per second, 100 by default</li>
+ * <li>duration: the seconds to run, 30 by default</li>
+ * <li>warmup: the seconds to run before, without recording anything, 5 by
+ * default: the first calls also measure class loading, the JIT and new
+ * connections</li>
+ * <li>threads: the threads making the calls. By default a thread per call in
+ * flight, virtual threads if the runtime has them.</li>
+ * <li>connections: the maximum connections to the gateway, 20 by default</li>
+ * <li>mix: the weight of each operation, ie.
+ * <code>singlePurchase:40,preAuthCapture:20,refund:10,verifyTransaction:20,queryStorage:10</code>
+ * (the default)</li>
+ * </ul>
+ * Ie. <code>LoadGeneratorSample stub=50 rate=500 duration=60</code>
+ */
+public class LoadGeneratorSample extends AbstractSample {
+    private static final long AMOUNT = 1000; // 10 dollars
+    private static final int RECENT_PURCHASES = 1024;
+    private static final String DEFAULT_MIX =
+            "singlePurchase:40,preAuthCapture:20,refund:10,verifyTransaction:20,queryStorage:10";
+
+    /** The operations of the mix. */
+    enum Operation {
+        SINGLE_PURCHASE("singlePurchase") {
+            @Override
+            AbstractReceipt call(LoadGeneratorSample load, String orderId) {
+                final CreditCardReceipt receipt =
+                        load.service.singlePurchase(orderId, load.creditCard, AMOUNT,
+                                load.verificationRequest);
+                load.rememberPurchase(receipt);
+                return receipt;
+            }
+        },
+        PRE_AUTH_CAPTURE("preAuthCapture") {
+            @Override
+            AbstractReceipt call(LoadGeneratorSample load, String orderId) {
+                final CreditCardReceipt preAuth =
+                        load.service.preAuth(orderId, load.creditCard, AMOUNT,
+                                load.verificationRequest);
+                if (!preAuth.isApproved() || preAuth.getTransactionId() == null) {
+                    return preAuth;
+                }
+                final CreditCardReceipt capture =
+                        load.service.capture(preAuth.getTransactionId(), orderId, AMOUNT);
+                load.rememberPurchase(capture);
+                return capture;
+            }
+        },
+        REFUND("refund") {
+            @Override
+            AbstractReceipt call(LoadGeneratorSample load, String orderId) {
+                final CreditCardReceipt purchase = load.recentPurchase();
+                if (purchase == null) {
+                    // nothing to refund yet: a purchase instead
+                    return SINGLE_PURCHASE.call(load, orderId);
+                }
+                return load.service.refund(purchase.getTransactionId(), purchase.getOrderId(),
+                        orderId, AMOUNT);
+            }
+        },
+        VERIFY_TRANSACTION("verifyTransaction") {
+            @Override
+            AbstractReceipt call(LoadGeneratorSample load, String orderId) {
+                final CreditCardReceipt purchase = load.recentPurchase();
+                if (purchase == null) {
+                    return load.service.verifyTransaction(orderId);
+                }
+                return load.service.verifyTransaction(purchase.getTransactionId(),
+                        purchase.getOrderId());
+            }
+        },
+        QUERY_STORAGE("queryStorage") {
+            @Override
+            AbstractReceipt call(LoadGeneratorSample load, String orderId) {
+                return load.service.queryStorage(load.storageTokenId);
+            }
+        };
+
+        private final String label;
+
+        private Operation(String label) {
+            this.label = label;
+        }
+
+        abstract AbstractReceipt call(LoadGeneratorSample load, String orderId);
+
+        static Operation fromLabel(String label) {
+            for (final Operation operation : values()) {
+                if (operation.label.equals(label)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("unknown operation: " + label);
+        }
+    }
+
+    /** The names of the REQ_* error codes, by code. */
+    private static final Map<String, String> REQ_CODE_NAMES = reqCodeNames();
+
+    private final Map<String, String> options;
+    private final HttpsCreditCardService service;
+    private final PooledHttpTransport transport;
+    private final Map<Operation, LatencyHistogram> latencies =
+            new EnumMap<Operation, LatencyHistogram>(Operation.class);
+    private final LatencyHistogram allLatencies = new LatencyHistogram();
+    private final ConcurrentMap<String, AtomicLong> outcomes =
+            new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicReferenceArray<CreditCardReceipt> recentPurchases =
+            new AtomicReferenceArray<CreditCardReceipt>(RECENT_PURCHASES);
+    private final AtomicLong purchaseCount = new AtomicLong();
+    private final AtomicLong lastCompletionNanos = new AtomicLong();
+    /** The time from which calls are recorded, once warmed up. */
+    private volatile long measureStartNanos;
+
+    public LoadGeneratorSample(Map<String, String> options, String url) {
+        this.options = options;
+        this.creditCard = new CreditCard(4242424242424242L, (short) 1231);
+        this.verificationRequest =
+                new VerificationRequest(AvsRequest.VERIFY_STREET_AND_ZIP, Cvv2Request.CVV2_PRESENT);
+        this.transport =
+                new PooledHttpTransport(this.intOption("connections",
+                        PooledHttpTransport.DEFAULT_MAX_CONNECTIONS),
+                        PooledHttpTransport.DEFAULT_IDLE_TIMEOUT_MS);
+        final String gatewayUrl = url != null ? url : this.url;
+        this.service =
+                new HttpsCreditCardService(new Merchant(this.merchantId, this.apiToken),
+                        gatewayUrl, gatewayUrl != null && gatewayUrl.startsWith("https:"),
+                        this.transport);
+        for (final Operation operation : Operation.values()) {
+            this.latencies.put(operation, new LatencyHistogram());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = new TreeMap<String, String>();
+        for (final String arg : args) {
+            final int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        StubGateway stub = null;
+        String url = options.get("url");
+        if (options.containsKey("stub")) {
+            // as StubGateway.main: no delayed ACKs in the latencies measured
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+                System.setProperty("sun.net.httpserver.nodelay", "true");
+            }
+            stub = new StubGateway();
+            stub.setLatency(LatencyDistribution.logNormal(
+                    Double.parseDouble(options.get("stub")), 0.5));
+            stub.start();
+            url = stub.getUrl();
+        }
+        try {
+            new LoadGeneratorSample(options, url).run();
+        } finally {
+            if (stub != null) {
+                stub.stop();
+            }
+        }
+    }
+
+    /**
+     * Runs the load and prints the report.
+     */
+    public void run() throws InterruptedException {
+        final double rate = Double.parseDouble(this.option("rate", "100"));
+        final long durationNanos = TimeUnit.SECONDS.toNanos(this.intOption("duration", 30));
+        final long warmupNanos = TimeUnit.SECONDS.toNanos(this.intOption("warmup", 5));
+        final Operation[] schedule = parseMix(this.option("mix", DEFAULT_MIX));
+        final ExecutorService executor = this.newExecutor();
+        final String runId = Long.toString(System.currentTimeMillis(), 36);
+        final Random random = new Random();
+
+        System.out.println(String.format("%.0f calls/s for %ds after %ds of warmup, mix %s",
+                rate, TimeUnit.NANOSECONDS.toSeconds(durationNanos),
+                TimeUnit.NANOSECONDS.toSeconds(warmupNanos), this.option("mix", DEFAULT_MIX)));
+        final long start = System.nanoTime();
+        this.measureStartNanos = start + warmupNanos;
+        long calls = 0;
+        long scheduled = 0;
+        while (true) {
+            // due times are computed from the start, so that they never drift
+            final long due = start + (long) (calls * 1e9 / rate);
+            if (due - start >= warmupNanos + durationNanos) {
+                break;
+            }
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            final Operation operation = schedule[random.nextInt(schedule.length)];
+            final String orderId = "load-" + runId + "-" + calls;
+            executor.execute(new Runnable() {
+                public void run() {
+                    LoadGeneratorSample.this.call(operation, orderId, due);
+                }
+            });
+            calls++;
+            if (due - this.measureStartNanos >= 0) {
+                scheduled++;
+            }
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(2, TimeUnit.MINUTES)) {
+            System.out.println("calls still running after 2 minutes, not reported");
+        }
+        this.transport.close();
+        this.report(scheduled);
+    }
+
+    private void call(Operation operation, String orderId, long due) {
+        String outcome;
+        try {
+            outcome = outcome(operation.call(this, orderId));
+        } catch (final RuntimeException e) {
+            outcome = "exception " + e.getClass().getSimpleName();
+        }
+        final long now = System.nanoTime();
+        if (due - this.measureStartNanos < 0) {
+            // warming up
+            return;
+        }
+        final long micros = TimeUnit.NANOSECONDS.toMicros(now - due);
+        this.latencies.get(operation).record(micros);
+        this.allLatencies.record(micros);
+        AtomicLong count = this.outcomes.get(outcome);
+        if (count == null) {
+            final AtomicLong created = new AtomicLong();
+            count = this.outcomes.putIfAbsent(outcome, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+        long last = this.lastCompletionNanos.get();
+        while (now - last > 0 && !this.lastCompletionNanos.compareAndSet(last, now)) {
+            last = this.lastCompletionNanos.get();
+        }
+    }
+
+    private static String outcome(AbstractReceipt receipt) {
+        if (receipt.isApproved()) {
+            return "approved";
+        }
+        final String errorCode = receipt.getErrorCode();
+        final String name = REQ_CODE_NAMES.get(errorCode);
+        if (name != null) {
+            return name + " (" + errorCode + ")";
+        }
+        return "declined (" + errorCode + ")";
+    }
+
+    private void rememberPurchase(CreditCardReceipt receipt) {
+        if (receipt.isApproved() && receipt.getTransactionId() != null) {
+            this.recentPurchases.set(
+                    (int) (this.purchaseCount.getAndIncrement() % RECENT_PURCHASES), receipt);
+        }
+    }
+
+    /** @return one of the recent approved purchases, or null if none yet */
+    private CreditCardReceipt recentPurchase() {
+        final long count = this.purchaseCount.get();
+        if (count == 0) {
+            return null;
+        }
+        return this.recentPurchases.get(ThreadLocalRandom.current().nextInt(
+                (int) Math.min(count, RECENT_PURCHASES)));
+    }
+
+    private void report(long scheduled) {
+        final long completed = this.allLatencies.getCount();
+        final double seconds = (this.lastCompletionNanos.get() - this.measureStartNanos) / 1e9;
+        System.out.println(String.format("%d calls scheduled, %d completed in %.1fs: %.1f calls/s",
+                scheduled, completed, seconds, seconds > 0 ? completed / seconds : 0));
+        System.out.println(String.format("%-18s %8s %10s %10s %10s %10s", "latency (ms)",
+                "count", "p50", "p99", "p99.9", "max"));
+        for (final Operation operation : Operation.values()) {
+            printLatencies(operation.label, this.latencies.get(operation));
+        }
+        printLatencies("all", this.allLatencies);
+        System.out.println("outcomes:");
+        for (final Map.Entry<String, AtomicLong> outcome : new TreeMap<String, AtomicLong>(
+                this.outcomes).entrySet()) {
+            System.out.println(String.format("  %-40s %8d", outcome.getKey(), outcome.getValue()
+                    .get()));
+        }
+    }
+
+    private static void printLatencies(String label, LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        System.out.println(String.format("%-18s %8d %10.3f %10.3f %10.3f %10.3f", label,
+                histogram.getCount(), histogram.getValueAtPercentile(50) / 1e3,
+                histogram.getValueAtPercentile(99) / 1e3,
+                histogram.getValueAtPercentile(99.9) / 1e3, histogram.getMax() / 1e3));
+    }
+
+    private ExecutorService newExecutor() {
+        final int threads = this.intOption("threads", 0);
+        if (threads <= 0) {
+            return GatewayExecutors.newDefaultExecutor();
+        }
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "load-" + this.count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** @return the operations, each repeated as many times as its weight */
+    private static Operation[] parseMix(String mix) {
+        final List<Operation> schedule = new ArrayList<Operation>();
+        for (final String entry : mix.split(",")) {
+            final String[] labelAndWeight = entry.trim().split(":");
+            final Operation operation = Operation.fromLabel(labelAndWeight[0]);
+            final int weight = labelAndWeight.length > 1 ? Integer.parseInt(labelAndWeight[1]) : 1;
+            for (int i = 0; i < weight; i++) {
+                schedule.add(operation);
+            }
+        }
+        if (schedule.isEmpty()) {
+            throw new IllegalArgumentException("the mix has no operation");
+        }
+        return schedule.toArray(new Operation[schedule.size()]);
+    }
+
+    private static Map<String, String> reqCodeNames() {
+        final Map<String, String> names = new TreeMap<String, String>();
+        for (final Field field : CreditCardService.class.getFields()) {
+            if (field.getName().startsWith("REQ_") && field.getType() == int.class
+                    && Modifier.isStatic(field.getModifiers())) {
+                try {
+                    names.put(Integer.toString(field.getInt(null)), field.getName());
+                } catch (final IllegalAccessException e) {
+                    // public: not thrown
+                }
+            }
+        }
+        return names;
+    }
+
+    private String option(String name, String defaultValue) {
+        final String value = this.options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(this.option(name, Integer.toString(defaultValue)));
+    }
+}
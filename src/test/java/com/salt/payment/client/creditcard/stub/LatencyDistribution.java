@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.stub;
+
+import java.util.Random;
+
+/**
+ * The distribution of the delays {@link StubGateway} waits before answering
+ * a request.
+ * <p>
+ * Implementations must be thread-safe.
+ * 
+ * @since JSE8
+ */
+public abstract class LatencyDistribution {
+    /**
+     * @return no delay
+     */
+    public static LatencyDistribution none() {
+        return fixed(0);
+    }
+
+    /**
+     * @param millis
+     *            the delay, in milliseconds. Not negative.
+     * @return the same delay every time
+     */
+    public static LatencyDistribution fixed(final long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis must not be negative");
+        }
+        return new LatencyDistribution() {
+            @Override
+            public long nextDelayMillis(Random random) {
+                return millis;
+            }
+
+            @Override
+            public String toString() {
+                return String.format("fixed(%dms)", millis);
+            }
+        };
+    }
+
+    /**
+     * @param minMillis
+     *            the shortest delay, in milliseconds. Not negative.
+     * @param maxMillis
+     *            the longest delay, in milliseconds. Not less than
+     *            <code>minMillis</code>.
+     * @return delays spread evenly from <code>minMillis</code> to
+     *         <code>maxMillis</code>
+     */
+    public static LatencyDistribution uniform(final long minMillis, final long maxMillis) {
+        if (minMillis < 0 || maxMillis < minMillis) {
+            throw new IllegalArgumentException("0 <= minMillis <= maxMillis is required");
+        }
+        return new LatencyDistribution() {
+            @Override
+            public long nextDelayMillis(Random random) {
+                return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis + 1));
+            }
+
+            @Override
+            public String toString() {
+                return String.format("uniform(%dms..%dms)", minMillis, maxMillis);
+            }
+        };
+    }
+
+    /**
+     * Log-normal delays: most close to the median, with the long tail of a
+     * real gateway. With a sigma of 0.5 the 99th percentile is about 3.2 times
+     * the median, with a sigma of 1 about 10 times.
+     * 
+     * @param medianMillis
+     *            the median delay, in milliseconds. Not negative.
+     * @param sigma
+     *            the standard deviation of the log of the delay. Not
+     *            negative.
+     * @return log-normal delays
+     */
+    public static LatencyDistribution logNormal(final double medianMillis, final double sigma) {
+        if (medianMillis < 0 || sigma < 0) {
+            throw new IllegalArgumentException("medianMillis and sigma must not be negative");
+        }
+        return new LatencyDistribution() {
+            @Override
+            public long nextDelayMillis(Random random) {
+                return Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+            }
+
+            @Override
+            public String toString() {
+                return String.format("logNormal(median %.1fms, sigma %.2f)", medianMillis, sigma);
+            }
+        };
+    }
+
+    /**
+     * Returns the next delay.
+     * 
+     * @param random
+     *            the source of randomness, not shared with other threads
+     * @return the delay, in milliseconds. Not negative.
+     */
+    public abstract long nextDelayMillis(Random random);
+}
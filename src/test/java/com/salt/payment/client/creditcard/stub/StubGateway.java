@@ -0,0 +1,407 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.stub;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local, in-process stand-in for the gateway, to test and load test
+ * integrations without it. It answers the form-encoded requests the services
+ * POST, by their <code>requestCode</code> and <code>operationCode</code>,
+ * with responses the receipts parse, see {@link StubResponses}.
+ * <p>
+ * Faults are injected at random, at configurable rates: a delay drawn from a
+ * {@link LatencyDistribution} before every answer, HTTP errors, declines,
+ * timeouts, where the connection is closed without an answer after
+ * {@link #setTimeoutMillis(long)}, and lost responses, where the request is
+ * processed but the connection closed instead of answered. The settings can
+ * be changed while the gateway runs. Ie. from a test:
+ * 
+ * <pre>
+ * final StubGateway gateway = new StubGateway();
+ * gateway.setLatency(LatencyDistribution.logNormal(40, 0.5));
+ * gateway.setDeclineRate(0.1);
+ * gateway.start();
+ * try {
+ *     final HttpsCreditCardService service =
+ *             new HttpsCreditCardService(merchant, gateway.getUrl(), false);
+ *     ...
+ * } finally {
+ *     gateway.stop();
+ * }
+ * </pre>
+ * 
+ * Every request is answered on its own thread, so delays do not limit the
+ * throughput. The headers and the body of the answers are written apart: with
+ * Nagle's algorithm the body waits for the delayed ACK of the headers, 40ms
+ * per answer. {@link #main(String[])} sets the
+ * <code>sun.net.httpserver.nodelay</code> system property for this; when
+ * embedded, set it before the first <code>HttpServer</code> of the JVM is
+ * used to measure latencies.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @since JSE8
+ */
+public final class StubGateway {
+    /** The path requests are POSTed to. Any other path is answered the same. */
+    public static final String PATH = "/gateway/creditcard/processor.do";
+    private static final String UTF_8 = "UTF-8";
+    private static final long DEFAULT_TIMEOUT_MILLIS = 60000;
+    /** The property read by the JDK server when first used. */
+    static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    private final int requestedPort;
+    private final StubResponses responses = new StubResponses();
+    private final AtomicLong requestCount = new AtomicLong();
+    private volatile LatencyDistribution latency = LatencyDistribution.none();
+    private final ConcurrentMap<String, LatencyDistribution> requestLatencies =
+            new ConcurrentHashMap<String, LatencyDistribution>();
+    private volatile double errorRate = 0;
+    private volatile double declineRate = 0;
+    private volatile double timeoutRate = 0;
+    private volatile double lostResponseRate = 0;
+    private volatile long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Creates a gateway listening on a free port once started.
+     */
+    public StubGateway() {
+        this(0);
+    }
+
+    /**
+     * Creates a gateway listening on <code>port</code> once started.
+     * 
+     * @param port
+     *            the port to listen on, or 0 for a free port
+     */
+    public StubGateway(int port) {
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("port must be between 0 and 65535");
+        }
+        this.requestedPort = port;
+    }
+
+    /**
+     * Starts listening on the loopback address.
+     * 
+     * @throws IOException
+     *             if the port cannot be listened on
+     */
+    public synchronized void start() throws IOException {
+        if (this.server != null) {
+            throw new IllegalStateException("already started");
+        }
+        final HttpServer started =
+                HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                        this.requestedPort), 0);
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "stub-gateway-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        started.setExecutor(this.executor);
+        started.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                StubGateway.this.handle(exchange);
+            }
+        });
+        started.start();
+        this.server = started;
+    }
+
+    /**
+     * Stops listening and drops the requests being answered. Does nothing if
+     * not started.
+     */
+    public synchronized void stop() {
+        if (this.server != null) {
+            this.server.stop(0);
+            this.executor.shutdownNow();
+            this.server = null;
+            this.executor = null;
+        }
+    }
+
+    /**
+     * @return the port listened on
+     * @throws IllegalStateException
+     *             if not started
+     */
+    public synchronized int getPort() {
+        if (this.server == null) {
+            throw new IllegalStateException("not started");
+        }
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * @return the url to give the services, ie. to
+     *         {@link com.salt.payment.client.creditcard.api.HttpsCreditCardService}
+     *         , not secured
+     * @throws IllegalStateException
+     *             if not started
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + this.getPort() + PATH;
+    }
+
+    /**
+     * @return the number of requests received since created
+     */
+    public long getRequestCount() {
+        return this.requestCount.get();
+    }
+
+    /**
+     * Sets the delay before answering requests, unless set for their request
+     * code. None by default.
+     * 
+     * @param latency
+     *            the distribution of the delays. Not null.
+     */
+    public void setLatency(LatencyDistribution latency) {
+        if (latency == null) {
+            throw new IllegalArgumentException("latency must not be null");
+        }
+        this.latency = latency;
+    }
+
+    /**
+     * Sets the delay before answering the requests with
+     * <code>requestCode</code>, ie. slower captures than purchases.
+     * 
+     * @param requestCode
+     *            the request code, ie. <code>singlePurchase</code>. Not null.
+     * @param latency
+     *            the distribution of the delays, or null to use the one of
+     *            {@link #setLatency(LatencyDistribution)}
+     */
+    public void setLatency(String requestCode, LatencyDistribution latency) {
+        if (requestCode == null) {
+            throw new IllegalArgumentException("requestCode is required");
+        }
+        if (latency == null) {
+            this.requestLatencies.remove(requestCode);
+        } else {
+            this.requestLatencies.put(requestCode, latency);
+        }
+    }
+
+    /**
+     * Sets the fraction of the requests answered by a HTTP 503 error. 0 by
+     * default.
+     * 
+     * @param rate
+     *            the fraction, from 0 to 1
+     */
+    public void setErrorRate(double rate) {
+        this.errorRate = checkRate(rate);
+    }
+
+    /**
+     * Sets the fraction of the valid requests declined. 0 by default.
+     * 
+     * @param rate
+     *            the fraction, from 0 to 1
+     */
+    public void setDeclineRate(double rate) {
+        this.declineRate = checkRate(rate);
+    }
+
+    /**
+     * Sets the fraction of the requests never answered: their connection is
+     * closed after {@link #setTimeoutMillis(long)}, or when the gateway
+     * stops. 0 by default.
+     * 
+     * @param rate
+     *            the fraction, from 0 to 1
+     */
+    public void setTimeoutRate(double rate) {
+        this.timeoutRate = checkRate(rate);
+    }
+
+    /**
+     * Sets the fraction of the requests processed, ie. charged and found by
+     * <code>verifyTransaction</code>, whose connection is then closed
+     * without an answer. 0 by default.
+     * 
+     * @param rate
+     *            the fraction, from 0 to 1
+     */
+    public void setLostResponseRate(double rate) {
+        this.lostResponseRate = checkRate(rate);
+    }
+
+    /**
+     * Sets how long the requests never answered are held. 60 seconds by
+     * default: more than the read timeout of the services.
+     * 
+     * @param millis
+     *            the time, in milliseconds. Not negative.
+     */
+    public void setTimeoutMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis must not be negative");
+        }
+        this.timeoutMillis = millis;
+    }
+
+    private static double checkRate(double rate) {
+        if (!(rate >= 0 && rate <= 1)) {
+            throw new IllegalArgumentException("rate must be between 0 and 1");
+        }
+        return rate;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        this.requestCount.incrementAndGet();
+        try {
+            final Map<String, String> params = parseForm(readBody(exchange.getRequestBody()));
+            final Random random = ThreadLocalRandom.current();
+            final double fault = random.nextDouble();
+            if (fault < this.timeoutRate) {
+                // closed without an answer
+                Thread.sleep(this.timeoutMillis);
+                return;
+            }
+            LatencyDistribution delay = null;
+            if (params.get("requestCode") != null) {
+                delay = this.requestLatencies.get(params.get("requestCode"));
+            }
+            if (delay == null) {
+                delay = this.latency;
+            }
+            final long delayMillis = delay.nextDelayMillis(random);
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+            if (fault < this.timeoutRate + this.errorRate) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            final boolean declined = random.nextDouble() < this.declineRate;
+            final byte[] body = this.responses.respond(params, declined).getBytes(UTF_8);
+            if (fault < this.timeoutRate + this.errorRate + this.lostResponseRate) {
+                // processed, but closed without an answer
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            final OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.flush();
+        } catch (final InterruptedException e) {
+            // stopped
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+        final byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            body.write(buffer, 0, n);
+        }
+        return body.toString(UTF_8);
+    }
+
+    private static Map<String, String> parseForm(String form) throws UnsupportedEncodingException {
+        final Map<String, String> params = new HashMap<String, String>();
+        int start = 0;
+        while (start < form.length()) {
+            int end = form.indexOf('&', start);
+            if (end < 0) {
+                end = form.length();
+            }
+            final int eq = form.indexOf('=', start);
+            if (eq > start && eq < end) {
+                params.put(URLDecoder.decode(form.substring(start, eq), UTF_8),
+                        URLDecoder.decode(form.substring(eq + 1, end), UTF_8));
+            }
+            start = end + 1;
+        }
+        return params;
+    }
+
+    /**
+     * Runs a gateway until the process is stopped, ie. for a load driver in
+     * another process.
+     * <p>
+     * Arguments: <code>[port [medianLatencyMs [sigma [declineRate [errorRate
+     * [timeoutRate]]]]]]</code>. The latency is log-normal, see
+     * {@link LatencyDistribution#logNormal(double, double)}. By default the
+     * port is 8080, with no latency nor faults. Sets the
+     * <code>sun.net.httpserver.nodelay</code> system property, unless set.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (System.getProperty(NODELAY_PROPERTY) == null) {
+            System.setProperty(NODELAY_PROPERTY, "true");
+        }
+        final StubGateway gateway =
+                new StubGateway(args.length > 0 ? Integer.parseInt(args[0]) : 8080);
+        if (args.length > 1) {
+            gateway.setLatency(LatencyDistribution.logNormal(Double.parseDouble(args[1]),
+                    args.length > 2 ? Double.parseDouble(args[2]) : 0));
+        }
+        if (args.length > 3) {
+            gateway.setDeclineRate(Double.parseDouble(args[3]));
+        }
+        if (args.length > 4) {
+            gateway.setErrorRate(Double.parseDouble(args[4]));
+        }
+        if (args.length > 5) {
+            gateway.setTimeoutRate(Double.parseDouble(args[5]));
+        }
+        gateway.start();
+        System.out.println(String.format("stub gateway listening on %s, latency %s",
+                gateway.getUrl(), gateway.latency));
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                gateway.stop();
+            }
+        });
+        // answers until the process is stopped
+        Thread.sleep(Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.stub;
+
+import static com.salt.payment.client.creditcard.api.CreditCardService.REQ_RESPONSE_ERROR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.salt.payment.client.creditcard.api.CreditCard;
+import com.salt.payment.client.creditcard.api.CreditCardReceipt;
+import com.salt.payment.client.creditcard.api.HttpsCreditCardService;
+import com.salt.payment.client.creditcard.api.Merchant;
+import com.salt.payment.client.creditcard.api.PooledHttpTransport;
+
+public class StubGatewayTest {
+    private final StubGateway gateway = new StubGateway();
+    private final PooledHttpTransport transport = new PooledHttpTransport();
+    private HttpsCreditCardService service;
+
+    @Before
+    public void setUp() throws Exception {
+        this.gateway.start();
+        this.service = new HttpsCreditCardService(new Merchant(1, "token"),
+                this.gateway.getUrl(), false, this.transport);
+    }
+
+    @After
+    public void tearDown() {
+        this.transport.close();
+        this.gateway.stop();
+    }
+
+    private CreditCardReceipt purchase(String orderId) {
+        return this.service.singlePurchase(orderId, new CreditCard(4242424242424242L,
+                (short) 1230), 100, null);
+    }
+
+    @Test
+    public void aPurchaseIsApprovedAndThenFound() {
+        final CreditCardReceipt receipt = this.purchase("order-1");
+        assertTrue(receipt.getErrorMessage(), receipt.isApproved());
+        assertEquals("order-1", receipt.getOrderId());
+        final CreditCardReceipt found = this.service.verifyTransaction("order-1");
+        assertTrue(found.getErrorMessage(), found.isApproved());
+        assertEquals(receipt.getTransactionId(), found.getTransactionId());
+        assertEquals(2, this.gateway.getRequestCount());
+    }
+
+    @Test
+    public void aPurchaseIsDeclined() {
+        this.gateway.setDeclineRate(1);
+        final CreditCardReceipt receipt = this.purchase("order-1");
+        assertFalse(receipt.isApproved());
+        assertEquals(StubResponses.DECLINED, receipt.getErrorCode());
+    }
+
+    @Test
+    public void anUnavailableGatewayIsAResponseError() {
+        this.gateway.setErrorRate(1);
+        final CreditCardReceipt receipt = this.purchase("order-1");
+        assertFalse(receipt.isApproved());
+        assertEquals(String.valueOf(REQ_RESPONSE_ERROR), receipt.getErrorCode());
+        assertEquals(1, this.gateway.getRequestCount());
+    }
+}
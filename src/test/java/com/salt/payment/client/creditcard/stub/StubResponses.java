@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Salt Payment Client API
+ * Version 1.0.0
+ * http://salttechnology.github.io/core_api_doc.htm
+ * 
+ * Copyright (c) 2013 Salt Technology
+ * Licensed under the MIT license
+ * https://github.com/SaltTechnology/salt-payment-client-java/blob/master/LICENSE
+ ******************************************************************************/
+package com.salt.payment.client.creditcard.stub;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds the responses of {@link StubGateway} from the parameters of the
+ * requests, in the <code>KEY=VALUE</code> format of the gateway. The
+ * responses carry every field the receipts need to parse: approvals echo the
+ * amount, order id and storage token of the request, with AVS and CVV2
+ * results when they were requested. Only the responses to the latest
+ * requests with an order id are kept, to answer
+ * <code>verifyTransaction</code> by order id: other queries answer with a
+ * made up card and profile.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @since JSE8
+ */
+final class StubResponses {
+    /** The error code of invalid requests, ie. without a requestCode. */
+    static final String INVALID_REQUEST = "3";
+    /** The error code of declined requests. */
+    static final String DECLINED = "51";
+    /** The error code of transactions not found by verifyTransaction. */
+    static final String NOT_FOUND = "25";
+    /** The number of responses kept by order id. */
+    private static final int MAX_ORDERS = 10000;
+    /** The state codes of recurring purchases, see PeriodicPurchaseInfo.State. */
+    private static final String STATE_IN_PROGRESS = "1";
+
+    private final AtomicLong nextTransactionId = new AtomicLong(10000000);
+    private final AtomicLong nextPeriodicTransactionId = new AtomicLong(80000);
+    /** The responses to the latest requests, by order id. Guarded by itself. */
+    private final Map<String, String> orders = new LinkedHashMap<String, String>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return this.size() > MAX_ORDERS;
+        }
+    };
+
+    /**
+     * @param params
+     *            the decoded parameters of the request. Not null.
+     * @param declined
+     *            true to decline the request, if valid
+     * @return the response to the request
+     */
+    String respond(Map<String, String> params, boolean declined) {
+        final String requestCode = params.get("requestCode");
+        if ("verifyTransaction".equals(requestCode) && params.get("transactionOrderId") != null) {
+            return this.verifyOrder(params.get("transactionOrderId"));
+        }
+        final StringBuilder out = new StringBuilder(512);
+        final long transactionId = this.nextTransactionId.getAndIncrement();
+        final String error = validate(params, requestCode);
+        field(out, "APPROVED", Boolean.toString(error == null && !declined));
+        field(out, "TRANSACTION_ID", Long.toString(transactionId));
+        field(out, "ORDER_ID", nullToEmpty(params.get("orderId")));
+        final Date now = new Date();
+        field(out, "PROCESSED_DATE", String.format("%1$ty%1$tm%1$td", now));
+        field(out, "PROCESSED_TIME", String.format("%1$tH%1$tM%1$tS", now));
+        if (error != null) {
+            field(out, "ERROR_CODE", INVALID_REQUEST);
+            field(out, "ERROR_MESSAGE", error);
+        } else if (declined) {
+            field(out, "ERROR_CODE", DECLINED);
+            field(out, "ERROR_MESSAGE", "Declined by the stub gateway");
+        }
+        if ("secureStorage".equals(requestCode)) {
+            this.appendStorage(out, params, error == null && !declined);
+        } else {
+            this.appendCreditCard(out, params, requestCode, transactionId, error == null
+                    && !declined);
+        }
+        final String response = out.toString();
+        final String orderId = params.get("orderId");
+        if (orderId != null && error == null && !"secureStorage".equals(requestCode)) {
+            synchronized (this.orders) {
+                this.orders.put(orderId, response);
+            }
+        }
+        return response;
+    }
+
+    /** Answers the response to the order, as processed, if kept. */
+    private String verifyOrder(String orderId) {
+        final String response;
+        synchronized (this.orders) {
+            response = this.orders.get(orderId);
+        }
+        if (response != null) {
+            return response;
+        }
+        final StringBuilder out = new StringBuilder(256);
+        final Date now = new Date();
+        field(out, "APPROVED", "false");
+        field(out, "ORDER_ID", orderId);
+        field(out, "PROCESSED_DATE", String.format("%1$ty%1$tm%1$td", now));
+        field(out, "PROCESSED_TIME", String.format("%1$tH%1$tM%1$tS", now));
+        field(out, "ERROR_CODE", NOT_FOUND);
+        field(out, "ERROR_MESSAGE", "No transaction with the order id " + orderId);
+        field(out, "STORAGE_TOKEN_EXPIRY", "0");
+        return out.toString();
+    }
+
+    private static String validate(Map<String, String> params, String requestCode) {
+        if (requestCode == null) {
+            return "requestCode is required";
+        }
+        if (params.get("merchantId") == null || params.get("apiToken") == null) {
+            return "merchantId and apiToken are required";
+        }
+        if (("recurringPurchase".equals(requestCode) || "secureStorage".equals(requestCode))
+                && params.get("operationCode") == null) {
+            return "operationCode is required";
+        }
+        return null;
+    }
+
+    private void appendCreditCard(StringBuilder out, Map<String, String> params,
+            String requestCode, long transactionId, boolean approved) {
+        if (approved) {
+            field(out, "AUTHORIZED_AMOUNT", defaultTo(params.get("amount"), "0"));
+            field(out, "APPROVAL_CODE", "S" + Long.toString(transactionId % 100000, 36)
+                    .toUpperCase());
+            field(out, "TRACE_NUMBER", Long.toString(transactionId % 1000));
+            field(out, "REFERENCE_NUMBER", String.format("%012d", transactionId));
+        }
+        final boolean avs = params.get("avsRequestCode") != null;
+        field(out, "AVS_RESPONSE_AVAILABLE", Boolean.toString(avs));
+        if (avs) {
+            field(out, "AVS_RESPONSE_CODE", "Y");
+            field(out, "STREET_MATCHED", "true");
+            field(out, "ZIP_MATCHED", "true");
+            field(out, "ZIP_TYPE", "zip5");
+        }
+        final boolean cvv2 = params.get("cvv2RequestCode") != null;
+        field(out, "CVV2_RESPONSE_AVAILABLE", Boolean.toString(cvv2));
+        if (cvv2) {
+            field(out, "CVV2_RESPONSE_CODE", "M");
+            field(out, "CVV2_RESPONSE_MESSAGE", "Match");
+        }
+        if ("recurringPurchase".equals(requestCode)) {
+            final String operationCode = params.get("operationCode");
+            final String periodicTransactionId =
+                    "create".equals(operationCode) ? Long.toString(this.nextPeriodicTransactionId
+                            .getAndIncrement()) : params.get("transactionId");
+            if (periodicTransactionId != null) {
+                field(out, "PERIODIC_TRANSACTION_ID", periodicTransactionId);
+                field(out, "PERIODIC_TRANSACTION_STATE",
+                        defaultTo(params.get("periodicPurchaseStateCode"), STATE_IN_PROGRESS));
+                field(out, "PERIODIC_NEXT_PAYMENT_DATE", defaultTo(params.get("startDate"),
+                        String.format("%tF", new Date())));
+                if ("execute".equals(operationCode) && approved) {
+                    field(out, "PERIODIC_LAST_PAYMENT_ID", Long.toString(transactionId));
+                }
+            }
+        }
+        final String cardNumber = params.get("creditCardNumber");
+        if (cardNumber != null) {
+            field(out, "CARD_NUMBER", mask(cardNumber));
+            field(out, "CARD_BRAND", cardNumber.startsWith("4") ? "1" : "2");
+        }
+        // always sent: the receipts cannot parse a response without it
+        field(out, "STORAGE_TOKEN_EXPIRY", defaultTo(params.get("expiryDate"), "0"));
+        final String storageTokenId = params.get("storageTokenId");
+        if (storageTokenId != null) {
+            field(out, "STORAGE_TOKEN_ID", storageTokenId);
+        } else if ("true".equals(params.get("addToStorage")) && approved) {
+            field(out, "STORAGE_TOKEN_ID", "stub-" + transactionId);
+        }
+        if (params.get("fraudSessionId") != null) {
+            field(out, "FRAUD_SCORE", "10");
+            field(out, "FRAUD_DECISION", approved ? "accept" : "reject");
+            field(out, "FRAUD_SESSION_ID", params.get("fraudSessionId"));
+        }
+    }
+
+    private void appendStorage(StringBuilder out, Map<String, String> params, boolean approved) {
+        final String storageTokenId = params.get("storageTokenId");
+        if (storageTokenId != null) {
+            field(out, "STORAGE_TOKEN_ID", storageTokenId);
+        }
+        final boolean query = "query".equals(params.get("operationCode"));
+        field(out, "PAYMENT_PROFILE_AVAILABLE", Boolean.toString(approved && query));
+        if (approved && query) {
+            field(out, "CREDIT_CARD_AVAILABLE", "true");
+            field(out, "CREDIT_CARD_NUMBER", "************4242");
+            field(out, "EXPIRY_DATE", "1512");
+            field(out, "CUSTOMER_PROFILE_AVAILABLE", "true");
+            field(out, "CUSTOMER_PROFILE_FIRST_NAME", "Stub");
+            field(out, "CUSTOMER_PROFILE_LAST_NAME", "Customer");
+            field(out, "CUSTOMER_PROFILE_CITY", "Toronto");
+            field(out, "CUSTOMER_PROFILE_PROVINCE", "ON");
+            field(out, "CUSTOMER_PROFILE_COUNTRY", "CA");
+        }
+    }
+
+    private static String mask(String cardNumber) {
+        final int visible = Math.min(4, cardNumber.length());
+        final StringBuilder masked = new StringBuilder(cardNumber.length());
+        for (int i = visible; i < cardNumber.length(); i++) {
+            masked.append('*');
+        }
+        return masked.append(cardNumber, cardNumber.length() - visible, cardNumber.length())
+                .toString();
+    }
+
+    private static void field(StringBuilder out, String key, String value) {
+        // escaped as the receipts parse them, see ResponseFields
+        out.append(key).append('=').append(
+                value.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r"))
+                .append('\n');
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String defaultTo(String value, String defaultValue) {
+        return value == null ? defaultValue : value;
+    }
+}